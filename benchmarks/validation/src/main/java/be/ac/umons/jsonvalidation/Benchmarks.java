@@ -28,6 +28,9 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import org.json.JSONException;
 
@@ -35,8 +38,11 @@ import be.ac.umons.jsonschematools.JSONSchema;
 import be.ac.umons.jsonschematools.JSONSchemaException;
 import be.ac.umons.jsonschematools.JSONSchemaStore;
 import be.ac.umons.jsonschematools.generator.random.GeneratorException;
+import be.ac.umons.jsonvalidation.graph.KeyGraph;
+import be.ac.umons.jsonvalidation.graph.KeyGraphCostAnalysis;
 import de.learnlib.api.logging.LearnLogger;
 import net.automatalib.automata.vpda.DefaultOneSEVPA;
+import net.automatalib.automata.vpda.Location;
 import net.automatalib.serialization.InputModelDeserializer;
 import net.automatalib.serialization.dot.DOTParsers;
 import net.automatalib.serialization.dot.GraphDOT;
@@ -48,7 +54,9 @@ public class Benchmarks {
         GENERATE,
         VALIDATE,
         DEPTH,
-        MEMORY
+        MEMORY,
+        SERVE,
+        ANALYZE
     }
 
     public static void main(String[] args) throws InterruptedException, IOException, JSONSchemaException, JSONException,
@@ -68,6 +76,15 @@ public class Benchmarks {
             case VALIDATE:
                 getValidationBenchmarks(args).runBenchmarks();
                 break;
+            case SERVE:
+                final ValidationServer server = getValidationServer(args);
+                Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+                LOGGER.info("Listening on port " + server.getPort());
+                server.run();
+                break;
+            case ANALYZE:
+                analyzeCost(args);
+                break;
         }
     }
 
@@ -183,6 +200,47 @@ public class Benchmarks {
         return new MemoryForDocuments(pathToDocuments, pathToCSVFile);
     }
 
+    private static ValidationServer getValidationServer(String[] args) throws IOException {
+        final int port = Integer.valueOf(args[1]);
+        final int numberOfWorkers = Integer.valueOf(args[2]);
+        final int batchSize = Integer.valueOf(args[3]);
+        final int queueDepth = Integer.valueOf(args[4]);
+        final int maxPendingPerConnection = Integer.valueOf(args[5]);
+
+        // Each remaining argument is of the form name=path/to/automaton.dot
+        final InputModelDeserializer<JSONSymbol, DefaultOneSEVPA<JSONSymbol>> parser = DOTParsers
+                .oneSEVPA(JSONSymbol::toSymbol);
+        final Map<String, DefaultOneSEVPA<JSONSymbol>> automata = new LinkedHashMap<>();
+        for (int i = 6; i < args.length; i++) {
+            final int separator = args[i].indexOf('=');
+            if (separator == -1) {
+                throw new IllegalArgumentException("Expected name=path/to/automaton.dot, got " + args[i]);
+            }
+            final Path pathToVPA = Paths.get(args[i].substring(separator + 1));
+            LOGGER.info("Loading schema " + args[i].substring(0, separator) + " from " + pathToVPA);
+            automata.put(args[i].substring(0, separator), parser.readModel(pathToVPA.toFile()).model);
+        }
+
+        return new ValidationServer(automata, port, numberOfWorkers, batchSize, queueDepth, maxPendingPerConnection,
+                TimeUnit.SECONDS.toMillis(10));
+    }
+
+    private static void analyzeCost(String[] args) throws IOException {
+        final Path pathToVPA = Paths.get(args[1]);
+        final long automatonThreshold = args.length > 2 ? Long.valueOf(args[2]) : 10_000;
+        final long hybridThreshold = args.length > 3 ? Long.valueOf(args[3]) : 1_000_000;
+
+        final InputModelDeserializer<JSONSymbol, DefaultOneSEVPA<JSONSymbol>> parser = DOTParsers
+                .oneSEVPA(JSONSymbol::toSymbol);
+        final DefaultOneSEVPA<JSONSymbol> vpa = parser.readModel(pathToVPA.toFile()).model;
+        final KeyGraph<Location> keyGraph = KeyGraph.graphFor(vpa, true);
+        // Enumerating past the largest threshold does not change the recommendation
+        final KeyGraphCostAnalysis<Location> analysis = KeyGraphCostAnalysis.analyze(keyGraph, hybridThreshold);
+
+        System.out.print(analysis);
+        System.out.println("Recommended engine: " + analysis.recommend(automatonThreshold, hybridThreshold));
+    }
+
     private static JSONSchema loadSchema(Path pathToSchema, boolean ignoreAdditionalProperties)
             throws MalformedURLException, FileNotFoundException, JSONSchemaException, URISyntaxException {
         final JSONSchemaStore schemaStore = new JSONSchemaStore(ignoreAdditionalProperties);
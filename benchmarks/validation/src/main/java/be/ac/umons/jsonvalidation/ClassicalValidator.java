@@ -80,6 +80,28 @@ public class ClassicalValidator extends Validator {
         return valid;
     }
 
+    /**
+     * Creates a fallback for {@link HybridValidation} that validates the
+     * documents against the given schema.
+     * 
+     * <p>
+     * A document for which the validator throws an exception is considered
+     * invalid.
+     * </p>
+     * 
+     * @param schema The schema
+     * @return The fallback validator
+     */
+    public FallbackValidator asFallback(final JSONSchema schema) {
+        return document -> {
+            try {
+                return validate(schema, document);
+            } catch (JSONSchemaException e) {
+                return false;
+            }
+        };
+    }
+
     /**
      * Gets the maximal memory (in kilobytes) used by the validator during the last
      * run.
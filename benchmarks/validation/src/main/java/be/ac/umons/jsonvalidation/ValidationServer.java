@@ -0,0 +1,624 @@
+/*
+ * ValidatingJSONDocumentsWithLearnedVPA - Learning a visibly pushdown automaton
+ * from a JSON schema, and using it to validate JSON documents.
+ *
+ * Copyright 2022 University of Mons, University of Antwerp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package be.ac.umons.jsonvalidation;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.common.base.Stopwatch;
+
+import be.ac.umons.jsonvalidation.graph.KeyGraph;
+import de.learnlib.api.logging.LearnLogger;
+import net.automatalib.automata.vpda.DefaultOneSEVPA;
+import net.automatalib.automata.vpda.Location;
+
+/**
+ * A long-running validation server listening on the loopback interface.
+ * 
+ * <p>
+ * The automata and their key graphs are loaded and preprocessed once, when the
+ * server is constructed. Clients then send documents over a socket, and
+ * receive one status byte per document. Each request is framed as follows
+ * (integers are big-endian):
+ * <ol>
+ * <li>an {@code int} giving the number of bytes in the rest of the frame,</li>
+ * <li>an unsigned {@code short} giving the number of bytes in the schema
+ * name,</li>
+ * <li>the name of the schema, in UTF-8,</li>
+ * <li>the document, in UTF-8.</li>
+ * </ol>
+ * The answer is one of {@link #REJECTED}, {@link #ACCEPTED},
+ * {@link #UNKNOWN_SCHEMA}, or {@link #OVERLOADED}. Requests can be pipelined:
+ * the answers on one connection are always sent in the order of the requests.
+ * </p>
+ * 
+ * <p>
+ * A single thread handles the sockets with a {@link Selector}. Complete
+ * requests are handed to the worker with the fewest queued requests. Each
+ * worker owns its own {@link ValidationByAutomaton} per schema (the key graphs
+ * are shared), drains up to {@code batchSize} requests at once, and hands the
+ * answers of the whole batch back to the selector thread with a single
+ * wake-up.
+ * </p>
+ * 
+ * <p>
+ * Admission control happens at two levels: a request that does not fit in the
+ * queue of the chosen worker is immediately answered with {@link #OVERLOADED},
+ * and a connection with too many unanswered requests is no longer read until
+ * some answers are sent.
+ * </p>
+ * 
+ * <p>
+ * The latency of each request, from the moment it is fully read to the moment
+ * its verdict is known, is recorded per schema. The statistics are logged
+ * periodically and when the server stops.
+ * </p>
+ * 
+ * @author Gaëtan Staquet
+ */
+public class ValidationServer implements Runnable {
+    private static final LearnLogger LOGGER = LearnLogger.getLogger(ValidationServer.class);
+
+    // @formatter:off
+    public static final byte REJECTED =         0;
+    public static final byte ACCEPTED =         1;
+    public static final byte UNKNOWN_SCHEMA =   2;
+    public static final byte OVERLOADED =       3;
+    // @formatter:on
+
+    private static final int MAX_FRAME_SIZE = 64 * 1024 * 1024;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final Map<String, SchemaMetrics> metrics = new LinkedHashMap<>();
+    private final List<Worker> workers;
+    private final int maxPendingPerConnection;
+    private final long reportIntervalMillis;
+    private final ConcurrentLinkedQueue<Answer> answers = new ConcurrentLinkedQueue<>();
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+    private volatile boolean running = true;
+
+    /**
+     * Creates the server and preprocesses every automaton.
+     * 
+     * <p>
+     * Automata for which the key graph is not valid are skipped (and logged).
+     * </p>
+     * 
+     * @param automata                The automata, by schema name
+     * @param port                    The port on the loopback interface
+     * @param numberOfWorkers         The number of worker threads
+     * @param batchSize               The maximal number of requests a worker
+     *                                handles between two wake-ups of the
+     *                                selector thread
+     * @param queueDepth              The maximal number of requests waiting in
+     *                                the queue of a worker
+     * @param maxPendingPerConnection The maximal number of unanswered requests
+     *                                per connection before it stops being read
+     * @param reportIntervalMillis    The time between two reports of the
+     *                                statistics, in milliseconds
+     * @throws IOException If the socket can not be opened
+     */
+    public ValidationServer(final Map<String, DefaultOneSEVPA<JSONSymbol>> automata, final int port,
+            final int numberOfWorkers, final int batchSize, final int queueDepth, final int maxPendingPerConnection,
+            final long reportIntervalMillis) throws IOException {
+        if (numberOfWorkers <= 0 || batchSize <= 0 || queueDepth <= 0 || maxPendingPerConnection <= 0) {
+            throw new IllegalArgumentException("The number of workers, the batch size, the queue depth, "
+                    + "and the maximal number of pending requests must be positive");
+        }
+        this.maxPendingPerConnection = maxPendingPerConnection;
+        this.reportIntervalMillis = reportIntervalMillis;
+
+        final Map<String, DefaultOneSEVPA<JSONSymbol>> validAutomata = new LinkedHashMap<>();
+        final Map<String, KeyGraph<Location>> graphs = new HashMap<>();
+        for (Map.Entry<String, DefaultOneSEVPA<JSONSymbol>> entry : automata.entrySet()) {
+            final Stopwatch watch = Stopwatch.createStarted();
+            final KeyGraph<Location> graph = KeyGraph.graphFor(entry.getValue(), true);
+            if (graph == null || !graph.isValid()) {
+                LOGGER.error("The automaton for schema " + entry.getKey() + " can not be used for our algorithm");
+                continue;
+            }
+            LOGGER.info("Preprocessed schema " + entry.getKey() + " in " + watch.stop().elapsed().toMillis() + "ms");
+            validAutomata.put(entry.getKey(), entry.getValue());
+            graphs.put(entry.getKey(), graph);
+            metrics.put(entry.getKey(), new SchemaMetrics());
+        }
+
+        final List<Worker> workers = new ArrayList<>(numberOfWorkers);
+        for (int i = 0; i < numberOfWorkers; i++) {
+            final Map<String, ValidationByAutomaton<Location>> validators = new HashMap<>();
+            for (Map.Entry<String, DefaultOneSEVPA<JSONSymbol>> entry : validAutomata.entrySet()) {
+                final String schemaName = entry.getKey();
+                validators.put(schemaName, new ValidationByAutomaton<>(entry.getValue(), graphs.get(schemaName)));
+            }
+            workers.add(new Worker(i, validators, batchSize, queueDepth));
+        }
+        this.workers = Collections.unmodifiableList(workers);
+
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    /**
+     * Gets the port the server is listening on.
+     * 
+     * @return The local port
+     * @throws IOException If the socket is closed
+     */
+    public int getPort() throws IOException {
+        return ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+    }
+
+    /**
+     * Asks the server to stop.
+     * 
+     * <p>
+     * The selector thread closes every connection, the workers are interrupted,
+     * and the statistics are logged one last time.
+     * </p>
+     */
+    public void stop() {
+        running = false;
+        selector.wakeup();
+    }
+
+    /**
+     * Runs the selector loop in the current thread, until {@link #stop()} is
+     * called.
+     */
+    @Override
+    public void run() {
+        for (Worker worker : workers) {
+            worker.start();
+        }
+        long nextReport = System.currentTimeMillis() + reportIntervalMillis;
+        try {
+            while (running) {
+                selector.select(Math.max(1, nextReport - System.currentTimeMillis()));
+
+                final Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                while (iterator.hasNext()) {
+                    final SelectionKey key = iterator.next();
+                    iterator.remove();
+                    try {
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            accept();
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            read(key);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            write(key);
+                        }
+                    } catch (IOException e) {
+                        LOGGER.debug("Closing connection: " + e.getMessage());
+                        close(key);
+                    }
+                }
+
+                dispatchAnswers();
+
+                if (System.currentTimeMillis() >= nextReport) {
+                    report();
+                    nextReport = System.currentTimeMillis() + reportIntervalMillis;
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.error("The selector failed: " + e.getMessage());
+        } finally {
+            shutdown();
+        }
+    }
+
+    private void accept() throws IOException {
+        final SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        final SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+        key.attach(new Connection(key));
+    }
+
+    private void read(final SelectionKey key) throws IOException {
+        final Connection connection = (Connection) key.attachment();
+        final SocketChannel channel = (SocketChannel) key.channel();
+        if (channel.read(connection.readBuffer) < 0) {
+            close(key);
+            return;
+        }
+
+        connection.readBuffer.flip();
+        while (connection.getNumberOfPendingRequests() < maxPendingPerConnection) {
+            final Request request = connection.nextRequest();
+            if (request == null) {
+                break;
+            }
+            submit(request);
+        }
+        connection.readBuffer.compact();
+        connection.updateInterest();
+    }
+
+    private void submit(final Request request) {
+        final SchemaMetrics schemaMetrics = metrics.get(request.schemaName);
+        if (schemaMetrics == null) {
+            request.connection.complete(request.sequenceNumber, UNKNOWN_SCHEMA);
+            return;
+        }
+
+        Worker chosen = workers.get(0);
+        for (Worker worker : workers) {
+            if (worker.queue.size() < chosen.queue.size()) {
+                chosen = worker;
+            }
+        }
+        if (!chosen.queue.offer(request)) {
+            schemaMetrics.overloaded.increment();
+            request.connection.complete(request.sequenceNumber, OVERLOADED);
+        }
+    }
+
+    private void dispatchAnswers() {
+        Answer answer;
+        while ((answer = answers.poll()) != null) {
+            if (answer.connection.key.isValid()) {
+                answer.connection.complete(answer.sequenceNumber, answer.status);
+            }
+        }
+    }
+
+    private void write(final SelectionKey key) throws IOException {
+        final Connection connection = (Connection) key.attachment();
+        final SocketChannel channel = (SocketChannel) key.channel();
+        while (!connection.writeQueue.isEmpty()) {
+            final ByteBuffer buffer = connection.writeQueue.peek();
+            channel.write(buffer);
+            if (buffer.hasRemaining()) {
+                break;
+            }
+            connection.writeQueue.poll();
+        }
+        connection.updateInterest();
+        if (connection.readBuffer.position() > 0 && connection.getNumberOfPendingRequests() < maxPendingPerConnection) {
+            // Requests that were held back by the admission control may now be handled
+            read(key);
+        }
+    }
+
+    private void close(final SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            LOGGER.debug("Could not close a connection: " + e.getMessage());
+        }
+    }
+
+    private void shutdown() {
+        for (Worker worker : workers) {
+            worker.interrupt();
+        }
+        for (SelectionKey key : selector.keys()) {
+            close(key);
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            LOGGER.debug("Could not close the selector: " + e.getMessage());
+        }
+        for (Worker worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        report();
+    }
+
+    private void report() {
+        for (Map.Entry<String, SchemaMetrics> entry : metrics.entrySet()) {
+            if (entry.getValue().requests.sum() != 0 || entry.getValue().overloaded.sum() != 0) {
+                LOGGER.info("Schema " + entry.getKey() + ": " + entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Gets a textual summary of the latency statistics of a schema.
+     * 
+     * @param schemaName The name of the schema
+     * @return The summary, or null if the schema is not served
+     */
+    public String getStatistics(final String schemaName) {
+        final SchemaMetrics schemaMetrics = metrics.get(schemaName);
+        return schemaMetrics == null ? null : schemaMetrics.toString();
+    }
+
+    private static final class Request {
+        private final Connection connection;
+        private final long sequenceNumber;
+        private final String schemaName;
+        private final byte[] document;
+        private final long receivedAt;
+
+        private Request(final Connection connection, final long sequenceNumber, final String schemaName,
+                final byte[] document) {
+            this.connection = connection;
+            this.sequenceNumber = sequenceNumber;
+            this.schemaName = schemaName;
+            this.document = document;
+            this.receivedAt = System.nanoTime();
+        }
+    }
+
+    private static final class Answer {
+        private final Connection connection;
+        private final long sequenceNumber;
+        private final byte status;
+
+        private Answer(final Connection connection, final long sequenceNumber, final byte status) {
+            this.connection = connection;
+            this.sequenceNumber = sequenceNumber;
+            this.status = status;
+        }
+    }
+
+    /**
+     * The state of one connection. Only accessed by the selector thread.
+     */
+    private final class Connection {
+        private final SelectionKey key;
+        private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        private final ArrayDeque<ByteBuffer> writeQueue = new ArrayDeque<>();
+        private final TreeMap<Long, Byte> outOfOrderAnswers = new TreeMap<>();
+        private long nextSequenceNumber = 0;
+        private long nextSequenceNumberToAnswer = 0;
+        private ByteBuffer currentFrame = null;
+        private int currentFrameSize = 0;
+
+        private Connection(final SelectionKey key) {
+            this.key = key;
+        }
+
+        private long getNumberOfPendingRequests() {
+            return nextSequenceNumber - nextSequenceNumberToAnswer;
+        }
+
+        /**
+         * Extracts the next complete request from the read buffer, which must be
+         * in read mode.
+         * 
+         * @return The request, or null if no complete request is available
+         * @throws IOException If the frame is malformed
+         */
+        private Request nextRequest() throws IOException {
+            if (currentFrame == null) {
+                if (readBuffer.remaining() < Integer.BYTES) {
+                    return null;
+                }
+                final int frameSize = readBuffer.getInt();
+                if (frameSize < Short.BYTES || frameSize > MAX_FRAME_SIZE) {
+                    throw new IOException("Invalid frame size: " + frameSize);
+                }
+                // The frame grows as its bytes arrive, such that a length prefix alone
+                // does not reserve the memory of a whole frame
+                currentFrameSize = frameSize;
+                currentFrame = ByteBuffer.allocate(Math.min(frameSize, READ_BUFFER_SIZE));
+            }
+
+            while (readBuffer.hasRemaining() && currentFrame.position() < currentFrameSize) {
+                if (!currentFrame.hasRemaining()) {
+                    growCurrentFrame();
+                }
+                final int toCopy = Math.min(readBuffer.remaining(), currentFrame.remaining());
+                final ByteBuffer slice = readBuffer.duplicate();
+                slice.limit(slice.position() + toCopy);
+                currentFrame.put(slice);
+                readBuffer.position(readBuffer.position() + toCopy);
+            }
+            if (currentFrame.position() < currentFrameSize) {
+                return null;
+            }
+
+            currentFrame.flip();
+            final int nameLength = Short.toUnsignedInt(currentFrame.getShort());
+            if (nameLength > currentFrame.remaining()) {
+                throw new IOException("Invalid schema name length: " + nameLength);
+            }
+            final String schemaName = new String(currentFrame.array(), currentFrame.position(), nameLength,
+                    StandardCharsets.UTF_8);
+            currentFrame.position(currentFrame.position() + nameLength);
+            final byte[] document = new byte[currentFrame.remaining()];
+            currentFrame.get(document);
+            currentFrame = null;
+            return new Request(this, nextSequenceNumber++, schemaName, document);
+        }
+
+        private void growCurrentFrame() {
+            final int capacity = (int) Math.min(currentFrameSize, 2L * currentFrame.capacity());
+            final ByteBuffer larger = ByteBuffer.allocate(capacity);
+            currentFrame.flip();
+            larger.put(currentFrame);
+            currentFrame = larger;
+        }
+
+        private void complete(final long sequenceNumber, final byte status) {
+            outOfOrderAnswers.put(sequenceNumber, status);
+            Byte answer;
+            while ((answer = outOfOrderAnswers.remove(nextSequenceNumberToAnswer)) != null) {
+                final ByteBuffer buffer = ByteBuffer.allocate(1);
+                buffer.put(answer).flip();
+                writeQueue.add(buffer);
+                nextSequenceNumberToAnswer++;
+            }
+            updateInterest();
+        }
+
+        private void updateInterest() {
+            if (!key.isValid()) {
+                return;
+            }
+            int interest = 0;
+            if (getNumberOfPendingRequests() < maxPendingPerConnection) {
+                interest |= SelectionKey.OP_READ;
+            }
+            if (!writeQueue.isEmpty()) {
+                interest |= SelectionKey.OP_WRITE;
+            }
+            key.interestOps(interest);
+        }
+    }
+
+    private final class Worker extends Thread {
+        private final Map<String, ValidationByAutomaton<Location>> validators;
+        private final BlockingQueue<Request> queue;
+        private final int batchSize;
+
+        private Worker(final int id, final Map<String, ValidationByAutomaton<Location>> validators,
+                final int batchSize, final int queueDepth) {
+            super("validation-worker-" + id);
+            setDaemon(true);
+            this.validators = validators;
+            this.queue = new ArrayBlockingQueue<>(queueDepth);
+            this.batchSize = batchSize;
+        }
+
+        @Override
+        public void run() {
+            final List<Request> batch = new ArrayList<>(batchSize);
+            try {
+                while (!isInterrupted()) {
+                    batch.add(queue.take());
+                    queue.drainTo(batch, batchSize - 1);
+                    for (Request request : batch) {
+                        boolean accepted;
+                        try {
+                            accepted = validators.get(request.schemaName).accepts(request.document);
+                        } catch (RuntimeException e) {
+                            // For instance, a symbol that is not in the alphabet of the automaton
+                            LOGGER.debug("Rejecting a document: " + e.getMessage());
+                            accepted = false;
+                        }
+                        metrics.get(request.schemaName).record(System.nanoTime() - request.receivedAt, accepted);
+                        answers.add(new Answer(request.connection, request.sequenceNumber,
+                                accepted ? ACCEPTED : REJECTED));
+                    }
+                    batch.clear();
+                    selector.wakeup();
+                }
+            } catch (InterruptedException e) {
+                // The server is stopping
+            }
+        }
+    }
+
+    /**
+     * Latency statistics of a schema, shared between the workers.
+     * 
+     * <p>
+     * Latencies are stored in a histogram whose buckets are powers of two of
+     * microseconds, which is enough to give the order of magnitude of the
+     * percentiles.
+     * </p>
+     */
+    private static final class SchemaMetrics {
+        private static final int NUMBER_OF_BUCKETS = 40;
+
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder accepted = new LongAdder();
+        private final LongAdder overloaded = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final AtomicLongArray histogram = new AtomicLongArray(NUMBER_OF_BUCKETS);
+
+        private void record(final long nanos, final boolean isAccepted) {
+            requests.increment();
+            if (isAccepted) {
+                accepted.increment();
+            }
+            totalNanos.add(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+            final long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+            final int bucket = Math.min(NUMBER_OF_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+            histogram.incrementAndGet(bucket);
+        }
+
+        /**
+         * Gives an upper bound on the percentile, in microseconds.
+         */
+        private long percentile(final double fraction) {
+            long total = 0;
+            for (int i = 0; i < NUMBER_OF_BUCKETS; i++) {
+                total += histogram.get(i);
+            }
+            final long target = (long) Math.ceil(total * fraction);
+            long seen = 0;
+            for (int i = 0; i < NUMBER_OF_BUCKETS; i++) {
+                seen += histogram.get(i);
+                if (seen >= target && seen != 0) {
+                    return 1L << i;
+                }
+            }
+            return 0;
+        }
+
+        @Override
+        public String toString() {
+            final long n = requests.sum();
+            final long mean = n == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalNanos.sum() / n);
+            return n + " requests (" + accepted.sum() + " accepted, " + overloaded.sum() + " overloaded); latency: "
+                    + "mean " + mean + "us, p50 <= " + percentile(0.5) + "us, p99 <= " + percentile(0.99)
+                    + "us, max " + TimeUnit.NANOSECONDS.toMicros(maxNanos.get()) + "us";
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * ValidatingJSONDocumentsWithLearnedVPA - Learning a visibly pushdown automaton
+ * from a JSON schema, and using it to validate JSON documents.
+ *
+ * Copyright 2022 University of Mons, University of Antwerp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package be.ac.umons.jsonvalidation;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import net.automatalib.automata.vpda.DefaultOneSEVPA;
+import net.automatalib.automata.vpda.Location;
+import net.automatalib.words.Alphabet;
+import net.automatalib.words.VPDAlphabet;
+import net.automatalib.words.impl.Alphabets;
+import net.automatalib.words.impl.DefaultVPDAlphabet;
+
+/**
+ * @author Gaëtan Staquet
+ */
+public class TestValidationServer {
+
+    private static final String VALID_DOCUMENT = "{\"k1\": \"\\\\I\", \"k2\": true}";
+    private static final String INVALID_DOCUMENT = "{\"k1\": \"\\\\I\"}";
+
+    /**
+     * Constructs an automaton accepting the document
+     * <code>{"k1": "\\I", "k2": true}</code>.
+     */
+    private static DefaultOneSEVPA<JSONSymbol> constructAutomaton() {
+        JSONSymbol k1Symbol = JSONSymbol.toSymbol("\"k1\":"), k2Symbol = JSONSymbol.toSymbol("\"k2\":");
+        List<JSONSymbol> internalSymbols = new ArrayList<>(Arrays.asList(k1Symbol, k2Symbol));
+        internalSymbols.addAll(JSONSymbol.primitiveValuesAlphabet);
+        internalSymbols.add(JSONSymbol.commaSymbol);
+        Alphabet<JSONSymbol> internalAlphabet = Alphabets.fromList(internalSymbols);
+        Alphabet<JSONSymbol> callAlphabet = Alphabets.fromArray(JSONSymbol.openingCurlyBraceSymbol,
+                JSONSymbol.openingBracketSymbol);
+        Alphabet<JSONSymbol> returnAlphabet = Alphabets.fromArray(JSONSymbol.closingCurlyBraceSymbol,
+                JSONSymbol.closingBracketSymbol);
+        VPDAlphabet<JSONSymbol> alphabet = new DefaultVPDAlphabet<>(internalAlphabet, callAlphabet, returnAlphabet);
+        DefaultOneSEVPA<JSONSymbol> automaton = new DefaultOneSEVPA<>(alphabet);
+
+        Location q0 = automaton.addInitialLocation(false);
+        Location q1 = automaton.addLocation(false);
+        Location q2 = automaton.addLocation(false);
+        Location q3 = automaton.addLocation(false);
+        Location q4 = automaton.addLocation(false);
+        Location q5 = automaton.addLocation(false);
+        Location q6 = automaton.addLocation(true);
+
+        automaton.setInternalSuccessor(q0, k1Symbol, q1);
+        automaton.setInternalSuccessor(q1, JSONSymbol.integerSymbol, q2);
+        automaton.setInternalSuccessor(q2, JSONSymbol.commaSymbol, q3);
+        automaton.setInternalSuccessor(q3, k2Symbol, q4);
+        automaton.setInternalSuccessor(q4, JSONSymbol.trueSymbol, q5);
+        automaton.setReturnSuccessor(q5, JSONSymbol.closingCurlyBraceSymbol,
+                automaton.encodeStackSym(q0, JSONSymbol.openingCurlyBraceSymbol), q6);
+
+        return automaton;
+    }
+
+    private static ValidationServer startServer() throws IOException {
+        ValidationServer server = new ValidationServer(Collections.singletonMap("schema", constructAutomaton()), 0,
+                2, 4, 16, 8, 60_000);
+        Thread thread = new Thread(server, "validation-server");
+        thread.setDaemon(true);
+        thread.start();
+        return server;
+    }
+
+    private static byte[] frame(String schemaName, String document) throws IOException {
+        byte[] name = schemaName.getBytes(StandardCharsets.UTF_8);
+        byte[] bytes = document.getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(frame);
+        out.writeInt(Short.BYTES + name.length + bytes.length);
+        out.writeShort(name.length);
+        out.write(name);
+        out.write(bytes);
+        return frame.toByteArray();
+    }
+
+    @Test
+    public void testVerdicts() throws IOException {
+        ValidationServer server = startServer();
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+
+            out.write(frame("schema", VALID_DOCUMENT));
+            out.flush();
+            Assert.assertEquals(in.readByte(), ValidationServer.ACCEPTED);
+
+            out.write(frame("schema", INVALID_DOCUMENT));
+            out.flush();
+            Assert.assertEquals(in.readByte(), ValidationServer.REJECTED);
+
+            out.write(frame("other", VALID_DOCUMENT));
+            out.flush();
+            Assert.assertEquals(in.readByte(), ValidationServer.UNKNOWN_SCHEMA);
+
+            // Pipelined requests are answered in order
+            ByteArrayOutputStream pipeline = new ByteArrayOutputStream();
+            pipeline.write(frame("schema", INVALID_DOCUMENT));
+            pipeline.write(frame("schema", VALID_DOCUMENT));
+            pipeline.write(frame("other", VALID_DOCUMENT));
+            pipeline.write(frame("schema", "not JSON"));
+            out.write(pipeline.toByteArray());
+            out.flush();
+            Assert.assertEquals(in.readByte(), ValidationServer.REJECTED);
+            Assert.assertEquals(in.readByte(), ValidationServer.ACCEPTED);
+            Assert.assertEquals(in.readByte(), ValidationServer.UNKNOWN_SCHEMA);
+            Assert.assertEquals(in.readByte(), ValidationServer.REJECTED);
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testSplitFrame() throws IOException, InterruptedException {
+        // The frame is larger than the read buffer of a connection
+        char[] padding = new char[200_000];
+        Arrays.fill(padding, ' ');
+        byte[] frame = frame("schema", "{\"k1\": \"\\\\I\"," + new String(padding) + "\"k2\": true}");
+
+        ValidationServer server = startServer();
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+
+            // The length prefix itself is split
+            int[] splits = { 2, 5, 1000, 70_000, frame.length };
+            int start = 0;
+            for (int end : splits) {
+                out.write(frame, start, end - start);
+                out.flush();
+                Thread.sleep(20);
+                start = end;
+            }
+            Assert.assertEquals(in.readByte(), ValidationServer.ACCEPTED);
+
+            out.write(frame("schema", VALID_DOCUMENT));
+            out.flush();
+            Assert.assertEquals(in.readByte(), ValidationServer.ACCEPTED);
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testOversizedFrame() throws IOException {
+        ValidationServer server = startServer();
+        try {
+            for (int frameSize : new int[] { Integer.MAX_VALUE, -1, 1 }) {
+                try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+                    DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                    out.writeInt(frameSize);
+                    out.flush();
+                    // The server closes the connection without answering
+                    Assert.assertEquals(socket.getInputStream().read(), -1);
+                }
+            }
+
+            // The server still answers on other connections
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+                socket.getOutputStream().write(frame("schema", VALID_DOCUMENT));
+                Assert.assertEquals(socket.getInputStream().read(), ValidationServer.ACCEPTED);
+            }
+        } finally {
+            server.stop();
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * ValidatingJSONDocumentsWithLearnedVPA - Learning a visibly pushdown automaton
+ * from a JSON schema, and using it to validate JSON documents.
+ *
+ * Copyright 2022 University of Mons, University of Antwerp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package be.ac.umons.jsonvalidation;
+
+/**
+ * Thrown when the validation of a document exceeds its
+ * {@link ValidationBudget}.
+ * 
+ * <p>
+ * The exception is caught by the validator, which then gives
+ * {@link ValidationVerdict#BUDGET_EXCEEDED}. It only escapes when a
+ * {@link ValidationBudget.Tracker} is used directly.
+ * </p>
+ * 
+ * @author Gaëtan Staquet
+ */
+public class BudgetExceededException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final ValidationBudget.Resource resource;
+
+    public BudgetExceededException(final ValidationBudget.Resource resource) {
+        super("The budget for " + resource + " is exceeded");
+        this.resource = resource;
+    }
+
+    /**
+     * Gets the resource whose limit was exceeded.
+     * 
+     * @return The resource
+     */
+    public ValidationBudget.Resource getResource() {
+        return resource;
+    }
+}
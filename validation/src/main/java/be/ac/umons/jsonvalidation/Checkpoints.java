@@ -0,0 +1,385 @@
+/*
+ * ValidatingJSONDocumentsWithLearnedVPA - Learning a visibly pushdown automaton
+ * from a JSON schema, and using it to validate JSON documents.
+ *
+ * Copyright 2022 University of Mons, University of Antwerp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package be.ac.umons.jsonvalidation;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import be.ac.umons.jsonvalidation.graph.KeyGraph;
+import be.ac.umons.jsonvalidation.graph.KeyGraphFrontier;
+import be.ac.umons.jsonvalidation.graph.NodeInGraph;
+import net.automatalib.automata.vpda.OneSEVPA;
+import net.automatalib.words.Alphabet;
+import net.automatalib.words.VPDAlphabet;
+
+/**
+ * The binary format of the checkpoints of {@link ValidationSession} and
+ * {@link ValidationStream}.
+ * 
+ * <p>
+ * A checkpoint starts with a header identifying the format and the automaton
+ * (its number of locations and symbols, and a hash of its alphabet and of its
+ * transitions), so that a checkpoint can not be resumed with another automaton
+ * by mistake. Then, the {@link ValidationState}
+ * is written from the bottom of the stack to the top: for each stack contents,
+ * the locations reached before the call symbol, the call symbol, the seen keys,
+ * the current key, the rejected nodes, the frontier and the fingerprint; and
+ * finally the locations reached in the state itself. Locations are written by
+ * their identifiers, symbols by their indices in the alphabet of the automaton
+ * (or by their strings, if they do not belong to the alphabet), and nodes of
+ * the key graph by their locations and keys (see
+ * {@link KeyGraph#writeNode(NodeInGraph, DataOutput)}).
+ * </p>
+ * 
+ * <p>
+ * The statistics of the validator and the caches are never written: they are
+ * local to a process.
+ * </p>
+ * 
+ * <p>
+ * When a checkpoint is read, every size is checked against the automaton (for
+ * instance, a set of locations can not contain more locations than the
+ * automaton), and the bytes of a symbol are read by bounded blocks. Hence, a
+ * corrupted checkpoint leads to an {@link IOException} instead of a huge
+ * allocation.
+ * </p>
+ * 
+ * @author Gaëtan Staquet
+ */
+public final class Checkpoints {
+
+    private static final int MAGIC = 0x4A565041; // JVPA
+    private static final int VERSION = 3;
+    private static final int BLOCK_SIZE = 8192;
+
+    private static final int NULL_SYMBOL = -1;
+    private static final int SYMBOL_NOT_IN_ALPHABET = -2;
+
+    private Checkpoints() {
+    }
+
+    static void writeHeader(final ValidationByAutomaton<?> validator, final DataOutput out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(validator.getAutomaton().size());
+        out.writeInt(validator.getAlphabet().size());
+        out.writeLong(validator.getStructuralHash());
+    }
+
+    static void readHeader(final ValidationByAutomaton<?> validator, final DataInput in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a checkpoint of a validation");
+        }
+        final int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported checkpoint version " + version);
+        }
+        if (in.readInt() != validator.getAutomaton().size() || in.readInt() != validator.getAlphabet().size()
+                || in.readLong() != validator.getStructuralHash()) {
+            throw new IOException("The checkpoint was created with another automaton");
+        }
+    }
+
+    /**
+     * Computes a hash of the alphabet, the initial and accepting locations, and
+     * the transitions of the automaton.
+     * 
+     * <p>
+     * Every return transition is enumerated, which takes a time quadratic in the
+     * number of locations. The hash should thus be computed once per automaton
+     * (see {@link ValidationByAutomaton#getStructuralHash()}).
+     * </p>
+     * 
+     * @param <L>       Location type
+     * @param automaton The automaton
+     * @return The hash
+     */
+    static <L> long structuralHash(final OneSEVPA<L, JSONSymbol> automaton) {
+        final VPDAlphabet<JSONSymbol> alphabet = automaton.getInputAlphabet();
+        final Hasher hasher = Hashing.murmur3_128().newHasher();
+        for (final JSONSymbol symbol : alphabet) {
+            hasher.putInt(alphabet.getSymbolType(symbol).ordinal());
+            hasher.putString(symbol.toString(), StandardCharsets.UTF_8);
+        }
+        hasher.putInt(automaton.getLocationId(automaton.getInitialLocation()));
+        for (final L location : automaton.getLocations()) {
+            hasher.putBoolean(automaton.isAcceptingLocation(location));
+            for (final JSONSymbol symbol : alphabet.getInternalAlphabet()) {
+                putLocation(automaton, automaton.getInternalSuccessor(location, symbol), hasher);
+            }
+            for (final JSONSymbol symbol : alphabet.getReturnAlphabet()) {
+                for (final L locationBeforeCall : automaton.getLocations()) {
+                    for (final JSONSymbol callSymbol : alphabet.getCallAlphabet()) {
+                        final int stackSymbol = automaton.encodeStackSym(locationBeforeCall, callSymbol);
+                        putLocation(automaton, automaton.getReturnSuccessor(location, symbol, stackSymbol), hasher);
+                    }
+                }
+            }
+        }
+        return hasher.hash().asLong();
+    }
+
+    private static <L> void putLocation(final OneSEVPA<L, JSONSymbol> automaton, final @Nullable L location,
+            final Hasher hasher) {
+        hasher.putInt(location == null ? -1 : automaton.getLocationId(location));
+    }
+
+    public static void writeBitSet(final BitSet bitSet, final DataOutput out) throws IOException {
+        final long[] words = bitSet.toLongArray();
+        out.writeInt(words.length);
+        for (final long word : words) {
+            out.writeLong(word);
+        }
+    }
+
+    /**
+     * Reads a bit set written by {@link #writeBitSet(BitSet, DataOutput)}.
+     * 
+     * @param in          The input
+     * @param maximumSize The number of bits that can be set (for instance, the
+     *                    number of locations of the automaton)
+     * @return The bit set
+     * @throws IOException If the bit set can not be read, or if a bit at an
+     *                     index greater than or equal to {@code maximumSize} is
+     *                     set
+     */
+    public static BitSet readBitSet(final DataInput in, final int maximumSize) throws IOException {
+        final int length = readLength(in, (maximumSize + Long.SIZE - 1) / Long.SIZE);
+        final long[] words = new long[length];
+        for (int i = 0; i < length; i++) {
+            words[i] = in.readLong();
+        }
+        final BitSet bitSet = BitSet.valueOf(words);
+        if (bitSet.length() > maximumSize) {
+            throw new IOException("Bit " + (bitSet.length() - 1) + " is out of bounds");
+        }
+        return bitSet;
+    }
+
+    /**
+     * Writes a symbol, by its index in the alphabet if possible.
+     * 
+     * @param symbol   The symbol, or null
+     * @param alphabet The alphabet
+     * @param out      The output
+     * @throws IOException If the symbol can not be written
+     */
+    public static void writeSymbol(final @Nullable JSONSymbol symbol, final Alphabet<JSONSymbol> alphabet,
+            final DataOutput out) throws IOException {
+        if (symbol == null) {
+            out.writeInt(NULL_SYMBOL);
+        } else if (alphabet.containsSymbol(symbol)) {
+            out.writeInt(alphabet.getSymbolIndex(symbol));
+        } else {
+            // Concrete values produced by the tokenizer may be outside of the alphabet
+            final byte[] bytes = symbol.toString().getBytes(StandardCharsets.UTF_8);
+            out.writeInt(SYMBOL_NOT_IN_ALPHABET);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    public static @Nullable JSONSymbol readSymbol(final Alphabet<JSONSymbol> alphabet, final DataInput in)
+            throws IOException {
+        final int index = in.readInt();
+        if (index == NULL_SYMBOL) {
+            return null;
+        } else if (index == SYMBOL_NOT_IN_ALPHABET) {
+            return JSONSymbol.toSymbol(new String(readBytes(in, readLength(in)), StandardCharsets.UTF_8));
+        } else if (index < 0 || index >= alphabet.size()) {
+            throw new IOException("Unknown symbol index " + index);
+        }
+        return alphabet.getSymbol(index);
+    }
+
+    /**
+     * Reads the given number of bytes. The array grows while the bytes are read,
+     * so that a corrupted length fails at the end of the input instead of
+     * allocating the whole array.
+     */
+    private static byte[] readBytes(final DataInput in, final int length) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(Math.min(length, BLOCK_SIZE));
+        final byte[] block = new byte[Math.min(length, BLOCK_SIZE)];
+        for (int remaining = length; remaining > 0; remaining -= block.length) {
+            final int blockLength = Math.min(remaining, block.length);
+            in.readFully(block, 0, blockLength);
+            bytes.write(block, 0, blockLength);
+        }
+        return bytes.toByteArray();
+    }
+
+    static int readLength(final DataInput in) throws IOException {
+        return readLength(in, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Reads a length, and checks that it is between 0 and the given maximum.
+     * 
+     * @param in      The input
+     * @param maximum The maximal length
+     * @return The length
+     * @throws IOException If the length can not be read, or is out of bounds
+     */
+    public static int readLength(final DataInput in, final int maximum) throws IOException {
+        final int length = in.readInt();
+        if (length < 0 || length > maximum) {
+            throw new IOException("Invalid length " + length);
+        }
+        return length;
+    }
+
+    static <L> void writeState(final ValidationByAutomaton<L> validator, final ValidationState<L> state,
+            final DataOutput out) throws IOException {
+        final List<ValidationStackContents<L>> stackContents = new ArrayList<>();
+        for (ValidationStackContents<L> current = state.getStack(); current != null; current = current.pop()) {
+            stackContents.add(current);
+        }
+
+        out.writeInt(stackContents.size());
+        for (int i = stackContents.size() - 1; i >= 0; i--) {
+            final ValidationStackContents<L> contents = stackContents.get(i);
+            writeLocations(validator.getAutomaton(), contents.peekStateBeforeCall(), out);
+            writeStackContents(validator, contents, out);
+        }
+        writeLocations(validator.getAutomaton(), state, out);
+    }
+
+    static <L> ValidationState<L> readState(final ValidationByAutomaton<L> validator, final DataInput in)
+            throws IOException {
+        final int depth = readLength(in);
+        ValidationStackContents<L> stack = null;
+        for (int i = 0; i < depth; i++) {
+            final ValidationState<L> stateBeforeCall = readLocations(validator.getAutomaton(), stack, in);
+            stack = readStackContents(validator, stateBeforeCall, in);
+        }
+        return readLocations(validator.getAutomaton(), stack, in);
+    }
+
+    private static <L> void writeLocations(final OneSEVPA<L, JSONSymbol> automaton, final ValidationState<L> state,
+            final DataOutput out) throws IOException {
+        out.writeBoolean(state.isTrackingSources());
+        if (state.isTrackingSources()) {
+            out.writeInt(state.getSourceToReachedLocations().size());
+            for (final PairSourceToReached<L> pair : state.getSourceToReachedLocations()) {
+                out.writeInt(automaton.getLocationId(pair.getSourceLocation()));
+                out.writeInt(automaton.getLocationId(pair.getReachedLocation()));
+            }
+        } else {
+            writeBitSet(state.getReachedLocationIds(), out);
+        }
+    }
+
+    private static <L> ValidationState<L> readLocations(final OneSEVPA<L, JSONSymbol> automaton,
+            final @Nullable ValidationStackContents<L> stack, final DataInput in) throws IOException {
+        if (in.readBoolean()) {
+            final int size = readLength(in, (int) Math.min((long) automaton.size() * automaton.size(),
+                    Integer.MAX_VALUE));
+            final Set<PairSourceToReached<L>> pairs = new LinkedHashSet<>();
+            for (int i = 0; i < size; i++) {
+                final L source = readLocation(automaton, in);
+                final L reached = readLocation(automaton, in);
+                pairs.add(PairSourceToReached.of(source, reached));
+            }
+            return new ValidationState<>(pairs, stack);
+        } else {
+            final BitSet reachedLocations = readBitSet(in, automaton.size());
+            return new ValidationState<>(reachedLocations, stack);
+        }
+    }
+
+    private static <L> L readLocation(final OneSEVPA<L, JSONSymbol> automaton, final DataInput in)
+            throws IOException {
+        final int id = in.readInt();
+        if (id < 0 || id >= automaton.size()) {
+            throw new IOException("Unknown location identifier " + id);
+        }
+        return automaton.getLocation(id);
+    }
+
+    private static <L> void writeStackContents(final ValidationByAutomaton<L> validator,
+            final ValidationStackContents<L> contents, final DataOutput out) throws IOException {
+        if (contents.isRecording()) {
+            throw new IllegalStateException("An object read by the in-order fast path can not be checkpointed");
+        }
+        final Alphabet<JSONSymbol> alphabet = validator.getAlphabet();
+        final KeyGraph<L> graph = validator.getKeyGraph();
+
+        writeSymbol(contents.peekCallSymbol(), alphabet, out);
+        out.writeInt(contents.peekSeenKeys().size());
+        for (final JSONSymbol key : contents.peekSeenKeys()) {
+            writeSymbol(key, alphabet, out);
+        }
+        writeSymbol(contents.peekCurrentKey(), alphabet, out);
+        out.writeInt(contents.peekRejectedNodes().size());
+        for (final NodeInGraph<L> node : contents.peekRejectedNodes()) {
+            graph.writeNode(node, out);
+        }
+        final KeyGraphFrontier<L> frontier = contents.peekFrontier();
+        out.writeBoolean(frontier != null);
+        if (frontier != null) {
+            frontier.write(out);
+        }
+        out.writeLong(contents.peekFingerprintFirstLane());
+        out.writeLong(contents.peekFingerprintSecondLane());
+        out.writeBoolean(contents.isFingerprintComplete());
+    }
+
+    private static <L> ValidationStackContents<L> readStackContents(final ValidationByAutomaton<L> validator,
+            final ValidationState<L> stateBeforeCall, final DataInput in) throws IOException {
+        final Alphabet<JSONSymbol> alphabet = validator.getAlphabet();
+        final KeyGraph<L> graph = validator.getKeyGraph();
+
+        final JSONSymbol callSymbol = readSymbol(alphabet, in);
+        if (callSymbol == null) {
+            throw new IOException("Missing call symbol");
+        }
+        final ValidationStackContents<L> contents = ValidationStackContents.push(stateBeforeCall, callSymbol);
+        final int numberOfSeenKeys = readLength(in, alphabet.size());
+        for (int i = 0; i < numberOfSeenKeys; i++) {
+            contents.addKey(readSymbol(alphabet, in));
+        }
+        // Adding the keys changed the current key
+        contents.setCurrentKey(readSymbol(alphabet, in));
+        final int numberOfRejectedNodes = readLength(in);
+        for (int i = 0; i < numberOfRejectedNodes; i++) {
+            contents.markRejected(graph.readNode(in));
+        }
+        if (in.readBoolean()) {
+            contents.setFrontier(KeyGraphFrontier.read(graph, in));
+        }
+        final long firstLane = in.readLong();
+        final long secondLane = in.readLong();
+        contents.restoreFingerprint(firstLane, secondLane, in.readBoolean());
+        return contents;
+    }
+}
@@ -0,0 +1,328 @@
+/*
+ * ValidatingJSONDocumentsWithLearnedVPA - Learning a visibly pushdown automaton
+ * from a JSON schema, and using it to validate JSON documents.
+ *
+ * Copyright 2022 University of Mons, University of Antwerp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package be.ac.umons.jsonvalidation;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import org.json.JSONException;
+
+import be.ac.umons.jsonvalidation.tokenizer.StreamingTokenizer;
+
+/**
+ * Chooses the schema of a streamed document from the value of a discriminator
+ * key (for instance, {@code "type"}) in the root object.
+ * 
+ * <p>
+ * The schemas are the ones of a {@link MultiSchemaValidation}. A
+ * {@link RoutedStream} first buffers the symbols of the document until the
+ * discriminator key of the root object and its value are read. The value
+ * selects the schema, the buffered symbols are replayed into a
+ * {@link ValidationSession} for that schema, and the remaining bytes are
+ * directly given to that session. The document is thus read once, whatever
+ * the number of schemas.
+ * </p>
+ * 
+ * <p>
+ * The route is chosen from the concrete value of the discriminator (for
+ * instance, {@code "Order"}), while the schemas read abstracted values. Hence,
+ * a concrete discriminator value is replaced by an abstracted symbol (by
+ * default, {@link JSONSymbol#enumSymbol}) before it is given to the session. A
+ * value that is already abstracted (for instance, {@code "\E"}) is given
+ * unchanged.
+ * </p>
+ * 
+ * <p>
+ * The default schema is used when the root is not an object, when the root
+ * object has no discriminator key, when the discriminator value is an object,
+ * an array, or a value without a route, or when more than
+ * {@code maxBufferedSymbols} symbols are read before the discriminator value.
+ * A default schema of -1 rejects these documents.
+ * </p>
+ * 
+ * @param <L> Location type
+ * @author Gaëtan Staquet
+ */
+public class DiscriminatorRouter<L> {
+
+    private final MultiSchemaValidation<L> registry;
+    private final JSONSymbol discriminatorKey;
+    private final Map<JSONSymbol, Integer> routes = new HashMap<>();
+    private final int defaultSchema;
+    private final int maxBufferedSymbols;
+    private final JSONSymbol discriminatorValueSymbol;
+
+    /**
+     * Creates the router, in which a concrete discriminator value is read as
+     * {@link JSONSymbol#enumSymbol} by the schemas.
+     * 
+     * @param registry           The schemas
+     * @param discriminatorKey   The discriminator key
+     * @param routes             For each value of the discriminator key (as given
+     *                           by {@link org.json.JSONObject#get(String)}), the
+     *                           index of the schema in the registry
+     * @param defaultSchema      The index of the schema to use when no route
+     *                           applies, or -1 to reject the document
+     * @param maxBufferedSymbols The maximal number of symbols read before giving
+     *                           up on the discriminator
+     */
+    public DiscriminatorRouter(final MultiSchemaValidation<L> registry, final String discriminatorKey,
+            final Map<?, Integer> routes, final int defaultSchema, final int maxBufferedSymbols) {
+        this(registry, discriminatorKey, routes, defaultSchema, maxBufferedSymbols, JSONSymbol.enumSymbol);
+    }
+
+    /**
+     * Creates the router.
+     * 
+     * @param registry                 The schemas
+     * @param discriminatorKey         The discriminator key
+     * @param routes                   For each value of the discriminator key (as
+     *                                 given by
+     *                                 {@link org.json.JSONObject#get(String)}),
+     *                                 the index of the schema in the registry
+     * @param defaultSchema            The index of the schema to use when no
+     *                                 route applies, or -1 to reject the document
+     * @param maxBufferedSymbols       The maximal number of symbols read before
+     *                                 giving up on the discriminator
+     * @param discriminatorValueSymbol The abstracted symbol given to the schema
+     *                                 instead of a concrete discriminator value
+     */
+    public DiscriminatorRouter(final MultiSchemaValidation<L> registry, final String discriminatorKey,
+            final Map<?, Integer> routes, final int defaultSchema, final int maxBufferedSymbols,
+            final JSONSymbol discriminatorValueSymbol) {
+        if (!JSONSymbol.primitiveValuesAlphabet.containsSymbol(discriminatorValueSymbol)) {
+            throw new IllegalArgumentException(discriminatorValueSymbol + " is not an abstracted value");
+        }
+        this.registry = registry;
+        this.discriminatorKey = WordConversion.keyToSymbol(discriminatorKey);
+        if (registry.getKeyDictionary().getId(discriminatorKey) == -1) {
+            throw new IllegalArgumentException("No schema reads the discriminator key " + discriminatorKey);
+        }
+        for (Map.Entry<?, Integer> route : routes.entrySet()) {
+            checkSchema(route.getValue());
+            this.routes.put(WordConversion.primitiveValueToSymbol(route.getKey()), route.getValue());
+        }
+        if (defaultSchema != -1) {
+            checkSchema(defaultSchema);
+        }
+        this.defaultSchema = defaultSchema;
+        this.maxBufferedSymbols = maxBufferedSymbols;
+        this.discriminatorValueSymbol = discriminatorValueSymbol;
+    }
+
+    private void checkSchema(final int schema) {
+        if (schema < 0 || schema >= registry.getNumberOfSchemas()) {
+            throw new IllegalArgumentException("There is no schema " + schema);
+        }
+    }
+
+    public MultiSchemaValidation<L> getRegistry() {
+        return registry;
+    }
+
+    /**
+     * Creates a stream to validate a document whose bytes are given chunk by
+     * chunk.
+     * 
+     * @return The stream
+     */
+    public RoutedStream<L> newStream() {
+        return new RoutedStream<>(this);
+    }
+
+    /**
+     * The validation of a single document against the schema selected by the
+     * discriminator.
+     * 
+     * @param <L> Location type
+     * @see ValidationStream
+     */
+    public static final class RoutedStream<L> {
+        private final DiscriminatorRouter<L> router;
+        private final StreamingTokenizer tokenizer;
+        private @Nullable List<JSONSymbol> buffer = new ArrayList<>();
+        private @Nullable ValidationSession<L> session = null;
+        private int schema = -1;
+        private int depth = 0;
+        private boolean expectingDiscriminatorValue = false;
+        private boolean malformed = false;
+        private boolean rejected = false;
+
+        private RoutedStream(final DiscriminatorRouter<L> router) {
+            this.router = router;
+            this.tokenizer = new StreamingTokenizer(router.registry.getKeyDictionary());
+        }
+
+        /**
+         * Gets the index of the selected schema.
+         * 
+         * @return The schema, or -1 if it is not yet known or if no schema applies
+         */
+        public int getSchema() {
+            return schema;
+        }
+
+        /**
+         * Whether the schema was selected, i.e., the symbols are no longer
+         * buffered.
+         * 
+         * @return True if and only if the schema was selected
+         */
+        public boolean isRouted() {
+            return buffer == null;
+        }
+
+        /**
+         * Consumes every remaining byte of the chunk, unless the document is
+         * rejected.
+         * 
+         * @param chunk The chunk
+         * @return The number of consumed bytes
+         * @see ValidationStream#feed(ByteBuffer)
+         */
+        public int feed(final ByteBuffer chunk) {
+            return feed(chunk, Integer.MAX_VALUE);
+        }
+
+        /**
+         * Consumes bytes from the chunk, starting from its current position.
+         * 
+         * @param chunk      The chunk
+         * @param maxSymbols The maximal number of symbols to read in this call
+         * @return The number of consumed bytes
+         * @see ValidationStream#feed(ByteBuffer, int)
+         */
+        public int feed(final ByteBuffer chunk, final int maxSymbols) {
+            if (isRejected()) {
+                return 0;
+            }
+            try {
+                return tokenizer.feed(chunk, maxSymbols, this::accept);
+            } catch (JSONException e) {
+                malformed = true;
+                return 0;
+            }
+        }
+
+        public boolean isRejected() {
+            return malformed || rejected || (session != null && session.isRejected());
+        }
+
+        public boolean isMalformed() {
+            return malformed;
+        }
+
+        public long getNumberOfConsumedBytes() {
+            return tokenizer.getPosition();
+        }
+
+        /**
+         * Signals that every byte was given, and returns the verdict.
+         * 
+         * @return True if and only if the document is accepted
+         */
+        public boolean end() {
+            if (!malformed && !rejected && (session == null || !session.hasEnded())) {
+                try {
+                    tokenizer.end(this::accept);
+                } catch (JSONException e) {
+                    malformed = true;
+                }
+            }
+            if (!malformed && !rejected && buffer != null) {
+                route(router.defaultSchema);
+            }
+            return !malformed && !rejected && session != null && session.end();
+        }
+
+        private boolean accept(final JSONSymbol symbol) {
+            if (buffer == null) {
+                return feedSession(symbol);
+            }
+
+            buffer.add(symbol);
+            if (expectingDiscriminatorValue) {
+                // The route is chosen by the concrete value, while the schemas read its abstraction
+                final Integer route = router.routes.get(symbol);
+                if (isConcreteValue(symbol)) {
+                    buffer.set(buffer.size() - 1, router.discriminatorValueSymbol);
+                }
+                return route(route == null ? router.defaultSchema : route);
+            }
+
+            if (symbol.equals(JSONSymbol.openingCurlyBraceSymbol) || symbol.equals(JSONSymbol.openingBracketSymbol)) {
+                depth++;
+                if (depth == 1 && symbol.equals(JSONSymbol.openingBracketSymbol)) {
+                    return route(router.defaultSchema);
+                }
+            } else if (symbol.equals(JSONSymbol.closingCurlyBraceSymbol)
+                    || symbol.equals(JSONSymbol.closingBracketSymbol)) {
+                depth--;
+                if (depth == 0) {
+                    return route(router.defaultSchema);
+                }
+            } else if (depth == 1 && symbol.equals(router.discriminatorKey)) {
+                expectingDiscriminatorValue = true;
+            }
+
+            if (buffer.size() >= router.maxBufferedSymbols) {
+                return route(router.defaultSchema);
+            }
+            return true;
+        }
+
+        private static boolean isConcreteValue(final JSONSymbol symbol) {
+            return !JSONSymbol.primitiveValuesAlphabet.containsSymbol(symbol)
+                    && !symbol.equals(JSONSymbol.openingCurlyBraceSymbol)
+                    && !symbol.equals(JSONSymbol.openingBracketSymbol);
+        }
+
+        private boolean route(final int selected) {
+            final List<JSONSymbol> buffered = buffer;
+            buffer = null;
+            if (selected == -1) {
+                rejected = true;
+                return false;
+            }
+            schema = selected;
+            session = router.registry.getValidator(selected).newSession();
+            for (JSONSymbol symbol : buffered) {
+                if (!feedSession(symbol)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean feedSession(final JSONSymbol symbol) {
+            final JSONSymbol translated = router.registry.translate(symbol, schema);
+            if (translated == null) {
+                rejected = true;
+                return false;
+            }
+            return session.feed(translated);
+        }
+    }
+}
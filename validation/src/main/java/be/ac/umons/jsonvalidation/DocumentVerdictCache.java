@@ -0,0 +1,123 @@
+/*
+ * ValidatingJSONDocumentsWithLearnedVPA - Learning a visibly pushdown automaton
+ * from a JSON schema, and using it to validate JSON documents.
+ *
+ * Copyright 2022 University of Mons, University of Antwerp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package be.ac.umons.jsonvalidation;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * A bounded cache storing the verdicts of documents that were already
+ * validated, identified by the SHA-256 digest of their raw bytes.
+ * 
+ * <p>
+ * When a document is sent multiple times, the verdict is returned after hashing
+ * the bytes, without reading the document in the automaton. As the digest is
+ * cryptographic, a document can not be crafted to get the verdict of another
+ * document, and the cache can be used with untrusted input. The entries are
+ * evicted once the maximal size is reached, or after a fixed time. The cache is
+ * thread-safe.
+ * </p>
+ * 
+ * <p>
+ * The verdicts depend on the configuration of the validators using the cache.
+ * A validator invalidates the cache when its verdicts change (see
+ * {@link ValidationByAutomaton#setUnknownKeyPolicy(UnknownKeyPolicy)}).
+ * </p>
+ * 
+ * @author Gaëtan Staquet
+ */
+public class DocumentVerdictCache {
+    private static final HashFunction HASH_FUNCTION = Hashing.sha256();
+
+    private final Cache<HashCode, Boolean> verdicts;
+
+    /**
+     * Creates a new cache.
+     * 
+     * @param maximumSize      The maximal number of verdicts in the cache
+     * @param expireAfterWrite The duration after which a verdict is removed
+     * @param unit             The unit of the duration
+     */
+    public DocumentVerdictCache(final long maximumSize, final long expireAfterWrite, final TimeUnit unit) {
+        // @formatter:off
+        this.verdicts = CacheBuilder.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfterWrite(expireAfterWrite, unit)
+            .recordStats()
+            .build();
+        // @formatter:on
+    }
+
+    /**
+     * The hash function used to identify the documents.
+     * 
+     * @return The hash function
+     */
+    public static HashFunction hashFunction() {
+        return HASH_FUNCTION;
+    }
+
+    public static HashCode hash(final byte[] document) {
+        return HASH_FUNCTION.hashBytes(document);
+    }
+
+    /**
+     * Gets the verdict of the document with the given hash.
+     * 
+     * @param hash The hash of the document
+     * @return The verdict, or null if the document is not in the cache
+     */
+    public @Nullable Boolean getVerdict(final HashCode hash) {
+        return verdicts.getIfPresent(hash);
+    }
+
+    public void putVerdict(final HashCode hash, final boolean verdict) {
+        verdicts.put(hash, verdict);
+    }
+
+    public CacheStats stats() {
+        return verdicts.stats();
+    }
+
+    /**
+     * The ratio of requests that found a verdict in the cache.
+     * 
+     * @return The hit rate, or 1 if there was no request
+     */
+    public double hitRate() {
+        return verdicts.stats().hitRate();
+    }
+
+    public long size() {
+        return verdicts.size();
+    }
+
+    public void invalidateAll() {
+        verdicts.invalidateAll();
+    }
+}
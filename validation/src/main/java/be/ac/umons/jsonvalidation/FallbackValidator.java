@@ -0,0 +1,44 @@
+/*
+ * ValidatingJSONDocumentsWithLearnedVPA - Learning a visibly pushdown automaton
+ * from a JSON schema, and using it to validate JSON documents.
+ *
+ * Copyright 2022 University of Mons, University of Antwerp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package be.ac.umons.jsonvalidation;
+
+import org.json.JSONObject;
+
+/**
+ * A validator used by {@link HybridValidation} for the documents that are too
+ * expensive to validate with the automaton.
+ * 
+ * <p>
+ * Typically, this is the classical validator of the JSON schema tools,
+ * applied on the schema from which the automaton was learned.
+ * </p>
+ * 
+ * @author Gaëtan Staquet
+ */
+@FunctionalInterface
+public interface FallbackValidator {
+    /**
+     * Decides whether the document is valid.
+     * 
+     * @param document The document
+     * @return True if and only if the document is valid
+     */
+    boolean validate(JSONObject document);
+}
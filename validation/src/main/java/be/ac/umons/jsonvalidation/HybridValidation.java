@@ -0,0 +1,146 @@
+/*
+ * ValidatingJSONDocumentsWithLearnedVPA - Learning a visibly pushdown automaton
+ * from a JSON schema, and using it to validate JSON documents.
+ *
+ * Copyright 2022 University of Mons, University of Antwerp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package be.ac.umons.jsonvalidation;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import net.automatalib.words.Word;
+
+/**
+ * Validates documents with a {@link ValidationByAutomaton}, and falls back to
+ * another validator (typically, the classical one) when the key graph search
+ * for a document becomes too expensive.
+ * 
+ * <p>
+ * Most documents are cheap for the automaton, but the number of paths to
+ * explore in the key graph can grow exponentially with the number of keys of
+ * an object. Each document is therefore validated with a
+ * {@link ValidationBudget} limiting the number of expanded paths. If the
+ * budget is exceeded, the automaton stops and the document is given to the
+ * {@link FallbackValidator}. A document rejected by the automaton before the
+ * threshold is reached is never given to the fallback.
+ * </p>
+ * 
+ * <p>
+ * The fallback receives the whole document, not only the expensive object.
+ * Indeed, the automaton can not resume after an object it did not read: the
+ * locations reached after the object depend on its contents, and the fallback
+ * only gives a verdict for the object, not the locations.
+ * </p>
+ * 
+ * @param <L> Location type
+ * @author Gaëtan Staquet
+ */
+public class HybridValidation<L> {
+
+    private final ValidationByAutomaton<L> validator;
+    private final FallbackValidator fallback;
+    private final ValidationBudget budget;
+    // The validator may be shared by multiple sessions
+    private final LongAdder numberOfDocuments = new LongAdder();
+    private final LongAdder numberOfFallbacks = new LongAdder();
+
+    /**
+     * Creates the hybrid validation.
+     * 
+     * @param validator          The validator using the automaton
+     * @param fallback           The validator to use when the automaton is too
+     *                           expensive
+     * @param expansionThreshold The number of paths expanded in the key graph
+     *                           for a document after which the fallback is used
+     */
+    public HybridValidation(final ValidationByAutomaton<L> validator, final FallbackValidator fallback,
+            final long expansionThreshold) {
+        this.validator = validator;
+        this.fallback = fallback;
+        this.budget = ValidationBudget.UNLIMITED.withMaxExpandedNodes(expansionThreshold);
+    }
+
+    public ValidationByAutomaton<L> getValidator() {
+        return validator;
+    }
+
+    public long getNumberOfDocuments() {
+        return numberOfDocuments.sum();
+    }
+
+    /**
+     * Gets the number of documents that were given to the fallback validator.
+     * 
+     * @return The number of documents
+     */
+    public long getNumberOfFallbacks() {
+        return numberOfFallbacks.sum();
+    }
+
+    /**
+     * Decides whether the document is valid.
+     * 
+     * <p>
+     * The automaton reads the word of the document, as given by
+     * {@link WordConversion#fromJSONDocumentToJSONSymbolWord(JSONObject)}.
+     * </p>
+     * 
+     * @param document The document
+     * @return True if and only if the document is valid
+     */
+    public boolean accepts(final JSONObject document) {
+        numberOfDocuments.increment();
+        final Word<JSONSymbol> word = WordConversion.fromJSONDocumentToJSONSymbolWord(document);
+        final ValidationVerdict verdict = validator.validate(word, budget);
+        if (verdict == ValidationVerdict.BUDGET_EXCEEDED) {
+            numberOfFallbacks.increment();
+            return fallback.validate(document);
+        }
+        return verdict == ValidationVerdict.ACCEPTED;
+    }
+
+    /**
+     * Decides whether the document, encoded in UTF-8, is valid.
+     * 
+     * <p>
+     * The automaton reads the bytes as in
+     * {@link ValidationByAutomaton#accepts(byte[])}. The document is only parsed
+     * into a {@link JSONObject} if the fallback is needed.
+     * </p>
+     * 
+     * @param document The bytes of the document
+     * @return True if and only if the document is valid
+     */
+    public boolean accepts(final byte[] document) {
+        numberOfDocuments.increment();
+        final ValidationVerdict verdict = validator.validate(document, budget);
+        if (verdict == ValidationVerdict.BUDGET_EXCEEDED) {
+            numberOfFallbacks.increment();
+            final JSONObject object;
+            try {
+                object = new JSONObject(new String(document, StandardCharsets.UTF_8));
+            } catch (JSONException e) {
+                return false;
+            }
+            return fallback.validate(object);
+        }
+        return verdict == ValidationVerdict.ACCEPTED;
+    }
+}
@@ -73,9 +73,33 @@ public class JSONSymbol extends AbstractSymbol<JSONSymbol> {
     }
 
     private final String actualSymbol;
+    private final long fingerprint;
 
     private JSONSymbol(String actualSymbol) {
         this.actualSymbol = actualSymbol;
+        // Computed once, as the symbols are shared between threads
+        long fingerprint = 0xcbf29ce484222325L;
+        for (int i = 0; i < actualSymbol.length(); i++) {
+            fingerprint ^= actualSymbol.charAt(i);
+            fingerprint *= 0x100000001b3L;
+        }
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * Gets a 64-bit fingerprint of the symbol.
+     * 
+     * <p>
+     * Unlike {@link #hashCode()}, the fingerprint is wide enough to be used to
+     * identify a sequence of symbols (see {@link SubtreeSummaryCache}). It is
+     * computed with FNV-1a over the characters of the symbol, when the symbol is
+     * created.
+     * </p>
+     * 
+     * @return The fingerprint
+     */
+    public long fingerprint() {
+        return fingerprint;
     }
 
     @Override
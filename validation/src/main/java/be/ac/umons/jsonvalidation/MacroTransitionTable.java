@@ -0,0 +1,102 @@
+/*
+ * ValidatingJSONDocumentsWithLearnedVPA - Learning a visibly pushdown automaton
+ * from a JSON schema, and using it to validate JSON documents.
+ *
+ * Copyright 2022 University of Mons, University of Antwerp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package be.ac.umons.jsonvalidation;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import net.automatalib.automata.vpda.OneSEVPA;
+
+/**
+ * Precomputed transitions reading a key followed by a primitive value, i.e., a
+ * whole key-value pair of a flat object.
+ * 
+ * <p>
+ * For each key, each primitive value, and each location, the table stores the
+ * identifier of the location reached after reading the key and then the value
+ * (or -1 if one of the transitions is missing). The validator can then read
+ * such a pair in one step instead of two (see
+ * {@link ValidationByAutomaton#setMacroTransitions(boolean)}). The table is
+ * immutable and can be shared between threads.
+ * </p>
+ * 
+ * @param <L> Location type
+ * @author Gaëtan Staquet
+ */
+final class MacroTransitionTable<L> {
+
+    private final Map<JSONSymbol, Integer> valueIndices = new HashMap<>();
+    // Key -> value index -> location identifier -> target identifier
+    private final Map<JSONSymbol, int[][]> transitions = new HashMap<>();
+
+    MacroTransitionTable(final OneSEVPA<L, JSONSymbol> automaton, final Iterable<JSONSymbol> keys) {
+        for (final JSONSymbol value : JSONSymbol.primitiveValuesAlphabet) {
+            if (automaton.getInputAlphabet().containsSymbol(value)) {
+                valueIndices.put(value, valueIndices.size());
+            }
+        }
+
+        for (final JSONSymbol key : keys) {
+            final int[][] forKey = new int[valueIndices.size()][automaton.size()];
+            for (final int[] forValue : forKey) {
+                Arrays.fill(forValue, -1);
+            }
+            for (final L location : automaton.getLocations()) {
+                final L afterKey = automaton.getInternalSuccessor(location, key);
+                if (afterKey == null) {
+                    continue;
+                }
+                final int locationId = automaton.getLocationId(location);
+                for (final Map.Entry<JSONSymbol, Integer> value : valueIndices.entrySet()) {
+                    final L afterValue = automaton.getInternalSuccessor(afterKey, value.getKey());
+                    if (afterValue != null) {
+                        forKey[value.getValue()][locationId] = automaton.getLocationId(afterValue);
+                    }
+                }
+            }
+            transitions.put(key, forKey);
+        }
+    }
+
+    /**
+     * Gets the targets of the transitions reading the key and then the value.
+     * 
+     * @param key   The key
+     * @param value The value
+     * @return An array giving, for each location identifier, the identifier of the
+     *         location reached after the pair (or -1), or null if the two symbols
+     *         do not form a key-value pair of the table
+     */
+    @Nullable
+    int[] getTargets(final JSONSymbol key, final @Nullable JSONSymbol value) {
+        if (value == null) {
+            return null;
+        }
+        final int[][] forKey = transitions.get(key);
+        if (forKey == null) {
+            return null;
+        }
+        final Integer valueIndex = valueIndices.get(value);
+        return valueIndex == null ? null : forKey[valueIndex];
+    }
+}
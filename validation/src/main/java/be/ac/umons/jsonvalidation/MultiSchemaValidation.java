@@ -0,0 +1,233 @@
+/*
+ * ValidatingJSONDocumentsWithLearnedVPA - Learning a visibly pushdown automaton
+ * from a JSON schema, and using it to validate JSON documents.
+ *
+ * Copyright 2022 University of Mons, University of Antwerp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package be.ac.umons.jsonvalidation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import org.json.JSONException;
+
+import be.ac.umons.jsonvalidation.tokenizer.JSONTokenizer;
+import be.ac.umons.jsonvalidation.tokenizer.KeyDictionary;
+import be.ac.umons.jsonvalidation.tokenizer.KeyDictionary.UnknownKeyPolicy;
+import net.automatalib.words.Word;
+
+/**
+ * Validates a document against multiple schemas in a single pass.
+ * 
+ * <p>
+ * The document is tokenized once, with a {@link KeyDictionary} containing the
+ * keys of every schema, and the symbols are given in lock-step to one
+ * {@link ValidationSession} per schema. Since the schemas do not read the same
+ * keys and primitive values, each symbol is translated once into the symbols
+ * each schema must read (a single hash lookup per symbol, whatever the number
+ * of schemas):
+ * <ul>
+ * <li>a key read by the schema is kept as is,</li>
+ * <li>an unknown key is replaced by the symbol for additional properties if the
+ * validator of the schema uses {@link UnknownKeyPolicy#ADDITIONAL_PROPERTY}
+ * (and the automaton reads that symbol), and rejects the document if the
+ * validator uses {@link UnknownKeyPolicy#REJECT} (even if the automaton reads
+ * that symbol),</li>
+ * <li>any other symbol that is not in the alphabet of the automaton rejects the
+ * document.</li>
+ * </ul>
+ * The session of a schema is dropped as soon as the schema rejects the
+ * document, and the document is no longer read once every schema rejected it.
+ * </p>
+ * 
+ * <p>
+ * The verdicts are the same as with {@link ValidationByAutomaton#accepts(byte[])}
+ * for each validator (without the caches), except for a document containing
+ * the key {@code \S} itself, which is read as an unknown key. The validators
+ * must not be modified once given to this class, and the class is not
+ * thread-safe.
+ * </p>
+ * 
+ * @param <L> Location type
+ * @author Gaëtan Staquet
+ */
+public class MultiSchemaValidation<L> {
+
+    private final List<ValidationByAutomaton<L>> validators;
+    private final KeyDictionary keyDictionary;
+    private final JSONTokenizer tokenizer;
+    /**
+     * For each symbol read by at least one schema, the symbol each schema reads
+     * instead (null if the schema rejects the symbol).
+     */
+    private final Map<JSONSymbol, JSONSymbol[]> translations = new HashMap<>();
+    private long numberOfDroppedSessions = 0;
+
+    public MultiSchemaValidation(final List<ValidationByAutomaton<L>> validators) {
+        this.validators = Collections.unmodifiableList(new ArrayList<>(validators));
+
+        final Set<JSONSymbol> keys = new LinkedHashSet<>();
+        for (ValidationByAutomaton<L> validator : validators) {
+            keys.addAll(validator.getKeyGraph().getKeyAlphabet());
+        }
+        // A key that is unknown to every schema is still tokenized, in case a schema
+        // reads it as an additional property
+        keys.add(KeyDictionary.ADDITIONAL_PROPERTY_SYMBOL);
+        this.keyDictionary = new KeyDictionary(keys, UnknownKeyPolicy.ADDITIONAL_PROPERTY);
+        this.tokenizer = new JSONTokenizer(keyDictionary);
+
+        final Set<JSONSymbol> symbols = new LinkedHashSet<>(keys);
+        symbols.addAll(JSONSymbol.primitiveValuesAlphabet);
+        for (ValidationByAutomaton<L> validator : validators) {
+            symbols.addAll(validator.getAlphabet());
+        }
+        for (JSONSymbol symbol : symbols) {
+            final JSONSymbol[] translation = new JSONSymbol[validators.size()];
+            for (int i = 0; i < validators.size(); i++) {
+                translation[i] = translate(validators.get(i), symbol);
+            }
+            translations.put(symbol, translation);
+        }
+    }
+
+    private static <L> JSONSymbol translate(final ValidationByAutomaton<L> validator, final JSONSymbol symbol) {
+        if (symbol.equals(KeyDictionary.ADDITIONAL_PROPERTY_SYMBOL)
+                && validator.getUnknownKeyPolicy() == UnknownKeyPolicy.REJECT) {
+            // The symbol is produced for the keys that are unknown to every schema
+            return null;
+        }
+        if (validator.getAlphabet().containsSymbol(symbol)) {
+            return symbol;
+        }
+        final boolean isKey = !JSONSymbol.primitiveValuesAlphabet.containsSymbol(symbol);
+        if (isKey && validator.getUnknownKeyPolicy() == UnknownKeyPolicy.ADDITIONAL_PROPERTY
+                && validator.getAlphabet().containsSymbol(KeyDictionary.ADDITIONAL_PROPERTY_SYMBOL)) {
+            return KeyDictionary.ADDITIONAL_PROPERTY_SYMBOL;
+        }
+        return null;
+    }
+
+    /**
+     * Gets the dictionary containing the keys of every schema. A key that is
+     * unknown to every schema is converted to
+     * {@link KeyDictionary#ADDITIONAL_PROPERTY_SYMBOL}.
+     * 
+     * @return The dictionary
+     */
+    KeyDictionary getKeyDictionary() {
+        return keyDictionary;
+    }
+
+    /**
+     * Gets the symbol a schema reads instead of the given symbol, as produced by
+     * a tokenizer using {@link #getKeyDictionary()}.
+     * 
+     * @param symbol The symbol
+     * @param schema The index of the schema
+     * @return The symbol to read, or null if the schema rejects the symbol
+     */
+    @Nullable
+    JSONSymbol translate(final JSONSymbol symbol, final int schema) {
+        final JSONSymbol[] translation = translations.get(symbol);
+        return translation == null ? null : translation[schema];
+    }
+
+    public int getNumberOfSchemas() {
+        return validators.size();
+    }
+
+    public ValidationByAutomaton<L> getValidator(final int schema) {
+        return validators.get(schema);
+    }
+
+    /**
+     * Gets the number of sessions that were dropped before the end of their
+     * document, because their schema rejected the document.
+     * 
+     * @return The number of dropped sessions
+     */
+    public long getNumberOfDroppedSessions() {
+        return numberOfDroppedSessions;
+    }
+
+    /**
+     * Validates the document against every schema.
+     * 
+     * @param document The bytes of the document
+     * @return The verdicts, in the order of the validators
+     */
+    public boolean[] accepts(final byte[] document) {
+        final Word<JSONSymbol> word;
+        try {
+            word = tokenizer.tokenize(document);
+        } catch (JSONException e) {
+            return new boolean[validators.size()];
+        }
+        return accepts(word);
+    }
+
+    /**
+     * Validates the word against every schema.
+     * 
+     * @param input The word
+     * @return The verdicts, in the order of the validators
+     */
+    public boolean[] accepts(final Word<JSONSymbol> input) {
+        final int numberOfSchemas = validators.size();
+        final List<ValidationSession<L>> sessions = new ArrayList<>(numberOfSchemas);
+        for (ValidationByAutomaton<L> validator : validators) {
+            sessions.add(validator.newSession());
+        }
+        int alive = numberOfSchemas;
+
+        for (final JSONSymbol symbol : input) {
+            if (alive == 0) {
+                break;
+            }
+            // A symbol that is not in the map is not read by any schema
+            final JSONSymbol[] translation = translations.get(symbol);
+            for (int i = 0; i < numberOfSchemas; i++) {
+                final ValidationSession<L> session = sessions.get(i);
+                if (session == null) {
+                    continue;
+                }
+                final JSONSymbol translated = translation == null ? null : translation[i];
+                if (translated == null || !session.feed(translated)) {
+                    sessions.set(i, null);
+                    alive--;
+                }
+            }
+        }
+
+        final boolean[] verdicts = new boolean[numberOfSchemas];
+        for (int i = 0; i < numberOfSchemas; i++) {
+            final ValidationSession<L> session = sessions.get(i);
+            if (session == null) {
+                numberOfDroppedSessions++;
+            } else {
+                verdicts[i] = session.end();
+            }
+        }
+        return verdicts;
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * ValidatingJSONDocumentsWithLearnedVPA - Learning a visibly pushdown automaton
+ * from a JSON schema, and using it to validate JSON documents.
+ *
+ * Copyright 2022 University of Mons, University of Antwerp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package be.ac.umons.jsonvalidation;
+
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import be.ac.umons.jsonvalidation.graph.KeyGraphFrontier;
+
+/**
+ * A bounded cache for the key graph computations of objects with the same
+ * structure.
+ * 
+ * <p>
+ * While reading an object, {@link ValidationByAutomaton} maintains a 128-bit
+ * rolling fingerprint of the symbols read since the opening curly brace. The
+ * fingerprint of a nested object or array is folded into the fingerprint of
+ * the enclosing object (or array) when it is closed. Two objects with the same
+ * keys in the same order, and values with the same types, thus have the same
+ * fingerprint.
+ * </p>
+ * 
+ * <p>
+ * The result of the key graph computations only depends on the locations
+ * before the object and on the symbols read in the object. The cache therefore
+ * stores, for a pair (locations before the object, fingerprint):
+ * <ul>
+ * <li>the {@link KeyGraphFrontier} obtained after reading the value of a key,
+ * and</li>
+ * <li>the locations from which the closing curly brace can be read, once the
+ * object is closed.</li>
+ * </ul>
+ * On a hit, the validator reuses the stored value instead of updating the
+ * frontier.
+ * </p>
+ * 
+ * <p>
+ * Both maps are bounded and evict the least recently used entry. The cache is
+ * bound to the automaton of the validator. It is thread-safe, as the sessions
+ * of a validator may be used by different threads: every access to the maps is
+ * synchronized on the cache. The stored frontiers are immutable and can thus
+ * be shared.
+ * </p>
+ * 
+ * @param <L> Location type
+ * @author Gaëtan Staquet
+ */
+public class SubtreeSummaryCache<L> {
+    private static final long FIRST_LANE_SEED = 0x9e3779b97f4a7c15L;
+    private static final long SECOND_LANE_SEED = 0xc2b2ae3d27d4eb4fL;
+
+    private static final class Key {
+        private final BitSet locationsBeforeCall;
+        private final long firstLane;
+        private final long secondLane;
+
+        private Key(final BitSet locationsBeforeCall, final long firstLane, final long secondLane) {
+            this.locationsBeforeCall = locationsBeforeCall;
+            this.firstLane = firstLane;
+            this.secondLane = secondLane;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return this.firstLane == other.firstLane && this.secondLane == other.secondLane
+                    && Objects.equals(this.locationsBeforeCall, other.locationsBeforeCall);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(locationsBeforeCall, firstLane, secondLane);
+        }
+    }
+
+    private static final class BoundedMap<V> extends LinkedHashMap<Key, V> {
+        private static final long serialVersionUID = 1L;
+        private final int maximumSize;
+
+        private BoundedMap(final int maximumSize) {
+            super(16, 0.75f, true);
+            this.maximumSize = maximumSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<Key, V> eldest) {
+            return size() > maximumSize;
+        }
+    }
+
+    private final Map<Key, KeyGraphFrontier<L>> frontiers;
+    private final Map<Key, Set<L>> locationsReadingClosing;
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * Creates a new cache.
+     * 
+     * @param maximumSize The maximal number of entries in each of the two maps
+     */
+    public SubtreeSummaryCache(final int maximumSize) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("The maximal size of the cache must be positive");
+        }
+        this.frontiers = new BoundedMap<>(maximumSize);
+        this.locationsReadingClosing = new BoundedMap<>(maximumSize);
+    }
+
+    static long initialFirstLane(final JSONSymbol callSymbol) {
+        return mixFirstLane(FIRST_LANE_SEED, callSymbol.fingerprint());
+    }
+
+    static long initialSecondLane(final JSONSymbol callSymbol) {
+        return mixSecondLane(SECOND_LANE_SEED, callSymbol.fingerprint());
+    }
+
+    static long mixFirstLane(final long lane, final long value) {
+        return Long.rotateLeft((lane ^ value) * 0x9e3779b97f4a7c15L, 31);
+    }
+
+    static long mixSecondLane(final long lane, final long value) {
+        final long mixed = (lane + value) * 0xbf58476d1ce4e5b9L;
+        return mixed ^ (mixed >>> 29);
+    }
+
+    @Nullable
+    synchronized KeyGraphFrontier<L> getFrontier(final BitSet locationsBeforeCall, final long firstLane,
+            final long secondLane) {
+        return count(frontiers.get(new Key(locationsBeforeCall, firstLane, secondLane)));
+    }
+
+    synchronized void putFrontier(final BitSet locationsBeforeCall, final long firstLane, final long secondLane,
+            final KeyGraphFrontier<L> frontier) {
+        frontiers.put(new Key((BitSet) locationsBeforeCall.clone(), firstLane, secondLane), frontier);
+    }
+
+    @Nullable
+    synchronized Set<L> getLocationsReadingClosing(final BitSet locationsBeforeCall, final long firstLane,
+            final long secondLane) {
+        return count(locationsReadingClosing.get(new Key(locationsBeforeCall, firstLane, secondLane)));
+    }
+
+    synchronized void putLocationsReadingClosing(final BitSet locationsBeforeCall, final long firstLane,
+            final long secondLane, final Set<L> locations) {
+        locationsReadingClosing.put(new Key((BitSet) locationsBeforeCall.clone(), firstLane, secondLane),
+                locations);
+    }
+
+    private <V> V count(final V value) {
+        if (value == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return value;
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * The number of entries currently stored in the cache.
+     * 
+     * @return The number of entries
+     */
+    public synchronized int size() {
+        return frontiers.size() + locationsReadingClosing.size();
+    }
+
+    public synchronized void clear() {
+        frontiers.clear();
+        locationsReadingClosing.clear();
+        hits = misses = 0;
+    }
+}
@@ -0,0 +1,322 @@
+/*
+ * ValidatingJSONDocumentsWithLearnedVPA - Learning a visibly pushdown automaton
+ * from a JSON schema, and using it to validate JSON documents.
+ *
+ * Copyright 2022 University of Mons, University of Antwerp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package be.ac.umons.jsonvalidation;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Objects;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import be.ac.umons.jsonvalidation.ValidatedNode.ArrayNode;
+import be.ac.umons.jsonvalidation.ValidatedNode.CompositeNode;
+import be.ac.umons.jsonvalidation.ValidatedNode.ObjectNode;
+
+/**
+ * A JSON document that can be modified by JSON Patch operations (RFC 6902) and
+ * validated again without reading the whole document.
+ * 
+ * <p>
+ * Each object and array of the document stores a summary of the locations
+ * reached by reading it (see {@link ValidationByAutomaton}). When the document
+ * is patched, only the summaries of the values on the paths from the root to
+ * the modified values are forgotten. Validating the document again then only
+ * reads these values, using the summaries of their other children. Moved values
+ * keep their summaries, and copied values share the summaries of the original
+ * values.
+ * </p>
+ * 
+ * <p>
+ * The in-order fast path of the validator is not used. Its subtree summary
+ * cache, if any, is used for the objects that are read symbol by symbol. An
+ * object containing a value that is read using its summary is neither looked
+ * up nor stored in the cache, as its symbols are not all read.
+ * </p>
+ * 
+ * @param <L> Location type
+ * @author Gaëtan Staquet
+ */
+public class ValidatedDocument<L> {
+    private final ValidationByAutomaton<L> validator;
+    private ValidatedNode<L> root;
+    private long numberOfComputedSummaries = 0;
+
+    public ValidatedDocument(final ValidationByAutomaton<L> validator, final JSONObject document) {
+        this.validator = validator;
+        this.root = ValidatedNode.of(document);
+    }
+
+    ValidationByAutomaton<L> getValidator() {
+        return validator;
+    }
+
+    void summaryComputed() {
+        numberOfComputedSummaries++;
+    }
+
+    /**
+     * The number of times the summary of an object or an array was computed
+     * since the creation of the document.
+     * 
+     * @return The number of computed summaries
+     */
+    public long getNumberOfComputedSummaries() {
+        return numberOfComputedSummaries;
+    }
+
+    /**
+     * Decides whether the current document is accepted by the validator.
+     * 
+     * @return True if and only if the document is accepted
+     */
+    public boolean isValid() {
+        if (!(root instanceof ObjectNode)) {
+            return false;
+        }
+        return validator.isAccepting(root.read(this, validator.getInitialState(), null));
+    }
+
+    public JSONObject toJSONObject() {
+        return (JSONObject) root.toJSON();
+    }
+
+    /**
+     * Applies a JSON Patch, i.e., an array of operations.
+     * 
+     * <p>
+     * The operations are applied in order. If one of them fails, the operations
+     * that were already applied are reverted.
+     * </p>
+     * 
+     * @param patch The patch
+     * @throws JSONException If an operation is malformed, refers to a value that
+     *                       does not exist, or is a test that fails
+     */
+    public void applyPatch(final JSONArray patch) throws JSONException {
+        final Deque<Runnable> undo = new ArrayDeque<>();
+        try {
+            for (int i = 0; i < patch.length(); i++) {
+                applyOperation(patch.getJSONObject(i), undo);
+            }
+        } catch (JSONException e) {
+            while (!undo.isEmpty()) {
+                undo.pop().run();
+            }
+            throw e;
+        }
+    }
+
+    private void applyOperation(final JSONObject operation, final Deque<Runnable> undo) throws JSONException {
+        final String op = operation.getString("op");
+        final List<String> path = parsePointer(operation.getString("path"));
+        switch (op) {
+            case "add":
+                add(path, ValidatedNode.of(operation.get("value")), undo);
+                break;
+            case "remove":
+                remove(path, undo);
+                break;
+            case "replace":
+                replace(path, ValidatedNode.of(operation.get("value")), undo);
+                break;
+            case "move":
+                final List<String> from = parsePointer(operation.getString("from"));
+                if (path.size() > from.size() && Objects.equals(path.subList(0, from.size()), from)) {
+                    throw new JSONException("Can not move a value into one of its children");
+                }
+                if (!Objects.equals(from, path)) {
+                    add(path, remove(from, undo), undo);
+                }
+                break;
+            case "copy":
+                add(path, resolve(parsePointer(operation.getString("from")), false).copy(), undo);
+                break;
+            case "test":
+                if (!resolve(path, false).sameValue(operation.get("value"))) {
+                    throw new JSONException("Test failed for " + operation.getString("path"));
+                }
+                break;
+            default:
+                throw new JSONException("Unknown operation " + op);
+        }
+    }
+
+    private void add(final List<String> path, final ValidatedNode<L> value, final Deque<Runnable> undo)
+            throws JSONException {
+        if (path.isEmpty()) {
+            final ValidatedNode<L> previousRoot = root;
+            root = value;
+            undo.push(() -> root = previousRoot);
+            return;
+        }
+
+        final ValidatedNode<L> parent = resolve(path.subList(0, path.size() - 1), true);
+        final String token = path.get(path.size() - 1);
+        if (parent instanceof ObjectNode) {
+            final ObjectNode<L> object = (ObjectNode<L>) parent;
+            final ValidatedNode<L> previous = object.members.put(token, value);
+            if (previous == null) {
+                undo.push(() -> object.members.remove(token));
+            } else {
+                undo.push(() -> object.members.put(token, previous));
+            }
+        } else if (parent instanceof ArrayNode) {
+            final ArrayNode<L> array = (ArrayNode<L>) parent;
+            final int index = "-".equals(token) ? array.elements.size()
+                    : parseIndex(token, array.elements.size() + 1);
+            array.elements.add(index, value);
+            undo.push(() -> array.elements.remove(index));
+        } else {
+            throw new JSONException("Can not add a value to a primitive value");
+        }
+    }
+
+    private ValidatedNode<L> remove(final List<String> path, final Deque<Runnable> undo) throws JSONException {
+        if (path.isEmpty()) {
+            throw new JSONException("Can not remove the root of the document");
+        }
+
+        final ValidatedNode<L> parent = resolve(path.subList(0, path.size() - 1), true);
+        final String token = path.get(path.size() - 1);
+        if (parent instanceof ObjectNode) {
+            final ObjectNode<L> object = (ObjectNode<L>) parent;
+            final ValidatedNode<L> removed = object.members.remove(token);
+            if (removed == null) {
+                throw new JSONException("No value for key " + token);
+            }
+            undo.push(() -> object.members.put(token, removed));
+            return removed;
+        } else if (parent instanceof ArrayNode) {
+            final ArrayNode<L> array = (ArrayNode<L>) parent;
+            final int index = parseIndex(token, array.elements.size());
+            final ValidatedNode<L> removed = array.elements.remove(index);
+            undo.push(() -> array.elements.add(index, removed));
+            return removed;
+        } else {
+            throw new JSONException("Can not remove a value from a primitive value");
+        }
+    }
+
+    private void replace(final List<String> path, final ValidatedNode<L> value, final Deque<Runnable> undo)
+            throws JSONException {
+        if (path.isEmpty()) {
+            add(path, value, undo);
+            return;
+        }
+
+        final ValidatedNode<L> parent = resolve(path.subList(0, path.size() - 1), true);
+        final String token = path.get(path.size() - 1);
+        if (parent instanceof ObjectNode) {
+            final ObjectNode<L> object = (ObjectNode<L>) parent;
+            if (!object.members.containsKey(token)) {
+                throw new JSONException("No value for key " + token);
+            }
+            final ValidatedNode<L> previous = object.members.put(token, value);
+            undo.push(() -> object.members.put(token, previous));
+        } else if (parent instanceof ArrayNode) {
+            final ArrayNode<L> array = (ArrayNode<L>) parent;
+            final int index = parseIndex(token, array.elements.size());
+            final ValidatedNode<L> previous = array.elements.set(index, value);
+            undo.push(() -> array.elements.set(index, previous));
+        } else {
+            throw new JSONException("Can not replace a value in a primitive value");
+        }
+    }
+
+    /**
+     * Gets the value at the given path.
+     * 
+     * @param path       The path
+     * @param invalidate If true, the summaries of all the values on the path are
+     *                   forgotten
+     * @return The value
+     * @throws JSONException If there is no value at the path
+     */
+    private ValidatedNode<L> resolve(final List<String> path, final boolean invalidate) throws JSONException {
+        ValidatedNode<L> current = root;
+        for (final String token : path) {
+            if (invalidate) {
+                current.invalidate();
+            }
+            if (current instanceof ObjectNode) {
+                current = ((ObjectNode<L>) current).members.get(token);
+                if (current == null) {
+                    throw new JSONException("No value for key " + token);
+                }
+            } else if (current instanceof ArrayNode) {
+                final List<ValidatedNode<L>> elements = ((ArrayNode<L>) current).elements;
+                current = elements.get(parseIndex(token, elements.size()));
+            } else {
+                throw new JSONException("The path goes through a primitive value");
+            }
+        }
+        if (invalidate && current instanceof CompositeNode) {
+            current.invalidate();
+        }
+        return current;
+    }
+
+    private static int parseIndex(final String token, final int bound) throws JSONException {
+        if (token.isEmpty() || (token.length() > 1 && token.charAt(0) == '0')) {
+            throw new JSONException("Invalid array index " + token);
+        }
+        for (int i = 0; i < token.length(); i++) {
+            final char c = token.charAt(i);
+            if (!('0' <= c && c <= '9')) {
+                throw new JSONException("Invalid array index " + token);
+            }
+        }
+        final int index;
+        try {
+            index = Integer.parseInt(token);
+        } catch (NumberFormatException e) {
+            throw new JSONException("Invalid array index " + token, e);
+        }
+        if (index >= bound) {
+            throw new JSONException("Array index out of bounds: " + token);
+        }
+        return index;
+    }
+
+    /**
+     * Splits a JSON Pointer (RFC 6901) into its reference tokens.
+     * 
+     * @param pointer The pointer
+     * @return The unescaped tokens
+     * @throws JSONException If the pointer is not empty and does not start with /
+     */
+    static List<String> parsePointer(final String pointer) throws JSONException {
+        final List<String> tokens = new ArrayList<>();
+        if (pointer.isEmpty()) {
+            return tokens;
+        }
+        if (pointer.charAt(0) != '/') {
+            throw new JSONException("Invalid JSON pointer " + pointer);
+        }
+        for (final String token : pointer.substring(1).split("/", -1)) {
+            tokens.add(token.replace("~1", "/").replace("~0", "~"));
+        }
+        return tokens;
+    }
+}
@@ -0,0 +1,334 @@
+/*
+ * ValidatingJSONDocumentsWithLearnedVPA - Learning a visibly pushdown automaton
+ * from a JSON schema, and using it to validate JSON documents.
+ *
+ * Copyright 2022 University of Mons, University of Antwerp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package be.ac.umons.jsonvalidation;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * A value in a {@link ValidatedDocument}.
+ * 
+ * <p>
+ * An object or an array stores a summary: for each location from which it was
+ * read, the locations reached after reading it. The summary of an object only
+ * depends on the summaries of its values, which means that an object is read in
+ * a time that does not depend on the size of its values, once their summaries
+ * are known. The summaries are computed lazily and forgotten when the value (or
+ * one of its descendants) is modified.
+ * </p>
+ * 
+ * @param <L> Location type
+ * @author Gaëtan Staquet
+ */
+abstract class ValidatedNode<L> {
+
+    static <L> ValidatedNode<L> of(final Object value) {
+        if (value instanceof JSONObject) {
+            final JSONObject object = (JSONObject) value;
+            final ObjectNode<L> node = new ObjectNode<>();
+            for (final String key : object.keySet()) {
+                node.members.put(key, of(object.get(key)));
+            }
+            return node;
+        } else if (value instanceof JSONArray) {
+            final JSONArray array = (JSONArray) value;
+            final ArrayNode<L> node = new ArrayNode<>();
+            for (final Object element : array) {
+                node.elements.add(of(element));
+            }
+            return node;
+        } else {
+            return new PrimitiveNode<>(value);
+        }
+    }
+
+    /**
+     * The first symbol of the value.
+     * 
+     * @return The first symbol
+     */
+    abstract JSONSymbol firstSymbol();
+
+    /**
+     * Reads the value from the given state.
+     * 
+     * @param document   The document containing the value
+     * @param state      The current state
+     * @param nextSymbol The symbol after the value
+     * @return The state reached after the value, or null
+     */
+    abstract ValidationState<L> read(ValidatedDocument<L> document, ValidationState<L> state, JSONSymbol nextSymbol);
+
+    /**
+     * Forgets the summary of this value.
+     */
+    void invalidate() {
+    }
+
+    abstract Object toJSON();
+
+    abstract boolean sameValue(Object value);
+
+    abstract ValidatedNode<L> copy();
+
+    static final class PrimitiveNode<L> extends ValidatedNode<L> {
+        private final Object value;
+        private final JSONSymbol symbol;
+
+        private PrimitiveNode(final Object value) {
+            this.value = value;
+            this.symbol = WordConversion.primitiveValueToSymbol(value);
+        }
+
+        @Override
+        JSONSymbol firstSymbol() {
+            return symbol;
+        }
+
+        @Override
+        ValidationState<L> read(final ValidatedDocument<L> document, final ValidationState<L> state,
+                final JSONSymbol nextSymbol) {
+            return document.getValidator().getSuccessor(state, symbol, nextSymbol, true);
+        }
+
+        @Override
+        Object toJSON() {
+            return value;
+        }
+
+        @Override
+        boolean sameValue(final Object other) {
+            if (value instanceof Number && other instanceof Number) {
+                return new BigDecimal(value.toString()).compareTo(new BigDecimal(other.toString())) == 0;
+            }
+            return Objects.equals(value, other);
+        }
+
+        @Override
+        ValidatedNode<L> copy() {
+            return this;
+        }
+    }
+
+    abstract static class CompositeNode<L> extends ValidatedNode<L> {
+        private final Map<L, Set<L>> summary = new LinkedHashMap<>();
+
+        @Override
+        ValidationState<L> read(final ValidatedDocument<L> document, final ValidationState<L> state,
+                final JSONSymbol nextSymbol) {
+            return document.getValidator().getSuccessorBySummary(state,
+                    locations -> getSummary(document, locations));
+        }
+
+        private Map<L, Set<L>> getSummary(final ValidatedDocument<L> document, final Set<L> locations) {
+            final Set<L> missingLocations = new LinkedHashSet<>();
+            for (final L location : locations) {
+                if (!summary.containsKey(location)) {
+                    missingLocations.add(location);
+                    summary.put(location, new LinkedHashSet<>());
+                }
+            }
+
+            if (!missingLocations.isEmpty()) {
+                document.summaryComputed();
+                // As the sources are tracked, the summaries of all the missing locations
+                // are computed at once
+                final ValidationState<L> stateBeforeValue = new ValidationState<>(
+                        PairSourceToReached.getIdentityPairs(missingLocations), null);
+                final ValidationState<L> stateAfterValue = readSymbols(document, stateBeforeValue);
+                if (stateAfterValue != null) {
+                    for (final PairSourceToReached<L> pair : stateAfterValue.getSourceToReachedLocations()) {
+                        summary.get(pair.getSourceLocation()).add(pair.getReachedLocation());
+                    }
+                }
+            }
+            return summary;
+        }
+
+        /**
+         * Reads the value from its call symbol to its return symbol, using the
+         * summaries of the nested values.
+         * 
+         * @param document The document containing the value
+         * @param state    The state before the call symbol
+         * @return The state after the return symbol, or null
+         */
+        abstract ValidationState<L> readSymbols(ValidatedDocument<L> document, ValidationState<L> state);
+
+        @Override
+        void invalidate() {
+            summary.clear();
+        }
+
+        void copySummaryTo(final CompositeNode<L> other) {
+            for (final Map.Entry<L, Set<L>> entry : summary.entrySet()) {
+                other.summary.put(entry.getKey(), new LinkedHashSet<>(entry.getValue()));
+            }
+        }
+    }
+
+    static final class ObjectNode<L> extends CompositeNode<L> {
+        final Map<String, ValidatedNode<L>> members = new LinkedHashMap<>();
+
+        @Override
+        JSONSymbol firstSymbol() {
+            return JSONSymbol.openingCurlyBraceSymbol;
+        }
+
+        @Override
+        ValidationState<L> readSymbols(final ValidatedDocument<L> document, ValidationState<L> state) {
+            final ValidationByAutomaton<L> validator = document.getValidator();
+            if (members.isEmpty()) {
+                state = validator.getSuccessor(state, JSONSymbol.openingCurlyBraceSymbol,
+                        JSONSymbol.closingCurlyBraceSymbol, true);
+                return validator.getSuccessor(state, JSONSymbol.closingCurlyBraceSymbol, null, true);
+            }
+
+            final List<String> keys = new ArrayList<>(members.keySet());
+            state = validator.getSuccessor(state, JSONSymbol.openingCurlyBraceSymbol,
+                    WordConversion.keyToSymbol(keys.get(0)), true);
+            for (int i = 0; i < keys.size() && state != null; i++) {
+                final JSONSymbol keySymbol = WordConversion.keyToSymbol(keys.get(i));
+                if (i != 0) {
+                    state = validator.getSuccessor(state, JSONSymbol.commaSymbol, keySymbol, true);
+                }
+                final ValidatedNode<L> value = members.get(keys.get(i));
+                state = validator.getSuccessor(state, keySymbol, value.firstSymbol(), true);
+                final JSONSymbol nextSymbol = i + 1 < keys.size() ? JSONSymbol.commaSymbol
+                        : JSONSymbol.closingCurlyBraceSymbol;
+                state = value.read(document, state, nextSymbol);
+            }
+            return validator.getSuccessor(state, JSONSymbol.closingCurlyBraceSymbol, null, true);
+        }
+
+        @Override
+        Object toJSON() {
+            final JSONObject object = new JSONObject();
+            for (final Map.Entry<String, ValidatedNode<L>> member : members.entrySet()) {
+                object.put(member.getKey(), member.getValue().toJSON());
+            }
+            return object;
+        }
+
+        @Override
+        boolean sameValue(final Object value) {
+            if (!(value instanceof JSONObject)) {
+                return false;
+            }
+            final JSONObject object = (JSONObject) value;
+            if (!Objects.equals(object.keySet(), members.keySet())) {
+                return false;
+            }
+            for (final Map.Entry<String, ValidatedNode<L>> member : members.entrySet()) {
+                if (!member.getValue().sameValue(object.get(member.getKey()))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        ValidatedNode<L> copy() {
+            final ObjectNode<L> copy = new ObjectNode<>();
+            for (final Map.Entry<String, ValidatedNode<L>> member : members.entrySet()) {
+                copy.members.put(member.getKey(), member.getValue().copy());
+            }
+            copySummaryTo(copy);
+            return copy;
+        }
+    }
+
+    static final class ArrayNode<L> extends CompositeNode<L> {
+        final List<ValidatedNode<L>> elements = new ArrayList<>();
+
+        @Override
+        JSONSymbol firstSymbol() {
+            return JSONSymbol.openingBracketSymbol;
+        }
+
+        @Override
+        ValidationState<L> readSymbols(final ValidatedDocument<L> document, ValidationState<L> state) {
+            final ValidationByAutomaton<L> validator = document.getValidator();
+            if (elements.isEmpty()) {
+                state = validator.getSuccessor(state, JSONSymbol.openingBracketSymbol,
+                        JSONSymbol.closingBracketSymbol, true);
+                return validator.getSuccessor(state, JSONSymbol.closingBracketSymbol, null, true);
+            }
+
+            state = validator.getSuccessor(state, JSONSymbol.openingBracketSymbol, elements.get(0).firstSymbol(),
+                    true);
+            for (int i = 0; i < elements.size() && state != null; i++) {
+                final ValidatedNode<L> element = elements.get(i);
+                if (i != 0) {
+                    state = validator.getSuccessor(state, JSONSymbol.commaSymbol, element.firstSymbol(), true);
+                }
+                final JSONSymbol nextSymbol = i + 1 < elements.size() ? JSONSymbol.commaSymbol
+                        : JSONSymbol.closingBracketSymbol;
+                state = element.read(document, state, nextSymbol);
+            }
+            return validator.getSuccessor(state, JSONSymbol.closingBracketSymbol, null, true);
+        }
+
+        @Override
+        Object toJSON() {
+            final JSONArray array = new JSONArray();
+            for (final ValidatedNode<L> element : elements) {
+                array.put(element.toJSON());
+            }
+            return array;
+        }
+
+        @Override
+        boolean sameValue(final Object value) {
+            if (!(value instanceof JSONArray)) {
+                return false;
+            }
+            final JSONArray array = (JSONArray) value;
+            if (array.length() != elements.size()) {
+                return false;
+            }
+            for (int i = 0; i < elements.size(); i++) {
+                if (!elements.get(i).sameValue(array.get(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        ValidatedNode<L> copy() {
+            final ArrayNode<L> copy = new ArrayNode<>();
+            for (final ValidatedNode<L> element : elements) {
+                copy.elements.add(element.copy());
+            }
+            copySummaryTo(copy);
+            return copy;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * ValidatingJSONDocumentsWithLearnedVPA - Learning a visibly pushdown automaton
+ * from a JSON schema, and using it to validate JSON documents.
+ *
+ * Copyright 2022 University of Mons, University of Antwerp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package be.ac.umons.jsonvalidation;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits on the work done to validate a single document.
+ * 
+ * <p>
+ * Three resources are bounded: the number of symbols read (including the
+ * symbols replayed when the in-order fast path fails), the number of paths of
+ * the key graph that are expanded while reading objects, and the elapsed time.
+ * A budget is immutable; each validation uses its own {@link Tracker} (see
+ * {@link #start()}). Once a limit is exceeded, the tracker throws a
+ * {@link BudgetExceededException}, which the validator turns into
+ * {@link ValidationVerdict#BUDGET_EXCEEDED}.
+ * </p>
+ * 
+ * <p>
+ * The time is only checked after each symbol and every
+ * {@value #EXPANSIONS_BETWEEN_TIME_CHECKS} expanded paths, so a validation may
+ * run slightly longer than its time limit.
+ * </p>
+ * 
+ * @author Gaëtan Staquet
+ */
+public final class ValidationBudget {
+
+    /**
+     * The resources bounded by a budget.
+     */
+    public enum Resource {
+        SYMBOLS,
+        EXPANDED_NODES,
+        TIME
+    }
+
+    public static final ValidationBudget UNLIMITED = new ValidationBudget(Long.MAX_VALUE, Long.MAX_VALUE,
+            Long.MAX_VALUE);
+
+    private static final int EXPANSIONS_BETWEEN_TIME_CHECKS = 256;
+
+    private final long maxSymbols;
+    private final long maxExpandedNodes;
+    private final long maxNanos;
+
+    /**
+     * Creates a budget. Use {@link Long#MAX_VALUE} for a resource that is not
+     * bounded.
+     * 
+     * @param maxSymbols       The maximal number of symbols read
+     * @param maxExpandedNodes The maximal number of expanded paths in the key
+     *                         graph
+     * @param maxNanos         The maximal duration, in nanoseconds
+     */
+    public ValidationBudget(final long maxSymbols, final long maxExpandedNodes, final long maxNanos) {
+        if (maxSymbols < 0 || maxExpandedNodes < 0 || maxNanos < 0) {
+            throw new IllegalArgumentException("The limits of a budget can not be negative");
+        }
+        this.maxSymbols = maxSymbols;
+        this.maxExpandedNodes = maxExpandedNodes;
+        this.maxNanos = maxNanos;
+    }
+
+    public ValidationBudget withMaxSymbols(final long maxSymbols) {
+        return new ValidationBudget(maxSymbols, maxExpandedNodes, maxNanos);
+    }
+
+    public ValidationBudget withMaxExpandedNodes(final long maxExpandedNodes) {
+        return new ValidationBudget(maxSymbols, maxExpandedNodes, maxNanos);
+    }
+
+    public ValidationBudget withTimeLimit(final long duration, final TimeUnit unit) {
+        return new ValidationBudget(maxSymbols, maxExpandedNodes, unit.toNanos(duration));
+    }
+
+    public long getMaxSymbols() {
+        return maxSymbols;
+    }
+
+    public long getMaxExpandedNodes() {
+        return maxExpandedNodes;
+    }
+
+    public long getMaxNanos() {
+        return maxNanos;
+    }
+
+    /**
+     * Starts tracking the work done for a document. The time starts now.
+     * 
+     * @return The tracker
+     */
+    public Tracker start() {
+        return new Tracker(this);
+    }
+
+    /**
+     * The work done for one document. A tracker is not thread-safe.
+     */
+    public static final class Tracker {
+        private final ValidationBudget budget;
+        private final long startNanos;
+        private long symbols = 0;
+        private long expandedNodes = 0;
+        private int expansionsSinceTimeCheck = 0;
+
+        private Tracker(final ValidationBudget budget) {
+            this.budget = budget;
+            this.startNanos = budget.maxNanos == Long.MAX_VALUE ? 0 : System.nanoTime();
+        }
+
+        public long getNumberOfSymbols() {
+            return symbols;
+        }
+
+        public long getNumberOfExpandedNodes() {
+            return expandedNodes;
+        }
+
+        /**
+         * Records that a symbol is read.
+         * 
+         * @throws BudgetExceededException If too many symbols were read, or the
+         *                                 time is over
+         */
+        public void consumeSymbol() throws BudgetExceededException {
+            if (++symbols > budget.maxSymbols) {
+                throw new BudgetExceededException(Resource.SYMBOLS);
+            }
+            checkTime();
+        }
+
+        /**
+         * Records that a path in the key graph is expanded.
+         * 
+         * @throws BudgetExceededException If too many paths were expanded, or the
+         *                                 time is over
+         */
+        public void expandNode() throws BudgetExceededException {
+            if (++expandedNodes > budget.maxExpandedNodes) {
+                throw new BudgetExceededException(Resource.EXPANDED_NODES);
+            }
+            if (++expansionsSinceTimeCheck == EXPANSIONS_BETWEEN_TIME_CHECKS) {
+                expansionsSinceTimeCheck = 0;
+                checkTime();
+            }
+        }
+
+        private void checkTime() throws BudgetExceededException {
+            if (budget.maxNanos != Long.MAX_VALUE && System.nanoTime() - startNanos > budget.maxNanos) {
+                throw new BudgetExceededException(Resource.TIME);
+            }
+        }
+    }
+}
@@ -19,15 +19,35 @@
 
 package be.ac.umons.jsonvalidation;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import javax.annotation.Nullable;
+
+import org.json.JSONException;
+import org.json.JSONObject;
 
 import com.google.common.base.Stopwatch;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.hash.HashCode;
 
 import be.ac.umons.jsonvalidation.graph.KeyGraph;
+import be.ac.umons.jsonvalidation.graph.KeyGraphFrontier;
 import be.ac.umons.jsonvalidation.graph.NodeInGraph;
+import be.ac.umons.jsonvalidation.tokenizer.JSONTokenizer;
+import be.ac.umons.jsonvalidation.tokenizer.KeyDictionary;
+import be.ac.umons.jsonvalidation.tokenizer.KeyDictionary.UnknownKeyPolicy;
 import net.automatalib.automata.vpda.OneSEVPA;
 import net.automatalib.words.VPDAlphabet;
 import net.automatalib.words.Word;
@@ -55,9 +75,36 @@ import net.automatalib.words.Word;
  * document.
  * </p>
  * 
+ * <p>
+ * As most documents list their keys in the order expected by the automaton, an
+ * optional in-order fast path can be enabled (see
+ * {@link #setInOrderFastPath(boolean)}). An object is then read by directly
+ * following the transitions of the automaton, without using the key graph. As
+ * soon as this fails (for instance, because a key appears in an unexpected
+ * order), the symbols of the object are replayed from the state before the
+ * object, using the key graph.
+ * </p>
+ * 
+ * <p>
+ * The key graph computations of objects with the same structure can be shared
+ * using a {@link SubtreeSummaryCache} (see
+ * {@link #setSubtreeSummaryCache(SubtreeSummaryCache)}).
+ * </p>
+ * 
+ * <p>
+ * A key followed by a primitive value can be read in a single step using
+ * precomputed macro-transitions (see {@link #setMacroTransitions(boolean)}).
+ * </p>
+ * 
  * @author Gaëtan Staquet
  */
 public class ValidationByAutomaton<L> {
+    /**
+     * The default maximal number of paths in the frontier of an object (see
+     * {@link #setMaximalFrontierSize(int)}).
+     */
+    public static final int DEFAULT_MAXIMAL_FRONTIER_SIZE = 1 << 16;
+
     private final KeyGraph<L> graph;
     private final OneSEVPA<L, JSONSymbol> automaton;
     private final VPDAlphabet<JSONSymbol> alphabet;
@@ -70,6 +117,17 @@ public class ValidationByAutomaton<L> {
     private long maxTimeSuccessorArray = 0;
     private long totalTimeSuccessorArray = 0;
     private long numberSuccessorArray = 0;
+    private boolean inOrderFastPath = false;
+    // The validator may be shared by multiple sessions
+    private final LongAdder numberInOrderObjects = new LongAdder();
+    private final LongAdder numberReplays = new LongAdder();
+    private @Nullable SubtreeSummaryCache<L> subtreeSummaryCache = null;
+    private @Nullable DocumentVerdictCache documentVerdictCache = null;
+    private @Nullable MacroTransitionTable<L> macroTransitions = null;
+    private final LongAdder numberMacroTransitions = new LongAdder();
+    private int maximalFrontierSize = DEFAULT_MAXIMAL_FRONTIER_SIZE;
+    private JSONTokenizer tokenizer;
+    private final Supplier<Long> structuralHash;
 
     public ValidationByAutomaton(final OneSEVPA<L, JSONSymbol> automaton) {
         this(automaton, KeyGraph.graphFor(automaton, false));
@@ -82,12 +140,321 @@ public class ValidationByAutomaton<L> {
         this.graph = graph;
         this.automaton = automaton;
         this.alphabet = automaton.getInputAlphabet();
+        this.tokenizer = new JSONTokenizer(new KeyDictionary(graph.getKeyAlphabet(), UnknownKeyPolicy.REJECT));
+        this.structuralHash = Suppliers.memoize(() -> Checkpoints.structuralHash(automaton));
+    }
+
+    /**
+     * Enables or disables the in-order fast path.
+     * 
+     * <p>
+     * When enabled, an object is read by following the transitions of the
+     * automaton as long as its keys appear in the order expected by the automaton.
+     * When this fails, the symbols of the object are recorded and replayed with
+     * the key graph. Only the innermost object read in order that is still open is
+     * recorded, so an object containing a nested object read in order can not be
+     * replayed. The locations reached after an object read in order may be a
+     * strict subset of the locations that would be reached using the key graph
+     * (if a permutation of the object leads to other locations).
+     * </p>
+     * 
+     * <p>
+     * {@link #accepts(List)} and {@link #accepts(Word)} always return the same
+     * result than without the fast path: if a document is rejected after closing
+     * an object read in order, or when an object read in order could not be
+     * replayed from the initial state, the document is read again without the
+     * fast path. However, a state obtained with {@link #getState(Iterable)} or
+     * {@link #getSuccessor(ValidationState, JSONSymbol, JSONSymbol)} may contain
+     * fewer locations.
+     * </p>
+     * 
+     * @param inOrderFastPath Whether to use the fast path
+     */
+    public void setInOrderFastPath(final boolean inOrderFastPath) {
+        this.inOrderFastPath = inOrderFastPath;
+    }
+
+    public boolean isUsingInOrderFastPath() {
+        return inOrderFastPath;
+    }
+
+    /**
+     * Gets the number of objects that were entirely read by the in-order fast
+     * path.
+     * 
+     * @return The number of objects
+     */
+    public long getNumberOfInOrderObjects() {
+        return numberInOrderObjects.sum();
+    }
+
+    /**
+     * Gets the number of times the symbols of an object had to be replayed with
+     * the key graph, after the in-order fast path failed.
+     * 
+     * @return The number of replays
+     */
+    public long getNumberOfReplays() {
+        return numberReplays.sum();
+    }
+
+    /**
+     * Enables or disables the macro-transitions.
+     * 
+     * <p>
+     * When enabled, a table giving the location reached from each location after
+     * reading a key and then a primitive value is precomputed. A key immediately
+     * followed by a primitive value is then read in one step, instead of
+     * computing the intermediate state after the key. This only applies to words
+     * given as a whole (for instance, to {@link #accepts(Word)} and
+     * {@link #accepts(byte[])}), not to sessions and streams, whose symbols are
+     * given one by one. The verdicts do not change.
+     * </p>
+     * 
+     * @param macroTransitions Whether to use the macro-transitions
+     */
+    public void setMacroTransitions(final boolean macroTransitions) {
+        if (!macroTransitions) {
+            this.macroTransitions = null;
+        } else if (this.macroTransitions == null) {
+            this.macroTransitions = new MacroTransitionTable<>(automaton, graph.getKeyAlphabet());
+        }
+    }
+
+    public boolean isUsingMacroTransitions() {
+        return macroTransitions != null;
+    }
+
+    /**
+     * Gets the number of key-value pairs that were read in one step.
+     * 
+     * @return The number of macro-transitions
+     */
+    public long getNumberOfMacroTransitions() {
+        return numberMacroTransitions.sum();
+    }
+
+    /**
+     * Sets the maximal number of paths in the {@link KeyGraphFrontier} of an
+     * object.
+     * 
+     * <p>
+     * The paths of the key graph that are still possible are updated each time
+     * the value of a key is read. As their number may be exponential in the
+     * number of keys, they are dropped once the frontier exceeds this size, and
+     * the locations reached after the object are then computed by a depth-first
+     * search in the key graph when the object is closed. With zero, the
+     * depth-first search is always used. The verdicts do not change.
+     * </p>
+     * 
+     * @param maximalFrontierSize The maximal number of paths
+     * @throws IllegalArgumentException If the size is negative
+     */
+    public void setMaximalFrontierSize(final int maximalFrontierSize) {
+        if (maximalFrontierSize < 0) {
+            throw new IllegalArgumentException("The maximal size of a frontier can not be negative");
+        }
+        this.maximalFrontierSize = maximalFrontierSize;
+    }
+
+    public int getMaximalFrontierSize() {
+        return maximalFrontierSize;
+    }
+
+    /**
+     * Sets the cache used to share the key graph computations between objects
+     * with the same structure.
+     * 
+     * <p>
+     * The cache must only be used with the automaton of this validator.
+     * </p>
+     * 
+     * @param subtreeSummaryCache The cache, or null to disable caching
+     */
+    public void setSubtreeSummaryCache(final @Nullable SubtreeSummaryCache<L> subtreeSummaryCache) {
+        this.subtreeSummaryCache = subtreeSummaryCache;
+    }
+
+    public @Nullable SubtreeSummaryCache<L> getSubtreeSummaryCache() {
+        return subtreeSummaryCache;
+    }
+
+    /**
+     * Sets the cache used to store the verdicts of the documents given as bytes
+     * (see {@link #accepts(byte[])}).
+     * 
+     * <p>
+     * The cache can be shared between validators only if they use the same
+     * automaton.
+     * </p>
+     * 
+     * @param documentVerdictCache The cache, or null to disable caching
+     */
+    public void setDocumentVerdictCache(final @Nullable DocumentVerdictCache documentVerdictCache) {
+        this.documentVerdictCache = documentVerdictCache;
+    }
+
+    public @Nullable DocumentVerdictCache getDocumentVerdictCache() {
+        return documentVerdictCache;
+    }
+
+    /**
+     * Sets what to do with a key that is not read by the automaton, when a
+     * document is given as bytes (see {@link #accepts(byte[])}).
+     * 
+     * <p>
+     * By default, such a key immediately rejects the document. As the automaton
+     * has no transition reading this key, the verdict is the same than with the
+     * key. With {@link UnknownKeyPolicy#ADDITIONAL_PROPERTY}, the key is instead
+     * replaced by the symbol reading the keys that are not explicitly listed in
+     * the schema (if the automaton has this symbol). As the verdicts may change,
+     * the {@link DocumentVerdictCache} (if any) is invalidated.
+     * </p>
+     * 
+     * @param unknownKeyPolicy The policy
+     */
+    public void setUnknownKeyPolicy(final UnknownKeyPolicy unknownKeyPolicy) {
+        final UnknownKeyPolicy previousPolicy = getUnknownKeyPolicy();
+        this.tokenizer = new JSONTokenizer(new KeyDictionary(graph.getKeyAlphabet(), unknownKeyPolicy));
+        if (documentVerdictCache != null && previousPolicy != unknownKeyPolicy) {
+            documentVerdictCache.invalidateAll();
+        }
+    }
+
+    public UnknownKeyPolicy getUnknownKeyPolicy() {
+        return tokenizer.getKeyDictionary().getUnknownKeyPolicy();
+    }
+
+    /**
+     * Creates a session to validate a document whose symbols are given one by
+     * one.
+     * 
+     * @return The session
+     */
+    public ValidationSession<L> newSession() {
+        return new ValidationSession<>(this);
+    }
+
+    /**
+     * Creates a session whose work is bounded by a budget. The time starts when
+     * the session is created.
+     * 
+     * @param budget The budget
+     * @return The session
+     * @see ValidationSession#isBudgetExceeded()
+     */
+    public ValidationSession<L> newSession(final ValidationBudget budget) {
+        return new ValidationSession<>(this, budget.start());
+    }
+
+    /**
+     * Creates a stream to validate a document whose bytes are given chunk by
+     * chunk. The keys are handled as in {@link #accepts(byte[])}.
+     * 
+     * @return The stream
+     */
+    public ValidationStream<L> newStream() {
+        return new ValidationStream<>(new ValidationSession<>(this), tokenizer.getKeyDictionary());
+    }
+
+    /**
+     * Creates a stream whose work is bounded by a budget. The time starts when
+     * the stream is created.
+     * 
+     * @param budget The budget
+     * @return The stream
+     */
+    public ValidationStream<L> newStream(final ValidationBudget budget) {
+        return new ValidationStream<>(newSession(budget), tokenizer.getKeyDictionary());
+    }
+
+    /**
+     * Resumes a session from a checkpoint written by
+     * {@link ValidationSession#checkpoint(DataOutput)}, possibly by another
+     * process. The validator must use the same automaton.
+     * 
+     * @param in The input
+     * @return The session
+     * @throws IOException If the checkpoint can not be read, or was written for
+     *                     another automaton
+     */
+    public ValidationSession<L> resumeSession(final DataInput in) throws IOException {
+        return ValidationSession.resume(this, null, in);
+    }
+
+    /**
+     * Resumes a session from a checkpoint, with a budget. The work done before
+     * the checkpoint is not counted.
+     * 
+     * @param in     The input
+     * @param budget The budget
+     * @return The session
+     * @throws IOException If the checkpoint can not be read, or was written for
+     *                     another automaton
+     * @see #resumeSession(DataInput)
+     */
+    public ValidationSession<L> resumeSession(final DataInput in, final ValidationBudget budget)
+            throws IOException {
+        return ValidationSession.resume(this, budget.start(), in);
+    }
+
+    /**
+     * Resumes a stream from a checkpoint written by
+     * {@link ValidationStream#checkpoint(DataOutput)}, possibly by another
+     * process. The validator must use the same automaton. The next bytes to give
+     * are the bytes of the document starting from
+     * {@link ValidationStream#getNumberOfConsumedBytes()}.
+     * 
+     * @param in The input
+     * @return The stream
+     * @throws IOException If the checkpoint can not be read, or was written for
+     *                     another automaton
+     */
+    public ValidationStream<L> resumeStream(final DataInput in) throws IOException {
+        return ValidationStream.resume(this, null, tokenizer.getKeyDictionary(), in);
+    }
+
+    /**
+     * Resumes a stream from a checkpoint, with a budget. The work done before the
+     * checkpoint is not counted.
+     * 
+     * @param in     The input
+     * @param budget The budget
+     * @return The stream
+     * @throws IOException If the checkpoint can not be read, or was written for
+     *                     another automaton
+     * @see #resumeStream(DataInput)
+     */
+    public ValidationStream<L> resumeStream(final DataInput in, final ValidationBudget budget) throws IOException {
+        return ValidationStream.resume(this, budget.start(), tokenizer.getKeyDictionary(), in);
+    }
+
+    KeyGraph<L> getKeyGraph() {
+        return graph;
+    }
+
+    VPDAlphabet<JSONSymbol> getAlphabet() {
+        return alphabet;
+    }
+
+    OneSEVPA<L, JSONSymbol> getAutomaton() {
+        return automaton;
+    }
+
+    /**
+     * Gets the hash of the automaton written in the checkpoints (see
+     * {@link Checkpoints}). It is computed on the first call.
+     * 
+     * @return The hash
+     */
+    long getStructuralHash() {
+        return structuralHash.get();
     }
 
     public ValidationState<L> getInitialState() {
-        final Set<L> setWithInitialLocation = new LinkedHashSet<>();
-        setWithInitialLocation.add(automaton.getInitialLocation());
-        return new ValidationState<>(PairSourceToReached.getIdentityPairs(setWithInitialLocation), null);
+        final BitSet setWithInitialLocation = new BitSet(automaton.size());
+        setWithInitialLocation.set(automaton.getLocationId(automaton.getInitialLocation()));
+        return new ValidationState<>(setWithInitialLocation, null);
     }
 
     public boolean isAccepting(ValidationState<L> state) {
@@ -96,8 +463,7 @@ public class ValidationByAutomaton<L> {
         }
         // Do we have at least one accepting location?
         // @formatter:off
-        return state.getSourceToReachedLocations().stream()
-            .map(pair -> pair.getReachedLocation())
+        return state.getReachedLocations(automaton).stream()
             .filter(location -> automaton.isAcceptingLocation(location))
             .findAny().isPresent();
         // @formatter:on
@@ -143,30 +509,197 @@ public class ValidationByAutomaton<L> {
         totalTimePathsKeyGraph = totalTimeSuccessorArray = totalTimeSuccessorObject = 0;
         maxTimePathsKeyGraph = maxTimeSuccessorArray = maxTimeSuccessorObject = 0;
         numberPathsKeyGraph = numberSuccessorArray = numberSuccessorObject = 0;
+        numberInOrderObjects.reset();
+        numberReplays.reset();
+        numberMacroTransitions.reset();
     }
 
     public boolean accepts(List<JSONSymbol> input) {
         if (input.isEmpty() || !input.get(0).equals(JSONSymbol.openingCurlyBraceSymbol)) {
             return false;
         }
-        return isAccepting(getState(input));
+        return acceptsWord(input, null);
     }
 
     public boolean accepts(Word<JSONSymbol> input) {
         if (input.isEmpty() || !input.getSymbol(0).equals(JSONSymbol.openingCurlyBraceSymbol)) {
             return false;
         }
-        return isAccepting(getState(input));
+        return acceptsWord(input, null);
+    }
+
+    /**
+     * Decides whether the word is accepted, without exceeding the budget.
+     * 
+     * @param input  The word
+     * @param budget The budget
+     * @return The verdict, or {@link ValidationVerdict#BUDGET_EXCEEDED} if the
+     *         validation was stopped
+     */
+    public ValidationVerdict validate(Word<JSONSymbol> input, ValidationBudget budget) {
+        return validate(input, budget.start());
+    }
+
+    private ValidationVerdict validate(Word<JSONSymbol> input, ValidationBudget.Tracker tracker) {
+        if (input.isEmpty() || !input.getSymbol(0).equals(JSONSymbol.openingCurlyBraceSymbol)) {
+            return ValidationVerdict.REJECTED;
+        }
+        try {
+            return ValidationVerdict.of(acceptsWord(input, tracker));
+        } catch (BudgetExceededException e) {
+            return ValidationVerdict.BUDGET_EXCEEDED;
+        }
+    }
+
+    /**
+     * Decides whether the document, encoded in UTF-8, is accepted, without
+     * exceeding the budget.
+     * 
+     * <p>
+     * The time spent converting the bytes to symbols counts in the budget. The
+     * {@link DocumentVerdictCache} (if any) is used as in
+     * {@link #accepts(byte[])}, but a document whose validation was stopped is
+     * not added to the cache.
+     * </p>
+     * 
+     * @param document The bytes of the document
+     * @param budget   The budget
+     * @return The verdict, or {@link ValidationVerdict#BUDGET_EXCEEDED} if the
+     *         validation was stopped
+     */
+    public ValidationVerdict validate(byte[] document, ValidationBudget budget) {
+        final ValidationBudget.Tracker tracker = budget.start();
+        final HashCode hash;
+        if (documentVerdictCache != null) {
+            hash = DocumentVerdictCache.hash(document);
+            final Boolean cachedVerdict = documentVerdictCache.getVerdict(hash);
+            if (cachedVerdict != null) {
+                return ValidationVerdict.of(cachedVerdict);
+            }
+        } else {
+            hash = null;
+        }
+
+        ValidationVerdict verdict;
+        try {
+            verdict = validate(tokenizer.tokenize(document), tracker);
+        } catch (JSONException e) {
+            verdict = ValidationVerdict.REJECTED;
+        }
+
+        if (hash != null && verdict != ValidationVerdict.BUDGET_EXCEEDED) {
+            documentVerdictCache.putVerdict(hash, verdict == ValidationVerdict.ACCEPTED);
+        }
+        return verdict;
+    }
+
+    /**
+     * Decides whether the document, encoded in UTF-8, is accepted.
+     * 
+     * <p>
+     * If a {@link DocumentVerdictCache} is set, the bytes are hashed first. If the
+     * same bytes were already validated, the stored verdict is returned
+     * immediately. A document that can not be parsed is rejected.
+     * </p>
+     * 
+     * <p>
+     * The bytes are converted to symbols by a {@link JSONTokenizer}, using a
+     * {@link KeyDictionary} built from the keys of the automaton (see
+     * {@link #setUnknownKeyPolicy(UnknownKeyPolicy)}). The tokenizer is strict:
+     * documents that are only accepted by the lenient parser of
+     * {@link JSONObject} are rejected.
+     * </p>
+     * 
+     * @param document The bytes of the document
+     * @return True if and only if the document is accepted
+     */
+    public boolean accepts(byte[] document) {
+        final HashCode hash;
+        if (documentVerdictCache != null) {
+            hash = DocumentVerdictCache.hash(document);
+            final Boolean cachedVerdict = documentVerdictCache.getVerdict(hash);
+            if (cachedVerdict != null) {
+                return cachedVerdict;
+            }
+        } else {
+            hash = null;
+        }
+
+        boolean verdict;
+        try {
+            verdict = accepts(tokenizer.tokenize(document));
+        } catch (JSONException e) {
+            verdict = false;
+        }
+
+        if (hash != null) {
+            documentVerdictCache.putVerdict(hash, verdict);
+        }
+        return verdict;
+    }
+
+    private boolean acceptsWord(Iterable<JSONSymbol> input, @Nullable ValidationBudget.Tracker budget) {
+        if (!inOrderFastPath) {
+            return isAccepting(getState(input, true, budget, null));
+        }
+        final InOrderRun run = new InOrderRun();
+        if (isAccepting(getState(input, false, budget, run))) {
+            return true;
+        }
+        if (run.approximated) {
+            // An object read in order may have missed some locations that are only
+            // reachable by permuting its keys
+            return isAccepting(getState(input, true, budget, null));
+        }
+        return false;
     }
 
     public ValidationState<L> getState(Iterable<JSONSymbol> input) {
+        return getState(input, false, null, null);
+    }
+
+    /**
+     * Computes the state reached after reading the input.
+     * 
+     * @param input        The input
+     * @param onlyKeyGraph If true, the in-order fast path is not used
+     * @param budget       The tracker of the budget, or null
+     * @param run          If not null, records whether the in-order fast path may
+     *                     have missed some locations
+     * @return The state, or null if the input can not be read
+     */
+    private ValidationState<L> getState(Iterable<JSONSymbol> input, boolean onlyKeyGraph,
+            @Nullable ValidationBudget.Tracker budget, @Nullable InOrderRun run) {
         ValidationState<L> state = getInitialState();
         JSONSymbol symbolToRead = null;
+        // If not null, symbolToRead is a primitive value read with the previous key
+        JSONSymbol pendingKey = null;
+        int[] pendingTargets = null;
         boolean ready = false;
         for (JSONSymbol nextSymbol : input) {
             if (ready) {
-                state = getSuccessor(state, symbolToRead, nextSymbol);
+                final ValidationState<L> previousState = state;
+                if (run != null) {
+                    run.beforeReading(previousState, symbolToRead);
+                }
+                if (pendingTargets != null) {
+                    state = getPairSuccessor(state, pendingKey, symbolToRead, pendingTargets, nextSymbol,
+                            onlyKeyGraph, budget);
+                    pendingTargets = null;
+                } else {
+                    pendingTargets = macroTransitions == null ? null
+                            : macroTransitions.getTargets(symbolToRead, nextSymbol);
+                    if (pendingTargets == null) {
+                        state = getSuccessor(state, symbolToRead, nextSymbol, onlyKeyGraph, budget);
+                    } else {
+                        // The pair is read once the symbol after the value is known
+                        pendingKey = symbolToRead;
+                    }
+                }
                 if (state == null) {
+                    if (run != null) {
+                        run.afterRejection(previousState);
+                    }
                     return null;
                 }
             } else {
@@ -174,60 +707,373 @@ public class ValidationByAutomaton<L> {
             }
             symbolToRead = nextSymbol;
         }
-        if (symbolToRead != null) {
-            state = getSuccessor(state, symbolToRead, null);
+        final ValidationState<L> previousState = state;
+        if (run != null && symbolToRead != null) {
+            run.beforeReading(previousState, symbolToRead);
+        }
+        if (pendingTargets != null) {
+            state = getPairSuccessor(state, pendingKey, symbolToRead, pendingTargets, null, onlyKeyGraph, budget);
+        } else if (symbolToRead != null) {
+            state = getSuccessor(state, symbolToRead, null, onlyKeyGraph, budget);
+        }
+        if (state == null && run != null && symbolToRead != null) {
+            run.afterRejection(previousState);
         }
         return state;
     }
 
+    /**
+     * Tracks whether a run using the in-order fast path may have missed some
+     * locations, in which case a rejection must be confirmed with the key graph.
+     * 
+     * <p>
+     * The flag is local to a single run, as the validator may be shared by multiple
+     * threads.
+     * </p>
+     */
+    private static final class InOrderRun {
+        private boolean approximated = false;
+
+        /**
+         * Closing an object read in order only keeps the locations reached by
+         * reading the keys in the order of the document.
+         */
+        private <L> void beforeReading(final ValidationState<L> state, final JSONSymbol symbol) {
+            final ValidationStackContents<L> stack = state.getStack();
+            if (stack != null && stack.isInOrder() && symbol.equals(JSONSymbol.closingCurlyBraceSymbol)) {
+                approximated = true;
+            }
+        }
+
+        /**
+         * A rejection is final if no object read in order is still open, or if the
+         * innermost one is the outermost object and it could be replayed from the
+         * initial state.
+         */
+        private <L> void afterRejection(final ValidationState<L> stateBeforeRejection) {
+            final ValidationStackContents<L> stack = stateBeforeRejection.getStack();
+            if (stack == null || !stack.isRecording()) {
+                return;
+            }
+            final ValidationStackContents<L> inOrderStack = stack.findClosestInOrder();
+            if (inOrderStack.pop() != null || inOrderStack.getRecordedSymbolsSinceCall() == null) {
+                approximated = true;
+            }
+        }
+    }
+
     public ValidationState<L> getSuccessor(ValidationState<L> state, JSONSymbol currentSymbol,
             JSONSymbol nextSymbol) {
-        if (state == null || state.getSourceToReachedLocations().isEmpty()) {
+        return getSuccessor(state, currentSymbol, nextSymbol, false);
+    }
+
+    /**
+     * Computes the successor state.
+     * 
+     * @param state         The current state
+     * @param currentSymbol The symbol to read
+     * @param nextSymbol    The symbol after the current one
+     * @param onlyKeyGraph  If true, the in-order fast path is not used, and no
+     *                      symbol is recorded
+     * @return The successor state, or null if the symbol can not be read
+     */
+    ValidationState<L> getSuccessor(ValidationState<L> state, JSONSymbol currentSymbol,
+            JSONSymbol nextSymbol, boolean onlyKeyGraph) {
+        return getSuccessor(state, currentSymbol, nextSymbol, onlyKeyGraph, null);
+    }
+
+    /**
+     * Computes the successor state, counting the work in the budget.
+     * 
+     * @param state         The current state
+     * @param currentSymbol The symbol to read
+     * @param nextSymbol    The symbol after the current one
+     * @param onlyKeyGraph  If true, the in-order fast path is not used, and no
+     *                      symbol is recorded
+     * @param budget        The tracker of the budget, or null
+     * @return The successor state, or null if the symbol can not be read
+     * @throws BudgetExceededException If the budget is exceeded
+     */
+    ValidationState<L> getSuccessor(ValidationState<L> state, JSONSymbol currentSymbol,
+            JSONSymbol nextSymbol, boolean onlyKeyGraph, @Nullable ValidationBudget.Tracker budget)
+            throws BudgetExceededException {
+        if (state == null || state.isEmpty()) {
+            return null;
+        }
+        if (budget != null) {
+            budget.consumeSymbol();
+        }
+
+        final ValidationStackContents<L> currentStack = state.getStack();
+        final boolean recording = !onlyKeyGraph && currentStack != null && currentStack.isRecording();
+        if (recording) {
+            currentStack.record(currentSymbol);
+        }
+
+        final VPDAlphabet.SymbolType symbolType = alphabet.getSymbolType(currentSymbol);
+        if (subtreeSummaryCache != null && currentStack != null && symbolType != VPDAlphabet.SymbolType.CALL) {
+            currentStack.updateFingerprint(currentSymbol);
+        }
+
+        final ValidationState<L> successor = computeSuccessor(state, currentSymbol, nextSymbol, onlyKeyGraph,
+                budget);
+        if (successor == null && recording) {
+            return replayWithKeyGraph(currentStack.findClosestInOrder(), nextSymbol, budget);
+        }
+        if (successor != null && subtreeSummaryCache != null && symbolType == VPDAlphabet.SymbolType.RETURN) {
+            final ValidationStackContents<L> enclosingStack = currentStack.pop();
+            if (enclosingStack != null) {
+                enclosingStack.foldFingerprint(currentStack);
+            }
+        }
+        return successor;
+    }
+
+    /**
+     * Computes the state reached after reading a key and a primitive value, using
+     * the macro-transitions.
+     * 
+     * <p>
+     * The symbols are counted, recorded, and added to the fingerprint as if they
+     * were read one by one. As neither symbol is a comma, the stack is not
+     * modified.
+     * </p>
+     * 
+     * @param state        The current state
+     * @param key          The key
+     * @param value        The primitive value
+     * @param targets      The targets of the macro-transitions for the pair
+     * @param nextSymbol   The symbol after the value
+     * @param onlyKeyGraph If true, the in-order fast path is not used, and no
+     *                     symbol is recorded
+     * @param budget       The tracker of the budget, or null
+     * @return The successor state, or null if the pair can not be read
+     * @throws BudgetExceededException If the budget is exceeded
+     */
+    private ValidationState<L> getPairSuccessor(final ValidationState<L> state, final JSONSymbol key,
+            final JSONSymbol value, final int[] targets, final @Nullable JSONSymbol nextSymbol,
+            final boolean onlyKeyGraph, final @Nullable ValidationBudget.Tracker budget)
+            throws BudgetExceededException {
+        if (state == null || state.isEmpty()) {
+            return null;
+        }
+        if (budget != null) {
+            budget.consumeSymbol();
+            budget.consumeSymbol();
+        }
+
+        final ValidationStackContents<L> currentStack = state.getStack();
+        final boolean recording = !onlyKeyGraph && currentStack != null && currentStack.isRecording();
+        if (recording) {
+            currentStack.record(key);
+            currentStack.record(value);
+        }
+        if (subtreeSummaryCache != null && currentStack != null) {
+            currentStack.updateFingerprint(key);
+            currentStack.updateFingerprint(value);
+        }
+        numberMacroTransitions.increment();
+
+        final ValidationState<L> successor;
+        if (state.isTrackingSources()) {
+            final Set<PairSourceToReached<L>> sourceToSuccessorLocations = new LinkedHashSet<>();
+            for (final PairSourceToReached<L> sourceToReachedLocation : state.getSourceToReachedLocations()) {
+                final int target = targets[automaton.getLocationId(sourceToReachedLocation.getReachedLocation())];
+                if (target != -1) {
+                    sourceToSuccessorLocations
+                            .add(sourceToReachedLocation.transitionToReached(automaton.getLocation(target)));
+                }
+            }
+            successor = sourceToSuccessorLocations.isEmpty() ? null
+                    : new ValidationState<>(sourceToSuccessorLocations, currentStack);
+        } else {
+            final BitSet reachedLocations = state.getReachedLocationIds();
+            final BitSet successorLocations = new BitSet(automaton.size());
+            for (int id = reachedLocations.nextSetBit(0); id >= 0; id = reachedLocations.nextSetBit(id + 1)) {
+                if (targets[id] != -1) {
+                    successorLocations.set(targets[id]);
+                }
+            }
+            successor = successorLocations.isEmpty() ? null : new ValidationState<>(successorLocations, currentStack);
+        }
+
+        if (successor == null && recording) {
+            return replayWithKeyGraph(currentStack.findClosestInOrder(), nextSymbol, budget);
+        }
+        return successor;
+    }
+
+    /**
+     * Replays the symbols of an object that was read in order, using the key
+     * graph.
+     * 
+     * <p>
+     * Only the innermost object read in order that is still open has its symbols.
+     * If they were discarded, the object can not be replayed, and the caller falls
+     * back to reading the whole document with the key graph.
+     * </p>
+     * 
+     * @param inOrderStack The stack contents of the object read in order
+     * @param nextSymbol   The symbol after the last recorded symbol
+     * @param budget       The tracker of the budget, or null
+     * @return The state after the replay, or null if the object can not be
+     *         replayed or the last recorded symbol can not be read
+     */
+    private ValidationState<L> replayWithKeyGraph(final ValidationStackContents<L> inOrderStack,
+            final JSONSymbol nextSymbol, final @Nullable ValidationBudget.Tracker budget) {
+        final List<JSONSymbol> recordedSymbols = inOrderStack.getRecordedSymbolsSinceCall();
+        if (recordedSymbols == null) {
+            return null;
+        }
+        numberReplays.increment();
+        ValidationState<L> state = inOrderStack.peekStateBeforeCall();
+        for (int i = 0; i < recordedSymbols.size() && state != null; i++) {
+            final JSONSymbol next = i + 1 < recordedSymbols.size() ? recordedSymbols.get(i + 1) : nextSymbol;
+            state = getSuccessor(state, recordedSymbols.get(i), next, true, budget);
+        }
+        return state;
+    }
+
+    /**
+     * Computes the state reached after reading a whole value (an object or an
+     * array), given a summary of the value instead of its symbols.
+     * 
+     * <p>
+     * The summary gives, for each location, the locations reached after reading
+     * the value from that location. The stack is not modified, as the value is a
+     * well-matched word.
+     * </p>
+     * 
+     * @param state               The current state
+     * @param summaryForLocations A function giving the summary of the value for
+     *                            the given locations
+     * @return The successor state, or null if no location can be reached
+     */
+    ValidationState<L> getSuccessorBySummary(final ValidationState<L> state,
+            final Function<Set<L>, Map<L, Set<L>>> summaryForLocations) {
+        if (state == null || state.isEmpty()) {
             return null;
         }
 
+        final Map<L, Set<L>> summary = summaryForLocations.apply(state.getReachedLocations(automaton));
+        final ValidationStackContents<L> currentStack = state.getStack();
+        if (currentStack != null) {
+            currentStack.markFingerprintIncomplete();
+        }
+
+        if (state.isTrackingSources()) {
+            final Set<PairSourceToReached<L>> successorSourceToReachedLocations = new LinkedHashSet<>();
+            for (final PairSourceToReached<L> sourceToReached : state.getSourceToReachedLocations()) {
+                for (final L target : summary.getOrDefault(sourceToReached.getReachedLocation(),
+                        Collections.emptySet())) {
+                    successorSourceToReachedLocations.add(sourceToReached.transitionToReached(target));
+                }
+            }
+            if (successorSourceToReachedLocations.isEmpty()) {
+                return null;
+            }
+            return new ValidationState<>(successorSourceToReachedLocations, currentStack);
+        } else {
+            final BitSet reachedLocations = state.getReachedLocationIds();
+            final BitSet successorLocations = new BitSet(automaton.size());
+            for (int id = reachedLocations.nextSetBit(0); id >= 0; id = reachedLocations.nextSetBit(id + 1)) {
+                for (final L target : summary.getOrDefault(automaton.getLocation(id), Collections.emptySet())) {
+                    successorLocations.set(automaton.getLocationId(target));
+                }
+            }
+            if (successorLocations.isEmpty()) {
+                return null;
+            }
+            return new ValidationState<>(successorLocations, currentStack);
+        }
+    }
+
+    private ValidationState<L> computeSuccessor(ValidationState<L> state, JSONSymbol currentSymbol,
+            JSONSymbol nextSymbol, boolean onlyKeyGraph, @Nullable ValidationBudget.Tracker budget) {
         switch (alphabet.getSymbolType(currentSymbol)) {
             case CALL:
-                return getCallSuccessor(state, currentSymbol, nextSymbol);
+                return getCallSuccessor(state, currentSymbol, nextSymbol, onlyKeyGraph);
             case INTERNAL:
-                return getInternalSuccessor(state, currentSymbol, nextSymbol);
+                return getInternalSuccessor(state, currentSymbol, nextSymbol, budget);
             case RETURN:
-                return getReturnSuccessor(state, currentSymbol);
+                return getReturnSuccessor(state, currentSymbol, budget);
             default:
                 return null;
         }
     }
 
     private ValidationState<L> getInternalSuccessor(ValidationState<L> state, JSONSymbol currentIntSymbol,
-            JSONSymbol nextSymbol) {
-        if (currentIntSymbol.equals(JSONSymbol.commaSymbol)
-                && state.getStack().peekCallSymbol().equals(JSONSymbol.openingCurlyBraceSymbol)) {
-            return getCommaInObjectSuccessor(state, nextSymbol);
+            JSONSymbol nextSymbol, @Nullable ValidationBudget.Tracker budget) {
+        final ValidationStackContents<L> currentStack = state.getStack();
+        if (currentIntSymbol.equals(JSONSymbol.commaSymbol) && currentStack != null
+                && currentStack.peekCallSymbol().equals(JSONSymbol.openingCurlyBraceSymbol)) {
+            if (!currentStack.isInOrder()) {
+                return getCommaInObjectSuccessor(state, nextSymbol, budget);
+            }
+            // In order, the comma is read as any other internal symbol
+            if (!currentStack.addKey(nextSymbol)) {
+                return null;
+            }
         }
 
-        final Set<PairSourceToReached<L>> sourceToSuccessorLocations = new LinkedHashSet<>();
-        for (final PairSourceToReached<L> sourceToReachedLocation : state.getSourceToReachedLocations()) {
-            final L reachedAfterTransition = automaton
-                    .getInternalSuccessor(sourceToReachedLocation.getReachedLocation(), currentIntSymbol);
-            if (reachedAfterTransition != null) {
-                sourceToSuccessorLocations.add(sourceToReachedLocation.transitionToReached(reachedAfterTransition));
+        if (state.isTrackingSources()) {
+            final Set<PairSourceToReached<L>> sourceToSuccessorLocations = new LinkedHashSet<>();
+            for (final PairSourceToReached<L> sourceToReachedLocation : state.getSourceToReachedLocations()) {
+                final L reachedAfterTransition = automaton
+                        .getInternalSuccessor(sourceToReachedLocation.getReachedLocation(), currentIntSymbol);
+                if (reachedAfterTransition != null) {
+                    sourceToSuccessorLocations.add(sourceToReachedLocation.transitionToReached(reachedAfterTransition));
+                }
             }
-        }
 
-        if (sourceToSuccessorLocations.isEmpty()) {
-            return null;
+            if (sourceToSuccessorLocations.isEmpty()) {
+                return null;
+            }
+            return new ValidationState<>(sourceToSuccessorLocations, state.getStack());
+        } else {
+            final BitSet reachedLocations = state.getReachedLocationIds();
+            final BitSet successorLocations = new BitSet(automaton.size());
+            for (int id = reachedLocations.nextSetBit(0); id >= 0; id = reachedLocations.nextSetBit(id + 1)) {
+                final L reachedAfterTransition = automaton.getInternalSuccessor(automaton.getLocation(id),
+                        currentIntSymbol);
+                if (reachedAfterTransition != null) {
+                    successorLocations.set(automaton.getLocationId(reachedAfterTransition));
+                }
+            }
+
+            if (successorLocations.isEmpty()) {
+                return null;
+            }
+            return new ValidationState<>(successorLocations, state.getStack());
         }
-        return new ValidationState<>(sourceToSuccessorLocations, state.getStack());
     }
 
     private ValidationState<L> getCommaInObjectSuccessor(ValidationState<L> state,
-            JSONSymbol nextSymbol) {
+            JSONSymbol nextSymbol, @Nullable ValidationBudget.Tracker budget) {
         final ValidationStackContents<L> currentStack = state.getStack();
         final JSONSymbol currentKey = currentStack.peekCurrentKey();
 
         markNodesToReject(currentStack, state.getSourceToReachedLocations(), currentKey);
+        if (subtreeSummaryCache == null || !currentStack.isFingerprintComplete()) {
+            addKeyToFrontier(currentStack, currentKey, budget);
+        } else {
+            final BitSet locationsBeforeCall = currentStack.peekLocationIdsBeforeCall(automaton);
+            final long firstLane = currentStack.peekFingerprintFirstLane();
+            final long secondLane = currentStack.peekFingerprintSecondLane();
+            final KeyGraphFrontier<L> cachedFrontier = subtreeSummaryCache.getFrontier(locationsBeforeCall,
+                    firstLane, secondLane);
+            if (cachedFrontier == null) {
+                addKeyToFrontier(currentStack, currentKey, budget);
+                subtreeSummaryCache.putFrontier(locationsBeforeCall, firstLane, secondLane,
+                        currentStack.peekFrontier());
+            } else {
+                currentStack.setFrontier(cachedFrontier);
+            }
+        }
 
-        if (!currentStack.addKey(nextSymbol)) {
+        // A path in the graph can not contain two keys of the same class, even if
+        // the frontier can be extended by a later key
+        if (!currentStack.addKey(nextSymbol) || currentStack.peekFrontier().containsKey(nextSymbol)) {
             return null;
         }
 
@@ -239,72 +1085,78 @@ public class ValidationByAutomaton<L> {
     }
 
     private ValidationState<L> getCallSuccessor(ValidationState<L> state, JSONSymbol currentCallSymbol,
-            JSONSymbol nextSymbol) {
-        final Set<PairSourceToReached<L>> sourceToReachedLocations = state.getSourceToReachedLocations();
-        final ValidationStackContents<L> currentStack = state.getStack();
-        final ValidationStackContents<L> newStack = ValidationStackContents
-                .push(sourceToReachedLocations, currentCallSymbol, currentStack);
+            JSONSymbol nextSymbol, boolean onlyKeyGraph) {
+        final boolean objectWithKeys = currentCallSymbol.equals(JSONSymbol.openingCurlyBraceSymbol)
+                && !nextSymbol.equals(JSONSymbol.closingCurlyBraceSymbol);
 
-        final Set<PairSourceToReached<L>> successorSourceToReachedLocations;
-        if (currentCallSymbol.equals(JSONSymbol.openingCurlyBraceSymbol)
-                && !nextSymbol.equals(JSONSymbol.closingCurlyBraceSymbol)) {
-            successorSourceToReachedLocations = PairSourceToReached
-                    .getIdentityPairs(graph.getLocationsReadingKey(nextSymbol));
+        if (objectWithKeys && inOrderFastPath && !onlyKeyGraph) {
+            // The keys are read directly from the initial location
+            final ValidationStackContents<L> newStack = ValidationStackContents.pushInOrder(state, currentCallSymbol);
             newStack.addKey(nextSymbol);
-        } else {
-            successorSourceToReachedLocations = new LinkedHashSet<>();
-            successorSourceToReachedLocations
-                    .add(PairSourceToReached.of(automaton.getInitialLocation(), automaton.getInitialLocation()));
+            final BitSet successorLocations = new BitSet(automaton.size());
+            successorLocations.set(automaton.getLocationId(automaton.getInitialLocation()));
+            return new ValidationState<>(successorLocations, newStack);
         }
 
-        if (successorSourceToReachedLocations.isEmpty()) {
-            return null;
-        }
+        final ValidationStackContents<L> newStack = ValidationStackContents.push(state, currentCallSymbol);
 
-        return new ValidationState<>(successorSourceToReachedLocations, newStack);
+        if (objectWithKeys) {
+            // Inside an object, we need to know from which location each key was read
+            final Set<PairSourceToReached<L>> successorSourceToReachedLocations = PairSourceToReached
+                    .getIdentityPairs(graph.getLocationsReadingKey(nextSymbol));
+            newStack.addKey(nextSymbol);
+            newStack.setFrontier(graph.createFrontier(state.getReachedLocations(automaton), maximalFrontierSize));
+            if (successorSourceToReachedLocations.isEmpty()) {
+                return null;
+            }
+            return new ValidationState<>(successorSourceToReachedLocations, newStack);
+        } else {
+            // Inside an array (or an empty object), the sources are never used
+            final BitSet successorLocations = new BitSet(automaton.size());
+            successorLocations.set(automaton.getLocationId(automaton.getInitialLocation()));
+            return new ValidationState<>(successorLocations, newStack);
+        }
     }
 
-    private ValidationState<L> getReturnSuccessor(ValidationState<L> state, JSONSymbol retSymbol) {
+    private ValidationState<L> getReturnSuccessor(ValidationState<L> state, JSONSymbol retSymbol,
+            @Nullable ValidationBudget.Tracker budget) {
         final ValidationStackContents<L> currentStack = state.getStack();
         if (currentStack == null) {
             return null;
         }
 
-        final Set<PairSourceToReached<L>> sourceToReachedLocationsBeforeCall = currentStack
-                .peekSourceToReachedLocationsBeforeCall();
+        final ValidationState<L> stateBeforeCall = currentStack.peekStateBeforeCall();
         final JSONSymbol callSymbol = currentStack.peekCallSymbol();
 
-        final Set<PairSourceToReached<L>> sourceToReachedLocations = state.getSourceToReachedLocations();
-
-        final Set<PairSourceToReached<L>> successorSourceToReachedLocations = new LinkedHashSet<>();
+        final ValidationState<L> successorState;
 
         if (retSymbol.equals(JSONSymbol.closingCurlyBraceSymbol) && currentStack.peekCurrentKey() != null) {
             if (!callSymbol.equals(JSONSymbol.openingCurlyBraceSymbol)) {
                 return null;
             }
+            if (currentStack.isInOrder()) {
+                // The key graph is not needed, as we directly followed the transitions
+                final ValidationState<L> successorInOrder = getSuccessorAfterReturn(stateBeforeCall,
+                        state.getReachedLocations(automaton), retSymbol, callSymbol);
+                if (successorInOrder != null) {
+                    currentStack.discardRecording();
+                    numberInOrderObjects.increment();
+                }
+                return successorInOrder;
+            }
+
             final JSONSymbol currentKey = currentStack.peekCurrentKey();
-            markNodesToReject(currentStack, sourceToReachedLocations, currentKey);
+            markNodesToReject(currentStack, state.getSourceToReachedLocations(), currentKey);
 
             final Stopwatch watch = Stopwatch.createStarted();
-            final Set<L> acceptingLocations = graph.getLocationsWithReturnTransitionOnUnmarkedPathsWithAllKeysSeen(
-                    currentStack.peekSeenKeys(), currentStack.peekReachedLocationsBeforeCall(),
-                    currentStack.peekRejectedNodes());
+            final Set<L> acceptingLocations = getLocationsReadingClosing(currentStack, currentKey, budget);
             long time = watch.stop().elapsed().toMillis();
             maxTimePathsKeyGraph = Math.max(time, maxTimePathsKeyGraph);
             totalTimePathsKeyGraph += time;
             numberPathsKeyGraph++;
 
             watch.reset().start();
-            for (final PairSourceToReached<L> sourceToReachedBeforeCall : sourceToReachedLocationsBeforeCall) {
-                final int stackSymbol = automaton.encodeStackSym(sourceToReachedBeforeCall.getReachedLocation(),
-                        callSymbol);
-                for (final L beforeReturnLocation : acceptingLocations) {
-                    final L target = automaton.getReturnSuccessor(beforeReturnLocation, retSymbol, stackSymbol);
-                    if (target != null) {
-                        successorSourceToReachedLocations.add(sourceToReachedBeforeCall.transitionToReached(target));
-                    }
-                }
-            }
+            successorState = getSuccessorAfterReturn(stateBeforeCall, acceptingLocations, retSymbol, callSymbol);
             time = watch.stop().elapsed().toMillis();
             maxTimeSuccessorObject = Math.max(time, maxTimeSuccessorObject);
             totalTimeSuccessorObject += time;
@@ -321,29 +1173,109 @@ public class ValidationByAutomaton<L> {
             }
 
             final Stopwatch watch = Stopwatch.createStarted();
-            for (final PairSourceToReached<L> sourceToReachedBeforeCall : sourceToReachedLocationsBeforeCall) {
+            successorState = getSuccessorAfterReturn(stateBeforeCall, state.getReachedLocations(automaton),
+                    retSymbol, callSymbol);
+            final long time = watch.stop().elapsed().toMillis();
+            maxTimeSuccessorArray = Math.max(time, maxTimeSuccessorArray);
+            totalTimeSuccessorArray += time;
+            numberSuccessorArray++;
+        } else {
+            return null;
+        }
+
+        return successorState;
+    }
+
+    /**
+     * Computes the state reached after reading the return symbol.
+     * 
+     * <p>
+     * The successor state uses the same representation as the state before the
+     * call, as we go back to the same object or array.
+     * </p>
+     * 
+     * @param stateBeforeCall        The state before the matching call symbol
+     * @param locationsBeforeReturn  The locations from which the return symbol is
+     *                               read
+     * @param retSymbol              The return symbol
+     * @param callSymbol             The call symbol
+     * @return The successor state, or null if no location can be reached
+     */
+    private ValidationState<L> getSuccessorAfterReturn(final ValidationState<L> stateBeforeCall,
+            final Collection<L> locationsBeforeReturn, final JSONSymbol retSymbol, final JSONSymbol callSymbol) {
+        if (stateBeforeCall.isTrackingSources()) {
+            final Set<PairSourceToReached<L>> successorSourceToReachedLocations = new LinkedHashSet<>();
+            for (final PairSourceToReached<L> sourceToReachedBeforeCall : stateBeforeCall
+                    .getSourceToReachedLocations()) {
                 final int stackSymbol = automaton.encodeStackSym(sourceToReachedBeforeCall.getReachedLocation(),
                         callSymbol);
-                for (final PairSourceToReached<L> currentSourceToReached : state.getSourceToReachedLocations()) {
-                    final L target = automaton.getReturnSuccessor(currentSourceToReached.getReachedLocation(),
-                            retSymbol, stackSymbol);
+                for (final L beforeReturnLocation : locationsBeforeReturn) {
+                    final L target = automaton.getReturnSuccessor(beforeReturnLocation, retSymbol, stackSymbol);
                     if (target != null) {
                         successorSourceToReachedLocations.add(sourceToReachedBeforeCall.transitionToReached(target));
                     }
                 }
             }
-            final long time = watch.stop().elapsed().toMillis();
-            maxTimeSuccessorArray = Math.max(time, maxTimeSuccessorArray);
-            totalTimeSuccessorArray += time;
-            numberSuccessorArray++;
+
+            if (successorSourceToReachedLocations.isEmpty()) {
+                return null;
+            }
+            return new ValidationState<>(successorSourceToReachedLocations, stateBeforeCall.getStack());
         } else {
-            return null;
+            final BitSet reachedLocationsBeforeCall = stateBeforeCall.getReachedLocationIds();
+            final BitSet successorLocations = new BitSet(automaton.size());
+            for (int id = reachedLocationsBeforeCall.nextSetBit(0); id >= 0; id = reachedLocationsBeforeCall
+                    .nextSetBit(id + 1)) {
+                final int stackSymbol = automaton.encodeStackSym(automaton.getLocation(id), callSymbol);
+                for (final L beforeReturnLocation : locationsBeforeReturn) {
+                    final L target = automaton.getReturnSuccessor(beforeReturnLocation, retSymbol, stackSymbol);
+                    if (target != null) {
+                        successorLocations.set(automaton.getLocationId(target));
+                    }
+                }
+            }
+
+            if (successorLocations.isEmpty()) {
+                return null;
+            }
+            return new ValidationState<>(successorLocations, stateBeforeCall.getStack());
         }
+    }
 
-        if (successorSourceToReachedLocations.isEmpty()) {
-            return null;
+    private Set<L> getLocationsReadingClosing(final ValidationStackContents<L> topStack,
+            final JSONSymbol lastKey, final @Nullable ValidationBudget.Tracker budget) {
+        if (subtreeSummaryCache == null || !topStack.isFingerprintComplete()) {
+            return getLocationsReadingClosingFromFrontier(topStack, lastKey, budget);
         }
-        return new ValidationState<>(successorSourceToReachedLocations, currentStack.pop());
+
+        final BitSet locationsBeforeCall = topStack.peekLocationIdsBeforeCall(automaton);
+        final long firstLane = topStack.peekFingerprintFirstLane();
+        final long secondLane = topStack.peekFingerprintSecondLane();
+        Set<L> locationsReadingClosing = subtreeSummaryCache.getLocationsReadingClosing(locationsBeforeCall,
+                firstLane, secondLane);
+        if (locationsReadingClosing == null) {
+            locationsReadingClosing = getLocationsReadingClosingFromFrontier(topStack, lastKey, budget);
+            subtreeSummaryCache.putLocationsReadingClosing(locationsBeforeCall, firstLane, secondLane,
+                    locationsReadingClosing);
+        }
+        return locationsReadingClosing;
+    }
+
+    private Set<L> getLocationsReadingClosingFromFrontier(final ValidationStackContents<L> topStack,
+            final JSONSymbol lastKey, final @Nullable ValidationBudget.Tracker budget) {
+        // The frontier already contains every key but the last one
+        addKeyToFrontier(topStack, lastKey, budget);
+        final KeyGraphFrontier<L> frontier = topStack.peekFrontier();
+        if (!frontier.hasOverflowed()) {
+            return frontier.getLocationsReadingClosing();
+        }
+        return graph.getLocationsWithReturnTransitionOnUnmarkedPathsWithAllKeysSeen(topStack.peekSeenKeys(),
+                topStack.peekStateBeforeCall().getReachedLocations(automaton), topStack.peekRejectedNodes(), budget);
+    }
+
+    private void addKeyToFrontier(final ValidationStackContents<L> topStack, final JSONSymbol key,
+            final @Nullable ValidationBudget.Tracker budget) {
+        topStack.setFrontier(topStack.peekFrontier().addKey(key, topStack.peekRejectedNodes(), budget));
     }
 
     private void markNodesToReject(final ValidationStackContents<L> topStack,
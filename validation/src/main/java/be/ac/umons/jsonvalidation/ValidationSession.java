@@ -0,0 +1,221 @@
+/*
+ * ValidatingJSONDocumentsWithLearnedVPA - Learning a visibly pushdown automaton
+ * from a JSON schema, and using it to validate JSON documents.
+ *
+ * Copyright 2022 University of Mons, University of Antwerp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package be.ac.umons.jsonvalidation;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import javax.annotation.Nullable;
+
+/**
+ * The validation of a single document whose symbols are given one by one.
+ * 
+ * <p>
+ * A session only stores the current {@link ValidationState} (i.e., the reached
+ * locations and the stack) and the last given symbol (as the successor of a
+ * symbol may depend on the next one). It can thus be suspended at any time, for
+ * instance while waiting for the next bytes of a document (see
+ * {@link ValidationStream}).
+ * </p>
+ * 
+ * <p>
+ * The in-order fast path of the validator is not used by sessions, as it may
+ * require to read the whole document again. A session is not thread-safe, but
+ * multiple sessions of the same validator can be used by different threads, as
+ * long as the options of the validator are not changed meanwhile. The
+ * {@link SubtreeSummaryCache} of the validator (if any) is synchronized.
+ * However, the statistics of the validator (for instance,
+ * {@link ValidationByAutomaton#getTotalTimePathsKeyGraph()}) are not, and are
+ * only approximate when sessions are used concurrently.
+ * </p>
+ * 
+ * <p>
+ * The session can be checkpointed at any time with
+ * {@link #checkpoint(DataOutput)}, and resumed (for instance, in another
+ * process) with {@link ValidationByAutomaton#resumeSession(DataInput)}, given
+ * a validator for the same automaton.
+ * </p>
+ * 
+ * @param <L> Location type
+ * @author Gaëtan Staquet
+ */
+public class ValidationSession<L> {
+
+    private final ValidationByAutomaton<L> validator;
+    private final @Nullable ValidationBudget.Tracker budget;
+    private @Nullable ValidationState<L> state;
+    private @Nullable JSONSymbol lastSymbol = null;
+    private boolean ended = false;
+    private boolean verdict = false;
+    private boolean budgetExceeded = false;
+
+    ValidationSession(final ValidationByAutomaton<L> validator) {
+        this(validator, null);
+    }
+
+    ValidationSession(final ValidationByAutomaton<L> validator, final @Nullable ValidationBudget.Tracker budget) {
+        this.validator = validator;
+        this.budget = budget;
+        this.state = validator.getInitialState();
+    }
+
+    /**
+     * Reads a session written by {@link #checkpoint(DataOutput)}.
+     * 
+     * @param validator The validator
+     * @param budget    The tracker of the budget of the resumed session, or null
+     * @param in        The input
+     * @return The session
+     * @throws IOException If the session can not be read
+     */
+    static <L> ValidationSession<L> resume(final ValidationByAutomaton<L> validator,
+            final @Nullable ValidationBudget.Tracker budget, final DataInput in) throws IOException {
+        Checkpoints.readHeader(validator, in);
+        final ValidationSession<L> session = new ValidationSession<>(validator, budget);
+        session.ended = in.readBoolean();
+        session.verdict = in.readBoolean();
+        session.budgetExceeded = in.readBoolean();
+        session.lastSymbol = Checkpoints.readSymbol(validator.getAlphabet(), in);
+        session.state = in.readBoolean() ? Checkpoints.readState(validator, in) : null;
+        return session;
+    }
+
+    /**
+     * Writes the state of the session, such that the validation can be resumed
+     * from the next symbol with
+     * {@link ValidationByAutomaton#resumeSession(DataInput)}.
+     * 
+     * <p>
+     * The work already done is not counted in the budget of the resumed session.
+     * </p>
+     * 
+     * @param out The output
+     * @throws IOException If the session can not be written
+     */
+    public void checkpoint(final DataOutput out) throws IOException {
+        Checkpoints.writeHeader(validator, out);
+        out.writeBoolean(ended);
+        out.writeBoolean(verdict);
+        out.writeBoolean(budgetExceeded);
+        Checkpoints.writeSymbol(lastSymbol, validator.getAlphabet(), out);
+        out.writeBoolean(state != null);
+        if (state != null) {
+            Checkpoints.writeState(validator, state, out);
+        }
+    }
+
+    /**
+     * Gives the next symbol of the document.
+     * 
+     * <p>
+     * As in {@link ValidationByAutomaton#accepts(net.automatalib.words.Word)},
+     * the document must be an object: it is rejected if the first symbol is not
+     * an opening curly brace.
+     * </p>
+     * 
+     * @param symbol The symbol
+     * @return False if the document is already rejected, true otherwise
+     */
+    public boolean feed(final JSONSymbol symbol) {
+        if (ended) {
+            throw new IllegalStateException("The session has ended");
+        }
+        if (state == null) {
+            return false;
+        }
+        if (lastSymbol != null) {
+            state = successor(lastSymbol, symbol);
+        } else if (!symbol.equals(JSONSymbol.openingCurlyBraceSymbol)) {
+            state = null;
+        }
+        lastSymbol = symbol;
+        return state != null;
+    }
+
+    private @Nullable ValidationState<L> successor(final JSONSymbol currentSymbol,
+            final @Nullable JSONSymbol nextSymbol) {
+        try {
+            return validator.getSuccessor(state, currentSymbol, nextSymbol, true, budget);
+        } catch (BudgetExceededException e) {
+            budgetExceeded = true;
+            return null;
+        }
+    }
+
+    ValidationByAutomaton<L> getValidator() {
+        return validator;
+    }
+
+    /**
+     * Whether the document is rejected no matter the symbols that are not yet
+     * given.
+     * 
+     * @return True if the document is rejected
+     */
+    public boolean isRejected() {
+        return state == null;
+    }
+
+    public boolean hasEnded() {
+        return ended;
+    }
+
+    /**
+     * Whether the validation was stopped because the budget of the session is
+     * exceeded. The session is then rejected.
+     * 
+     * @return True if the budget is exceeded
+     */
+    public boolean isBudgetExceeded() {
+        return budgetExceeded;
+    }
+
+    /**
+     * Signals that every symbol was given, and returns the verdict, which
+     * distinguishes the documents whose validation was stopped.
+     * 
+     * @return The verdict
+     */
+    public ValidationVerdict endWithVerdict() {
+        final boolean accepted = end();
+        return budgetExceeded ? ValidationVerdict.BUDGET_EXCEEDED : ValidationVerdict.of(accepted);
+    }
+
+    /**
+     * Signals that every symbol was given, and returns the verdict.
+     * 
+     * <p>
+     * Calling this method again returns the same verdict.
+     * </p>
+     * 
+     * @return True if and only if the document is accepted
+     */
+    public boolean end() {
+        if (!ended) {
+            ended = true;
+            if (state != null && lastSymbol != null) {
+                state = successor(lastSymbol, null);
+            }
+            verdict = validator.isAccepting(state);
+        }
+        return verdict;
+    }
+}
@@ -19,38 +19,70 @@
 
 package be.ac.umons.jsonvalidation;
 
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
-import java.util.stream.Collectors;
 
 import javax.annotation.Nullable;
 
+import be.ac.umons.jsonvalidation.graph.KeyGraphFrontier;
 import be.ac.umons.jsonvalidation.graph.NodeInGraph;
+import net.automatalib.automata.vpda.OneSEVPA;
 
 /**
  * The stack used in a {@link ValidationState}.
  * 
  * <p>
- * It contains a set with the source-to-reached locations before the call
- * symbol, the call symbol, the set with all the keys seen so far, a set of
- * nodes to reject in the graph, and a pointer to the rest of the stack.
+ * It contains the state before the call symbol (which also gives the rest of
+ * the stack), the call symbol, the set with all the keys seen so far, a set of
+ * nodes to reject in the graph, the frontier of the paths in the graph that are
+ * still possible, and a pointer to the rest of the stack.
+ * </p>
+ * 
+ * <p>
+ * It also maintains a rolling fingerprint of the symbols read since the call
+ * symbol, used by {@link SubtreeSummaryCache}.
+ * </p>
+ * 
+ * <p>
+ * When the in-order fast path of {@link ValidationByAutomaton} is used, an
+ * object can be read by directly following the transitions of the automaton.
+ * Such an object is marked as in order, and the symbols read since the call
+ * symbol are recorded, in order to be able to replay them with the key graph
+ * if a key does not appear in the order expected by the automaton. Only the
+ * innermost object read in order that is still open keeps its symbols: the
+ * arrays and the objects read with the key graph inside it share its recording,
+ * while pushing a nested object read in order discards it, as the symbols of the
+ * nested object are not added to it. The recording of an object is dropped once
+ * the object is closed.
  * </p>
  * 
  * @author Gaëtan Staquet
  */
 class ValidationStackContents<L> {
-    private final Set<PairSourceToReached<L>> sourceToReachedLocationsBeforeCall;
+    private final ValidationState<L> stateBeforeCall;
     private final JSONSymbol callSymbol;
     private final Set<JSONSymbol> seenKeys = new LinkedHashSet<>();
     private final Set<NodeInGraph<L>> rejectedNodes = new LinkedHashSet<>();
     private JSONSymbol currentKey = null;
-    private @Nullable final ValidationStackContents<L> rest;
+    private @Nullable KeyGraphFrontier<L> frontier = null;
+    private final boolean inOrder;
+    private final @Nullable Recording recording;
+    private long fingerprintFirstLane;
+    private long fingerprintSecondLane;
+    private boolean fingerprintComplete = true;
+    private @Nullable BitSet locationIdsBeforeCall = null;
 
-    private ValidationStackContents(final Set<PairSourceToReached<L>> sourceToReachedLocations,
-            final JSONSymbol symbol, final @Nullable ValidationStackContents<L> rest) {
-        this.sourceToReachedLocationsBeforeCall = sourceToReachedLocations;
+    private ValidationStackContents(final ValidationState<L> stateBeforeCall, final JSONSymbol symbol,
+            final boolean inOrder, final @Nullable Recording recording) {
+        this.stateBeforeCall = stateBeforeCall;
         this.callSymbol = symbol;
-        this.rest = rest;
+        this.inOrder = inOrder;
+        this.recording = recording;
+        this.fingerprintFirstLane = SubtreeSummaryCache.initialFirstLane(symbol);
+        this.fingerprintSecondLane = SubtreeSummaryCache.initialSecondLane(symbol);
     }
 
     public boolean addKey(JSONSymbol key) {
@@ -58,16 +90,8 @@ class ValidationStackContents<L> {
         return seenKeys.add(key);
     }
 
-    public Set<PairSourceToReached<L>> peekSourceToReachedLocationsBeforeCall() {
-        return sourceToReachedLocationsBeforeCall;
-    }
-
-    public Set<L> peekReachedLocationsBeforeCall() {
-        // @formatter:off
-        return sourceToReachedLocationsBeforeCall.stream()
-            .map(pair -> pair.getReachedLocation())
-            .collect(Collectors.toSet());
-        // @formatter:on
+    public ValidationState<L> peekStateBeforeCall() {
+        return stateBeforeCall;
     }
 
     public JSONSymbol peekCallSymbol() {
@@ -90,12 +114,201 @@ class ValidationStackContents<L> {
         return currentKey;
     }
 
+    void setCurrentKey(final JSONSymbol currentKey) {
+        this.currentKey = currentKey;
+    }
+
+    public @Nullable KeyGraphFrontier<L> peekFrontier() {
+        return frontier;
+    }
+
+    public void setFrontier(final KeyGraphFrontier<L> frontier) {
+        this.frontier = frontier;
+    }
+
+    /**
+     * Whether the object on top of the stack is read by directly following the
+     * transitions of the automaton.
+     * 
+     * @return True if and only if the object is read in order
+     */
+    public boolean isInOrder() {
+        return inOrder;
+    }
+
+    /**
+     * Whether an object read in order is somewhere in the stack.
+     * 
+     * <p>
+     * The symbols are only kept if that object is the innermost object read in
+     * order, and it is still open.
+     * </p>
+     * 
+     * @return True if and only if the symbols must be recorded
+     */
+    public boolean isRecording() {
+        return recording != null;
+    }
+
+    public void record(final JSONSymbol symbol) {
+        if (recording.symbols != null) {
+            recording.symbols.add(symbol);
+        }
+    }
+
+    /**
+     * Gets the symbols recorded since the call symbol, including the call symbol.
+     * 
+     * <p>
+     * This is only meaningful if the object is read in order.
+     * </p>
+     * 
+     * @return The recorded symbols, or null if they were discarded
+     */
+    public @Nullable List<JSONSymbol> getRecordedSymbolsSinceCall() {
+        return recording.symbols;
+    }
+
+    /**
+     * Discards the recorded symbols. The object read in order can then no longer
+     * be replayed.
+     */
+    public void discardRecording() {
+        recording.symbols = null;
+    }
+
+    /**
+     * Finds the closest object read in order in the stack, starting from the top
+     * of the stack.
+     * 
+     * @return The stack contents of the object, or null if there is no such object
+     */
+    public @Nullable ValidationStackContents<L> findClosestInOrder() {
+        ValidationStackContents<L> current = this;
+        while (current != null && !current.isInOrder()) {
+            current = current.pop();
+        }
+        return current;
+    }
+
+    public void updateFingerprint(final JSONSymbol symbol) {
+        final long symbolFingerprint = symbol.fingerprint();
+        fingerprintFirstLane = SubtreeSummaryCache.mixFirstLane(fingerprintFirstLane, symbolFingerprint);
+        fingerprintSecondLane = SubtreeSummaryCache.mixSecondLane(fingerprintSecondLane, symbolFingerprint);
+    }
+
+    /**
+     * Updates the fingerprint with the fingerprint of a nested object or array
+     * that was just closed.
+     * 
+     * @param nested The stack contents of the nested object or array
+     */
+    public void foldFingerprint(final ValidationStackContents<L> nested) {
+        fingerprintComplete = fingerprintComplete && nested.fingerprintComplete;
+        fingerprintFirstLane = SubtreeSummaryCache.mixFirstLane(fingerprintFirstLane, nested.fingerprintFirstLane);
+        fingerprintSecondLane = SubtreeSummaryCache.mixSecondLane(fingerprintSecondLane,
+                nested.fingerprintSecondLane);
+    }
+
+    /**
+     * Marks that a value was read without its symbols (see
+     * {@link ValidationByAutomaton#getSuccessorBySummary(ValidationState, java.util.function.Function)}).
+     * The fingerprint then no longer identifies the symbols of the object or
+     * array.
+     */
+    public void markFingerprintIncomplete() {
+        fingerprintComplete = false;
+    }
+
+    public boolean isFingerprintComplete() {
+        return fingerprintComplete;
+    }
+
+    public long peekFingerprintFirstLane() {
+        return fingerprintFirstLane;
+    }
+
+    public long peekFingerprintSecondLane() {
+        return fingerprintSecondLane;
+    }
+
+    /**
+     * Replaces the fingerprint by one read from a checkpoint (see
+     * {@link Checkpoints}).
+     * 
+     * @param firstLane  The first lane
+     * @param secondLane The second lane
+     * @param complete   Whether the fingerprint is complete
+     */
+    void restoreFingerprint(final long firstLane, final long secondLane, final boolean complete) {
+        this.fingerprintFirstLane = firstLane;
+        this.fingerprintSecondLane = secondLane;
+        this.fingerprintComplete = complete;
+    }
+
+    /**
+     * Gets the identifiers of the locations reached before the call symbol.
+     * 
+     * <p>
+     * The set is computed only once.
+     * </p>
+     * 
+     * @param automaton The automaton
+     * @return The identifiers
+     */
+    public BitSet peekLocationIdsBeforeCall(final OneSEVPA<L, ?> automaton) {
+        if (locationIdsBeforeCall == null) {
+            if (stateBeforeCall.isTrackingSources()) {
+                locationIdsBeforeCall = new BitSet(automaton.size());
+                for (final L location : stateBeforeCall.getReachedLocations(automaton)) {
+                    locationIdsBeforeCall.set(automaton.getLocationId(location));
+                }
+            } else {
+                locationIdsBeforeCall = stateBeforeCall.getReachedLocationIds();
+            }
+        }
+        return locationIdsBeforeCall;
+    }
+
     public @Nullable ValidationStackContents<L> pop() {
-        return rest;
+        return stateBeforeCall.getStack();
+    }
+
+    public static <L> ValidationStackContents<L> push(final ValidationState<L> stateBeforeCall,
+            final JSONSymbol symbol) {
+        final ValidationStackContents<L> previousStack = stateBeforeCall.getStack();
+        final Recording recording = previousStack == null ? null : previousStack.recording;
+        return new ValidationStackContents<>(stateBeforeCall, symbol, false, recording);
+    }
+
+    /**
+     * Pushes an object that is read in order.
+     * 
+     * <p>
+     * A new recording is created, starting with the call symbol. The recording of
+     * the enclosing object read in order, if any, is discarded.
+     * </p>
+     * 
+     * @param stateBeforeCall The state before the call symbol
+     * @param symbol          The call symbol
+     * @return The new stack contents
+     */
+    public static <L> ValidationStackContents<L> pushInOrder(final ValidationState<L> stateBeforeCall,
+            final JSONSymbol symbol) {
+        final ValidationStackContents<L> previousStack = stateBeforeCall.getStack();
+        if (previousStack != null && previousStack.isRecording()) {
+            previousStack.discardRecording();
+        }
+        final Recording recording = new Recording();
+        recording.symbols.add(symbol);
+        return new ValidationStackContents<>(stateBeforeCall, symbol, true, recording);
     }
 
-    public static <L> ValidationStackContents<L> push(final Set<PairSourceToReached<L>> sourceToReachedLocations,
-            final JSONSymbol symbol, final ValidationStackContents<L> rest) {
-        return new ValidationStackContents<>(sourceToReachedLocations, symbol, rest);
+    /**
+     * The symbols recorded for an object read in order, shared with the stack
+     * contents of the values nested in the object.
+     */
+    private static final class Recording {
+        private @Nullable List<JSONSymbol> symbols = new ArrayList<>();
     }
 }
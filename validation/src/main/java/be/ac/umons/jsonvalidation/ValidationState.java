@@ -19,37 +19,103 @@
 
 package be.ac.umons.jsonvalidation;
 
+import java.util.BitSet;
+import java.util.LinkedHashSet;
 import java.util.Set;
-import java.util.stream.Collectors;
+
+import javax.annotation.Nullable;
+
+import net.automatalib.automata.vpda.OneSEVPA;
 
 /**
  * The current state in an execution of {@link ValidationByAutomaton}.
  * 
  * <p>
- * It contains a set with the source and reached locations in the VPA and a stack.
+ * It contains the locations reached in the VPA and a stack.
+ * </p>
+ * 
+ * <p>
+ * The reached locations are stored in one of two ways:
+ * <ul>
+ * <li>Inside an object (i.e., when the top of the stack is a {), the source of
+ * each reached location is needed to mark the nodes of the key graph that must
+ * be rejected. The state then stores a set of
+ * {@link PairSourceToReached}.</li>
+ * <li>Everywhere else (inside an object read by the in-order fast path, inside an
+ * array, or outside of any object), the sources
+ * are never used. The state then only stores the identifiers of the reached
+ * locations, in a {@link BitSet}.</li>
+ * </ul>
+ * Use {@link #isTrackingSources()} to know which representation is used.
  * </p>
  * 
  * @author Gaëtan Staquet
  */
 public class ValidationState<L> {
-    private final Set<PairSourceToReached<L>> sourceToReachedLocations;
+    private final @Nullable Set<PairSourceToReached<L>> sourceToReachedLocations;
+    private final @Nullable BitSet reachedLocations;
     private final ValidationStackContents<L> stack;
 
     public ValidationState(final Set<PairSourceToReached<L>> sourceToReachedLocations, final ValidationStackContents<L> stack) {
         this.sourceToReachedLocations = sourceToReachedLocations;
+        this.reachedLocations = null;
+        this.stack = stack;
+    }
+
+    public ValidationState(final BitSet reachedLocations, final ValidationStackContents<L> stack) {
+        this.sourceToReachedLocations = null;
+        this.reachedLocations = reachedLocations;
         this.stack = stack;
     }
 
-    public Set<PairSourceToReached<L>> getSourceToReachedLocations() {
+    /**
+     * Whether the state stores pairs of source and reached locations, or only the
+     * reached locations.
+     * 
+     * @return True if and only if the state stores pairs
+     */
+    public boolean isTrackingSources() {
+        return sourceToReachedLocations != null;
+    }
+
+    /**
+     * Gets the pairs of source and reached locations.
+     * 
+     * @return The pairs, or null if the state does not track the sources
+     */
+    public @Nullable Set<PairSourceToReached<L>> getSourceToReachedLocations() {
         return sourceToReachedLocations;
     }
 
-    public Set<L> getReachedLocations() {
-        // @formatter:off
-        return sourceToReachedLocations.stream()
-            .map(pair -> pair.getReachedLocation())
-            .collect(Collectors.toSet());
-        // @formatter:on
+    /**
+     * Gets the identifiers of the reached locations.
+     * 
+     * @return The identifiers, or null if the state tracks the sources
+     */
+    public @Nullable BitSet getReachedLocationIds() {
+        return reachedLocations;
+    }
+
+    public boolean isEmpty() {
+        if (isTrackingSources()) {
+            return sourceToReachedLocations.isEmpty();
+        } else {
+            return reachedLocations.isEmpty();
+        }
+    }
+
+    public Set<L> getReachedLocations(final OneSEVPA<L, ?> automaton) {
+        final Set<L> locations = new LinkedHashSet<>();
+        if (isTrackingSources()) {
+            for (final PairSourceToReached<L> pair : sourceToReachedLocations) {
+                locations.add(pair.getReachedLocation());
+            }
+        } else {
+            for (int id = reachedLocations.nextSetBit(0); id >= 0; id = reachedLocations.nextSetBit(id + 1)) {
+                locations.add(automaton.getLocation(id));
+            }
+        }
+        return locations;
     }
 
     public ValidationStackContents<L> getStack() {
@@ -0,0 +1,224 @@
+/*
+ * ValidatingJSONDocumentsWithLearnedVPA - Learning a visibly pushdown automaton
+ * from a JSON schema, and using it to validate JSON documents.
+ *
+ * Copyright 2022 University of Mons, University of Antwerp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package be.ac.umons.jsonvalidation;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import javax.annotation.Nullable;
+
+import org.json.JSONException;
+
+import be.ac.umons.jsonvalidation.tokenizer.KeyDictionary;
+import be.ac.umons.jsonvalidation.tokenizer.StreamingTokenizer;
+
+/**
+ * The validation of a single document whose bytes (encoded in UTF-8) are given
+ * chunk by chunk.
+ * 
+ * <p>
+ * It combines a {@link StreamingTokenizer} and a {@link ValidationSession}.
+ * No thread is ever blocked waiting for the next bytes: the caller gives each
+ * chunk as soon as it is received (typically, from a non-blocking channel) and
+ * the state of the stream stays on the heap between two chunks. A few threads
+ * can therefore validate many documents at once.
+ * </p>
+ * 
+ * <p>
+ * The method {@link #feed(ByteBuffer, int)} returns the number of consumed
+ * bytes. A caller can limit the work done for a stream in a single call (in
+ * order to be fair with the other streams) and stop reading from the source
+ * while the remaining bytes are not consumed.
+ * </p>
+ * 
+ * <p>
+ * Between two chunks, the stream can be checkpointed with
+ * {@link #checkpoint(DataOutput)}. The checkpoint contains the state of the
+ * tokenizer and of the session, but not the bytes of the document. The
+ * validation can then be resumed with
+ * {@link ValidationByAutomaton#resumeStream(DataInput)} (for instance, in
+ * another process), by giving the bytes of the document starting from
+ * {@link #getNumberOfConsumedBytes()}.
+ * </p>
+ * 
+ * @param <L> Location type
+ * @author Gaëtan Staquet
+ */
+public class ValidationStream<L> {
+
+    private final StreamingTokenizer tokenizer;
+    private final ValidationSession<L> session;
+    private boolean malformed = false;
+
+    ValidationStream(final ValidationSession<L> session, final KeyDictionary keyDictionary) {
+        this.tokenizer = new StreamingTokenizer(keyDictionary);
+        this.session = session;
+    }
+
+    private ValidationStream(final ValidationSession<L> session, final StreamingTokenizer tokenizer,
+            final boolean malformed) {
+        this.tokenizer = tokenizer;
+        this.session = session;
+        this.malformed = malformed;
+    }
+
+    /**
+     * Reads a stream written by {@link #checkpoint(DataOutput)}.
+     * 
+     * @param validator     The validator
+     * @param budget        The tracker of the budget of the resumed stream, or
+     *                      null
+     * @param keyDictionary The dictionary of the validator
+     * @param in            The input
+     * @return The stream
+     * @throws IOException If the stream can not be read
+     */
+    static <L> ValidationStream<L> resume(final ValidationByAutomaton<L> validator,
+            final @Nullable ValidationBudget.Tracker budget, final KeyDictionary keyDictionary, final DataInput in)
+            throws IOException {
+        Checkpoints.readHeader(validator, in);
+        final boolean malformed = in.readBoolean();
+        final StreamingTokenizer tokenizer = StreamingTokenizer.readState(keyDictionary, in);
+        final ValidationSession<L> session = ValidationSession.resume(validator, budget, in);
+        return new ValidationStream<>(session, tokenizer, malformed);
+    }
+
+    /**
+     * Writes the state of the stream, such that the validation can be resumed
+     * with {@link ValidationByAutomaton#resumeStream(DataInput)} from the byte at
+     * offset {@link #getNumberOfConsumedBytes()}.
+     * 
+     * @param out The output
+     * @throws IOException If the stream can not be written
+     */
+    public void checkpoint(final DataOutput out) throws IOException {
+        Checkpoints.writeHeader(session.getValidator(), out);
+        out.writeBoolean(malformed);
+        tokenizer.writeState(out);
+        session.checkpoint(out);
+    }
+
+    /**
+     * Sets the maximal number of bytes of a string or literal of the document. A
+     * longer token makes the document malformed.
+     * 
+     * @param maximumTokenLength The maximal length, in bytes
+     * @see StreamingTokenizer#setMaximumTokenLength(int)
+     */
+    public void setMaximumTokenLength(final int maximumTokenLength) {
+        tokenizer.setMaximumTokenLength(maximumTokenLength);
+    }
+
+    /**
+     * Consumes every remaining byte of the chunk, unless the document is
+     * rejected.
+     * 
+     * @param chunk The chunk
+     * @return The number of consumed bytes
+     * @see #feed(ByteBuffer, int)
+     */
+    public int feed(final ByteBuffer chunk) {
+        return feed(chunk, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Consumes bytes from the chunk, starting from its current position.
+     * 
+     * <p>
+     * The method stops once the chunk is consumed, once {@code maxSymbols}
+     * symbols are read, or once the document is rejected. Once the document is
+     * rejected, no byte is consumed anymore. The position of the chunk is
+     * advanced by the number of consumed bytes.
+     * </p>
+     * 
+     * @param chunk      The chunk
+     * @param maxSymbols The maximal number of symbols to read in this call
+     * @return The number of consumed bytes
+     */
+    public int feed(final ByteBuffer chunk, final int maxSymbols) {
+        if (isRejected()) {
+            return 0;
+        }
+        try {
+            return tokenizer.feed(chunk, maxSymbols, session::feed);
+        } catch (JSONException e) {
+            malformed = true;
+            return 0;
+        }
+    }
+
+    /**
+     * Whether the document is rejected, either because it is not a valid JSON
+     * document, or because it is rejected by the automaton no matter the bytes
+     * that are not yet given.
+     * 
+     * @return True if the document is rejected
+     */
+    public boolean isRejected() {
+        return malformed || session.isRejected();
+    }
+
+    /**
+     * Whether the validation was stopped because the budget of the stream is
+     * exceeded (see {@link ValidationByAutomaton#newStream(ValidationBudget)}).
+     * 
+     * @return True if the budget is exceeded
+     */
+    public boolean isBudgetExceeded() {
+        return session.isBudgetExceeded();
+    }
+
+    /**
+     * Whether the bytes are not a valid JSON document, or contain a key that is
+     * rejected by the {@link KeyDictionary} of the validator.
+     * 
+     * @return True if the document is malformed
+     */
+    public boolean isMalformed() {
+        return malformed;
+    }
+
+    /**
+     * The number of consumed bytes.
+     * 
+     * @return The number of bytes
+     */
+    public long getNumberOfConsumedBytes() {
+        return tokenizer.getPosition();
+    }
+
+    /**
+     * Signals that every byte was given, and returns the verdict.
+     * 
+     * @return True if and only if the document is accepted
+     */
+    public boolean end() {
+        if (!malformed && !session.hasEnded()) {
+            try {
+                tokenizer.end(session::feed);
+            } catch (JSONException e) {
+                malformed = true;
+            }
+        }
+        return !malformed && session.end();
+    }
+}
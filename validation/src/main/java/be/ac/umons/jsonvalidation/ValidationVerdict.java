@@ -0,0 +1,38 @@
+/*
+ * ValidatingJSONDocumentsWithLearnedVPA - Learning a visibly pushdown automaton
+ * from a JSON schema, and using it to validate JSON documents.
+ *
+ * Copyright 2022 University of Mons, University of Antwerp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package be.ac.umons.jsonvalidation;
+
+/**
+ * The result of the validation of a document with a {@link ValidationBudget}.
+ * 
+ * @author Gaëtan Staquet
+ */
+public enum ValidationVerdict {
+    ACCEPTED,
+    REJECTED,
+    /**
+     * The validation was stopped before a verdict was known.
+     */
+    BUDGET_EXCEEDED;
+
+    public static ValidationVerdict of(final boolean accepted) {
+        return accepted ? ACCEPTED : REJECTED;
+    }
+}
@@ -0,0 +1,288 @@
+/*
+ * ValidatingJSONDocumentsWithLearnedVPA - Learning a visibly pushdown automaton
+ * from a JSON schema, and using it to validate JSON documents.
+ *
+ * Copyright 2022 University of Mons, University of Antwerp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package be.ac.umons.jsonvalidation;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.Nullable;
+
+import be.ac.umons.jsonvalidation.graph.KeyGraph;
+import de.learnlib.api.logging.LearnLogger;
+import net.automatalib.automata.vpda.OneSEVPA;
+
+/**
+ * A handle on the validator of a schema, whose automaton can be replaced while
+ * documents are being validated.
+ * 
+ * <p>
+ * Each automaton given to the handle becomes a new {@link Version}. Building a
+ * version (i.e., computing the key graph and creating the
+ * {@link ValidationByAutomaton}) is done on an {@link Executor}, and the
+ * current version is atomically replaced once the new one is ready. Validation
+ * never waits for a version to be built.
+ * </p>
+ * 
+ * <p>
+ * In order to validate a document, or to run a {@link ValidationSession} or a
+ * {@link ValidationStream}, one must first {@link #acquire()} a {@link Lease}
+ * on the current version. The lease pins its version: a document whose
+ * validation started before a swap finishes on the old version. Once a
+ * replaced version has no lease left, its validator and key graph are no longer
+ * referenced by the handle and can be garbage collected.
+ * </p>
+ * 
+ * <p>
+ * The in-order fast path, the macro-transitions and the unknown key policy of
+ * the current validator are copied to the new one. The caches are not copied, as their contents are
+ * only meaningful for the automaton they were filled with.
+ * </p>
+ * 
+ * <p>
+ * The handle itself is thread-safe. However, a {@link ValidationByAutomaton}
+ * is not: leases on the same version share the validator, so the validator
+ * must not use caches if leases are used from multiple threads.
+ * </p>
+ * 
+ * @param <L> Location type
+ * @author Gaëtan Staquet
+ */
+public class VersionedValidator<L> {
+
+    private static final LearnLogger LOGGER = LearnLogger.getLogger(VersionedValidator.class);
+
+    private final AtomicReference<Version<L>> current;
+    private final AtomicLong lastVersionNumber = new AtomicLong(0);
+
+    /**
+     * Creates the handle, using the given validator as the first version.
+     * 
+     * @param validator The validator of the first version
+     */
+    public VersionedValidator(final ValidationByAutomaton<L> validator) {
+        this.current = new AtomicReference<>(new Version<>(lastVersionNumber.incrementAndGet(), validator));
+    }
+
+    /**
+     * Gets the version that is currently handed to new leases.
+     * 
+     * @return The current version
+     */
+    public Version<L> getCurrentVersion() {
+        return current.get();
+    }
+
+    /**
+     * Acquires a lease on the current version.
+     * 
+     * <p>
+     * The lease must be closed once the validation is done, or the version will
+     * never be released.
+     * </p>
+     * 
+     * @return A lease on the current version
+     */
+    public Lease<L> acquire() {
+        while (true) {
+            final Version<L> version = current.get();
+            if (version.tryAcquire()) {
+                return new Lease<>(version);
+            }
+            // The version was replaced and released between the read and the
+            // acquisition; the next read gives the new version
+        }
+    }
+
+    /**
+     * Validates a document on the current version.
+     * 
+     * @param document The bytes of the document
+     * @return True if and only if the document is accepted
+     * @see ValidationByAutomaton#accepts(byte[])
+     */
+    public boolean accepts(final byte[] document) {
+        try (Lease<L> lease = acquire()) {
+            return lease.getValidator().accepts(document);
+        }
+    }
+
+    /**
+     * Builds a new version for the given automaton on the executor, and makes
+     * it the current version once it is built.
+     * 
+     * <p>
+     * The returned future fails with an {@link IllegalArgumentException} if the
+     * key graph of the automaton can not be used for validation; the current
+     * version is then kept.
+     * </p>
+     * 
+     * @param automaton The new automaton
+     * @param executor  The executor on which the version is built
+     * @return A future completed with the new version, once it is current
+     */
+    public CompletableFuture<Version<L>> update(final OneSEVPA<L, JSONSymbol> automaton, final Executor executor) {
+        return CompletableFuture.supplyAsync(() -> {
+            final KeyGraph<L> graph = KeyGraph.graphFor(automaton, false);
+            if (graph == null || !graph.isValid()) {
+                throw new IllegalArgumentException("The key graph of the new automaton can not be used");
+            }
+            return new ValidationByAutomaton<>(automaton, graph);
+        }, executor).thenApply(this::swap);
+    }
+
+    /**
+     * Makes the given validator the current version.
+     * 
+     * @param validator The validator of the new version
+     * @return The new version
+     */
+    public Version<L> swap(final ValidationByAutomaton<L> validator) {
+        final Version<L> newVersion = new Version<>(lastVersionNumber.incrementAndGet(), validator);
+        final Version<L> oldVersion = current.getAndUpdate(previous -> {
+            validator.setInOrderFastPath(previous.validator.isUsingInOrderFastPath());
+            validator.setMacroTransitions(previous.validator.isUsingMacroTransitions());
+            validator.setUnknownKeyPolicy(previous.validator.getUnknownKeyPolicy());
+            return newVersion;
+        });
+        LOGGER.info("Switched from version " + oldVersion.getNumber() + " to version " + newVersion.getNumber());
+        // The handle no longer owns the old version
+        oldVersion.current = false;
+        oldVersion.release();
+        return newVersion;
+    }
+
+    /**
+     * A version of the validator.
+     * 
+     * <p>
+     * A version counts its leases, plus one while it is the current version.
+     * When the count drops to zero, the version is released: its validator is
+     * dropped, and {@link #whenReleased()} completes.
+     * </p>
+     * 
+     * @param <L> Location type
+     */
+    public static final class Version<L> {
+        private final long number;
+        private final AtomicInteger references = new AtomicInteger(1);
+        private final CompletableFuture<Void> released = new CompletableFuture<>();
+        private volatile @Nullable ValidationByAutomaton<L> validator;
+        private volatile boolean current = true;
+
+        private Version(final long number, final ValidationByAutomaton<L> validator) {
+            this.number = number;
+            this.validator = validator;
+        }
+
+        public long getNumber() {
+            return number;
+        }
+
+        /**
+         * Gets the number of open leases on this version.
+         * 
+         * @return The number of leases
+         */
+        public int getNumberOfLeases() {
+            final int count = references.get();
+            return current ? Math.max(0, count - 1) : count;
+        }
+
+        /**
+         * Whether the version was released, i.e., it was replaced and all its
+         * leases were closed.
+         * 
+         * @return True if and only if the version is released
+         */
+        public boolean isReleased() {
+            return released.isDone();
+        }
+
+        /**
+         * Gets a future that is completed once the version is released.
+         * 
+         * @return The future
+         */
+        public CompletableFuture<Void> whenReleased() {
+            return released;
+        }
+
+        private boolean tryAcquire() {
+            while (true) {
+                final int count = references.get();
+                if (count == 0) {
+                    return false;
+                }
+                if (references.compareAndSet(count, count + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        private void release() {
+            if (references.decrementAndGet() == 0) {
+                validator = null;
+                released.complete(null);
+            }
+        }
+    }
+
+    /**
+     * A lease on a version, which keeps the version alive until it is closed.
+     * 
+     * @param <L> Location type
+     */
+    public static final class Lease<L> implements AutoCloseable {
+        private final Version<L> version;
+        private boolean closed = false;
+
+        private Lease(final Version<L> version) {
+            this.version = version;
+        }
+
+        public Version<L> getVersion() {
+            return version;
+        }
+
+        /**
+         * Gets the validator of the leased version.
+         * 
+         * @return The validator
+         * @throws IllegalStateException If the lease is closed
+         */
+        public ValidationByAutomaton<L> getValidator() {
+            if (closed) {
+                throw new IllegalStateException("The lease is closed");
+            }
+            return version.validator;
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                version.release();
+            }
+        }
+    }
+}
@@ -65,7 +65,7 @@ public class WordConversion {
                 wordBuilder.add(JSONSymbol.commaSymbol);
             }
             first = false;
-            wordBuilder.add(toSymbol("\"" + key + "\":"));
+            wordBuilder.add(keyToSymbol(key));
 
             Object o = object.get(key);
             if (o instanceof JSONObject) {
@@ -76,14 +76,8 @@ public class WordConversion {
                 wordBuilder.add(toSymbol("["));
                 fromJSONArrayToJSONWord((JSONArray) o, shuffleKeys, rand, wordBuilder);
                 wordBuilder.add(toSymbol("]"));
-            } else if (o instanceof Boolean) {
-                wordBuilder.add(toSymbol(o.toString()));
             } else {
-                if (Objects.equals(o, JSONObject.NULL)) {
-                    wordBuilder.add(toSymbol(o.toString()));
-                } else {
-                    wordBuilder.add(toSymbol("\"" + o.toString() + "\""));
-                }
+                wordBuilder.add(primitiveValueToSymbol(o));
             }
         }
     }
@@ -104,16 +98,37 @@ public class WordConversion {
                 wordBuilder.add(toSymbol("["));
                 fromJSONArrayToJSONWord((JSONArray) o, shuffleKeys, rand, wordBuilder);
                 wordBuilder.add(toSymbol("]"));
-            } else if (o instanceof Boolean) {
-                wordBuilder.add(toSymbol(o.toString()));
-            } else if (Objects.equals(o, JSONObject.NULL)) {
-                wordBuilder.add(toSymbol(o.toString()));
             } else {
-                wordBuilder.add(toSymbol("\"" + o.toString() + "\""));
+                wordBuilder.add(primitiveValueToSymbol(o));
             }
         }
     }
 
+    /**
+     * Converts a key of an object to the symbol reading the key.
+     * 
+     * @param key The key
+     * @return The symbol
+     */
+    public static JSONSymbol keyToSymbol(String key) {
+        return toSymbol("\"" + key + "\":");
+    }
+
+    /**
+     * Converts a value that is neither an object nor an array to a symbol.
+     * 
+     * @param value The value, as given by {@link JSONObject#get(String)} or
+     *              {@link JSONArray#get(int)}
+     * @return The symbol
+     */
+    public static JSONSymbol primitiveValueToSymbol(Object value) {
+        if (value instanceof Boolean || Objects.equals(value, JSONObject.NULL)) {
+            return toSymbol(value.toString());
+        } else {
+            return toSymbol("\"" + value.toString() + "\"");
+        }
+    }
+
     public static String fromJSONSymbolWordToString(Word<JSONSymbol> word) {
         StringBuilder stringBuilder = new StringBuilder();
         for (JSONSymbol symbol : word) {
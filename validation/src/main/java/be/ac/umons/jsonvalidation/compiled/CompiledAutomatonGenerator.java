@@ -0,0 +1,506 @@
+/*
+ * ValidatingJSONDocumentsWithLearnedVPA - Learning a visibly pushdown automaton
+ * from a JSON schema, and using it to validate JSON documents.
+ *
+ * Copyright 2022 University of Mons, University of Antwerp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package be.ac.umons.jsonvalidation.compiled;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import com.google.common.collect.Lists;
+
+import be.ac.umons.jsonvalidation.JSONSymbol;
+import net.automatalib.automata.vpda.OneSEVPA;
+import net.automatalib.words.Alphabet;
+import net.automatalib.words.VPDAlphabet;
+
+/**
+ * Generates the Java source of a {@link CompiledOneSEVPA} specialized for a
+ * given 1-SEVPA.
+ * 
+ * <p>
+ * The generated class does not store any transition table. Instead:
+ * <ul>
+ * <li>the symbols are mapped to their indices by a {@code switch} over the
+ * strings of the symbols (i.e., a constant table fixed at compilation
+ * time),</li>
+ * <li>the transitions are nested {@code switch} statements (one method per
+ * location and, for the return transitions, per symbol),</li>
+ * <li>the accepting locations are checked by an unrolled comparison.</li>
+ * </ul>
+ * As the bytecode of a method can not exceed 64KB, a method never has more
+ * than {@link #MAXIMAL_NUMBER_OF_CASES} cases (or comparisons). Larger
+ * {@code switch} statements are split between multiple methods.
+ * The generated source can be written to a file and compiled with the rest of
+ * a project (see {@link #writeSource(OneSEVPA, String, String, Path)}), or
+ * compiled at runtime (see {@link RuntimeCompiler}).
+ * </p>
+ * 
+ * <p>
+ * The identifiers of the locations and the indices of the symbols are the same
+ * than in the original automaton. In particular, the encoding of the stack
+ * symbols does not change.
+ * </p>
+ * 
+ * @author Gaëtan Staquet
+ */
+public final class CompiledAutomatonGenerator {
+
+    /**
+     * The maximal number of cases of a {@code switch} in a generated method.
+     */
+    public static final int MAXIMAL_NUMBER_OF_CASES = 256;
+    private static final int MAXIMAL_NUMBER_OF_ELEMENTS = 1024;
+
+    private CompiledAutomatonGenerator() {
+    }
+
+    /**
+     * Generates the Java source of a class extending {@link CompiledOneSEVPA}
+     * that behaves like the given automaton.
+     * 
+     * @param <L>         Location type
+     * @param automaton   The automaton
+     * @param packageName The package of the generated class. If empty, the class
+     *                    is in the default package
+     * @param className   The simple name of the generated class
+     * @return The source
+     */
+    public static <L> String generateSource(final OneSEVPA<L, JSONSymbol> automaton, final String packageName,
+            final String className) {
+        final VPDAlphabet<JSONSymbol> alphabet = automaton.getInputAlphabet();
+        final StringBuilder builder = new StringBuilder();
+        final boolean splitSymbols = alphabet.getNumInternals() > MAXIMAL_NUMBER_OF_ELEMENTS
+                || alphabet.getNumCalls() > MAXIMAL_NUMBER_OF_ELEMENTS
+                || alphabet.getNumReturns() > MAXIMAL_NUMBER_OF_ELEMENTS;
+
+        if (!packageName.isEmpty()) {
+            builder.append("package ").append(packageName).append(";\n\n");
+        }
+        builder.append("import java.util.ArrayList;\n");
+        if (splitSymbols) {
+            builder.append("import java.util.Arrays;\n");
+        }
+        builder.append("import java.util.List;\n\n");
+        builder.append("import be.ac.umons.jsonvalidation.JSONSymbol;\n");
+        builder.append("import be.ac.umons.jsonvalidation.compiled.CompiledOneSEVPA;\n");
+        builder.append("import net.automatalib.automata.vpda.Location;\n");
+        builder.append("import net.automatalib.words.VPDAlphabet;\n");
+        builder.append("import net.automatalib.words.impl.Alphabets;\n");
+        builder.append("import net.automatalib.words.impl.DefaultVPDAlphabet;\n\n");
+
+        builder.append("/**\n * Generated by {@link ")
+                .append(CompiledAutomatonGenerator.class.getName()).append("}.\n */\n");
+        builder.append("public final class ").append(className).append(" extends CompiledOneSEVPA {\n\n");
+        builder.append("    public static final int NUMBER_OF_LOCATIONS = ").append(automaton.size()).append(";\n");
+        builder.append("    public static final int INITIAL_LOCATION = ")
+                .append(automaton.getLocationId(automaton.getInitialLocation())).append(";\n\n");
+        appendSymbols(builder, "INTERNAL_SYMBOLS", "internalSymbolsPart", alphabet.getInternalAlphabet());
+        appendSymbols(builder, "CALL_SYMBOLS", "callSymbolsPart", alphabet.getCallAlphabet());
+        appendSymbols(builder, "RETURN_SYMBOLS", "returnSymbolsPart", alphabet.getReturnAlphabet());
+        if (splitSymbols) {
+            appendConcatenate(builder);
+        }
+
+        builder.append("    public ").append(className).append("() {\n");
+        builder.append("        this(createAlphabet(), null);\n");
+        builder.append("    }\n\n");
+        builder.append("    public ").append(className)
+                .append("(final VPDAlphabet<JSONSymbol> alphabet, final List<Location> locations) {\n");
+        builder.append("        super(alphabet, locations, NUMBER_OF_LOCATIONS, INITIAL_LOCATION);\n");
+        builder.append("    }\n\n");
+
+        builder.append("    public static VPDAlphabet<JSONSymbol> createAlphabet() {\n");
+        builder.append("        return new DefaultVPDAlphabet<>(Alphabets.fromList(toSymbols(INTERNAL_SYMBOLS)),\n");
+        builder.append("                Alphabets.fromList(toSymbols(CALL_SYMBOLS)), ")
+                .append("Alphabets.fromList(toSymbols(RETURN_SYMBOLS)));\n");
+        builder.append("    }\n\n");
+        builder.append("    private static List<JSONSymbol> toSymbols(final String[] symbols) {\n");
+        builder.append("        final List<JSONSymbol> list = new ArrayList<>(symbols.length);\n");
+        builder.append("        for (final String symbol : symbols) {\n");
+        builder.append("            list.add(JSONSymbol.toSymbol(symbol));\n");
+        builder.append("        }\n");
+        builder.append("        return list;\n");
+        builder.append("    }\n\n");
+
+        appendSymbolIndex(builder, "internalSymbolIndex", alphabet.getInternalAlphabet());
+        appendSymbolIndex(builder, "returnSymbolIndex", alphabet.getReturnAlphabet());
+        appendInternalSuccessors(builder, automaton, alphabet);
+        appendReturnSuccessors(builder, automaton, alphabet);
+        appendAccepting(builder, automaton);
+
+        builder.append("}\n");
+        return builder.toString();
+    }
+
+    /**
+     * Generates the source of the class and writes it in the given root
+     * directory, in the sub-directories corresponding to the package.
+     * 
+     * @param <L>           Location type
+     * @param automaton     The automaton
+     * @param packageName   The package of the generated class
+     * @param className     The simple name of the generated class
+     * @param rootDirectory The root directory of the sources
+     * @return The path to the written file
+     * @throws IOException If it is not possible to write the file
+     */
+    public static <L> Path writeSource(final OneSEVPA<L, JSONSymbol> automaton, final String packageName,
+            final String className, final Path rootDirectory) throws IOException {
+        Path directory = rootDirectory;
+        if (!packageName.isEmpty()) {
+            for (final String part : packageName.split("\\.")) {
+                directory = directory.resolve(part);
+            }
+        }
+        Files.createDirectories(directory);
+        final Path file = directory.resolve(className + ".java");
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write(generateSource(automaton, packageName, className));
+        }
+        return file;
+    }
+
+    private static void appendSymbols(final StringBuilder builder, final String name, final String partName,
+            final Alphabet<JSONSymbol> alphabet) {
+        if (alphabet.size() <= MAXIMAL_NUMBER_OF_ELEMENTS) {
+            builder.append("    private static final String[] ").append(name).append(" = {\n");
+            appendElements(builder, alphabet, 0, alphabet.size(), "        ");
+            builder.append("    };\n\n");
+            return;
+        }
+
+        // The elements are added in the static initializer, whose size is limited
+        final int numberOfParts = numberOfParts(alphabet.size(), MAXIMAL_NUMBER_OF_ELEMENTS);
+        builder.append("    private static final String[] ").append(name).append(" = concatenate(");
+        for (int part = 0; part < numberOfParts; part++) {
+            builder.append(part == 0 ? "" : ", ").append(partName).append(part).append("()");
+        }
+        builder.append(");\n\n");
+        for (int part = 0; part < numberOfParts; part++) {
+            builder.append("    private static String[] ").append(partName).append(part).append("() {\n");
+            builder.append("        return new String[] {\n");
+            final int from = part * MAXIMAL_NUMBER_OF_ELEMENTS;
+            appendElements(builder, alphabet, from, Math.min(from + MAXIMAL_NUMBER_OF_ELEMENTS, alphabet.size()),
+                    "            ");
+            builder.append("        };\n");
+            builder.append("    }\n\n");
+        }
+    }
+
+    private static void appendElements(final StringBuilder builder, final Alphabet<JSONSymbol> alphabet,
+            final int from, final int to, final String indent) {
+        for (int i = from; i < to; i++) {
+            builder.append(indent).append(toJavaString(alphabet.getSymbol(i).toString())).append(",\n");
+        }
+    }
+
+    private static void appendConcatenate(final StringBuilder builder) {
+        builder.append("    private static String[] concatenate(final String[]... parts) {\n");
+        builder.append("        final List<String> list = new ArrayList<>();\n");
+        builder.append("        for (final String[] part : parts) {\n");
+        builder.append("            list.addAll(Arrays.asList(part));\n");
+        builder.append("        }\n");
+        builder.append("        return list.toArray(new String[list.size()]);\n");
+        builder.append("    }\n\n");
+    }
+
+    private static void appendSymbolIndex(final StringBuilder builder, final String methodName,
+            final Alphabet<JSONSymbol> alphabet) {
+        builder.append("    @Override\n");
+        builder.append("    protected int ").append(methodName).append("(final JSONSymbol symbol) {\n");
+        if (alphabet.size() <= MAXIMAL_NUMBER_OF_CASES) {
+            final Map<String, Integer> cases = new LinkedHashMap<>();
+            for (int i = 0; i < alphabet.size(); i++) {
+                cases.put(alphabet.getSymbol(i).toString(), i);
+            }
+            appendStringSwitch(builder, "symbol.toString()", cases);
+            builder.append("    }\n\n");
+            return;
+        }
+
+        // The strings are distributed over multiple methods, according to their hash codes
+        final int numberOfParts = numberOfParts(alphabet.size(), MAXIMAL_NUMBER_OF_CASES);
+        final List<Map<String, Integer>> parts = new ArrayList<>(numberOfParts);
+        for (int part = 0; part < numberOfParts; part++) {
+            parts.add(new LinkedHashMap<>());
+        }
+        for (int i = 0; i < alphabet.size(); i++) {
+            final String string = alphabet.getSymbol(i).toString();
+            parts.get(Math.floorMod(string.hashCode(), numberOfParts)).put(string, i);
+        }
+
+        builder.append("        final String string = symbol.toString();\n");
+        builder.append("        switch (Math.floorMod(string.hashCode(), ").append(numberOfParts).append(")) {\n");
+        for (int part = 0; part < numberOfParts; part++) {
+            if (!parts.get(part).isEmpty()) {
+                builder.append("        case ").append(part).append(":\n");
+                builder.append("            return ").append(methodName).append("Part").append(part)
+                        .append("(string);\n");
+            }
+        }
+        builder.append("        default:\n");
+        builder.append("            return -1;\n");
+        builder.append("        }\n");
+        builder.append("    }\n\n");
+
+        for (int part = 0; part < numberOfParts; part++) {
+            if (!parts.get(part).isEmpty()) {
+                builder.append("    private static int ").append(methodName).append("Part").append(part)
+                        .append("(final String string) {\n");
+                appendStringSwitch(builder, "string", parts.get(part));
+                builder.append("    }\n\n");
+            }
+        }
+    }
+
+    private static void appendStringSwitch(final StringBuilder builder, final String expression,
+            final Map<String, Integer> cases) {
+        builder.append("        switch (").append(expression).append(") {\n");
+        for (final Map.Entry<String, Integer> entry : cases.entrySet()) {
+            builder.append("        case ").append(toJavaString(entry.getKey())).append(":\n");
+            builder.append("            return ").append(entry.getValue()).append(";\n");
+        }
+        builder.append("        default:\n");
+        builder.append("            return -1;\n");
+        builder.append("        }\n");
+    }
+
+    private static <L> void appendInternalSuccessors(final StringBuilder builder,
+            final OneSEVPA<L, JSONSymbol> automaton, final VPDAlphabet<JSONSymbol> alphabet) {
+        final StringBuilder perLocation = new StringBuilder();
+        final SortedMap<Integer, String> locationCases = new TreeMap<>();
+        for (final L location : automaton.getLocations()) {
+            final int id = automaton.getLocationId(location);
+            final SortedMap<Integer, String> targets = new TreeMap<>();
+            for (int i = 0; i < alphabet.getNumInternals(); i++) {
+                final L target = automaton.getInternalSuccessor(location, alphabet.getInternalSymbol(i));
+                if (target != null) {
+                    targets.put(i, "return " + automaton.getLocationId(target) + ";");
+                }
+            }
+            if (targets.isEmpty()) {
+                continue;
+            }
+
+            locationCases.put(id, "return internalSuccessorFrom" + id + "(symbolIndex);");
+            appendSwitchMethod(perLocation, "private static", "internalSuccessorFrom" + id,
+                    "final int symbolIndex", "symbolIndex", "symbolIndex", targets);
+        }
+        builder.append("    @Override\n");
+        appendSwitchMethod(builder, "protected", "internalSuccessor", "final int location, final int symbolIndex",
+                "location, symbolIndex", "location", locationCases);
+        builder.append(perLocation);
+    }
+
+    private static <L> void appendReturnSuccessors(final StringBuilder builder,
+            final OneSEVPA<L, JSONSymbol> automaton, final VPDAlphabet<JSONSymbol> alphabet) {
+        final StringBuilder perLocation = new StringBuilder();
+        final SortedMap<Integer, String> locationCases = new TreeMap<>();
+        for (final L location : automaton.getLocations()) {
+            final int id = automaton.getLocationId(location);
+            final StringBuilder perSymbol = new StringBuilder();
+            final SortedMap<Integer, String> symbolCases = new TreeMap<>();
+            for (int i = 0; i < alphabet.getNumReturns(); i++) {
+                final JSONSymbol returnSymbol = alphabet.getReturnSymbol(i);
+                // Stack symbol -> target
+                final SortedMap<Integer, String> targets = new TreeMap<>();
+                for (final L locationBeforeCall : automaton.getLocations()) {
+                    for (final JSONSymbol callSymbol : alphabet.getCallAlphabet()) {
+                        final int stackSymbol = automaton.encodeStackSym(locationBeforeCall, callSymbol);
+                        final L target = automaton.getReturnSuccessor(location, returnSymbol, stackSymbol);
+                        if (target != null) {
+                            targets.put(stackSymbol, "return " + automaton.getLocationId(target) + ";");
+                        }
+                    }
+                }
+                if (targets.isEmpty()) {
+                    continue;
+                }
+
+                final String methodName = "returnSuccessorFrom" + id + "On" + i;
+                symbolCases.put(i, "return " + methodName + "(stackSymbol);");
+                appendSwitchMethod(perSymbol, "private static", methodName, "final int stackSymbol", "stackSymbol",
+                        "stackSymbol", targets);
+            }
+            if (symbolCases.isEmpty()) {
+                continue;
+            }
+
+            locationCases.put(id, "return returnSuccessorFrom" + id + "(symbolIndex, stackSymbol);");
+            appendSwitchMethod(perLocation, "private static", "returnSuccessorFrom" + id,
+                    "final int symbolIndex, final int stackSymbol", "symbolIndex, stackSymbol", "symbolIndex",
+                    symbolCases);
+            perLocation.append(perSymbol);
+        }
+        builder.append("    @Override\n");
+        appendSwitchMethod(builder, "protected", "returnSuccessor",
+                "final int location, final int symbolIndex, final int stackSymbol",
+                "location, symbolIndex, stackSymbol", "location", locationCases);
+        builder.append(perLocation);
+    }
+
+    /**
+     * Appends a method returning the integer given by the case of a
+     * {@code switch} over a variable, or -1 if no case matches.
+     * 
+     * <p>
+     * As the bytecode of a method can not exceed 64KB, a method has at most
+     * {@link #MAXIMAL_NUMBER_OF_CASES} cases. If there are more cases, they are
+     * split between multiple methods, and the appended method selects the
+     * correct one with a binary search over the values of the variable.
+     * </p>
+     * 
+     * @param builder    The builder
+     * @param modifiers  The modifiers of the method
+     * @param name       The name of the method
+     * @param parameters The declaration of the parameters
+     * @param arguments  The parameters, given as arguments to the other methods
+     * @param variable   The variable of the {@code switch}
+     * @param cases      For each value of the variable, the statement to execute
+     */
+    private static void appendSwitchMethod(final StringBuilder builder, final String modifiers, final String name,
+            final String parameters, final String arguments, final String variable,
+            final SortedMap<Integer, String> cases) {
+        builder.append("    ").append(modifiers).append(" int ").append(name).append("(").append(parameters)
+                .append(") {\n");
+        if (cases.size() <= MAXIMAL_NUMBER_OF_CASES) {
+            builder.append("        switch (").append(variable).append(") {\n");
+            for (final Map.Entry<Integer, String> entry : cases.entrySet()) {
+                builder.append("        case ").append(entry.getKey()).append(":\n");
+                builder.append("            ").append(entry.getValue()).append("\n");
+            }
+            builder.append("        default:\n");
+            builder.append("            return -1;\n");
+            builder.append("        }\n");
+            builder.append("    }\n\n");
+            return;
+        }
+
+        final List<SortedMap<Integer, String>> parts = new ArrayList<>();
+        for (final Map.Entry<Integer, String> entry : cases.entrySet()) {
+            if (parts.isEmpty() || parts.get(parts.size() - 1).size() == MAXIMAL_NUMBER_OF_CASES) {
+                parts.add(new TreeMap<>());
+            }
+            parts.get(parts.size() - 1).put(entry.getKey(), entry.getValue());
+        }
+        appendPartSelection(builder, name, arguments, variable, parts, 0, parts.size() - 1, "        ");
+        builder.append("    }\n\n");
+        for (int part = 0; part < parts.size(); part++) {
+            appendSwitchMethod(builder, "private static", name + "Part" + part, parameters, arguments, variable,
+                    parts.get(part));
+        }
+    }
+
+    private static void appendPartSelection(final StringBuilder builder, final String name, final String arguments,
+            final String variable, final List<SortedMap<Integer, String>> parts, final int low, final int high,
+            final String indent) {
+        if (low == high) {
+            builder.append(indent).append("return ").append(name).append("Part").append(low).append("(")
+                    .append(arguments).append(");\n");
+            return;
+        }
+        final int middle = (low + high + 1) / 2;
+        builder.append(indent).append("if (").append(variable).append(" < ").append(parts.get(middle).firstKey())
+                .append(") {\n");
+        appendPartSelection(builder, name, arguments, variable, parts, low, middle - 1, indent + "    ");
+        builder.append(indent).append("}\n");
+        appendPartSelection(builder, name, arguments, variable, parts, middle, high, indent);
+    }
+
+    private static <L> void appendAccepting(final StringBuilder builder, final OneSEVPA<L, JSONSymbol> automaton) {
+        final List<Integer> acceptingLocations = new ArrayList<>();
+        for (final L location : automaton.getLocations()) {
+            if (automaton.isAcceptingLocation(location)) {
+                acceptingLocations.add(automaton.getLocationId(location));
+            }
+        }
+
+        builder.append("    @Override\n");
+        builder.append("    public boolean isAcceptingLocationId(final int location) {\n");
+        if (acceptingLocations.size() <= MAXIMAL_NUMBER_OF_CASES) {
+            appendAcceptingComparisons(builder, acceptingLocations);
+            builder.append("    }\n");
+            return;
+        }
+
+        final List<List<Integer>> parts = Lists.partition(acceptingLocations, MAXIMAL_NUMBER_OF_CASES);
+        builder.append("        return ");
+        for (int part = 0; part < parts.size(); part++) {
+            builder.append(part == 0 ? "" : " || ").append("isAcceptingLocationIdPart").append(part)
+                    .append("(location)");
+        }
+        builder.append(";\n");
+        builder.append("    }\n");
+        for (int part = 0; part < parts.size(); part++) {
+            builder.append("\n");
+            builder.append("    private static boolean isAcceptingLocationIdPart").append(part)
+                    .append("(final int location) {\n");
+            appendAcceptingComparisons(builder, parts.get(part));
+            builder.append("    }\n");
+        }
+    }
+
+    private static void appendAcceptingComparisons(final StringBuilder builder, final List<Integer> locations) {
+        builder.append("        return ");
+        boolean first = true;
+        for (final int location : locations) {
+            if (!first) {
+                builder.append(" || ");
+            }
+            builder.append("location == ").append(location);
+            first = false;
+        }
+        if (first) {
+            builder.append("false");
+        }
+        builder.append(";\n");
+    }
+
+    private static int numberOfParts(final int size, final int maximalSizeOfPart) {
+        return (size + maximalSizeOfPart - 1) / maximalSizeOfPart;
+    }
+
+    private static String toJavaString(final String string) {
+        final StringBuilder builder = new StringBuilder("\"");
+        for (int i = 0; i < string.length(); i++) {
+            final char c = string.charAt(i);
+            if (c == '"' || c == '\\') {
+                builder.append('\\').append(c);
+            } else if (c < 0x20) {
+                // Unicode escapes are processed before the lexical analysis, so a line
+                // terminator must not be written as one
+                builder.append(String.format("\\%03o", (int) c));
+            } else if (c > 0x7E) {
+                builder.append(String.format("\\u%04x", (int) c));
+            } else {
+                builder.append(c);
+            }
+        }
+        return builder.append('"').toString();
+    }
+}
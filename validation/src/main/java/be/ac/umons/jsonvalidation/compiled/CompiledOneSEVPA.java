@@ -0,0 +1,202 @@
+/*
+ * ValidatingJSONDocumentsWithLearnedVPA - Learning a visibly pushdown automaton
+ * from a JSON schema, and using it to validate JSON documents.
+ *
+ * Copyright 2022 University of Mons, University of Antwerp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package be.ac.umons.jsonvalidation.compiled;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import be.ac.umons.jsonvalidation.JSONSymbol;
+import net.automatalib.automata.vpda.AbstractOneSEVPA;
+import net.automatalib.automata.vpda.Location;
+import net.automatalib.words.VPDAlphabet;
+
+/**
+ * Base class of the 1-SEVPAs generated by {@link CompiledAutomatonGenerator}.
+ * 
+ * <p>
+ * A generated class only contains the transition function (as nested
+ * {@code switch} statements over the identifiers of the locations and the
+ * indices of the symbols), a constant table mapping the symbols to their
+ * indices, and the set of accepting locations. This class creates the
+ * {@link Location} objects expected by the rest of the library.
+ * </p>
+ * 
+ * <p>
+ * The locations can be given at construction time. This allows a generated
+ * automaton to share its locations with the automaton it was generated from.
+ * Then, a {@link be.ac.umons.jsonvalidation.graph.KeyGraph KeyGraph} (or a
+ * {@link be.ac.umons.jsonvalidation.SubtreeSummaryCache SubtreeSummaryCache})
+ * computed for the original automaton can be reused as-is with the generated
+ * one.
+ * </p>
+ * 
+ * @author Gaëtan Staquet
+ */
+public abstract class CompiledOneSEVPA extends AbstractOneSEVPA<Location, JSONSymbol> {
+
+    private final List<Location> locations;
+    private final int initialLocation;
+
+    /**
+     * Creates the automaton.
+     * 
+     * @param alphabet          The alphabet
+     * @param locations         The locations to use, or null to create new
+     *                          locations. If not null, the i-th location must have
+     *                          the index i.
+     * @param numberOfLocations The number of locations
+     * @param initialLocation   The identifier of the initial location
+     */
+    protected CompiledOneSEVPA(final VPDAlphabet<JSONSymbol> alphabet, final @Nullable List<Location> locations,
+            final int numberOfLocations, final int initialLocation) {
+        super(alphabet);
+        if (locations == null) {
+            final List<Location> newLocations = new ArrayList<>(numberOfLocations);
+            for (int i = 0; i < numberOfLocations; i++) {
+                newLocations.add(new Location(alphabet, i, isAcceptingLocationId(i)));
+            }
+            this.locations = Collections.unmodifiableList(newLocations);
+        } else {
+            if (locations.size() != numberOfLocations) {
+                throw new IllegalArgumentException(
+                        "Expected " + numberOfLocations + " locations, got " + locations.size());
+            }
+            for (int i = 0; i < numberOfLocations; i++) {
+                if (locations.get(i).getIndex() != i) {
+                    throw new IllegalArgumentException(
+                            "The location at position " + i + " has the index " + locations.get(i).getIndex());
+                }
+            }
+            this.locations = Collections.unmodifiableList(new ArrayList<>(locations));
+        }
+        this.initialLocation = initialLocation;
+    }
+
+    /**
+     * Gets the index of an internal symbol.
+     * 
+     * @param symbol The symbol
+     * @return The index, or -1 if the symbol is not an internal symbol of the
+     *         alphabet
+     */
+    protected abstract int internalSymbolIndex(JSONSymbol symbol);
+
+    /**
+     * Gets the index of a return symbol.
+     * 
+     * @param symbol The symbol
+     * @return The index, or -1 if the symbol is not a return symbol of the
+     *         alphabet
+     */
+    protected abstract int returnSymbolIndex(JSONSymbol symbol);
+
+    /**
+     * Gets the identifier of the target of an internal transition.
+     * 
+     * @param location    The identifier of the source location
+     * @param symbolIndex The index of the internal symbol
+     * @return The identifier of the target, or -1 if the transition is not
+     *         defined
+     */
+    protected abstract int internalSuccessor(int location, int symbolIndex);
+
+    /**
+     * Gets the identifier of the target of a return transition.
+     * 
+     * @param location    The identifier of the source location
+     * @param symbolIndex The index of the return symbol
+     * @param stackSymbol The stack symbol
+     * @return The identifier of the target, or -1 if the transition is not
+     *         defined
+     */
+    protected abstract int returnSuccessor(int location, int symbolIndex, int stackSymbol);
+
+    /**
+     * Whether the location with the given identifier is accepting.
+     * 
+     * <p>
+     * This method is called from the constructor and must therefore not depend
+     * on the state of the object.
+     * </p>
+     * 
+     * @param location The identifier of the location
+     * @return True if and only if the location is accepting
+     */
+    public abstract boolean isAcceptingLocationId(int location);
+
+    @Override
+    public int size() {
+        return locations.size();
+    }
+
+    @Override
+    public Location getLocation(int id) {
+        return locations.get(id);
+    }
+
+    @Override
+    public int getLocationId(Location location) {
+        return location.getIndex();
+    }
+
+    @Override
+    public List<Location> getLocations() {
+        return locations;
+    }
+
+    @Override
+    public Location getInitialLocation() {
+        return locations.get(initialLocation);
+    }
+
+    @Override
+    public boolean isAcceptingLocation(Location location) {
+        return isAcceptingLocationId(location.getIndex());
+    }
+
+    @Override
+    public @Nullable Location getInternalSuccessor(Location location, JSONSymbol symbol) {
+        final int symbolIndex = internalSymbolIndex(symbol);
+        if (symbolIndex == -1) {
+            return null;
+        }
+        final int target = internalSuccessor(location.getIndex(), symbolIndex);
+        if (target == -1) {
+            return null;
+        }
+        return locations.get(target);
+    }
+
+    @Override
+    public @Nullable Location getReturnSuccessor(Location location, JSONSymbol symbol, int stackSymbol) {
+        final int symbolIndex = returnSymbolIndex(symbol);
+        if (symbolIndex == -1) {
+            return null;
+        }
+        final int target = returnSuccessor(location.getIndex(), symbolIndex, stackSymbol);
+        if (target == -1) {
+            return null;
+        }
+        return locations.get(target);
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * ValidatingJSONDocumentsWithLearnedVPA - Learning a visibly pushdown automaton
+ * from a JSON schema, and using it to validate JSON documents.
+ *
+ * Copyright 2022 University of Mons, University of Antwerp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package be.ac.umons.jsonvalidation.compiled;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import be.ac.umons.jsonvalidation.JSONSymbol;
+import de.learnlib.api.logging.LearnLogger;
+import net.automatalib.automata.vpda.Location;
+import net.automatalib.automata.vpda.OneSEVPA;
+import net.automatalib.words.VPDAlphabet;
+
+/**
+ * Compiles, at runtime, the source produced by
+ * {@link CompiledAutomatonGenerator}.
+ * 
+ * <p>
+ * The compilation relies on the system Java compiler (see
+ * {@link ToolProvider#getSystemJavaCompiler()}), which is not available when
+ * running on a JRE. In that case, or if the compilation fails for any reason,
+ * the methods return null and the caller should keep using the original
+ * automaton.
+ * </p>
+ * 
+ * <p>
+ * The generated classes are compiled in memory and loaded by a dedicated class
+ * loader whose parent is the class loader of {@link CompiledOneSEVPA}. The
+ * compiler is given the class path of the running JVM. The methods can be
+ * called concurrently, for instance to compile an automaton in the background
+ * (see {@link TieredValidation}).
+ * </p>
+ * 
+ * @author Gaëtan Staquet
+ */
+public final class RuntimeCompiler {
+
+    private static final LearnLogger LOGGER = LearnLogger.getLogger(RuntimeCompiler.class);
+    private static final String PACKAGE = "be.ac.umons.jsonvalidation.compiled.generated";
+    private static final AtomicLong NUMBER_OF_CLASSES = new AtomicLong(0);
+
+    private RuntimeCompiler() {
+    }
+
+    /**
+     * Whether a Java compiler is available in the running JVM.
+     * 
+     * @return True if and only if a compiler is available
+     */
+    public static boolean isAvailable() {
+        return ToolProvider.getSystemJavaCompiler() != null;
+    }
+
+    /**
+     * Generates and compiles a {@link CompiledOneSEVPA} for the given automaton.
+     * 
+     * <p>
+     * The returned automaton shares its alphabet and its locations with the
+     * given automaton. Thus, a key graph computed for the given automaton can be
+     * used with the returned one.
+     * </p>
+     * 
+     * @param automaton The automaton
+     * @return The compiled automaton, or null if the compilation is not possible
+     */
+    public static @Nullable CompiledOneSEVPA compile(final OneSEVPA<Location, JSONSymbol> automaton) {
+        final String className = "CompiledOneSEVPA" + NUMBER_OF_CLASSES.getAndIncrement();
+        final String source = CompiledAutomatonGenerator.generateSource(automaton, PACKAGE, className);
+        final Class<?> compiledClass = compile(PACKAGE + "." + className, source);
+        if (compiledClass == null) {
+            return null;
+        }
+        try {
+            return (CompiledOneSEVPA) compiledClass
+                    .getConstructor(VPDAlphabet.class, List.class)
+                    .newInstance(automaton.getInputAlphabet(), automaton.getLocations());
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOGGER.error("Impossible to instantiate the compiled automaton", e);
+            return null;
+        }
+    }
+
+    private static @Nullable Class<?> compile(final String qualifiedName, final String source) {
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            LOGGER.info("No Java compiler is available; the automaton is not compiled");
+            return null;
+        }
+
+        final List<String> options = Arrays.asList("-classpath", System.getProperty("java.class.path"));
+        final StringWriter diagnostics = new StringWriter();
+        try (InMemoryFileManager fileManager = new InMemoryFileManager(
+                compiler.getStandardFileManager(null, null, null))) {
+            final JavaCompiler.CompilationTask task = compiler.getTask(diagnostics, fileManager, null, options, null,
+                    Collections.singletonList(new SourceFile(qualifiedName, source)));
+            if (!task.call()) {
+                LOGGER.error("Compilation of the automaton failed: " + diagnostics);
+                return null;
+            }
+            return new GeneratedClassLoader(fileManager.getClassFiles()).loadClass(qualifiedName);
+        } catch (ClassNotFoundException e) {
+            LOGGER.error("Impossible to load the compiled automaton", e);
+            return null;
+        } catch (IOException e) {
+            LOGGER.error("Impossible to close the file manager", e);
+            return null;
+        }
+    }
+
+    private static final class SourceFile extends SimpleJavaFileObject {
+        private final String source;
+
+        SourceFile(final String qualifiedName, final String source) {
+            super(URI.create("string:///" + qualifiedName.replace('.', '/') + Kind.SOURCE.extension), Kind.SOURCE);
+            this.source = source;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return source;
+        }
+    }
+
+    private static final class ClassFile extends SimpleJavaFileObject {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        ClassFile(final String qualifiedName) {
+            super(URI.create("bytes:///" + qualifiedName.replace('.', '/') + Kind.CLASS.extension), Kind.CLASS);
+        }
+
+        @Override
+        public OutputStream openOutputStream() {
+            return bytes;
+        }
+
+        byte[] getBytes() {
+            return bytes.toByteArray();
+        }
+    }
+
+    private static final class InMemoryFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+        private final Map<String, ClassFile> classFiles = new HashMap<>();
+
+        InMemoryFileManager(final StandardJavaFileManager fileManager) {
+            super(fileManager);
+        }
+
+        @Override
+        public JavaFileObject getJavaFileForOutput(JavaFileManager.Location location, String className,
+                JavaFileObject.Kind kind, FileObject sibling) {
+            final ClassFile classFile = new ClassFile(className);
+            classFiles.put(className, classFile);
+            return classFile;
+        }
+
+        Map<String, byte[]> getClassFiles() {
+            final Map<String, byte[]> bytes = new HashMap<>();
+            for (final Map.Entry<String, ClassFile> entry : classFiles.entrySet()) {
+                bytes.put(entry.getKey(), entry.getValue().getBytes());
+            }
+            return bytes;
+        }
+    }
+
+    private static final class GeneratedClassLoader extends ClassLoader {
+        private final Map<String, byte[]> classFiles;
+
+        GeneratedClassLoader(final Map<String, byte[]> classFiles) {
+            super(CompiledOneSEVPA.class.getClassLoader());
+            this.classFiles = classFiles;
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            final byte[] bytes = classFiles.get(name);
+            if (bytes == null) {
+                return super.findClass(name);
+            }
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+}
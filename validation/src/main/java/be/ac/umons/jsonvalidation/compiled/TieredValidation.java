@@ -0,0 +1,214 @@
+/*
+ * ValidatingJSONDocumentsWithLearnedVPA - Learning a visibly pushdown automaton
+ * from a JSON schema, and using it to validate JSON documents.
+ *
+ * Copyright 2022 University of Mons, University of Antwerp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package be.ac.umons.jsonvalidation.compiled;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import javax.annotation.Nullable;
+
+import be.ac.umons.jsonvalidation.JSONSymbol;
+import be.ac.umons.jsonvalidation.ValidationByAutomaton;
+import be.ac.umons.jsonvalidation.graph.KeyGraph;
+import de.learnlib.api.logging.LearnLogger;
+import net.automatalib.automata.vpda.Location;
+import net.automatalib.automata.vpda.OneSEVPA;
+import net.automatalib.words.Word;
+
+/**
+ * Validates documents with a {@link ValidationByAutomaton} that starts with
+ * the given automaton, and switches to a {@link CompiledOneSEVPA} once enough
+ * documents were validated.
+ * 
+ * <p>
+ * Compiling an automaton takes time, which is wasted if only a handful of
+ * documents are validated against the schema. Hence, the automaton is only
+ * compiled once the number of validated documents reaches a threshold. The
+ * compilation runs on an executor (by default, a background thread), while the
+ * documents are still validated with the original automaton. The switch
+ * happens at the start of the first document after the end of the compilation.
+ * If the compilation is not possible (see {@link RuntimeCompiler}), the
+ * original automaton is kept. The key graph is shared by both validators, as
+ * the compiled automaton shares its locations with the original one.
+ * </p>
+ * 
+ * <p>
+ * The options of the current validator (see {@link #getValidator()}) are
+ * copied to the new validator when the switch happens. This class is not
+ * thread-safe.
+ * </p>
+ * 
+ * @author Gaëtan Staquet
+ */
+public class TieredValidation {
+
+    private static final LearnLogger LOGGER = LearnLogger.getLogger(TieredValidation.class);
+
+    private static final Executor BACKGROUND_THREAD = runnable -> {
+        final Thread thread = new Thread(runnable, "TieredValidation compiler");
+        thread.setDaemon(true);
+        thread.start();
+    };
+
+    private final OneSEVPA<Location, JSONSymbol> automaton;
+    private final KeyGraph<Location> graph;
+    private final long threshold;
+    private final Executor compilationExecutor;
+    private ValidationByAutomaton<Location> validator;
+    private long numberOfDocuments = 0;
+    private @Nullable CompletableFuture<CompiledOneSEVPA> compilation = null;
+    private boolean compilationFinished = false;
+    private boolean compiled = false;
+
+    public TieredValidation(final OneSEVPA<Location, JSONSymbol> automaton, final long threshold) {
+        this(automaton, KeyGraph.graphFor(automaton, false), threshold);
+    }
+
+    public TieredValidation(final OneSEVPA<Location, JSONSymbol> automaton, final KeyGraph<Location> graph,
+            final long threshold) {
+        this(automaton, graph, threshold, BACKGROUND_THREAD);
+    }
+
+    /**
+     * Creates the validation.
+     * 
+     * @param automaton           The automaton
+     * @param graph               The key graph of the automaton
+     * @param threshold           The number of documents to validate before
+     *                            compiling the automaton
+     * @param compilationExecutor The executor running the compilation. With a
+     *                            direct executor, the document reaching the
+     *                            threshold waits for the compilation
+     */
+    public TieredValidation(final OneSEVPA<Location, JSONSymbol> automaton, final KeyGraph<Location> graph,
+            final long threshold, final Executor compilationExecutor) {
+        this.automaton = automaton;
+        this.graph = graph;
+        this.threshold = threshold;
+        this.compilationExecutor = compilationExecutor;
+        this.validator = new ValidationByAutomaton<>(automaton, graph);
+    }
+
+    /**
+     * Gets the validator currently used.
+     * 
+     * @return The validator
+     */
+    public ValidationByAutomaton<Location> getValidator() {
+        return validator;
+    }
+
+    /**
+     * Whether the compiled automaton is used.
+     * 
+     * @return True if and only if the validator uses the compiled automaton
+     */
+    public boolean isCompiled() {
+        return compiled;
+    }
+
+    public long getNumberOfDocuments() {
+        return numberOfDocuments;
+    }
+
+    public boolean accepts(List<JSONSymbol> input) {
+        beforeDocument();
+        return validator.accepts(input);
+    }
+
+    public boolean accepts(Word<JSONSymbol> input) {
+        beforeDocument();
+        return validator.accepts(input);
+    }
+
+    public boolean accepts(byte[] document) {
+        beforeDocument();
+        return validator.accepts(document);
+    }
+
+    /**
+     * Compiles the automaton, without waiting for the threshold, and switches to
+     * the compiled validator. If the compilation was already started, waits for
+     * its end.
+     * 
+     * @return True if and only if the compiled automaton is used
+     */
+    public boolean compileNow() {
+        startCompilation();
+        return awaitCompilation();
+    }
+
+    /**
+     * Waits for the end of the compilation (if it was started), and switches to
+     * the compiled validator.
+     * 
+     * @return True if and only if the compiled automaton is used
+     */
+    public boolean awaitCompilation() {
+        if (compilation != null) {
+            finishCompilation(compilation.join());
+        }
+        return compiled;
+    }
+
+    private void startCompilation() {
+        if (compilation == null) {
+            compilation = CompletableFuture.supplyAsync(() -> RuntimeCompiler.compile(automaton), compilationExecutor)
+                    .exceptionally(e -> {
+                        LOGGER.error("Compilation of the automaton failed", e);
+                        return null;
+                    });
+        }
+    }
+
+    private void finishCompilation(final @Nullable CompiledOneSEVPA compiledAutomaton) {
+        if (compilationFinished) {
+            return;
+        }
+        compilationFinished = true;
+
+        if (compiledAutomaton == null) {
+            LOGGER.info("Keeping the original automaton");
+            return;
+        }
+
+        final ValidationByAutomaton<Location> compiledValidator = new ValidationByAutomaton<>(compiledAutomaton,
+                graph);
+        compiledValidator.setInOrderFastPath(validator.isUsingInOrderFastPath());
+        compiledValidator.setMacroTransitions(validator.isUsingMacroTransitions());
+        compiledValidator.setSubtreeSummaryCache(validator.getSubtreeSummaryCache());
+        compiledValidator.setUnknownKeyPolicy(validator.getUnknownKeyPolicy());
+        compiledValidator.setDocumentVerdictCache(validator.getDocumentVerdictCache());
+        validator = compiledValidator;
+        compiled = true;
+        LOGGER.info("Switched to the compiled automaton after " + numberOfDocuments + " documents");
+    }
+
+    private void beforeDocument() {
+        if (compilation == null && numberOfDocuments >= threshold) {
+            startCompilation();
+        }
+        if (compilation != null && compilation.isDone()) {
+            finishCompilation(compilation.join());
+        }
+        numberOfDocuments++;
+    }
+}
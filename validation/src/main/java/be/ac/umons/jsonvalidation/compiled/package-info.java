@@ -0,0 +1,34 @@
+/*
+ * ValidatingJSONDocumentsWithLearnedVPA - Learning a visibly pushdown automaton
+ * from a JSON schema, and using it to validate JSON documents.
+ *
+ * Copyright 2022 University of Mons, University of Antwerp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Generation of 1-SEVPAs specialized for a single schema.
+ * 
+ * <p>
+ * {@link be.ac.umons.jsonvalidation.compiled.CompiledAutomatonGenerator}
+ * produces the source of a class whose transitions are hard-coded, which can be
+ * compiled with a project or at runtime by
+ * {@link be.ac.umons.jsonvalidation.compiled.RuntimeCompiler}.
+ * {@link be.ac.umons.jsonvalidation.compiled.TieredValidation} switches to the
+ * compiled automaton once enough documents were validated.
+ * </p>
+ * 
+ * @author Gaëtan Staquet
+ */
+package be.ac.umons.jsonvalidation.compiled;
@@ -19,26 +19,39 @@
 
 package be.ac.umons.jsonvalidation.graph;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import javax.annotation.Nullable;
 
 import com.google.common.graph.ElementOrder;
 import com.google.common.graph.EndpointPair;
 import com.google.common.graph.GraphBuilder;
+import com.google.common.graph.Graphs;
 import com.google.common.graph.ImmutableGraph;
 import com.google.common.graph.Traverser;
 
+import be.ac.umons.jsonvalidation.BudgetExceededException;
 import be.ac.umons.jsonvalidation.JSONSymbol;
 import be.ac.umons.jsonvalidation.PairSourceToReached;
+import be.ac.umons.jsonvalidation.ValidationBudget;
 import de.learnlib.api.logging.LearnLogger;
 import net.automatalib.automata.vpda.OneSEVPA;
 import net.automatalib.words.Alphabet;
@@ -88,6 +101,33 @@ import net.automatalib.words.impl.Alphabets;
  * </ul>
  * </p>
  * 
+ * <p>
+ * Optionally, the keys can be compressed into classes: two keys are in the
+ * same class if their internal transitions are the same in every location.
+ * The nodes are then only created for one key of each class (its
+ * representative, see {@link #getRepresentative(JSONSymbol)}), and every
+ * method taking a key uses the node of its representative. As the nodes
+ * {@code (s, k, s')} and {@code (s, k', s')} exist for exactly the same
+ * locations if {@code k} and {@code k'} are in the same class, and have the
+ * same edges, a path reading two keys of the same class implies a path reading
+ * the same key twice. Hence, in a valid graph, an object with two keys of the
+ * same class is never accepted, and it suffices to see each class at most once
+ * on a path.
+ * </p>
+ * 
+ * <p>
+ * Finally, {@link #reduce()} gives a copy of the graph without the nodes that
+ * can never be used by a path search.
+ * Merging nodes with the same successors and the same bitsets is not possible
+ * in general, as each node is rejected according to its own pair of locations,
+ * and gives its own target location when the object is closed.
+ * </p>
+ * 
+ * <p>
+ * See {@link LazyKeyGraph} for a key graph whose nodes are only created for the
+ * keys that are used.
+ * </p>
+ * 
  * @param <L> Location type
  * @author Gaëtan Staquet
  */
@@ -98,6 +138,8 @@ public class KeyGraph<L> {
     private final ImmutableGraph<NodeInGraph<L>> graph;
     private final Map<JSONSymbol, List<NodeInGraph<L>>> keyToNodes = new HashMap<>();
     private final Map<JSONSymbol, Set<L>> keyToLocations = new HashMap<>();
+    // Empty if the keys are not compressed
+    private final Map<JSONSymbol, JSONSymbol> keyToRepresentative;
     private final List<NodeInGraph<L>> startingNodes = new LinkedList<>();
     private final boolean hasPathWithDuplicateKeys;
     private final Word<JSONSymbol> witnessInvalid;
@@ -123,6 +165,52 @@ public class KeyGraph<L> {
      * @return The key graph
      */
     public static <L> KeyGraph<L> graphFor(final OneSEVPA<L, JSONSymbol> automaton, final boolean checkGraph) {
+        return graphFor(automaton, checkGraph, false);
+    }
+
+    /**
+     * Constructs the key graph for the provided automaton, with keys compressed
+     * into classes if asked.
+     * 
+     * @param <L>          Location type
+     * @param automaton    The 1-SEVPA
+     * @param checkGraph   Whether to check that the graph is valid
+     * @param compressKeys Whether to create the nodes for classes of keys with
+     *                     the same transitions, instead of for each key
+     * @return The key graph
+     * @throws IllegalArgumentException If the keys must be compressed but the
+     *                                  graph is not checked
+     * @see #graphFor(OneSEVPA, boolean)
+     */
+    public static <L> KeyGraph<L> graphFor(final OneSEVPA<L, JSONSymbol> automaton, final boolean checkGraph,
+            final boolean compressKeys) {
+        return graphFor(automaton, checkGraph, compressKeys, null);
+    }
+
+    /**
+     * Constructs the key graph for the provided automaton, creating the nodes and
+     * the edges on the given pool.
+     * 
+     * <p>
+     * The graph is the same as the one constructed on a single thread, including
+     * the order of its nodes and edges.
+     * </p>
+     * 
+     * @param <L>          Location type
+     * @param automaton    The 1-SEVPA
+     * @param checkGraph   Whether to check that the graph is valid
+     * @param compressKeys Whether to create the nodes for classes of keys with
+     *                     the same transitions, instead of for each key
+     * @param pool         The pool on which the nodes and edges are created, or
+     *                     null to create them on the current thread
+     * @return The key graph
+     * @throws IllegalArgumentException If the keys must be compressed but the
+     *                                  graph is not checked
+     * @see #graphFor(OneSEVPA, boolean, boolean)
+     */
+    public static <L> KeyGraph<L> graphFor(final OneSEVPA<L, JSONSymbol> automaton, final boolean checkGraph,
+            final boolean compressKeys, final @Nullable ForkJoinPool pool) {
+        checkCompression(checkGraph, compressKeys);
         final ReachabilityRelation<L> reachabilityRelation = ReachabilityRelation.computeReachabilityRelation(automaton,
                 checkGraph);
         final OnAcceptingPathRelation<L> onAcceptingRelation = OnAcceptingPathRelation.computeRelation(automaton,
@@ -131,7 +219,8 @@ public class KeyGraph<L> {
             return null;
         }
 
-        return new KeyGraph<>(automaton, reachabilityRelation, onAcceptingRelation, checkGraph);
+        return new KeyGraph<>(automaton, reachabilityRelation, onAcceptingRelation, checkGraph, compressKeys,
+                pool);
     }
 
     /**
@@ -149,10 +238,65 @@ public class KeyGraph<L> {
      */
     public KeyGraph(final OneSEVPA<L, JSONSymbol> automaton, final ReachabilityRelation<L> reachabilityRelation,
             final OnAcceptingPathRelation<L> onAcceptingPathRelation, final boolean checkGraph) {
+        this(automaton, reachabilityRelation, onAcceptingPathRelation, checkGraph, false);
+    }
+
+    /**
+     * Constructs the key graph using the VPA, its {@link ReachabilityRelation}, and
+     * its {@link OnAcceptingPathRelation}, with keys compressed into classes if
+     * asked.
+     * 
+     * @see #KeyGraph(OneSEVPA, ReachabilityRelation, OnAcceptingPathRelation,
+     *      boolean)
+     * @param automaton               The 1-SEVPA
+     * @param reachabilityRelation    Its reachability relation
+     * @param onAcceptingPathRelation Its relation that indicates whether a location
+     *                                is on an accepting path
+     * @param checkGraph              If true, checks that the graph does not
+     *                                contain a path where a key is seen multiple
+     *                                times
+     * @param compressKeys            If true, the nodes are created for classes of
+     *                                keys with the same transitions
+     * @throws IllegalArgumentException If the keys must be compressed but the
+     *                                  graph is not checked
+     */
+    public KeyGraph(final OneSEVPA<L, JSONSymbol> automaton, final ReachabilityRelation<L> reachabilityRelation,
+            final OnAcceptingPathRelation<L> onAcceptingPathRelation, final boolean checkGraph,
+            final boolean compressKeys) {
+        this(automaton, reachabilityRelation, onAcceptingPathRelation, checkGraph, compressKeys, null);
+    }
+
+    /**
+     * Constructs the key graph using the VPA, its {@link ReachabilityRelation}, and
+     * its {@link OnAcceptingPathRelation}, creating the nodes and the edges on the
+     * given pool.
+     * 
+     * @see #KeyGraph(OneSEVPA, ReachabilityRelation, OnAcceptingPathRelation,
+     *      boolean, boolean)
+     * @param automaton               The 1-SEVPA
+     * @param reachabilityRelation    Its reachability relation
+     * @param onAcceptingPathRelation Its relation that indicates whether a location
+     *                                is on an accepting path
+     * @param checkGraph              If true, checks that the graph does not
+     *                                contain a path where a key is seen multiple
+     *                                times
+     * @param compressKeys            If true, the nodes are created for classes of
+     *                                keys with the same transitions
+     * @param pool                    The pool on which the nodes and edges are
+     *                                created, or null to create them on the
+     *                                current thread
+     * @throws IllegalArgumentException If the keys must be compressed but the
+     *                                  graph is not checked
+     */
+    public KeyGraph(final OneSEVPA<L, JSONSymbol> automaton, final ReachabilityRelation<L> reachabilityRelation,
+            final OnAcceptingPathRelation<L> onAcceptingPathRelation, final boolean checkGraph,
+            final boolean compressKeys, final @Nullable ForkJoinPool pool) {
+        checkCompression(checkGraph, compressKeys);
         this.automaton = automaton;
+        this.keyToRepresentative = compressKeys ? computeKeyClasses() : Collections.emptyMap();
 
-        this.graph = constructGraph(reachabilityRelation, onAcceptingPathRelation);
-        propagateIsOnPathToAcceptingForLocations(automaton.getLocations());
+        this.graph = constructGraph(reachabilityRelation, onAcceptingPathRelation, pool);
+        propagateIsOnPathToAcceptingForLocations();
 
         if (checkGraph) {
             final List<NodeInGraph<L>> pathWithDuplicateKeys = hasPathWithDuplicateKeys();
@@ -166,7 +310,113 @@ public class KeyGraph<L> {
         LOGGER.info("Initialization of graph done");
     }
 
-    private Alphabet<JSONSymbol> getKeyAlphabet() {
+    /**
+     * Checks that the keys are only compressed in a graph that is checked.
+     * 
+     * <p>
+     * The classes of keys are computed from the transitions of the automaton,
+     * which ignore whether a key is seen twice on a path. If the graph is not
+     * checked, the compressed graph may reject documents the uncompressed graph
+     * accepts.
+     * </p>
+     */
+    private static void checkCompression(final boolean checkGraph, final boolean compressKeys) {
+        if (compressKeys && !checkGraph) {
+            throw new IllegalArgumentException("The keys can only be compressed in a graph that is checked");
+        }
+    }
+
+    /**
+     * Constructs a key graph without any node, for the subclasses creating the
+     * nodes on demand.
+     * 
+     * @param automaton    The 1-SEVPA
+     * @param checkGraph   Whether the subclass checks that the graph is valid
+     * @param compressKeys If true, the nodes are created for classes of keys with
+     *                     the same transitions
+     * @throws IllegalArgumentException If the keys must be compressed but the
+     *                                  graph is not checked
+     */
+    KeyGraph(final OneSEVPA<L, JSONSymbol> automaton, final boolean checkGraph, final boolean compressKeys) {
+        checkCompression(checkGraph, compressKeys);
+        this.automaton = automaton;
+        this.keyToRepresentative = compressKeys ? computeKeyClasses() : Collections.emptyMap();
+        this.graph = GraphBuilder.directed().allowsSelfLoops(true).<NodeInGraph<L>>immutable().build();
+        this.hasPathWithDuplicateKeys = false;
+        this.witnessInvalid = null;
+    }
+
+    private KeyGraph(final KeyGraph<L> original, final Set<NodeInGraph<L>> keptNodes) {
+        this.automaton = original.automaton;
+        this.keyToRepresentative = original.keyToRepresentative;
+        this.hasPathWithDuplicateKeys = original.hasPathWithDuplicateKeys;
+        this.witnessInvalid = original.witnessInvalid;
+        this.graph = ImmutableGraph.copyOf(Graphs.inducedSubgraph(original.graph, keptNodes));
+
+        // The locations reading a key do not depend on the nodes that can be used
+        keyToLocations.putAll(original.keyToLocations);
+        for (final Map.Entry<JSONSymbol, List<NodeInGraph<L>>> entry : original.keyToNodes.entrySet()) {
+            final List<NodeInGraph<L>> nodes = new LinkedList<>();
+            for (final NodeInGraph<L> node : entry.getValue()) {
+                if (keptNodes.contains(node)) {
+                    nodes.add(node);
+                }
+            }
+            if (!nodes.isEmpty()) {
+                keyToNodes.put(entry.getKey(), nodes);
+            }
+        }
+        for (final NodeInGraph<L> node : original.startingNodes) {
+            if (keptNodes.contains(node)) {
+                startingNodes.add(node);
+            }
+        }
+    }
+
+    /**
+     * Creates a copy of this graph without the nodes that can not be on a path
+     * used by the validation.
+     * 
+     * <p>
+     * A node is removed if it can not be reached from a node containing the
+     * initial location, or if no accepting node can be reached from it (for every
+     * location before the call).
+     * All such nodes behave the same for every query, i.e., they are never part of
+     * a path, and can thus be merged into a single sink that is never explored.
+     * The other nodes are kept, as two different nodes always differ by their
+     * pair of locations, which decides whether they are rejected and which
+     * location is reached when the object is closed.
+     * </p>
+     * 
+     * <p>
+     * The results of
+     * {@link #getLocationsWithReturnTransitionOnUnmarkedPathsWithAllKeysSeen(Set, Collection, Collection)}
+     * and of the frontiers are the same in both graphs, while
+     * {@link #getNodesForKey(JSONSymbol)} only gives the kept nodes.
+     * </p>
+     * 
+     * @return The reduced graph
+     */
+    public KeyGraph<L> reduce() {
+        final Set<NodeInGraph<L>> keptNodes = new LinkedHashSet<>();
+        for (final NodeInGraph<L> node : Traverser.forGraph(graph).breadthFirst(startingNodes)) {
+            // The successors of a node that can not reach an accepting node can not
+            // reach one either
+            if (node.isOnPathToAcceptingForSomeLocation()) {
+                keptNodes.add(node);
+            }
+        }
+        LOGGER.info("Key graph reduced from " + size() + " to " + keptNodes.size() + " nodes");
+        return new KeyGraph<>(this, keptNodes);
+    }
+
+    /**
+     * Gets the symbols of the automaton that read a key, i.e., the internal
+     * symbols that are neither a primitive value nor a comma.
+     * 
+     * @return The key symbols
+     */
+    public Alphabet<JSONSymbol> getKeyAlphabet() {
         final Alphabet<JSONSymbol> internalAlphabet = automaton.getInputAlphabet().getInternalAlphabet();
         final Alphabet<JSONSymbol> primitiveValuesAlphabet = JSONSymbol.primitiveValuesAlphabet;
         // @formatter:off
@@ -176,8 +426,54 @@ public class KeyGraph<L> {
         // @formatter:on
     }
 
+    /**
+     * Partitions the keys into classes of keys with the same internal transitions
+     * in every location.
+     * 
+     * @return A map giving, for each key, the first key of its class
+     */
+    private Map<JSONSymbol, JSONSymbol> computeKeyClasses() {
+        final Map<List<Integer>, JSONSymbol> transitionsToRepresentative = new HashMap<>();
+        final Map<JSONSymbol, JSONSymbol> representatives = new HashMap<>();
+        for (final JSONSymbol key : getKeyAlphabet()) {
+            final List<Integer> transitions = new ArrayList<>(automaton.size());
+            for (final L location : automaton.getLocations()) {
+                final L target = automaton.getInternalSuccessor(location, key);
+                transitions.add(target == null ? -1 : automaton.getLocationId(target));
+            }
+            representatives.put(key, transitionsToRepresentative.computeIfAbsent(transitions, t -> key));
+        }
+        LOGGER.info("Keys compressed from " + representatives.size() + " to " + transitionsToRepresentative.size()
+                + " classes");
+        return representatives;
+    }
+
+    /**
+     * Gets the key whose nodes are used for the given key, i.e., the first key
+     * of its class if the keys are compressed, or the key itself otherwise.
+     * 
+     * @param key The key
+     * @return The representative of the key
+     */
+    public JSONSymbol getRepresentative(final JSONSymbol key) {
+        return keyToRepresentative.getOrDefault(key, key);
+    }
+
+    /**
+     * The number of keys for which nodes are created, i.e., the number of classes
+     * if the keys are compressed, or the number of keys otherwise.
+     * 
+     * @return The number of key classes
+     */
+    public int getNumberOfKeyClasses() {
+        if (keyToRepresentative.isEmpty()) {
+            return getKeyAlphabet().size();
+        }
+        return new HashSet<>(keyToRepresentative.values()).size();
+    }
+
     private ImmutableGraph<NodeInGraph<L>> constructGraph(final ReachabilityRelation<L> reachabilityRelation,
-            final OnAcceptingPathRelation<L> onAcceptingRelation) {
+            final OnAcceptingPathRelation<L> onAcceptingRelation, final @Nullable ForkJoinPool pool) {
         final L binLocation = onAcceptingRelation.identifyBinLocation(automaton);
 
         final ReachabilityRelation<L> valueReachabilityRelation = reachabilityRelation
@@ -193,61 +489,66 @@ public class KeyGraph<L> {
         ;
         // @formatter:on
         final Alphabet<JSONSymbol> keyAlphabet = getKeyAlphabet();
+        // The accepting locations of a node only depend on its target location
+        final Map<L, BitSet> acceptingForTarget = new ConcurrentHashMap<>();
 
         LOGGER.info("Creating nodes");
-        // We create the nodes
-        final List<NodeInGraph<L>> nodes = new LinkedList<>();
+        // We create the nodes of each start location independently, and add them in
+        // the order of the locations
+        final List<L> startLocations = new ArrayList<>();
         for (final L startLocation : automaton.getLocations()) {
-            if (Objects.equals(startLocation, binLocation)) {
-                continue;
+            if (!Objects.equals(startLocation, binLocation)) {
+                startLocations.add(startLocation);
             }
+        }
+        final List<List<NodeInGraph<L>>> nodesByStartLocation = map(startLocations,
+                startLocation -> createNodes(startLocation, keyAlphabet, valueReachabilityRelation, binLocation,
+                        acceptingForTarget),
+                pool);
 
-            for (final JSONSymbol key : keyAlphabet) {
-                final L locationAfterKey = automaton.getInternalSuccessor(startLocation, key);
-                if (locationAfterKey == null || Objects.equals(locationAfterKey, binLocation)) {
-                    continue;
-                }
-
-                for (final InReachabilityRelation<L> inValueRelation : valueReachabilityRelation
-                        .getLocationsAndInfoInRelationWithStart(locationAfterKey)) {
-                    if (Objects.equals(inValueRelation.getTarget(), binLocation)) {
-                        continue;
-                    }
+        final List<NodeInGraph<L>> nodes = new ArrayList<>();
+        final Map<L, List<NodeInGraph<L>>> startLocationToNodes = new HashMap<>();
+        for (int i = 0; i < startLocations.size(); i++) {
+            final L startLocation = startLocations.get(i);
+            final List<NodeInGraph<L>> nodesForLocation = nodesByStartLocation.get(i);
+            startLocationToNodes.put(startLocation, nodesForLocation);
+            for (final NodeInGraph<L> node : nodesForLocation) {
+                final JSONSymbol key = node.getSymbol();
+                builder.addNode(node);
+                nodes.add(node);
 
-                    final L locationAfterValue = inValueRelation.getTarget();
-                    final NodeInGraph<L> node = new NodeInGraph<>(startLocation, locationAfterValue, key, automaton,
-                            binLocation);
-                    builder.addNode(node);
-                    nodes.add(node);
+                if (keyToNodes.containsKey(key)) {
+                    keyToNodes.get(key).add(node);
+                    keyToLocations.get(key).add(node.getStartLocation());
+                } else {
+                    final List<NodeInGraph<L>> listNode = new LinkedList<>();
+                    listNode.add(node);
+                    keyToNodes.put(key, listNode);
+                    final Set<L> setLocations = new LinkedHashSet<>();
+                    setLocations.add(node.getStartLocation());
+                    keyToLocations.put(key, setLocations);
+                }
 
-                    if (keyToNodes.containsKey(key)) {
-                        keyToNodes.get(key).add(node);
-                        keyToLocations.get(key).add(node.getStartLocation());
-                    } else {
-                        final List<NodeInGraph<L>> listNode = new LinkedList<>();
-                        listNode.add(node);
-                        keyToNodes.put(key, listNode);
-                        final Set<L> setLocations = new LinkedHashSet<>();
-                        setLocations.add(node.getStartLocation());
-                        keyToLocations.put(key, setLocations);
-                    }
-
-                    if (startLocation == automaton.getInitialLocation()) {
-                        startingNodes.add(node);
-                    }
+                if (startLocation == automaton.getInitialLocation()) {
+                    startingNodes.add(node);
                 }
             }
         }
         LOGGER.info("Nodes created");
 
-        // We create the edges
-        for (final NodeInGraph<L> startNode : nodes) {
-            final L locationBeforeComma = startNode.getTargetLocation();
-            for (final NodeInGraph<L> targetNode : nodes) {
-                final L locationAfterComma = targetNode.getStartLocation();
-                if (automaton.getInternalSuccessor(locationBeforeComma, JSONSymbol.commaSymbol) == locationAfterComma) {
-                    builder.putEdge(startNode, targetNode);
-                }
+        // We create the edges: the successors of a node are the nodes starting in the
+        // location reached by reading a comma from its target location
+        final List<List<NodeInGraph<L>>> successorsByNode = map(nodes, startNode -> {
+            final L locationAfterComma = automaton.getInternalSuccessor(startNode.getTargetLocation(),
+                    JSONSymbol.commaSymbol);
+            if (locationAfterComma == null) {
+                return Collections.emptyList();
+            }
+            return startLocationToNodes.getOrDefault(locationAfterComma, Collections.emptyList());
+        }, pool);
+        for (int i = 0; i < nodes.size(); i++) {
+            for (final NodeInGraph<L> targetNode : successorsByNode.get(i)) {
+                builder.putEdge(nodes.get(i), targetNode);
             }
         }
 
@@ -255,6 +556,81 @@ public class KeyGraph<L> {
         return builder.build();
     }
 
+    private List<NodeInGraph<L>> createNodes(final L startLocation, final Alphabet<JSONSymbol> keyAlphabet,
+            final ReachabilityRelation<L> valueReachabilityRelation, final L binLocation,
+            final Map<L, BitSet> acceptingForTarget) {
+        final List<NodeInGraph<L>> nodes = new ArrayList<>();
+        for (final JSONSymbol key : keyAlphabet) {
+            if (!Objects.equals(getRepresentative(key), key)) {
+                // The nodes of the class are created for its representative
+                continue;
+            }
+            createNodes(startLocation, key, valueReachabilityRelation, binLocation, acceptingForTarget, null, nodes);
+        }
+        return nodes;
+    }
+
+    /**
+     * Creates the nodes {@code (startLocation, key, q)} and adds them to the list.
+     * 
+     * @param startLocation                The start location
+     * @param key                          The key
+     * @param valueReachabilityRelation    The reachability relation of the values
+     * @param binLocation                  The bin location, or null
+     * @param acceptingForTarget           The accepting locations of each target
+     *                                     location computed so far
+     * @param onPathToAcceptingForLocation The bitset of the locations for which
+     *                                     the nodes are on a path to an accepting
+     *                                     node, shared by the nodes, or null to
+     *                                     start from the accepting locations
+     * @param nodes                        The list in which the nodes are added
+     */
+    void createNodes(final L startLocation, final JSONSymbol key,
+            final ReachabilityRelation<L> valueReachabilityRelation, final L binLocation,
+            final Map<L, BitSet> acceptingForTarget, final @Nullable BitSet onPathToAcceptingForLocation,
+            final List<NodeInGraph<L>> nodes) {
+        final L locationAfterKey = automaton.getInternalSuccessor(startLocation, key);
+        if (locationAfterKey == null || Objects.equals(locationAfterKey, binLocation)) {
+            return;
+        }
+
+        for (final InReachabilityRelation<L> inValueRelation : valueReachabilityRelation
+                .getLocationsAndInfoInRelationWithStart(locationAfterKey)) {
+            if (Objects.equals(inValueRelation.getTarget(), binLocation)) {
+                continue;
+            }
+
+            final L locationAfterValue = inValueRelation.getTarget();
+            final BitSet acceptingForLocation = acceptingForTarget.computeIfAbsent(locationAfterValue,
+                    target -> NodeInGraph.computeAcceptingForLocation(target, automaton, binLocation));
+            if (onPathToAcceptingForLocation == null) {
+                nodes.add(new NodeInGraph<>(startLocation, locationAfterValue, key, acceptingForLocation));
+            } else {
+                nodes.add(new NodeInGraph<>(startLocation, locationAfterValue, key, acceptingForLocation,
+                        onPathToAcceptingForLocation));
+            }
+        }
+    }
+
+    /**
+     * Applies the function on each input, in parallel on the pool if it is not
+     * null.
+     * 
+     * @return The outputs, in the order of the inputs
+     */
+    private static <T, R> List<R> map(final List<T> inputs, final Function<T, R> function,
+            final @Nullable ForkJoinPool pool) {
+        if (pool == null) {
+            final List<R> outputs = new ArrayList<>(inputs.size());
+            for (final T input : inputs) {
+                outputs.add(function.apply(input));
+            }
+            return outputs;
+        }
+        // A parallel stream started from a task of the pool runs on that pool
+        return pool.submit(() -> inputs.parallelStream().map(function).collect(Collectors.toList())).join();
+    }
+
     private List<NodeInGraph<L>> hasPathWithDuplicateKeys() {
         for (final NodeInGraph<L> start : startingNodes) {
             final List<NodeInGraph<L>> seenNodes = new LinkedList<>();
@@ -336,20 +712,52 @@ public class KeyGraph<L> {
         return witnessInvalid;
     }
 
-    private void propagateIsOnPathToAcceptingForLocations(final Collection<L> locations) {
+    private void propagateIsOnPathToAcceptingForLocations() {
+        // The successors are visited before the node, so a whole bitset can be
+        // propagated at once
         for (final NodeInGraph<L> node : Traverser.forGraph(graph).depthFirstPostOrder(startingNodes)) {
-            final Set<NodeInGraph<L>> successors = graph.successors(node);
-            for (final NodeInGraph<L> successor : successors) {
-                for (final L location : locations) {
-                    final int locationId = automaton.getLocationId(location);
-                    if (successor.isOnPathToAcceptingForLocation(locationId)) {
-                        node.setOnPathToAcceptingLocation(locationId);
-                    }
-                }
+            for (final NodeInGraph<L> successor : graph.successors(node)) {
+                node.addOnPathToAcceptingLocations(successor);
             }
         }
     }
 
+    List<NodeInGraph<L>> getStartingNodes() {
+        return startingNodes;
+    }
+
+    /**
+     * Gets the nodes containing the initial location that may read one of the
+     * given keys.
+     * 
+     * <p>
+     * The result may also contain nodes reading other keys, which must be
+     * ignored by the caller.
+     * </p>
+     * 
+     * @param keys The representatives of the keys
+     * @return The starting nodes
+     */
+    Collection<NodeInGraph<L>> getStartingNodes(final Set<JSONSymbol> keys) {
+        return startingNodes;
+    }
+
+    /**
+     * Gets the successors of the node that may read one of the given keys.
+     * 
+     * <p>
+     * The result may also contain nodes reading other keys, which must be
+     * ignored by the caller.
+     * </p>
+     * 
+     * @param node The node
+     * @param keys The representatives of the keys
+     * @return The successors
+     */
+    Collection<NodeInGraph<L>> getSuccessors(final NodeInGraph<L> node, final Set<JSONSymbol> keys) {
+        return graph.successors(node);
+    }
+
     ImmutableGraph<NodeInGraph<L>> getGraph() {
         return graph;
     }
@@ -373,13 +781,13 @@ public class KeyGraph<L> {
 
     @Nullable
     private NodeInGraph<L> getNode(final L sourceLocation, final JSONSymbol key, final L targetLocation) {
-        return getNode(PairSourceToReached.of(sourceLocation, targetLocation), key);
+        return getNode(PairSourceToReached.of(sourceLocation, targetLocation), getRepresentative(key));
     }
 
     @Nullable
     private NodeInGraph<L> getNode(final PairSourceToReached<L> pairSourceToReached, final JSONSymbol key) {
-        for (final NodeInGraph<L> node : nodes()) {
-            if (Objects.equals(node.getSymbol(), key) && Objects.equals(node.getPairLocations(), pairSourceToReached)) {
+        for (final NodeInGraph<L> node : getNodesForKey(key)) {
+            if (Objects.equals(node.getPairLocations(), pairSourceToReached)) {
                 return node;
             }
         }
@@ -425,7 +833,7 @@ public class KeyGraph<L> {
      * @return A list with the nodes
      */
     public List<NodeInGraph<L>> getNodesForKey(final JSONSymbol key) {
-        return keyToNodes.getOrDefault(key, Collections.emptyList());
+        return keyToNodes.getOrDefault(getRepresentative(key), Collections.emptyList());
     }
 
     /**
@@ -436,7 +844,7 @@ public class KeyGraph<L> {
      * @return
      */
     public Set<L> getLocationsReadingKey(final JSONSymbol key) {
-        return keyToLocations.getOrDefault(key, Collections.emptySet());
+        return keyToLocations.getOrDefault(getRepresentative(key), Collections.emptySet());
     }
 
     /**
@@ -459,18 +867,130 @@ public class KeyGraph<L> {
      */
     public Set<L> getLocationsWithReturnTransitionOnUnmarkedPathsWithAllKeysSeen(final Set<JSONSymbol> seenKeys,
             final Collection<L> locationsBeforeCall, final Collection<NodeInGraph<L>> rejectedNodes) {
+        return getLocationsWithReturnTransitionOnUnmarkedPathsWithAllKeysSeen(seenKeys, locationsBeforeCall,
+                rejectedNodes, null);
+    }
+
+    /**
+     * Gets all the locations in the VPA such that it is possible to read a closing
+     * curly brace and there is a path in the graph with exactly the seen keys and
+     * without any rejected node, counting each explored node in the budget.
+     * 
+     * @param seenKeys            The set of keys seen while reading the input
+     * @param locationsBeforeCall The locations of the VPA before reading the
+     *                            opening curly brace that opened the current object
+     * @param rejectedNodes       A collection of nodes in the graph that are marked
+     *                            as rejected
+     * @param budget              The tracker of the budget, or null
+     * @return The set of locations from which the VPA can read the closing curly
+     *         brace
+     * @throws BudgetExceededException If the budget is exceeded
+     * @see #getLocationsWithReturnTransitionOnUnmarkedPathsWithAllKeysSeen(Set,
+     *      Collection, Collection)
+     */
+    public Set<L> getLocationsWithReturnTransitionOnUnmarkedPathsWithAllKeysSeen(final Set<JSONSymbol> seenKeys,
+            final Collection<L> locationsBeforeCall, final Collection<NodeInGraph<L>> rejectedNodes,
+            final @Nullable ValidationBudget.Tracker budget) throws BudgetExceededException {
+        final Set<JSONSymbol> seenRepresentatives = new LinkedHashSet<>();
+        for (final JSONSymbol key : seenKeys) {
+            seenRepresentatives.add(getRepresentative(key));
+        }
+        if (seenRepresentatives.size() != seenKeys.size()) {
+            // Two keys of the same class can not be on the same path
+            return Collections.emptySet();
+        }
+
         final Set<L> locationsReadingClosing = new LinkedHashSet<>();
-        for (final NodeInGraph<L> initial : startingNodes) {
-            depthFirstExploreForAcceptingNodes(initial, new LinkedHashSet<>(), locationsReadingClosing, seenKeys,
-                    locationsBeforeCall, rejectedNodes);
+        for (final NodeInGraph<L> initial : getStartingNodes(seenRepresentatives)) {
+            depthFirstExploreForAcceptingNodes(initial, new LinkedHashSet<>(), locationsReadingClosing,
+                    seenRepresentatives, locationsBeforeCall, rejectedNodes, budget);
         }
         return locationsReadingClosing;
     }
 
+    /**
+     * Creates the frontier of an object in which no key was read yet.
+     * 
+     * <p>
+     * Adding the keys of the object to the frontier, once their nodes are marked
+     * as rejected, gives the same result than
+     * {@link #getLocationsWithReturnTransitionOnUnmarkedPathsWithAllKeysSeen(Set, Collection, Collection)}.
+     * </p>
+     * 
+     * @param locationsBeforeCall The locations of the VPA before reading the
+     *                            opening curly brace that opened the object
+     * @return The frontier
+     */
+    public KeyGraphFrontier<L> createFrontier(final Collection<L> locationsBeforeCall) {
+        return createFrontier(locationsBeforeCall, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Creates the frontier of an object in which no key was read yet, dropping
+     * its paths once it contains more than the given number of paths.
+     * 
+     * @param locationsBeforeCall The locations of the VPA before reading the
+     *                            opening curly brace that opened the object
+     * @param maximalSize         The maximal number of paths in the frontier
+     * @return The frontier
+     * @see KeyGraphFrontier#hasOverflowed()
+     */
+    public KeyGraphFrontier<L> createFrontier(final Collection<L> locationsBeforeCall, final int maximalSize) {
+        final BitSet locationIds = new BitSet(automaton.size());
+        for (final L location : locationsBeforeCall) {
+            locationIds.set(automaton.getLocationId(location));
+        }
+        return KeyGraphFrontier.empty(this, locationIds, maximalSize);
+    }
+
+    /**
+     * Writes the node as the identifiers of its locations and the index of its
+     * key in the alphabet of the automaton.
+     * 
+     * @param node The node
+     * @param out  The output
+     * @throws IOException If the node can not be written
+     */
+    public void writeNode(final NodeInGraph<L> node, final DataOutput out) throws IOException {
+        out.writeInt(automaton.getLocationId(node.getStartLocation()));
+        out.writeInt(automaton.getInputAlphabet().getSymbolIndex(node.getSymbol()));
+        out.writeInt(automaton.getLocationId(node.getTargetLocation()));
+    }
+
+    /**
+     * Reads a node written by {@link #writeNode(NodeInGraph, DataOutput)}.
+     * 
+     * @param in The input
+     * @return The node of this graph
+     * @throws IOException If the node can not be read, or is not in this graph
+     */
+    public NodeInGraph<L> readNode(final DataInput in) throws IOException {
+        final int startId = in.readInt();
+        final int keyIndex = in.readInt();
+        final int targetId = in.readInt();
+        if (keyIndex < 0 || keyIndex >= automaton.getInputAlphabet().size()) {
+            throw new IOException("Unknown symbol index " + keyIndex);
+        }
+        for (final NodeInGraph<L> node : getNodesForKey(automaton.getInputAlphabet().getSymbol(keyIndex))) {
+            if (automaton.getLocationId(node.getStartLocation()) == startId
+                    && automaton.getLocationId(node.getTargetLocation()) == targetId) {
+                return node;
+            }
+        }
+        throw new IOException("No node (" + startId + ", " + keyIndex + ", " + targetId + ") in the key graph");
+    }
+
+    OneSEVPA<L, JSONSymbol> getAutomaton() {
+        return automaton;
+    }
+
     private void depthFirstExploreForAcceptingNodes(final NodeInGraph<L> current,
             final Set<JSONSymbol> seenKeysInExploration, final Set<L> locationsReadingClosing,
             final Set<JSONSymbol> seenKeysInAutomaton, final Collection<L> locationsBeforeCall,
-            final Collection<NodeInGraph<L>> rejectedNodes) {
+            final Collection<NodeInGraph<L>> rejectedNodes, final @Nullable ValidationBudget.Tracker budget) {
+        if (budget != null) {
+            budget.expandNode();
+        }
         // The path has a node that is rejected
         if (rejectedNodes.contains(current)) {
             return;
@@ -518,10 +1038,9 @@ public class KeyGraph<L> {
             }
         }
 
-        final Set<NodeInGraph<L>> successors = graph.successors(current);
-        for (final NodeInGraph<L> successor : successors) {
+        for (final NodeInGraph<L> successor : getSuccessors(current, seenKeysInAutomaton)) {
             depthFirstExploreForAcceptingNodes(successor, seenKeysInExploration, locationsReadingClosing,
-                    seenKeysInAutomaton, locationsBeforeCall, rejectedNodes);
+                    seenKeysInAutomaton, locationsBeforeCall, rejectedNodes, budget);
         }
 
         seenKeysInExploration.remove(key);
@@ -0,0 +1,395 @@
+/*
+ * ValidatingJSONDocumentsWithLearnedVPA - Learning a visibly pushdown automaton
+ * from a JSON schema, and using it to validate JSON documents.
+ *
+ * Copyright 2022 University of Mons, University of Antwerp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package be.ac.umons.jsonvalidation.graph;
+
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import com.google.common.graph.Graph;
+import com.google.common.graph.Graphs;
+import com.google.common.graph.Traverser;
+
+import be.ac.umons.jsonvalidation.JSONSymbol;
+
+/**
+ * Static cost indicators of a {@link KeyGraph}, computed without validating
+ * any document.
+ * 
+ * <p>
+ * The indicators are:
+ * <ul>
+ * <li>the number of nodes and edges, and the maximal out-degree of a
+ * node;</li>
+ * <li>the number of distinct paths starting in a starting node, computed by
+ * dynamic programming over the graph;</li>
+ * <li>for each key, the nondeterminism width, i.e., the number of nodes that
+ * read the key (and thus, the number of paths a frontier may have to extend
+ * once the value of the key is read);</li>
+ * <li>the worst-case number of expansions, i.e., the number of distinct pairs
+ * (last node, set of seen keys) summarizing a path from a starting node. This
+ * is the largest number of paths a {@link KeyGraphFrontier} can hold, and thus
+ * bounds the number of expanded paths counted in a
+ * {@link be.ac.umons.jsonvalidation.ValidationBudget} for a single
+ * object.</li>
+ * </ul>
+ * As the worst-case number of expansions can be exponential in the number of
+ * keys, it is only computed up to a given cap.
+ * </p>
+ * 
+ * <p>
+ * If the part of the graph reachable from the starting nodes contains a cycle
+ * (which can only happen if the graph is not valid, see
+ * {@link KeyGraph#isValid()}), the numbers of paths and expansions are
+ * unbounded.
+ * </p>
+ * 
+ * @param <L> Location type
+ * @author Gaëtan Staquet
+ */
+public final class KeyGraphCostAnalysis<L> {
+
+    /**
+     * The validation engines that can be recommended.
+     */
+    public enum Engine {
+        /**
+         * {@link be.ac.umons.jsonvalidation.ValidationByAutomaton} alone.
+         */
+        AUTOMATON,
+        /**
+         * {@link be.ac.umons.jsonvalidation.HybridValidation}, i.e., the automaton
+         * with a fallback for expensive documents.
+         */
+        HYBRID,
+        /**
+         * The classical validator, working directly on the schema.
+         */
+        CLASSICAL
+    }
+
+    private final boolean valid;
+    private final int numberOfNodes;
+    private final int numberOfEdges;
+    private final int maximalOutDegree;
+    private final @Nullable BigInteger numberOfPaths;
+    private final Map<JSONSymbol, Integer> nondeterminismWidths;
+    private final long worstCaseExpansions;
+    private final boolean expansionsCapped;
+
+    private KeyGraphCostAnalysis(final boolean valid, final int numberOfNodes, final int numberOfEdges,
+            final int maximalOutDegree, final @Nullable BigInteger numberOfPaths,
+            final Map<JSONSymbol, Integer> nondeterminismWidths, final long worstCaseExpansions,
+            final boolean expansionsCapped) {
+        this.valid = valid;
+        this.numberOfNodes = numberOfNodes;
+        this.numberOfEdges = numberOfEdges;
+        this.maximalOutDegree = maximalOutDegree;
+        this.numberOfPaths = numberOfPaths;
+        this.nondeterminismWidths = nondeterminismWidths;
+        this.worstCaseExpansions = worstCaseExpansions;
+        this.expansionsCapped = expansionsCapped;
+    }
+
+    /**
+     * Analyzes the key graph.
+     * 
+     * @param keyGraph               The key graph
+     * @param maxWorstCaseExpansions The cap on the worst-case number of
+     *                               expansions. Once it is exceeded, the
+     *                               enumeration stops
+     * @return The analysis
+     * @throws IllegalStateException If the key graph is a {@link LazyKeyGraph}
+     */
+    public static <L> KeyGraphCostAnalysis<L> analyze(final KeyGraph<L> keyGraph, final long maxWorstCaseExpansions) {
+        if (maxWorstCaseExpansions < 0) {
+            throw new IllegalArgumentException("The cap on the number of expansions can not be negative");
+        }
+        final Graph<NodeInGraph<L>> graph = keyGraph.getGraph();
+
+        int maximalOutDegree = 0;
+        for (final NodeInGraph<L> node : graph.nodes()) {
+            maximalOutDegree = Math.max(maximalOutDegree, graph.outDegree(node));
+        }
+
+        final Map<JSONSymbol, Integer> nondeterminismWidths = new LinkedHashMap<>();
+        for (final JSONSymbol key : keyGraph.getKeyAlphabet()) {
+            nondeterminismWidths.put(key, keyGraph.getNodesForKey(key).size());
+        }
+
+        final List<NodeInGraph<L>> order = topologicalOrderFromStartingNodes(keyGraph);
+        final BigInteger numberOfPaths;
+        final long worstCaseExpansions;
+        final boolean expansionsCapped;
+        if (order == null) {
+            numberOfPaths = null;
+            worstCaseExpansions = maxWorstCaseExpansions;
+            expansionsCapped = true;
+        } else {
+            numberOfPaths = countPaths(keyGraph, order);
+            final long expansions = countPathSummaries(keyGraph, order, maxWorstCaseExpansions);
+            expansionsCapped = expansions > maxWorstCaseExpansions;
+            worstCaseExpansions = Math.min(expansions, maxWorstCaseExpansions);
+        }
+
+        return new KeyGraphCostAnalysis<>(keyGraph.isValid(), graph.nodes().size(), graph.edges().size(),
+                maximalOutDegree, numberOfPaths, Collections.unmodifiableMap(nondeterminismWidths),
+                worstCaseExpansions, expansionsCapped);
+    }
+
+    /**
+     * Sorts the nodes reachable from a starting node such that a node always
+     * appears before its successors.
+     * 
+     * @return The nodes, or null if there is a cycle
+     */
+    private static @Nullable <L> List<NodeInGraph<L>> topologicalOrderFromStartingNodes(
+            final KeyGraph<L> keyGraph) {
+        final Graph<NodeInGraph<L>> reachable = Graphs.inducedSubgraph(keyGraph.getGraph(),
+                Traverser.forGraph(keyGraph.getGraph()).breadthFirst(keyGraph.getStartingNodes()));
+
+        // Kahn's algorithm
+        final Map<NodeInGraph<L>, Integer> inDegrees = new LinkedHashMap<>();
+        final Deque<NodeInGraph<L>> ready = new ArrayDeque<>();
+        for (final NodeInGraph<L> node : reachable.nodes()) {
+            final int inDegree = reachable.inDegree(node);
+            inDegrees.put(node, inDegree);
+            if (inDegree == 0) {
+                ready.add(node);
+            }
+        }
+        final List<NodeInGraph<L>> order = new ArrayList<>(reachable.nodes().size());
+        while (!ready.isEmpty()) {
+            final NodeInGraph<L> node = ready.poll();
+            order.add(node);
+            for (final NodeInGraph<L> successor : reachable.successors(node)) {
+                final int inDegree = inDegrees.get(successor) - 1;
+                inDegrees.put(successor, inDegree);
+                if (inDegree == 0) {
+                    ready.add(successor);
+                }
+            }
+        }
+
+        if (order.size() != reachable.nodes().size()) {
+            return null;
+        }
+        return order;
+    }
+
+    private static <L> BigInteger countPaths(final KeyGraph<L> keyGraph, final List<NodeInGraph<L>> order) {
+        final Set<NodeInGraph<L>> startingNodes = new LinkedHashSet<>(keyGraph.getStartingNodes());
+        final Map<NodeInGraph<L>, BigInteger> pathsEndingIn = new LinkedHashMap<>();
+        for (final NodeInGraph<L> node : order) {
+            pathsEndingIn.put(node, startingNodes.contains(node) ? BigInteger.ONE : BigInteger.ZERO);
+        }
+
+        BigInteger total = BigInteger.ZERO;
+        for (final NodeInGraph<L> node : order) {
+            final BigInteger paths = pathsEndingIn.get(node);
+            total = total.add(paths);
+            for (final NodeInGraph<L> successor : keyGraph.getGraph().successors(node)) {
+                pathsEndingIn.put(successor, pathsEndingIn.get(successor).add(paths));
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Counts the distinct pairs (last node, set of keys) of the paths from a
+     * starting node.
+     * 
+     * @return The number of pairs, or a number strictly greater than {@code cap}
+     *         if the enumeration was stopped
+     */
+    private static <L> long countPathSummaries(final KeyGraph<L> keyGraph, final List<NodeInGraph<L>> order,
+            final long cap) {
+        final Map<JSONSymbol, Integer> keyIndices = new LinkedHashMap<>();
+        for (final JSONSymbol key : keyGraph.getKeyAlphabet()) {
+            keyIndices.put(key, keyIndices.size());
+        }
+
+        final Map<NodeInGraph<L>, Set<BitSet>> summaries = new LinkedHashMap<>();
+        for (final NodeInGraph<L> node : order) {
+            summaries.put(node, new LinkedHashSet<>());
+        }
+        for (final NodeInGraph<L> node : keyGraph.getStartingNodes()) {
+            final BitSet keys = new BitSet();
+            keys.set(keyIndices.get(node.getSymbol()));
+            summaries.get(node).add(keys);
+        }
+
+        long total = 0;
+        for (final NodeInGraph<L> node : order) {
+            final Set<BitSet> keysOfNode = summaries.get(node);
+            total += keysOfNode.size();
+            if (total > cap) {
+                return total;
+            }
+            for (final NodeInGraph<L> successor : keyGraph.getGraph().successors(node)) {
+                final int successorIndex = keyIndices.get(successor.getSymbol());
+                final Set<BitSet> keysOfSuccessor = summaries.get(successor);
+                for (final BitSet keys : keysOfNode) {
+                    // A path can not see the same key twice
+                    if (!keys.get(successorIndex)) {
+                        final BitSet extended = (BitSet) keys.clone();
+                        extended.set(successorIndex);
+                        keysOfSuccessor.add(extended);
+                    }
+                }
+            }
+            // The summaries of a node are not needed once its successors are updated
+            summaries.put(node, Collections.emptySet());
+        }
+        return total;
+    }
+
+    /**
+     * Recommends an engine based on the worst-case number of expansions.
+     * 
+     * <p>
+     * If the graph is not valid, or if it contains a cycle, the classical
+     * validator is recommended. Otherwise, the automaton is recommended if the
+     * worst-case number of expansions is at most {@code automatonThreshold}, the
+     * hybrid validation if it is at most {@code hybridThreshold}, and the
+     * classical validator if it is larger. A number of expansions that exceeded
+     * the cap of {@link #analyze(KeyGraph, long)} is considered to be larger
+     * than both thresholds.
+     * </p>
+     * 
+     * @param automatonThreshold The maximal number of expansions for the
+     *                           automaton
+     * @param hybridThreshold    The maximal number of expansions for the hybrid
+     *                           validation
+     * @return The recommended engine
+     */
+    public Engine recommend(final long automatonThreshold, final long hybridThreshold) {
+        if (automatonThreshold > hybridThreshold) {
+            throw new IllegalArgumentException(
+                    "The threshold for the automaton can not be larger than the threshold for the hybrid validation");
+        }
+        if (!valid || numberOfPaths == null || expansionsCapped) {
+            return Engine.CLASSICAL;
+        }
+        if (worstCaseExpansions <= automatonThreshold) {
+            return Engine.AUTOMATON;
+        }
+        if (worstCaseExpansions <= hybridThreshold) {
+            return Engine.HYBRID;
+        }
+        return Engine.CLASSICAL;
+    }
+
+    /**
+     * Whether the key graph is valid.
+     * 
+     * @return True if the key graph is valid
+     * @see KeyGraph#isValid()
+     */
+    public boolean isValid() {
+        return valid;
+    }
+
+    public int getNumberOfNodes() {
+        return numberOfNodes;
+    }
+
+    public int getNumberOfEdges() {
+        return numberOfEdges;
+    }
+
+    public int getMaximalOutDegree() {
+        return maximalOutDegree;
+    }
+
+    /**
+     * The number of distinct paths starting in a starting node of the graph.
+     * 
+     * @return The number of paths, or null if it is unbounded
+     */
+    public @Nullable BigInteger getNumberOfPaths() {
+        return numberOfPaths;
+    }
+
+    /**
+     * For each key, the number of nodes reading that key.
+     * 
+     * @return An unmodifiable map from the keys to their widths
+     */
+    public Map<JSONSymbol, Integer> getNondeterminismWidths() {
+        return nondeterminismWidths;
+    }
+
+    public int getMaximalNondeterminismWidth() {
+        int max = 0;
+        for (final int width : nondeterminismWidths.values()) {
+            max = Math.max(max, width);
+        }
+        return max;
+    }
+
+    /**
+     * The worst-case number of expansions, i.e., of paths a frontier can hold.
+     * If {@link #isWorstCaseExpansionsCapped()}, this is the cap.
+     * 
+     * @return The worst-case number of expansions
+     */
+    public long getWorstCaseExpansions() {
+        return worstCaseExpansions;
+    }
+
+    /**
+     * Whether the enumeration of the worst-case number of expansions was stopped
+     * at the cap.
+     * 
+     * @return True if the real number of expansions is larger than
+     *         {@link #getWorstCaseExpansions()}
+     */
+    public boolean isWorstCaseExpansionsCapped() {
+        return expansionsCapped;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder();
+        builder.append("Valid: ").append(valid).append('\n');
+        builder.append("Nodes: ").append(numberOfNodes).append('\n');
+        builder.append("Edges: ").append(numberOfEdges).append('\n');
+        builder.append("Maximal out-degree: ").append(maximalOutDegree).append('\n');
+        builder.append("Paths: ").append(numberOfPaths == null ? "unbounded" : numberOfPaths).append('\n');
+        builder.append("Worst-case expansions: ").append(expansionsCapped ? "more than " : "")
+                .append(worstCaseExpansions).append('\n');
+        builder.append("Maximal nondeterminism width: ").append(getMaximalNondeterminismWidth()).append('\n');
+        for (final Map.Entry<JSONSymbol, Integer> width : nondeterminismWidths.entrySet()) {
+            builder.append("  ").append(width.getKey()).append(": ").append(width.getValue()).append('\n');
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,422 @@
+/*
+ * ValidatingJSONDocumentsWithLearnedVPA - Learning a visibly pushdown automaton
+ * from a JSON schema, and using it to validate JSON documents.
+ *
+ * Copyright 2022 University of Mons, University of Antwerp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package be.ac.umons.jsonvalidation.graph;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import be.ac.umons.jsonvalidation.BudgetExceededException;
+import be.ac.umons.jsonvalidation.Checkpoints;
+import be.ac.umons.jsonvalidation.JSONSymbol;
+import be.ac.umons.jsonvalidation.ValidationBudget;
+import net.automatalib.words.Alphabet;
+
+/**
+ * The set of paths in a {@link KeyGraph} that are still possible while reading
+ * an object, updated each time the value of a key is completely read.
+ * 
+ * <p>
+ * A path is summarized by its last node and the set of keys seen on the path.
+ * Once the value of a key is read, it is known which nodes for that key are
+ * rejected. The key is then added to the frontier: every path is extended by
+ * the non-rejected nodes for the key, and the new paths are further extended by
+ * the keys that were already added. As the keys of a path can appear in any
+ * order in the document, the paths that do not contain the key are kept.
+ * </p>
+ * 
+ * <p>
+ * When the object is closed, the locations that can read the closing curly
+ * brace are the targets of the paths containing all the keys of the object.
+ * This gives the same result than
+ * {@link KeyGraph#getLocationsWithReturnTransitionOnUnmarkedPathsWithAllKeysSeen(Set, Collection, Collection)},
+ * but the work is spread over the keys of the object instead of being done
+ * when the object is closed.
+ * </p>
+ * 
+ * <p>
+ * A frontier is immutable: adding a key creates a new frontier, which only
+ * stores the paths containing the new key and shares the other paths with the
+ * previous frontier. The paths are indexed by the location reached by reading
+ * a comma after their last node, so that adding a key only visits the paths
+ * that can be followed by a node of that key.
+ * </p>
+ * 
+ * <p>
+ * As the number of paths may be exponential in the number of keys, a frontier
+ * has a maximal number of paths. Once it is exceeded, the paths are dropped
+ * (see {@link #hasOverflowed()}), and the locations must be computed by the
+ * depth-first search of the key graph when the object is closed.
+ * </p>
+ * 
+ * @param <L> Location type
+ * @author Gaëtan Staquet
+ */
+public final class KeyGraphFrontier<L> {
+
+    private static final class PathSummary<L> {
+        private final NodeInGraph<L> lastNode;
+        private final BitSet keys;
+
+        private PathSummary(final NodeInGraph<L> lastNode, final BitSet keys) {
+            this.lastNode = lastNode;
+            this.keys = keys;
+        }
+
+        private PathSummary<L> extend(final NodeInGraph<L> node, final int keyIndex) {
+            final BitSet newKeys = (BitSet) keys.clone();
+            newKeys.set(keyIndex);
+            return new PathSummary<>(node, newKeys);
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof PathSummary)) {
+                return false;
+            }
+            final PathSummary<?> other = (PathSummary<?>) obj;
+            return Objects.equals(this.lastNode, other.lastNode) && Objects.equals(this.keys, other.keys);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(lastNode, keys);
+        }
+    }
+
+    private final KeyGraph<L> graph;
+    private final BitSet locationsBeforeCall;
+    private final Map<JSONSymbol, Integer> keyIndices;
+    private final int maximalSize;
+    private final boolean overflowed;
+    /**
+     * The frontier holding the paths that do not contain the last key, or null.
+     */
+    private final @Nullable KeyGraphFrontier<L> previous;
+    private final Collection<PathSummary<L>> addedPaths;
+    private final Map<L, List<PathSummary<L>>> addedPathsByLocationAfterComma = new HashMap<>();
+    private final int size;
+
+    private KeyGraphFrontier(final KeyGraph<L> graph, final BitSet locationsBeforeCall,
+            final Map<JSONSymbol, Integer> keyIndices, final int maximalSize, final boolean overflowed,
+            final @Nullable KeyGraphFrontier<L> previous, final Collection<PathSummary<L>> addedPaths) {
+        this.graph = graph;
+        this.locationsBeforeCall = locationsBeforeCall;
+        this.keyIndices = keyIndices;
+        this.maximalSize = maximalSize;
+        this.overflowed = overflowed;
+        this.previous = previous;
+        this.addedPaths = addedPaths;
+        this.size = (previous == null ? 0 : previous.size) + addedPaths.size();
+        for (final PathSummary<L> path : addedPaths) {
+            final L locationAfterComma = graph.getAutomaton().getInternalSuccessor(path.lastNode.getTargetLocation(),
+                    JSONSymbol.commaSymbol);
+            if (locationAfterComma != null) {
+                addedPathsByLocationAfterComma.computeIfAbsent(locationAfterComma, l -> new ArrayList<>()).add(path);
+            }
+        }
+    }
+
+    private KeyGraphFrontier<L> withoutPaths(final Map<JSONSymbol, Integer> newKeyIndices,
+            final boolean newOverflowed) {
+        return new KeyGraphFrontier<>(graph, locationsBeforeCall, newKeyIndices, maximalSize, newOverflowed, null,
+                Collections.emptyList());
+    }
+
+    /**
+     * Creates the frontier of an object in which no key was read yet.
+     * 
+     * @param graph               The key graph
+     * @param locationsBeforeCall The identifiers of the locations before the
+     *                            opening curly brace
+     * @param maximalSize         The maximal number of paths in the frontier
+     * @return The frontier
+     */
+    static <L> KeyGraphFrontier<L> empty(final KeyGraph<L> graph, final BitSet locationsBeforeCall,
+            final int maximalSize) {
+        return new KeyGraphFrontier<>(graph, locationsBeforeCall, Collections.emptyMap(), maximalSize, false, null,
+                Collections.emptyList());
+    }
+
+    /**
+     * Creates a new frontier in which the given key is added.
+     * 
+     * <p>
+     * The nodes for the key must already be marked as rejected, if needed.
+     * </p>
+     * 
+     * @param key           The key
+     * @param rejectedNodes The nodes that are marked as rejected
+     * @return The new frontier
+     */
+    public KeyGraphFrontier<L> addKey(final JSONSymbol key, final Collection<NodeInGraph<L>> rejectedNodes) {
+        return addKey(key, rejectedNodes, null);
+    }
+
+    /**
+     * Creates a new frontier in which the given key is added, counting each
+     * expanded path in the budget.
+     * 
+     * @param key           The key
+     * @param rejectedNodes The nodes that are marked as rejected
+     * @param budget        The tracker of the budget, or null
+     * @return The new frontier
+     * @throws BudgetExceededException If the budget is exceeded
+     */
+    public KeyGraphFrontier<L> addKey(final JSONSymbol key, final Collection<NodeInGraph<L>> rejectedNodes,
+            final @Nullable ValidationBudget.Tracker budget) throws BudgetExceededException {
+        // The nodes are labeled by the representatives of the classes of keys
+        final JSONSymbol representative = graph.getRepresentative(key);
+        if (keyIndices.containsKey(representative)) {
+            // The same key (or two keys of the same class) can not be seen twice on a path
+            return withoutPaths(keyIndices, overflowed);
+        }
+
+        final int keyIndex = keyIndices.size();
+        final Map<JSONSymbol, Integer> newKeyIndices = new LinkedHashMap<>(keyIndices);
+        newKeyIndices.put(representative, keyIndex);
+        if (overflowed) {
+            return withoutPaths(newKeyIndices, true);
+        }
+
+        // Every new path contains the key, and is thus not in this frontier
+        final Set<PathSummary<L>> newPaths = new LinkedHashSet<>();
+        final Deque<PathSummary<L>> toExtend = new ArrayDeque<>();
+
+        // New paths starting with the key
+        final Set<JSONSymbol> newKey = Collections.singleton(representative);
+        for (final NodeInGraph<L> node : graph.getStartingNodes(newKey)) {
+            if (Objects.equals(node.getSymbol(), representative) && canBeUsed(node, rejectedNodes)) {
+                final BitSet keys = new BitSet();
+                keys.set(keyIndex);
+                final PathSummary<L> path = new PathSummary<>(node, keys);
+                if (newPaths.add(path)) {
+                    toExtend.add(path);
+                }
+            }
+        }
+
+        // Existing paths followed by the key: only the paths after which a node
+        // for the key starts are visited
+        final Map<L, List<NodeInGraph<L>>> nodesByStartLocation = new LinkedHashMap<>();
+        for (final NodeInGraph<L> node : graph.getNodesForKey(representative)) {
+            if (canBeUsed(node, rejectedNodes)) {
+                nodesByStartLocation.computeIfAbsent(node.getStartLocation(), l -> new ArrayList<>()).add(node);
+            }
+        }
+        for (final Map.Entry<L, List<NodeInGraph<L>>> entry : nodesByStartLocation.entrySet()) {
+            for (KeyGraphFrontier<L> frontier = this; frontier != null; frontier = frontier.previous) {
+                final List<PathSummary<L>> paths = frontier.addedPathsByLocationAfterComma.get(entry.getKey());
+                if (paths == null) {
+                    continue;
+                }
+                for (final PathSummary<L> path : paths) {
+                    if (budget != null) {
+                        budget.expandNode();
+                    }
+                    for (final NodeInGraph<L> successor : entry.getValue()) {
+                        final PathSummary<L> extended = path.extend(successor, keyIndex);
+                        if (newPaths.add(extended)) {
+                            toExtend.add(extended);
+                        }
+                    }
+                }
+            }
+        }
+
+        // The new paths can be followed by any key that was already added
+        while (!toExtend.isEmpty()) {
+            if (size + newPaths.size() > maximalSize) {
+                return withoutPaths(newKeyIndices, true);
+            }
+            final PathSummary<L> path = toExtend.poll();
+            if (budget != null) {
+                budget.expandNode();
+            }
+            for (final NodeInGraph<L> successor : graph.getSuccessors(path.lastNode, newKeyIndices.keySet())) {
+                final Integer successorKeyIndex = newKeyIndices.get(successor.getSymbol());
+                if (successorKeyIndex == null || path.keys.get(successorKeyIndex)
+                        || !canBeUsed(successor, rejectedNodes)) {
+                    continue;
+                }
+                final PathSummary<L> extended = path.extend(successor, successorKeyIndex);
+                if (newPaths.add(extended)) {
+                    toExtend.add(extended);
+                }
+            }
+        }
+        if (size + newPaths.size() > maximalSize) {
+            return withoutPaths(newKeyIndices, true);
+        }
+
+        return new KeyGraphFrontier<>(graph, locationsBeforeCall, newKeyIndices, maximalSize, false, this, newPaths);
+    }
+
+    private boolean canBeUsed(final NodeInGraph<L> node, final Collection<NodeInGraph<L>> rejectedNodes) {
+        if (rejectedNodes.contains(node)) {
+            return false;
+        }
+        // We know we will never be able to reach a state from which we can read a
+        // return symbol matching the locations before the call
+        for (int id = locationsBeforeCall.nextSetBit(0); id >= 0; id = locationsBeforeCall.nextSetBit(id + 1)) {
+            if (node.isOnPathToAcceptingForLocation(id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Whether the key, or a key of the same class, was already added to this
+     * frontier.
+     * 
+     * @param key The key
+     * @return True iff the class of the key was already added
+     */
+    public boolean containsKey(final JSONSymbol key) {
+        return keyIndices.containsKey(graph.getRepresentative(key));
+    }
+
+    /**
+     * Whether the paths were dropped because the frontier exceeded its maximal
+     * number of paths. The keys are still tracked.
+     * 
+     * @return True iff the paths were dropped
+     */
+    public boolean hasOverflowed() {
+        return overflowed;
+    }
+
+    /**
+     * Gets all the locations in the VPA from which it is possible to read a
+     * closing curly brace, such that there is a path in the graph containing
+     * exactly the keys added to this frontier.
+     * 
+     * @return The set of locations from which the VPA can read the closing curly
+     *         brace
+     * @throws IllegalStateException If the frontier has overflowed
+     */
+    public Set<L> getLocationsReadingClosing() {
+        if (overflowed) {
+            throw new IllegalStateException("The paths of the frontier were dropped");
+        }
+        final Set<L> locationsReadingClosing = new LinkedHashSet<>();
+        // Only the last added paths can contain every key
+        for (final PathSummary<L> path : addedPaths) {
+            if (path.keys.cardinality() == keyIndices.size() && isAccepting(path.lastNode)) {
+                locationsReadingClosing.add(path.lastNode.getTargetLocation());
+            }
+        }
+        return locationsReadingClosing;
+    }
+
+    private boolean isAccepting(final NodeInGraph<L> node) {
+        for (int id = locationsBeforeCall.nextSetBit(0); id >= 0; id = locationsBeforeCall.nextSetBit(id + 1)) {
+            if (node.isAcceptingForLocation(id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes the frontier, in order to resume the validation in another process
+     * (see {@link Checkpoints}).
+     * 
+     * @param out The output
+     * @throws IOException If the frontier can not be written
+     */
+    public void write(final DataOutput out) throws IOException {
+        final Alphabet<JSONSymbol> alphabet = graph.getAutomaton().getInputAlphabet();
+        Checkpoints.writeBitSet(locationsBeforeCall, out);
+        out.writeInt(maximalSize);
+        out.writeBoolean(overflowed);
+        // The keys are written in the order of their indices
+        out.writeInt(keyIndices.size());
+        for (final JSONSymbol key : keyIndices.keySet()) {
+            Checkpoints.writeSymbol(key, alphabet, out);
+        }
+        out.writeInt(size);
+        for (KeyGraphFrontier<L> frontier = this; frontier != null; frontier = frontier.previous) {
+            for (final PathSummary<L> path : frontier.addedPaths) {
+                graph.writeNode(path.lastNode, out);
+                Checkpoints.writeBitSet(path.keys, out);
+            }
+        }
+    }
+
+    /**
+     * Reads a frontier written by {@link #write(DataOutput)}.
+     * 
+     * <p>
+     * The paths are stored in the read frontier, without a previous frontier.
+     * </p>
+     * 
+     * @param graph The key graph of the frontier
+     * @param in    The input
+     * @return The frontier
+     * @throws IOException If the frontier can not be read
+     */
+    public static <L> KeyGraphFrontier<L> read(final KeyGraph<L> graph, final DataInput in) throws IOException {
+        final Alphabet<JSONSymbol> alphabet = graph.getAutomaton().getInputAlphabet();
+        final BitSet locationsBeforeCall = Checkpoints.readBitSet(in, graph.getAutomaton().size());
+        final int maximalSize = Checkpoints.readLength(in, Integer.MAX_VALUE);
+        final boolean overflowed = in.readBoolean();
+        final int numberOfKeys = Checkpoints.readLength(in, alphabet.size());
+        final Map<JSONSymbol, Integer> keyIndices = new LinkedHashMap<>();
+        for (int i = 0; i < numberOfKeys; i++) {
+            keyIndices.put(Checkpoints.readSymbol(alphabet, in), i);
+        }
+        final int numberOfPaths = Checkpoints.readLength(in, maximalSize);
+        final Set<PathSummary<L>> paths = new LinkedHashSet<>();
+        for (int i = 0; i < numberOfPaths; i++) {
+            final NodeInGraph<L> lastNode = graph.readNode(in);
+            paths.add(new PathSummary<>(lastNode, Checkpoints.readBitSet(in, numberOfKeys)));
+        }
+        return new KeyGraphFrontier<>(graph, locationsBeforeCall, keyIndices, maximalSize, overflowed, null, paths);
+    }
+
+    /**
+     * The number of paths summarized in the frontier.
+     * 
+     * @return The number of paths
+     */
+    public int size() {
+        return size;
+    }
+}
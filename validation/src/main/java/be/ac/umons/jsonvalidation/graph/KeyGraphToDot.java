@@ -38,6 +38,7 @@ public class KeyGraphToDot {
      * @param graph  The key graph
      * @param output Where to write the DOT file in
      * @throws IOException
+     * @throws IllegalStateException If the key graph is a {@link LazyKeyGraph}
      */
     public static <L> void write(final KeyGraph<L> graph, final Appendable output) throws IOException {
         final Set<NodeInGraph<L>> nodes = graph.nodes();
@@ -0,0 +1,392 @@
+/*
+ * ValidatingJSONDocumentsWithLearnedVPA - Learning a visibly pushdown automaton
+ * from a JSON schema, and using it to validate JSON documents.
+ *
+ * Copyright 2022 University of Mons, University of Antwerp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package be.ac.umons.jsonvalidation.graph;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.graph.EndpointPair;
+import com.google.common.graph.ImmutableGraph;
+
+import be.ac.umons.jsonvalidation.JSONSymbol;
+import de.learnlib.api.logging.LearnLogger;
+import net.automatalib.automata.vpda.OneSEVPA;
+
+/**
+ * A key graph whose nodes are created the first time a key is used, instead of
+ * when the graph is constructed.
+ * 
+ * <p>
+ * When the nodes of a key are requested (for instance, by
+ * {@link #getNodesForKey(JSONSymbol)} or
+ * {@link #getLocationsReadingKey(JSONSymbol)}, or when a key is added to a
+ * {@link KeyGraphFrontier}), the nodes {@code (s, k, s')} are created for every
+ * location {@code s}. The edges are never stored: the successors of a node
+ * reading a key are the nodes of that key whose start location is reached by
+ * reading a comma from the target location of the node.
+ * Hence, the memory only depends on the keys that are actually used.
+ * Optionally, the nodes of the keys that were not used for a while are
+ * evicted once a maximal number of keys is reached, and are created again if
+ * needed. As nodes are compared by their locations and key, the evicted nodes
+ * can still be used in the frontiers and the sets of rejected nodes.
+ * </p>
+ * 
+ * <p>
+ * Since the graph is never entirely known, the following differences with
+ * {@link KeyGraph} apply:
+ * <ul>
+ * <li>If the graph is checked, the check is performed when the graph is
+ * constructed, by creating the nodes of each key once without keeping them.
+ * No witness is given, i.e., {@link #getWitnessInvalid()} always returns
+ * null. If the graph is not checked, {@link #isValid()} always returns
+ * true.</li>
+ * <li>A node is considered to be on a path to an accepting node for every
+ * location. The paths that can not be accepted are thus only discarded when
+ * the object is closed.</li>
+ * <li>The whole graph, its nodes, its edges and its starting nodes are not
+ * available: the corresponding methods throw an
+ * {@link IllegalStateException}. In particular, a lazy graph can not be given
+ * to {@link KeyGraphCostAnalysis} or {@link KeyGraphToDot}.</li>
+ * <li>{@link #size()} gives the number of nodes that are currently
+ * created.</li>
+ * </ul>
+ * </p>
+ * 
+ * <p>
+ * The class is thread-safe.
+ * </p>
+ * 
+ * @param <L> Location type
+ * @author Gaëtan Staquet
+ */
+public final class LazyKeyGraph<L> extends KeyGraph<L> {
+    private static final LearnLogger LOGGER = LearnLogger.getLogger(LazyKeyGraph.class);
+
+    private static final class NodesForKey<L> {
+        private final List<NodeInGraph<L>> nodes;
+        private final Set<L> startLocations = new LinkedHashSet<>();
+        private final Map<L, List<NodeInGraph<L>>> startLocationToNodes = new HashMap<>();
+
+        private NodesForKey(final List<NodeInGraph<L>> nodes) {
+            this.nodes = nodes;
+            for (final NodeInGraph<L> node : nodes) {
+                startLocations.add(node.getStartLocation());
+                startLocationToNodes.computeIfAbsent(node.getStartLocation(), l -> new ArrayList<>()).add(node);
+            }
+        }
+
+        private List<NodeInGraph<L>> getNodesStartingIn(final L startLocation) {
+            return startLocationToNodes.getOrDefault(startLocation, Collections.emptyList());
+        }
+    }
+
+    private final Set<JSONSymbol> keys;
+    private final ReachabilityRelation<L> valueReachabilityRelation;
+    private final L binLocation;
+    private final Map<L, BitSet> acceptingForTarget = new ConcurrentHashMap<>();
+    private final BitSet allLocations;
+    private final LoadingCache<JSONSymbol, NodesForKey<L>> keyToNodes;
+    private final boolean hasPathWithDuplicateKeys;
+
+    /**
+     * Constructs the lazy key graph for the provided automaton.
+     * 
+     * @param <L>                 Location type
+     * @param automaton           The 1-SEVPA
+     * @param checkGraph          Whether to check that the graph is valid, i.e.,
+     *                            there is no path on which we can see the same
+     *                            key twice
+     * @param compressKeys        Whether to create the nodes for classes of keys
+     *                            with the same transitions, instead of for each
+     *                            key
+     * @param maximumNumberOfKeys The maximal number of keys whose nodes are kept,
+     *                            or a non-positive number to keep all of them
+     * @return The key graph
+     * @throws IllegalArgumentException If the keys must be compressed but the
+     *                                  graph is not checked
+     * @see KeyGraph#graphFor(OneSEVPA, boolean, boolean)
+     */
+    public static <L> LazyKeyGraph<L> graphFor(final OneSEVPA<L, JSONSymbol> automaton, final boolean checkGraph,
+            final boolean compressKeys, final long maximumNumberOfKeys) {
+        final ReachabilityRelation<L> reachabilityRelation = ReachabilityRelation.computeReachabilityRelation(automaton,
+                false);
+        final OnAcceptingPathRelation<L> onAcceptingRelation = OnAcceptingPathRelation.computeRelation(automaton,
+                reachabilityRelation, false);
+        if (reachabilityRelation.size() == 0) {
+            return null;
+        }
+
+        return new LazyKeyGraph<>(automaton, reachabilityRelation, onAcceptingRelation, checkGraph, compressKeys,
+                maximumNumberOfKeys);
+    }
+
+    /**
+     * Constructs the lazy key graph using the VPA, its
+     * {@link ReachabilityRelation}, and its {@link OnAcceptingPathRelation}.
+     * 
+     * <p>
+     * No node is kept.
+     * </p>
+     * 
+     * @param automaton               The 1-SEVPA
+     * @param reachabilityRelation    Its reachability relation
+     * @param onAcceptingPathRelation Its relation that indicates whether a location
+     *                                is on an accepting path
+     * @param checkGraph              If true, checks that the graph does not
+     *                                contain a path where a key is seen multiple
+     *                                times
+     * @param compressKeys            If true, the nodes are created for classes of
+     *                                keys with the same transitions
+     * @param maximumNumberOfKeys     The maximal number of keys whose nodes are
+     *                                kept, or a non-positive number to keep all of
+     *                                them
+     * @throws IllegalArgumentException If the keys must be compressed but the
+     *                                  graph is not checked
+     */
+    public LazyKeyGraph(final OneSEVPA<L, JSONSymbol> automaton, final ReachabilityRelation<L> reachabilityRelation,
+            final OnAcceptingPathRelation<L> onAcceptingPathRelation, final boolean checkGraph,
+            final boolean compressKeys, final long maximumNumberOfKeys) {
+        super(automaton, checkGraph, compressKeys);
+        this.keys = new HashSet<>(getKeyAlphabet());
+        this.valueReachabilityRelation = reachabilityRelation.computePotentialValueReachabilityRelation(automaton,
+                false);
+        this.binLocation = onAcceptingPathRelation.identifyBinLocation(automaton);
+        this.allLocations = new BitSet(automaton.size());
+        this.allLocations.set(0, automaton.size());
+
+        final CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder();
+        if (maximumNumberOfKeys > 0) {
+            builder.maximumSize(maximumNumberOfKeys);
+        }
+        this.keyToNodes = builder.build(CacheLoader.from(this::createNodesForKey));
+        this.hasPathWithDuplicateKeys = checkGraph && hasPathWithDuplicateKeys();
+        LOGGER.info("Lazy key graph created");
+    }
+
+    /**
+     * Checks whether a path in the graph contains the same key twice.
+     * 
+     * <p>
+     * The successors of a node only depend on its target location. Hence, such a
+     * path exists if and only if there is a key with a node whose start location
+     * can be reached from the initial location, and from which the start location
+     * of a node of the same key can be reached. The reachability is computed over
+     * the locations, and the nodes of each key are created twice without being
+     * kept.
+     * </p>
+     * 
+     * @return True if and only if a path contains the same key twice
+     */
+    private boolean hasPathWithDuplicateKeys() {
+        final OneSEVPA<L, JSONSymbol> automaton = getAutomaton();
+        final int size = automaton.size();
+        final Set<JSONSymbol> representatives = new LinkedHashSet<>();
+        for (final JSONSymbol key : keys) {
+            representatives.add(getRepresentative(key));
+        }
+
+        // The locations reached by reading a node starting in a location, and a comma
+        final List<BitSet> successors = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            successors.add(new BitSet(size));
+        }
+        for (final JSONSymbol key : representatives) {
+            for (final NodeInGraph<L> node : createNodesForKey(key).nodes) {
+                final int locationAfterComma = getLocationIdAfterComma(node);
+                if (locationAfterComma != -1) {
+                    successors.get(automaton.getLocationId(node.getStartLocation())).set(locationAfterComma);
+                }
+            }
+        }
+
+        // The locations reached by reading zero or more nodes
+        final List<BitSet> reachable = new ArrayList<>(size);
+        for (int start = 0; start < size; start++) {
+            final BitSet reached = new BitSet(size);
+            final Deque<Integer> toExplore = new ArrayDeque<>();
+            reached.set(start);
+            toExplore.add(start);
+            while (!toExplore.isEmpty()) {
+                final BitSet next = successors.get(toExplore.poll());
+                for (int id = next.nextSetBit(0); id >= 0; id = next.nextSetBit(id + 1)) {
+                    if (!reached.get(id)) {
+                        reached.set(id);
+                        toExplore.add(id);
+                    }
+                }
+            }
+            reachable.add(reached);
+        }
+
+        final BitSet reachableFromInitial = reachable.get(automaton.getLocationId(automaton.getInitialLocation()));
+        for (final JSONSymbol key : representatives) {
+            final List<NodeInGraph<L>> nodes = createNodesForKey(key).nodes;
+            final BitSet startLocations = new BitSet(size);
+            for (final NodeInGraph<L> node : nodes) {
+                startLocations.set(automaton.getLocationId(node.getStartLocation()));
+            }
+            for (final NodeInGraph<L> node : nodes) {
+                final int locationAfterComma = getLocationIdAfterComma(node);
+                if (reachableFromInitial.get(automaton.getLocationId(node.getStartLocation()))
+                        && locationAfterComma != -1 && reachable.get(locationAfterComma).intersects(startLocations)) {
+                    LOGGER.info("The key " + key + " can be seen twice on a path");
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private int getLocationIdAfterComma(final NodeInGraph<L> node) {
+        final L locationAfterComma = getAutomaton().getInternalSuccessor(node.getTargetLocation(),
+                JSONSymbol.commaSymbol);
+        return locationAfterComma == null ? -1 : getAutomaton().getLocationId(locationAfterComma);
+    }
+
+    private NodesForKey<L> createNodesForKey(final JSONSymbol key) {
+        final List<NodeInGraph<L>> nodes = new ArrayList<>();
+        if (keys.contains(key)) {
+            for (final L startLocation : getAutomaton().getLocations()) {
+                if (!Objects.equals(startLocation, binLocation)) {
+                    // The nodes never propagate their on-path bitset, so it can be shared
+                    createNodes(startLocation, key, valueReachabilityRelation, binLocation, acceptingForTarget,
+                            allLocations, nodes);
+                }
+            }
+        }
+        return new NodesForKey<>(nodes);
+    }
+
+    private NodesForKey<L> getNodesForRepresentative(final JSONSymbol key) {
+        return keyToNodes.getUnchecked(getRepresentative(key));
+    }
+
+    @Override
+    public List<NodeInGraph<L>> getNodesForKey(final JSONSymbol key) {
+        return getNodesForRepresentative(key).nodes;
+    }
+
+    @Override
+    public Set<L> getLocationsReadingKey(final JSONSymbol key) {
+        return getNodesForRepresentative(key).startLocations;
+    }
+
+    @Override
+    Collection<NodeInGraph<L>> getStartingNodes(final Set<JSONSymbol> keys) {
+        final L initialLocation = getAutomaton().getInitialLocation();
+        final List<NodeInGraph<L>> startingNodes = new ArrayList<>();
+        for (final JSONSymbol key : keys) {
+            startingNodes.addAll(getNodesForRepresentative(key).getNodesStartingIn(initialLocation));
+        }
+        return startingNodes;
+    }
+
+    @Override
+    Collection<NodeInGraph<L>> getSuccessors(final NodeInGraph<L> node, final Set<JSONSymbol> keys) {
+        final L locationAfterComma = getAutomaton().getInternalSuccessor(node.getTargetLocation(),
+                JSONSymbol.commaSymbol);
+        if (locationAfterComma == null) {
+            return Collections.emptyList();
+        }
+        final List<NodeInGraph<L>> successors = new ArrayList<>();
+        for (final JSONSymbol key : keys) {
+            successors.addAll(getNodesForRepresentative(key).getNodesStartingIn(locationAfterComma));
+        }
+        return successors;
+    }
+
+    @Override
+    List<NodeInGraph<L>> getStartingNodes() {
+        throw notMaterialized();
+    }
+
+    @Override
+    ImmutableGraph<NodeInGraph<L>> getGraph() {
+        throw notMaterialized();
+    }
+
+    @Override
+    Set<NodeInGraph<L>> nodes() {
+        throw notMaterialized();
+    }
+
+    @Override
+    Set<EndpointPair<NodeInGraph<L>>> edges() {
+        throw notMaterialized();
+    }
+
+    private static IllegalStateException notMaterialized() {
+        return new IllegalStateException("The nodes and edges of a lazy key graph are never entirely created");
+    }
+
+    @Override
+    public boolean isValid() {
+        return !hasPathWithDuplicateKeys;
+    }
+
+    /**
+     * The number of nodes that are currently created.
+     * 
+     * @return The number of nodes
+     */
+    @Override
+    public int size() {
+        int size = 0;
+        for (final NodesForKey<L> nodes : keyToNodes.asMap().values()) {
+            size += nodes.nodes.size();
+        }
+        return size;
+    }
+
+    /**
+     * The number of keys (or classes of keys) whose nodes are currently created.
+     * 
+     * @return The number of keys
+     */
+    public long getNumberOfCreatedKeys() {
+        return keyToNodes.size();
+    }
+
+    /**
+     * Returns this graph, as the nodes that can not be on an accepting path are
+     * not known.
+     * 
+     * @return This graph
+     */
+    @Override
+    public KeyGraph<L> reduce() {
+        return this;
+    }
+}
@@ -46,10 +46,55 @@ public class NodeInGraph<L> {
 
     public NodeInGraph(final L startLocation, final L targetLocation, final JSONSymbol symbol,
             final OneSEVPA<L, JSONSymbol> automaton, final L binLocation) {
+        this(startLocation, targetLocation, symbol,
+                computeAcceptingForLocation(targetLocation, automaton, binLocation));
+    }
+
+    /**
+     * Creates a node whose bitset of accepting locations is shared with the other
+     * nodes with the same target location.
+     * 
+     * <p>
+     * The bitset must not be modified afterwards.
+     * </p>
+     */
+    NodeInGraph(final L startLocation, final L targetLocation, final JSONSymbol symbol,
+            final BitSet acceptingForLocation) {
+        this(startLocation, targetLocation, symbol, acceptingForLocation, (BitSet) acceptingForLocation.clone());
+    }
+
+    /**
+     * Creates a node with the given bitsets, which may be shared with other nodes.
+     * 
+     * <p>
+     * The on-path bitset must not be propagated if it is shared.
+     * </p>
+     */
+    NodeInGraph(final L startLocation, final L targetLocation, final JSONSymbol symbol,
+            final BitSet acceptingForLocation, final BitSet onPathToAcceptingForLocation) {
         this.pairLocations = PairSourceToReached.of(startLocation, targetLocation);
         this.symbol = symbol;
-        this.acceptingForLocation = new BitSet(automaton.size());
-        this.onPathToAcceptingForLocation = new BitSet(automaton.size());
+        this.acceptingForLocation = acceptingForLocation;
+        this.onPathToAcceptingForLocation = onPathToAcceptingForLocation;
+    }
+
+    /**
+     * Computes the locations before the call for which the closing curly brace
+     * can be read from the target location.
+     * 
+     * <p>
+     * The result only depends on the target location, and can thus be shared by
+     * all the nodes with that target location.
+     * </p>
+     * 
+     * @param targetLocation The target location
+     * @param automaton      The automaton
+     * @param binLocation    The bin location of the automaton, or null
+     * @return The identifiers of the locations before the call
+     */
+    static <L> BitSet computeAcceptingForLocation(final L targetLocation, final OneSEVPA<L, JSONSymbol> automaton,
+            final L binLocation) {
+        final BitSet acceptingForLocation = new BitSet(automaton.size());
 
         final JSONSymbol callSymbol = JSONSymbol.openingCurlyBraceSymbol;
         final JSONSymbol returnSymbol = JSONSymbol.closingCurlyBraceSymbol;
@@ -66,9 +111,9 @@ public class NodeInGraph<L> {
             final L locationAfterReturn = automaton.getReturnSuccessor(targetLocation, returnSymbol, stackSym);
             if (locationAfterReturn != null && !(Objects.equals(locationAfterReturn, binLocation))) {
                 acceptingForLocation.set(i);
-                onPathToAcceptingForLocation.set(i);
             }
         }
+        return acceptingForLocation;
     }
 
     public JSONSymbol getSymbol() {
@@ -95,8 +140,12 @@ public class NodeInGraph<L> {
         return onPathToAcceptingForLocation.get(locationId);
     }
 
-    void setOnPathToAcceptingLocation(int locationId) {
-        onPathToAcceptingForLocation.set(locationId);
+    boolean isOnPathToAcceptingForSomeLocation() {
+        return !onPathToAcceptingForLocation.isEmpty();
+    }
+
+    void addOnPathToAcceptingLocations(final NodeInGraph<L> successor) {
+        onPathToAcceptingForLocation.or(successor.onPathToAcceptingForLocation);
     }
 
     @Override
@@ -0,0 +1,163 @@
+/*
+ * ValidatingJSONDocumentsWithLearnedVPA - Learning a visibly pushdown automaton
+ * from a JSON schema, and using it to validate JSON documents.
+ *
+ * Copyright 2022 University of Mons, University of Antwerp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package be.ac.umons.jsonvalidation.tokenizer;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.json.JSONException;
+
+/**
+ * Checks that a sequence of tokens forms a valid JSON document.
+ * 
+ * <p>
+ * The state is explicit (what is expected next, and the stack of the opened
+ * objects and arrays) so that a document can be checked token by token, even
+ * if the bytes are given in multiple chunks.
+ * </p>
+ * 
+ * @author Gaëtan Staquet
+ */
+final class JSONGrammar {
+
+    private enum Expected {
+        VALUE,
+        VALUE_OR_CLOSING_BRACKET,
+        KEY,
+        KEY_OR_CLOSING_CURLY_BRACE,
+        COLON,
+        COMMA_OR_CLOSING,
+        NOTHING,
+    }
+
+    // true for an object, false for an array
+    private boolean[] containers = new boolean[16];
+    private int depth = 0;
+    private Expected expected = Expected.VALUE;
+
+    static JSONException error(final String message, final long position) {
+        return new JSONException(message + " at byte " + position);
+    }
+
+    boolean isExpectingKey() {
+        return expected == Expected.KEY || expected == Expected.KEY_OR_CLOSING_CURLY_BRACE;
+    }
+
+    boolean isExpectingValue() {
+        return expected == Expected.VALUE || expected == Expected.VALUE_OR_CLOSING_BRACKET;
+    }
+
+    /**
+     * The number of objects and arrays that are currently opened.
+     * 
+     * @return The depth
+     */
+    int getDepth() {
+        return depth;
+    }
+
+    void key(final long position) throws JSONException {
+        if (!isExpectingKey()) {
+            throw error("Unexpected key", position);
+        }
+        expected = Expected.COLON;
+    }
+
+    void value(final long position) throws JSONException {
+        if (!isExpectingValue()) {
+            throw error("Unexpected value", position);
+        }
+        afterValue();
+    }
+
+    void open(final boolean object, final long position) throws JSONException {
+        if (!isExpectingValue()) {
+            throw error("Unexpected opening", position);
+        }
+        if (depth == containers.length) {
+            containers = Arrays.copyOf(containers, depth * 2);
+        }
+        containers[depth++] = object;
+        expected = object ? Expected.KEY_OR_CLOSING_CURLY_BRACE : Expected.VALUE_OR_CLOSING_BRACKET;
+    }
+
+    void close(final boolean object, final long position) throws JSONException {
+        final Expected emptyContainer = object ? Expected.KEY_OR_CLOSING_CURLY_BRACE
+                : Expected.VALUE_OR_CLOSING_BRACKET;
+        if (depth == 0 || containers[depth - 1] != object
+                || (expected != emptyContainer && expected != Expected.COMMA_OR_CLOSING)) {
+            throw error(object ? "Unexpected }" : "Unexpected ]", position);
+        }
+        depth--;
+        afterValue();
+    }
+
+    void colon(final long position) throws JSONException {
+        if (expected != Expected.COLON) {
+            throw error("Unexpected :", position);
+        }
+        expected = Expected.VALUE;
+    }
+
+    void comma(final long position) throws JSONException {
+        if (expected != Expected.COMMA_OR_CLOSING) {
+            throw error("Unexpected ,", position);
+        }
+        expected = containers[depth - 1] ? Expected.KEY : Expected.VALUE;
+    }
+
+    void end(final long position) throws JSONException {
+        if (expected != Expected.NOTHING) {
+            throw error("Unexpected end of document", position);
+        }
+    }
+
+    void write(final DataOutput out) throws IOException {
+        out.writeByte(expected.ordinal());
+        out.writeInt(depth);
+        for (int i = 0; i < depth; i++) {
+            out.writeBoolean(containers[i]);
+        }
+    }
+
+    static JSONGrammar read(final DataInput in) throws IOException {
+        final JSONGrammar grammar = new JSONGrammar();
+        final int expected = in.readUnsignedByte();
+        if (expected >= Expected.values().length) {
+            throw new IOException("Unknown grammar state " + expected);
+        }
+        grammar.expected = Expected.values()[expected];
+        grammar.depth = in.readInt();
+        if (grammar.depth < 0) {
+            throw new IOException("Negative depth " + grammar.depth);
+        }
+        grammar.containers = new boolean[Math.max(16, grammar.depth)];
+        for (int i = 0; i < grammar.depth; i++) {
+            grammar.containers[i] = in.readBoolean();
+        }
+        return grammar;
+    }
+
+    private void afterValue() {
+        expected = depth == 0 ? Expected.NOTHING : Expected.COMMA_OR_CLOSING;
+    }
+}
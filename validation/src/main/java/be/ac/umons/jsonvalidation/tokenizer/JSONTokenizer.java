@@ -0,0 +1,360 @@
+/*
+ * ValidatingJSONDocumentsWithLearnedVPA - Learning a visibly pushdown automaton
+ * from a JSON schema, and using it to validate JSON documents.
+ *
+ * Copyright 2022 University of Mons, University of Antwerp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package be.ac.umons.jsonvalidation.tokenizer;
+
+import java.nio.charset.StandardCharsets;
+
+import javax.annotation.Nullable;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import be.ac.umons.jsonvalidation.JSONSymbol;
+import be.ac.umons.jsonvalidation.WordConversion;
+import net.automatalib.words.Word;
+import net.automatalib.words.WordBuilder;
+
+/**
+ * Converts the bytes of a JSON document, encoded in UTF-8, to a word of JSON
+ * symbols.
+ * 
+ * <p>
+ * The symbols are the same than the ones produced by
+ * {@link WordConversion#fromJSONDocumentToJSONSymbolWord(JSONObject)}, except
+ * that the keys of an object are listed in the order in which they appear in
+ * the document. The tokenizer is strict: the document must be valid JSON
+ * (unquoted keys, single quotes, comments, and so on, are refused).
+ * </p>
+ * 
+ * <p>
+ * The document is read in two stages. The first stage (see
+ * {@link StructuralIndex}) finds the quotes and structural characters eight
+ * bytes at a time. The second stage walks through the positions found by the
+ * first stage, checks the grammar, and creates the symbols. The bytes that are
+ * not in the index are only read to decode strings and primitive values.
+ * </p>
+ * 
+ * <p>
+ * If a {@link KeyDictionary} is given, the keys are looked up directly from the
+ * bytes of the document.
+ * </p>
+ * 
+ * @author Gaëtan Staquet
+ */
+public class JSONTokenizer {
+
+    private final @Nullable KeyDictionary keyDictionary;
+
+    /**
+     * Creates a tokenizer that accepts every key.
+     */
+    public JSONTokenizer() {
+        this(null);
+    }
+
+    /**
+     * Creates a tokenizer that uses a dictionary to convert the keys to symbols.
+     * 
+     * <p>
+     * The keys that are in the dictionary are converted without creating any
+     * string. The other keys are handled according to the
+     * {@link KeyDictionary.UnknownKeyPolicy} of the dictionary.
+     * </p>
+     * 
+     * @param keyDictionary The dictionary, or null to accept every key
+     */
+    public JSONTokenizer(final @Nullable KeyDictionary keyDictionary) {
+        this.keyDictionary = keyDictionary;
+    }
+
+    public @Nullable KeyDictionary getKeyDictionary() {
+        return keyDictionary;
+    }
+
+    /**
+     * Converts the document to a word.
+     * 
+     * @param document The bytes of the document
+     * @return The word
+     * @throws JSONException If the document is not valid JSON
+     */
+    public Word<JSONSymbol> tokenize(final byte[] document) throws JSONException {
+        return tokenize(document, 0, document.length);
+    }
+
+    /**
+     * Converts a part of an array of bytes to a word.
+     * 
+     * @param bytes  The bytes
+     * @param offset The position of the first byte of the document
+     * @param length The length of the document
+     * @return The word
+     * @throws JSONException If the document is not valid JSON
+     */
+    public Word<JSONSymbol> tokenize(final byte[] bytes, final int offset, final int length)
+            throws JSONException {
+        final StructuralIndex index = StructuralIndex.build(bytes, offset, length);
+        final WordBuilder<JSONSymbol> word = new WordBuilder<>(index.size());
+        final JSONGrammar grammar = new JSONGrammar();
+        int position = offset;
+
+        for (int i = 0; i < index.size(); i++) {
+            final int structural = index.get(i);
+
+            if (!isBlank(bytes, position, structural)) {
+                grammar.value(position);
+                word.add(readPrimitiveValue(bytes, position, structural));
+            }
+
+            switch (bytes[structural]) {
+            case '"':
+                // The stage 1 guarantees that the closing quote is the next position
+                final int closing = index.get(++i);
+                if (grammar.isExpectingKey()) {
+                    grammar.key(structural);
+                    word.add(readKey(keyDictionary, bytes, structural + 1, closing));
+                } else {
+                    grammar.value(structural);
+                    word.add(readStringValue(bytes, structural + 1, closing));
+                }
+                position = closing + 1;
+                continue;
+            case '{':
+                grammar.open(true, structural);
+                word.add(JSONSymbol.openingCurlyBraceSymbol);
+                break;
+            case '[':
+                grammar.open(false, structural);
+                word.add(JSONSymbol.openingBracketSymbol);
+                break;
+            case '}':
+                grammar.close(true, structural);
+                word.add(JSONSymbol.closingCurlyBraceSymbol);
+                break;
+            case ']':
+                grammar.close(false, structural);
+                word.add(JSONSymbol.closingBracketSymbol);
+                break;
+            case ':':
+                grammar.colon(structural);
+                break;
+            case ',':
+                grammar.comma(structural);
+                word.add(JSONSymbol.commaSymbol);
+                break;
+            default:
+                throw new IllegalStateException("The index contains a non-structural character");
+            }
+            position = structural + 1;
+        }
+
+        final int end = offset + length;
+        if (!isBlank(bytes, position, end)) {
+            grammar.value(position);
+            word.add(readPrimitiveValue(bytes, position, end));
+        }
+        grammar.end(end);
+        return word.toWord();
+    }
+
+    /**
+     * Converts the key between the given positions (the quotes are excluded) to a
+     * symbol.
+     */
+    static JSONSymbol readKey(final @Nullable KeyDictionary keyDictionary, final byte[] bytes, final int start,
+            final int end) throws JSONException {
+        if (keyDictionary == null) {
+            return WordConversion.keyToSymbol(readString(bytes, start, end));
+        } else {
+            return keyDictionary.getKeySymbol(bytes, start, end);
+        }
+    }
+
+    /**
+     * Converts the string value between the given positions (the quotes are
+     * excluded) to a symbol.
+     */
+    static JSONSymbol readStringValue(final byte[] bytes, final int start, final int end) throws JSONException {
+        return JSONSymbol.toSymbol("\"" + readString(bytes, start, end) + "\"");
+    }
+
+    static boolean isWhitespace(final byte b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+    }
+
+    private static boolean isBlank(final byte[] bytes, final int start, final int end) {
+        for (int i = start; i < end; i++) {
+            if (!isWhitespace(bytes[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads a number, true, false, or null. The range may start and end with
+     * whitespaces.
+     */
+    static JSONSymbol readPrimitiveValue(final byte[] bytes, int start, int end) throws JSONException {
+        while (isWhitespace(bytes[start])) {
+            start++;
+        }
+        while (isWhitespace(bytes[end - 1])) {
+            end--;
+        }
+
+        if (matchesLiteral(bytes, start, end, "true")) {
+            return JSONSymbol.trueSymbol;
+        } else if (matchesLiteral(bytes, start, end, "false")) {
+            return JSONSymbol.falseSymbol;
+        } else if (matchesLiteral(bytes, start, end, "null")) {
+            return JSONSymbol.nullSymbol;
+        } else if (isNumber(bytes, start, end)) {
+            // JSONObject converts the number before it is written in the symbol
+            final String number = new String(bytes, start, end - start, StandardCharsets.US_ASCII);
+            return WordConversion.primitiveValueToSymbol(JSONObject.stringToValue(number));
+        }
+        throw JSONGrammar.error("Invalid value", start);
+    }
+
+    private static boolean matchesLiteral(final byte[] bytes, final int start, final int end, final String literal) {
+        if (end - start != literal.length()) {
+            return false;
+        }
+        for (int i = 0; i < literal.length(); i++) {
+            if (bytes[start + i] != literal.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isDigit(final byte b) {
+        return '0' <= b && b <= '9';
+    }
+
+    private static boolean isNumber(final byte[] bytes, final int start, final int end) {
+        int i = start;
+        if (i < end && bytes[i] == '-') {
+            i++;
+        }
+        if (i == end || !isDigit(bytes[i])) {
+            return false;
+        }
+        if (bytes[i] == '0') {
+            i++;
+        } else {
+            while (i < end && isDigit(bytes[i])) {
+                i++;
+            }
+        }
+        if (i < end && bytes[i] == '.') {
+            i++;
+            if (i == end || !isDigit(bytes[i])) {
+                return false;
+            }
+            while (i < end && isDigit(bytes[i])) {
+                i++;
+            }
+        }
+        if (i < end && (bytes[i] == 'e' || bytes[i] == 'E')) {
+            i++;
+            if (i < end && (bytes[i] == '+' || bytes[i] == '-')) {
+                i++;
+            }
+            if (i == end || !isDigit(bytes[i])) {
+                return false;
+            }
+            while (i < end && isDigit(bytes[i])) {
+                i++;
+            }
+        }
+        return i == end;
+    }
+
+    /**
+     * Decodes the string between the given positions (the quotes are excluded).
+     */
+    static String readString(final byte[] bytes, final int start, final int end) throws JSONException {
+        boolean escaped = false;
+        for (int i = start; i < end; i++) {
+            if ((bytes[i] & 0xFF) < 0x20) {
+                throw JSONGrammar.error("Control character in a string", i);
+            } else if (bytes[i] == '\\') {
+                escaped = true;
+            }
+        }
+        final String raw = new String(bytes, start, end - start, StandardCharsets.UTF_8);
+        if (!escaped) {
+            return raw;
+        }
+
+        final StringBuilder builder = new StringBuilder(raw.length());
+        for (int i = 0; i < raw.length(); i++) {
+            final char c = raw.charAt(i);
+            if (c != '\\') {
+                builder.append(c);
+                continue;
+            }
+            // The stage 1 guarantees that a backslash is never the last character
+            final char next = raw.charAt(++i);
+            switch (next) {
+            case '"':
+            case '\\':
+            case '/':
+                builder.append(next);
+                break;
+            case 'b':
+                builder.append('\b');
+                break;
+            case 'f':
+                builder.append('\f');
+                break;
+            case 'n':
+                builder.append('\n');
+                break;
+            case 'r':
+                builder.append('\r');
+                break;
+            case 't':
+                builder.append('\t');
+                break;
+            case 'u':
+                if (i + 4 >= raw.length()) {
+                    throw JSONGrammar.error("Invalid unicode escape", start);
+                }
+                int code = 0;
+                for (int j = 1; j <= 4; j++) {
+                    final int digit = Character.digit(raw.charAt(i + j), 16);
+                    if (digit == -1) {
+                        throw JSONGrammar.error("Invalid unicode escape", start);
+                    }
+                    code = code * 16 + digit;
+                }
+                builder.append((char) code);
+                i += 4;
+                break;
+            default:
+                throw JSONGrammar.error("Invalid escape sequence", start);
+            }
+        }
+        return builder.toString();
+    }
+}
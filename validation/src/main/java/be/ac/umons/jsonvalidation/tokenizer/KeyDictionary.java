@@ -0,0 +1,335 @@
+/*
+ * ValidatingJSONDocumentsWithLearnedVPA - Learning a visibly pushdown automaton
+ * from a JSON schema, and using it to validate JSON documents.
+ *
+ * Copyright 2022 University of Mons, University of Antwerp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package be.ac.umons.jsonvalidation.tokenizer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import org.json.JSONException;
+
+import be.ac.umons.jsonschematools.AbstractConstants;
+import be.ac.umons.jsonvalidation.JSONSymbol;
+import be.ac.umons.jsonvalidation.WordConversion;
+
+/**
+ * A dictionary from the bytes of a key (as they appear in a document) to the
+ * symbol reading the key, for a fixed set of keys.
+ * 
+ * <p>
+ * The set of keys is known when the automaton is constructed (see
+ * {@link be.ac.umons.jsonvalidation.graph.KeyGraph#getKeyAlphabet()}). The
+ * dictionary uses a minimal perfect hash function built by hash and
+ * displace: the keys are split in small buckets according to a first hash,
+ * and, for each bucket, a displacement is searched such that a second hash
+ * (seeded by the displacement) sends the keys of the bucket to free slots. A
+ * lookup thus computes two hashes over the bytes and compares the bytes with
+ * the single key stored in the slot, without creating a string.
+ * </p>
+ * 
+ * <p>
+ * A key that is not in the dictionary is either replaced by the symbol for
+ * additional properties (if the automaton has such a symbol), or leads to an
+ * immediate rejection of the document, depending on the
+ * {@link UnknownKeyPolicy}.
+ * </p>
+ * 
+ * @author Gaëtan Staquet
+ */
+public final class KeyDictionary {
+
+    /**
+     * What to do with a key that is not in the dictionary.
+     */
+    public enum UnknownKeyPolicy {
+        /**
+         * The document is rejected.
+         */
+        REJECT,
+        /**
+         * The key is replaced by the symbol {@code "\S":}, used by the abstracted
+         * documents for the keys that are not explicitly listed in the schema. If
+         * the automaton does not have this symbol, the document is rejected.
+         */
+        ADDITIONAL_PROPERTY,
+    }
+
+    /**
+     * The symbol reading a key that is not explicitly listed in the schema.
+     */
+    public static final JSONSymbol ADDITIONAL_PROPERTY_SYMBOL = WordConversion
+            .keyToSymbol(AbstractConstants.stringConstant);
+
+    private static final int KEYS_PER_BUCKET = 4;
+    private static final int MAXIMAL_DISPLACEMENT = 1 << 16;
+
+    private final UnknownKeyPolicy unknownKeyPolicy;
+    private final @Nullable JSONSymbol additionalPropertySymbol;
+    private final int[] displacements;
+    private final byte[][] keys;
+    private final JSONSymbol[] symbols;
+    private final int numberOfKeys;
+
+    /**
+     * Creates the dictionary.
+     * 
+     * <p>
+     * Only the symbols of the form {@code "key":} (as produced by
+     * {@link WordConversion#keyToSymbol(String)}) are used. The other symbols can
+     * never be produced from a document.
+     * </p>
+     * 
+     * @param keySymbols       The key symbols
+     * @param unknownKeyPolicy What to do with unknown keys
+     */
+    public KeyDictionary(final Collection<JSONSymbol> keySymbols, final UnknownKeyPolicy unknownKeyPolicy) {
+        this.unknownKeyPolicy = unknownKeyPolicy;
+
+        final Map<String, JSONSymbol> keyToSymbol = new LinkedHashMap<>();
+        for (final JSONSymbol symbol : keySymbols) {
+            final String string = symbol.toString();
+            if (string.length() >= 3 && string.startsWith("\"") && string.endsWith("\":")) {
+                keyToSymbol.put(string.substring(1, string.length() - 2), symbol);
+            }
+        }
+        if (unknownKeyPolicy == UnknownKeyPolicy.ADDITIONAL_PROPERTY
+                && keyToSymbol.containsValue(ADDITIONAL_PROPERTY_SYMBOL)) {
+            this.additionalPropertySymbol = ADDITIONAL_PROPERTY_SYMBOL;
+        } else {
+            this.additionalPropertySymbol = null;
+        }
+
+        this.numberOfKeys = keyToSymbol.size();
+        final List<byte[]> keyBytes = new ArrayList<>(numberOfKeys);
+        for (final String key : keyToSymbol.keySet()) {
+            keyBytes.add(key.getBytes(StandardCharsets.UTF_8));
+        }
+        final int numberOfBuckets = Math.max(1, (keyBytes.size() + KEYS_PER_BUCKET - 1) / KEYS_PER_BUCKET);
+        this.displacements = new int[numberOfBuckets];
+
+        int numberOfSlots = keyBytes.size();
+        int[] slots;
+        while ((slots = placeKeys(keyBytes, numberOfSlots)) == null) {
+            // Should not happen in practice; the function is then not minimal
+            numberOfSlots += numberOfSlots / 2 + 1;
+        }
+
+        this.keys = new byte[numberOfSlots][];
+        this.symbols = new JSONSymbol[numberOfSlots];
+        final List<JSONSymbol> symbolsInOrder = new ArrayList<>(keyToSymbol.values());
+        for (int i = 0; i < slots.length; i++) {
+            keys[slots[i]] = keyBytes.get(i);
+            symbols[slots[i]] = symbolsInOrder.get(i);
+        }
+    }
+
+    /**
+     * Searches a displacement for each bucket.
+     * 
+     * @return The slot of each key, or null if it was not possible to place
+     *         every key
+     */
+    private @Nullable int[] placeKeys(final List<byte[]> keyBytes, final int numberOfSlots) {
+        final List<List<Integer>> buckets = new ArrayList<>(displacements.length);
+        for (int i = 0; i < displacements.length; i++) {
+            buckets.add(new ArrayList<>());
+        }
+        for (int i = 0; i < keyBytes.size(); i++) {
+            final byte[] key = keyBytes.get(i);
+            buckets.get(bucket(key, 0, key.length)).add(i);
+        }
+        final List<Integer> bucketOrder = new ArrayList<>(displacements.length);
+        for (int i = 0; i < displacements.length; i++) {
+            bucketOrder.add(i);
+        }
+        // The largest buckets are the hardest to place
+        bucketOrder.sort(Comparator.comparingInt((Integer bucket) -> buckets.get(bucket).size()).reversed());
+
+        final boolean[] occupied = new boolean[numberOfSlots];
+        final int[] slots = new int[keyBytes.size()];
+        for (final int bucket : bucketOrder) {
+            final List<Integer> keysInBucket = buckets.get(bucket);
+            if (keysInBucket.isEmpty()) {
+                continue;
+            }
+            boolean placed = false;
+            for (int displacement = 1; displacement <= MAXIMAL_DISPLACEMENT && !placed; displacement++) {
+                placed = true;
+                for (int j = 0; j < keysInBucket.size(); j++) {
+                    final byte[] key = keyBytes.get(keysInBucket.get(j));
+                    final int slot = slot(key, 0, key.length, displacement, numberOfSlots);
+                    slots[keysInBucket.get(j)] = slot;
+                    if (occupied[slot] || contains(slots, keysInBucket, j, slot)) {
+                        placed = false;
+                        break;
+                    }
+                }
+                if (placed) {
+                    for (final int key : keysInBucket) {
+                        occupied[slots[key]] = true;
+                    }
+                    displacements[bucket] = displacement;
+                }
+            }
+            if (!placed) {
+                return null;
+            }
+        }
+        return slots;
+    }
+
+    private static boolean contains(final int[] slots, final List<Integer> keys, final int until, final int slot) {
+        for (int i = 0; i < until; i++) {
+            if (slots[keys.get(i)] == slot) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public UnknownKeyPolicy getUnknownKeyPolicy() {
+        return unknownKeyPolicy;
+    }
+
+    /**
+     * The number of keys in the dictionary.
+     * 
+     * @return The number of keys
+     */
+    public int size() {
+        return numberOfKeys;
+    }
+
+    /**
+     * Gets the identifier of a key, given by its UTF-8 bytes (without any
+     * escape sequence).
+     * 
+     * @param bytes The bytes
+     * @param start The position of the first byte of the key
+     * @param end   The position after the last byte of the key
+     * @return The identifier, or -1 if the key is not in the dictionary
+     */
+    public int getId(final byte[] bytes, final int start, final int end) {
+        if (keys.length == 0) {
+            return -1;
+        }
+        final int displacement = displacements[bucket(bytes, start, end)];
+        final int slot = slot(bytes, start, end, displacement, keys.length);
+        final byte[] key = keys[slot];
+        if (key == null || key.length != end - start) {
+            return -1;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (key[i] != bytes[start + i]) {
+                return -1;
+            }
+        }
+        return slot;
+    }
+
+    /**
+     * Gets the identifier of a key.
+     * 
+     * @param key The key
+     * @return The identifier, or -1 if the key is not in the dictionary
+     */
+    public int getId(final String key) {
+        final byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        return getId(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Gets the symbol of a key from its identifier.
+     * 
+     * @param id The identifier, as given by {@link #getId(String)}
+     * @return The symbol
+     */
+    public JSONSymbol getSymbol(final int id) {
+        return symbols[id];
+    }
+
+    /**
+     * Gets the symbol to use for a key, as it is written in a document (i.e., it
+     * may contain escape sequences), according to the policy for unknown keys.
+     * 
+     * @param bytes The bytes of the document
+     * @param start The position after the opening quote of the key
+     * @param end   The position of the closing quote of the key
+     * @return The symbol
+     * @throws JSONException If the key is not valid, or if the key is unknown
+     *                       and must be rejected
+     */
+    public JSONSymbol getKeySymbol(final byte[] bytes, final int start, final int end) throws JSONException {
+        boolean escaped = false;
+        for (int i = start; i < end && !escaped; i++) {
+            escaped = bytes[i] == '\\';
+        }
+
+        final int id;
+        if (escaped) {
+            id = getId(JSONTokenizer.readString(bytes, start, end));
+        } else {
+            id = getId(bytes, start, end);
+        }
+        if (id != -1) {
+            return symbols[id];
+        }
+
+        // Even if the key is rejected, it must be a valid string
+        final String key = JSONTokenizer.readString(bytes, start, end);
+        if (additionalPropertySymbol != null) {
+            return additionalPropertySymbol;
+        }
+        throw new JSONException("Unknown key " + key + " at byte " + start);
+    }
+
+    private int bucket(final byte[] bytes, final int start, final int end) {
+        return (int) Long.remainderUnsigned(hash(bytes, start, end, 0), displacements.length);
+    }
+
+    private static int slot(final byte[] bytes, final int start, final int end, final int displacement,
+            final int numberOfSlots) {
+        return (int) Long.remainderUnsigned(hash(bytes, start, end, displacement), numberOfSlots);
+    }
+
+    /**
+     * FNV-1a over the bytes, followed by the finalizer of MurmurHash3 to spread
+     * the bits.
+     */
+    private static long hash(final byte[] bytes, final int start, final int end, final int seed) {
+        long hash = 0xcbf29ce484222325L ^ (seed * 0x9E3779B97F4A7C15L);
+        for (int i = start; i < end; i++) {
+            hash ^= bytes[i] & 0xFF;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
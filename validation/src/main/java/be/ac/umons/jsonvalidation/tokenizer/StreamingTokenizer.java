@@ -0,0 +1,394 @@
+/*
+ * ValidatingJSONDocumentsWithLearnedVPA - Learning a visibly pushdown automaton
+ * from a JSON schema, and using it to validate JSON documents.
+ *
+ * Copyright 2022 University of Mons, University of Antwerp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package be.ac.umons.jsonvalidation.tokenizer;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import javax.annotation.Nullable;
+
+import org.json.JSONException;
+
+import be.ac.umons.jsonvalidation.JSONSymbol;
+
+/**
+ * A tokenizer that can be fed a document chunk by chunk, without blocking.
+ * 
+ * <p>
+ * Unlike {@link JSONTokenizer}, the whole document does not need to be in
+ * memory. The state of the tokenizer (the bytes of the current token, and the
+ * state of the grammar) is stored in the object, and each call to
+ * {@link #feed(ByteBuffer, int, SymbolSink)} resumes from that state. Hence, a
+ * single thread can drive many documents at once by feeding each chunk to the
+ * tokenizer of its document as soon as the chunk is received.
+ * </p>
+ * 
+ * <p>
+ * A call to {@link #feed(ByteBuffer, int, SymbolSink)} may stop before the
+ * end of the chunk, if enough symbols were produced or if the sink asked to
+ * stop. The number of consumed bytes is returned (and the position of the
+ * buffer is advanced accordingly), so the caller can stop reading from the
+ * source until the remaining bytes are consumed.
+ * </p>
+ * 
+ * <p>
+ * The produced symbols are the same than the ones produced by
+ * {@link JSONTokenizer}. This class is not thread-safe.
+ * </p>
+ * 
+ * <p>
+ * The bytes of the current string or literal are kept until its end. In order
+ * to bound the memory used by a document, a token can not be longer than
+ * {@link #getMaximumTokenLength()} bytes (see
+ * {@link #setMaximumTokenLength(int)}).
+ * </p>
+ * 
+ * <p>
+ * The state can be written with {@link #writeState(DataOutput)} and read back,
+ * possibly in another process, with {@link #readState(KeyDictionary, DataInput)}.
+ * </p>
+ * 
+ * @author Gaëtan Staquet
+ */
+public class StreamingTokenizer {
+
+    /**
+     * The default maximal number of bytes of a token.
+     */
+    public static final int DEFAULT_MAXIMUM_TOKEN_LENGTH = 1 << 20;
+
+    private enum LexerState {
+        BETWEEN_TOKENS,
+        IN_STRING,
+        IN_STRING_AFTER_BACKSLASH,
+        IN_LITERAL,
+    }
+
+    private final @Nullable KeyDictionary keyDictionary;
+    private final JSONGrammar grammar;
+    private LexerState lexerState = LexerState.BETWEEN_TOKENS;
+    private boolean stringIsKey = false;
+    // The bytes of the current string (without the quotes) or literal
+    private byte[] token = new byte[64];
+    private int tokenLength = 0;
+    private int maximumTokenLength = DEFAULT_MAXIMUM_TOKEN_LENGTH;
+    private long position = 0;
+    private boolean ended = false;
+
+    /**
+     * Creates a tokenizer that accepts every key.
+     */
+    public StreamingTokenizer() {
+        this(null);
+    }
+
+    /**
+     * Creates a tokenizer that uses a dictionary to convert the keys to symbols.
+     * 
+     * @param keyDictionary The dictionary, or null to accept every key
+     * @see JSONTokenizer#JSONTokenizer(KeyDictionary)
+     */
+    public StreamingTokenizer(final @Nullable KeyDictionary keyDictionary) {
+        this(keyDictionary, new JSONGrammar());
+    }
+
+    private StreamingTokenizer(final @Nullable KeyDictionary keyDictionary, final JSONGrammar grammar) {
+        this.keyDictionary = keyDictionary;
+        this.grammar = grammar;
+    }
+
+    /**
+     * Sets the maximal number of bytes of a string (without the quotes) or of a
+     * literal. A longer token makes {@link #feed(ByteBuffer, int, SymbolSink)}
+     * throw a {@link JSONException}.
+     * 
+     * @param maximumTokenLength The maximal length, in bytes
+     */
+    public void setMaximumTokenLength(final int maximumTokenLength) {
+        if (maximumTokenLength <= 0) {
+            throw new IllegalArgumentException("The maximal length of a token must be positive");
+        }
+        this.maximumTokenLength = maximumTokenLength;
+    }
+
+    public int getMaximumTokenLength() {
+        return maximumTokenLength;
+    }
+
+    /**
+     * Writes the state of the tokenizer (the bytes of the current token, the
+     * maximal length of a token, the position, and the state of the grammar).
+     * The dictionary is not written.
+     * 
+     * @param out The output
+     * @throws IOException If the state can not be written
+     */
+    public void writeState(final DataOutput out) throws IOException {
+        out.writeByte(lexerState.ordinal());
+        out.writeBoolean(stringIsKey);
+        out.writeInt(maximumTokenLength);
+        out.writeInt(tokenLength);
+        out.write(token, 0, tokenLength);
+        out.writeLong(position);
+        out.writeBoolean(ended);
+        grammar.write(out);
+    }
+
+    /**
+     * Creates a tokenizer from a state written by
+     * {@link #writeState(DataOutput)}. The next byte to give to the tokenizer
+     * is the byte at {@link #getPosition()} in the document.
+     * 
+     * @param keyDictionary The dictionary, or null to accept every key
+     * @param in            The input
+     * @return The tokenizer
+     * @throws IOException If the state can not be read
+     */
+    public static StreamingTokenizer readState(final @Nullable KeyDictionary keyDictionary, final DataInput in)
+            throws IOException {
+        final int lexerState = in.readUnsignedByte();
+        if (lexerState >= LexerState.values().length) {
+            throw new IOException("Unknown lexer state " + lexerState);
+        }
+        final boolean stringIsKey = in.readBoolean();
+        final int maximumTokenLength = in.readInt();
+        if (maximumTokenLength <= 0) {
+            throw new IOException("Non-positive maximal token length " + maximumTokenLength);
+        }
+        final int tokenLength = in.readInt();
+        if (tokenLength < 0 || tokenLength > maximumTokenLength) {
+            throw new IOException("Invalid token length " + tokenLength);
+        }
+        final byte[] token = new byte[Math.max(64, tokenLength)];
+        in.readFully(token, 0, tokenLength);
+        final long position = in.readLong();
+        final boolean ended = in.readBoolean();
+
+        final StreamingTokenizer tokenizer = new StreamingTokenizer(keyDictionary, JSONGrammar.read(in));
+        tokenizer.lexerState = LexerState.values()[lexerState];
+        tokenizer.stringIsKey = stringIsKey;
+        tokenizer.token = token;
+        tokenizer.tokenLength = tokenLength;
+        tokenizer.maximumTokenLength = maximumTokenLength;
+        tokenizer.position = position;
+        tokenizer.ended = ended;
+        return tokenizer;
+    }
+
+    /**
+     * The number of bytes consumed since the creation of the tokenizer.
+     * 
+     * @return The number of bytes
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * The number of objects and arrays that are currently opened.
+     * 
+     * @return The depth
+     */
+    public int getDepth() {
+        return grammar.getDepth();
+    }
+
+    /**
+     * Consumes bytes from the chunk, from its current position, and gives the
+     * produced symbols to the sink.
+     * 
+     * <p>
+     * The tokenizer stops when the chunk has no remaining bytes, when at least
+     * {@code maxSymbols} symbols were produced, or when the sink returns false.
+     * The last consumed byte may produce two symbols (a literal followed by a
+     * structural character).
+     * </p>
+     * 
+     * @param chunk      The chunk. Its position is advanced by the number of
+     *                   consumed bytes
+     * @param maxSymbols The number of symbols after which the tokenizer stops
+     * @param sink       The sink
+     * @return The number of consumed bytes
+     * @throws JSONException If the bytes do not form a prefix of a valid JSON
+     *                       document
+     */
+    public int feed(final ByteBuffer chunk, final int maxSymbols, final SymbolSink sink) throws JSONException {
+        if (ended) {
+            throw new IllegalStateException("The end of the document was already reached");
+        }
+        int consumed = 0;
+        int produced = 0;
+        boolean stop = false;
+        while (chunk.hasRemaining() && produced < maxSymbols && !stop) {
+            final byte current = chunk.get();
+            consumed++;
+
+            switch (lexerState) {
+            case IN_STRING_AFTER_BACKSLASH:
+                append(current);
+                lexerState = LexerState.IN_STRING;
+                break;
+            case IN_STRING:
+                if (current == '"') {
+                    final JSONSymbol symbol;
+                    if (stringIsKey) {
+                        symbol = JSONTokenizer.readKey(keyDictionary, token, 0, tokenLength);
+                    } else {
+                        symbol = JSONTokenizer.readStringValue(token, 0, tokenLength);
+                    }
+                    tokenLength = 0;
+                    lexerState = LexerState.BETWEEN_TOKENS;
+                    produced++;
+                    stop = !sink.accept(symbol);
+                } else {
+                    append(current);
+                    if (current == '\\') {
+                        lexerState = LexerState.IN_STRING_AFTER_BACKSLASH;
+                    }
+                }
+                break;
+            case IN_LITERAL:
+                if (isDelimiter(current)) {
+                    lexerState = LexerState.BETWEEN_TOKENS;
+                    produced++;
+                    stop = !sink.accept(endLiteral());
+                    if (stop) {
+                        // The delimiter is not consumed
+                        chunk.position(chunk.position() - 1);
+                        consumed--;
+                        continue;
+                    }
+                    final JSONSymbol symbol = readBetweenTokens(current);
+                    if (symbol != null) {
+                        produced++;
+                        stop = !sink.accept(symbol);
+                    }
+                } else {
+                    append(current);
+                }
+                break;
+            case BETWEEN_TOKENS:
+                final JSONSymbol symbol = readBetweenTokens(current);
+                if (symbol != null) {
+                    produced++;
+                    stop = !sink.accept(symbol);
+                }
+                break;
+            default:
+                throw new IllegalStateException();
+            }
+            position++;
+        }
+        return consumed;
+    }
+
+    /**
+     * Signals that the whole document was given.
+     * 
+     * @param sink The sink receiving the last symbol, if any
+     * @throws JSONException If the document is not complete
+     */
+    public void end(final SymbolSink sink) throws JSONException {
+        if (ended) {
+            return;
+        }
+        ended = true;
+        if (lexerState == LexerState.IN_LITERAL) {
+            sink.accept(endLiteral());
+        } else if (lexerState != LexerState.BETWEEN_TOKENS) {
+            throw JSONGrammar.error("Unterminated string", position);
+        }
+        grammar.end(position);
+    }
+
+    private @Nullable JSONSymbol readBetweenTokens(final byte current) throws JSONException {
+        switch (current) {
+        case '"':
+            stringIsKey = grammar.isExpectingKey();
+            if (stringIsKey) {
+                grammar.key(position);
+            } else {
+                grammar.value(position);
+            }
+            lexerState = LexerState.IN_STRING;
+            return null;
+        case '{':
+            grammar.open(true, position);
+            return JSONSymbol.openingCurlyBraceSymbol;
+        case '[':
+            grammar.open(false, position);
+            return JSONSymbol.openingBracketSymbol;
+        case '}':
+            grammar.close(true, position);
+            return JSONSymbol.closingCurlyBraceSymbol;
+        case ']':
+            grammar.close(false, position);
+            return JSONSymbol.closingBracketSymbol;
+        case ':':
+            grammar.colon(position);
+            return null;
+        case ',':
+            grammar.comma(position);
+            return JSONSymbol.commaSymbol;
+        default:
+            if (JSONTokenizer.isWhitespace(current)) {
+                return null;
+            }
+            grammar.value(position);
+            lexerState = LexerState.IN_LITERAL;
+            append(current);
+            return null;
+        }
+    }
+
+    private JSONSymbol endLiteral() throws JSONException {
+        final JSONSymbol symbol = JSONTokenizer.readPrimitiveValue(token, 0, tokenLength);
+        tokenLength = 0;
+        return symbol;
+    }
+
+    private static boolean isDelimiter(final byte current) {
+        switch (current) {
+        case '{':
+        case '}':
+        case '[':
+        case ']':
+        case ',':
+        case ':':
+        case '"':
+            return true;
+        default:
+            return JSONTokenizer.isWhitespace(current);
+        }
+    }
+
+    private void append(final byte current) throws JSONException {
+        if (tokenLength == maximumTokenLength) {
+            throw JSONGrammar.error("Token longer than " + maximumTokenLength + " bytes", position);
+        }
+        if (tokenLength == token.length) {
+            token = Arrays.copyOf(token, (int) Math.min((long) token.length * 2, maximumTokenLength));
+        }
+        token[tokenLength++] = current;
+    }
+}
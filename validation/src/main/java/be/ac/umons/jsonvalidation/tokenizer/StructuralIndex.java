@@ -0,0 +1,211 @@
+/*
+ * ValidatingJSONDocumentsWithLearnedVPA - Learning a visibly pushdown automaton
+ * from a JSON schema, and using it to validate JSON documents.
+ *
+ * Copyright 2022 University of Mons, University of Antwerp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package be.ac.umons.jsonvalidation.tokenizer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import org.json.JSONException;
+
+/**
+ * The first stage of {@link JSONTokenizer}: the positions of the quotes that
+ * are not escaped, and of the structural characters ({@code {}[],:}) that are
+ * outside of strings.
+ * 
+ * <p>
+ * The bytes are read eight at a time, as a {@code long}. The bytes equal to a
+ * given character are found with bit tricks that operate on the eight bytes at
+ * once (SIMD within a register). The resulting masks are compressed to eight
+ * bits, one per byte. The quotes delimiting strings are then the quotes that
+ * are not escaped, and the bytes inside strings are given by the prefix XOR of
+ * these quotes. Only the words containing a backslash need to be processed one
+ * byte at a time (to know which characters are escaped).
+ * </p>
+ * 
+ * <p>
+ * Since every string starts and ends with a quote that is in the index, two
+ * consecutive positions of the index always describe either a string, or the
+ * bytes between two structural characters (which must then be whitespaces or a
+ * number, true, false, or null).
+ * </p>
+ * 
+ * @author Gaëtan Staquet
+ */
+final class StructuralIndex {
+
+    private static final long ONES = 0x0101010101010101L;
+    private static final long LOW_SEVEN_BITS = 0x7F7F7F7F7F7F7F7FL;
+    private static final long MOVEMASK_MAGIC = 0x0102040810204080L;
+
+    private static final long QUOTES = ONES * '"';
+    private static final long BACKSLASHES = ONES * '\\';
+    private static final long OPENING_CURLY_BRACES = ONES * '{';
+    private static final long CLOSING_CURLY_BRACES = ONES * '}';
+    private static final long OPENING_BRACKETS = ONES * '[';
+    private static final long CLOSING_BRACKETS = ONES * ']';
+    private static final long COMMAS = ONES * ',';
+    private static final long COLONS = ONES * ':';
+
+    private final int[] positions;
+    private final int size;
+
+    private StructuralIndex(final int[] positions, final int size) {
+        this.positions = positions;
+        this.size = size;
+    }
+
+    /**
+     * The number of positions in the index.
+     * 
+     * @return The size
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Gets the i-th position of the index.
+     * 
+     * @param i The index in the index
+     * @return The position in the bytes
+     */
+    int get(final int i) {
+        return positions[i];
+    }
+
+    /**
+     * Builds the index of the given bytes.
+     * 
+     * @param bytes  The bytes
+     * @param offset The position of the first byte to consider
+     * @param length The number of bytes to consider
+     * @return The index
+     * @throws JSONException If a string is not terminated
+     */
+    static StructuralIndex build(final byte[] bytes, final int offset, final int length) throws JSONException {
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        final int end = offset + length;
+        int[] positions = new int[Math.max(16, length / 4)];
+        int size = 0;
+        // Whether the first byte of the next word is escaped
+        boolean escapeCarry = false;
+        // Whether the first byte of the next word is inside a string
+        boolean inStringCarry = false;
+
+        for (int start = offset; start < end; start += 8) {
+            final long word;
+            if (end - start >= 8) {
+                word = buffer.getLong(start);
+            } else {
+                word = readPartialWord(bytes, start, end);
+            }
+
+            final int backslashes = movemask(matches(word, BACKSLASHES));
+            final int escaped;
+            if (backslashes == 0 && !escapeCarry) {
+                escaped = 0;
+            } else {
+                int escapedBits = 0;
+                for (int bit = 0; bit < 8; bit++) {
+                    if (escapeCarry) {
+                        escapedBits |= 1 << bit;
+                        escapeCarry = false;
+                    } else if ((backslashes & (1 << bit)) != 0) {
+                        escapeCarry = true;
+                    }
+                }
+                escaped = escapedBits;
+            }
+
+            final int quotes = movemask(matches(word, QUOTES)) & ~escaped;
+            int inString = prefixXor(quotes);
+            if (inStringCarry) {
+                inString ^= 0xFF;
+            }
+            inStringCarry = (inString & 0x80) != 0;
+
+            // @formatter:off
+            final long structuralMask =
+                matches(word, OPENING_CURLY_BRACES) | matches(word, CLOSING_CURLY_BRACES) |
+                matches(word, OPENING_BRACKETS) | matches(word, CLOSING_BRACKETS) |
+                matches(word, COMMAS) | matches(word, COLONS);
+            // @formatter:on
+            int interesting = (movemask(structuralMask) & ~inString) | quotes;
+
+            if (interesting != 0) {
+                if (size + 8 > positions.length) {
+                    positions = Arrays.copyOf(positions, positions.length * 2);
+                }
+                while (interesting != 0) {
+                    positions[size++] = start + Integer.numberOfTrailingZeros(interesting);
+                    interesting &= interesting - 1;
+                }
+            }
+        }
+
+        if (inStringCarry) {
+            throw new JSONException("Unterminated string");
+        }
+        return new StructuralIndex(positions, size);
+    }
+
+    private static long readPartialWord(final byte[] bytes, final int start, final int end) {
+        long word = 0;
+        for (int i = start; i < end; i++) {
+            word |= (bytes[i] & 0xFFL) << (8 * (i - start));
+        }
+        return word;
+    }
+
+    /**
+     * Sets the highest bit of each byte of the word that is equal to the
+     * corresponding byte of the pattern, and clears every other bit.
+     * 
+     * <p>
+     * Unlike the usual "has zero byte" trick, there is no carry between bytes, so
+     * the result is exact for every byte.
+     * </p>
+     */
+    private static long matches(final long word, final long pattern) {
+        final long difference = word ^ pattern;
+        final long nonZero = ((difference & LOW_SEVEN_BITS) + LOW_SEVEN_BITS) | difference;
+        return ~(nonZero | LOW_SEVEN_BITS);
+    }
+
+    /**
+     * Compresses the highest bit of each byte to a single byte, such that the
+     * i-th bit of the result is the highest bit of the i-th byte.
+     */
+    private static int movemask(final long mask) {
+        return (int) (((mask >>> 7) * MOVEMASK_MAGIC) >>> 56);
+    }
+
+    /**
+     * Each bit of the result is the XOR of the bits at the same and lower
+     * positions in the argument.
+     */
+    private static int prefixXor(int bits) {
+        bits ^= bits << 1;
+        bits ^= bits << 2;
+        bits ^= bits << 4;
+        return bits & 0xFF;
+    }
+}
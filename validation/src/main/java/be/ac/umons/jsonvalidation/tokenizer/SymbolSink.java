@@ -0,0 +1,39 @@
+/*
+ * ValidatingJSONDocumentsWithLearnedVPA - Learning a visibly pushdown automaton
+ * from a JSON schema, and using it to validate JSON documents.
+ *
+ * Copyright 2022 University of Mons, University of Antwerp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package be.ac.umons.jsonvalidation.tokenizer;
+
+import be.ac.umons.jsonvalidation.JSONSymbol;
+
+/**
+ * Receives the symbols produced by a {@link StreamingTokenizer}.
+ * 
+ * @author Gaëtan Staquet
+ */
+@FunctionalInterface
+public interface SymbolSink {
+    /**
+     * Receives a symbol.
+     * 
+     * @param symbol The symbol
+     * @return True if the tokenizer can continue, false if it must stop after
+     *         this symbol
+     */
+    boolean accept(JSONSymbol symbol);
+}
@@ -0,0 +1,359 @@
+/*
+ * ValidatingJSONDocumentsWithLearnedVPA - Learning a visibly pushdown automaton
+ * from a JSON schema, and using it to validate JSON documents.
+ *
+ * Copyright 2022 University of Mons, University of Antwerp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package be.ac.umons.jsonvalidation.flow;
+
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import be.ac.umons.jsonvalidation.ValidationByAutomaton;
+import be.ac.umons.jsonvalidation.ValidationStream;
+
+/**
+ * A {@link Flow.Processor} that validates a single document whose bytes
+ * (encoded in UTF-8) are published as {@link ByteBuffer}s, and publishes a
+ * single {@link ValidationResult}.
+ * 
+ * <p>
+ * The bytes are given to a {@link ValidationStream}, so the document is never
+ * entirely in memory. The processor requests buffers from the upstream
+ * publisher in batches, and only requests a new batch once every requested
+ * buffer was received and the bytes waiting to be validated are below a
+ * budget. Thus, at most {@code maxBufferedBytes} plus one batch of bytes are
+ * buffered for a document.
+ * </p>
+ * 
+ * <p>
+ * As soon as the document is rejected (because it is not valid JSON, or
+ * because the automaton can not accept it no matter the remaining bytes), the
+ * upstream subscription is cancelled, even if the downstream subscriber did not
+ * request the rejection yet. Otherwise, the verdict is published once the
+ * upstream publisher completes. Only one downstream subscriber is supported.
+ * </p>
+ * 
+ * <p>
+ * The bytes are validated by tasks submitted to an {@link Executor}, at most
+ * {@code maxSymbolsPerStep} symbols at a time, such that the processors of
+ * many documents can share a few threads. If the executor runs a task on the
+ * thread submitting it, the next step is run by a loop instead, such that the
+ * stack does not grow with the number of steps.
+ * </p>
+ * 
+ * @param <L> Location type
+ * @author Gaëtan Staquet
+ */
+public class ValidationProcessor<L> implements Flow.Processor<ByteBuffer, ValidationResult> {
+
+    private final ValidationStream<L> stream;
+    private final Executor executor;
+    private final int batchSize;
+    private final long maxBufferedBytes;
+    private final int maxSymbolsPerStep;
+
+    private final Queue<ByteBuffer> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicLong bufferedBytes = new AtomicLong(0);
+    private final AtomicLong outstandingRequests = new AtomicLong(0);
+    private final AtomicLong downstreamDemand = new AtomicLong(0);
+    private final AtomicInteger workInProgress = new AtomicInteger(0);
+    private final AtomicBoolean subscribed = new AtomicBoolean(false);
+    private final AtomicReference<Thread> drainingThread = new AtomicReference<>(null);
+
+    private volatile Flow.Subscription upstream = null;
+    private volatile boolean upstreamDone = false;
+    private volatile Throwable upstreamError = null;
+    // A violation of the protocol by the downstream subscriber
+    private volatile Throwable downstreamError = null;
+    private volatile Flow.Subscriber<? super ValidationResult> downstream = null;
+    private volatile boolean cancelled = false;
+    // Set by a task that the executor runs inside the task submitting it
+    private volatile Thread inlineResubmission = null;
+
+    // Only accessed by the draining task
+    private ValidationResult result = null;
+    private boolean upstreamReleased = false;
+    private boolean terminated = false;
+
+    /**
+     * Creates a processor that validates on the threads of the upstream
+     * publisher and the downstream subscriber.
+     * 
+     * @param validator        The validator
+     * @param batchSize        The number of buffers requested at once
+     * @param maxBufferedBytes The number of bytes waiting to be validated above
+     *                         which no buffer is requested
+     */
+    public ValidationProcessor(final ValidationByAutomaton<L> validator, final int batchSize,
+            final long maxBufferedBytes) {
+        this(validator, batchSize, maxBufferedBytes, Integer.MAX_VALUE, Runnable::run);
+    }
+
+    /**
+     * Creates a processor.
+     * 
+     * @param validator         The validator
+     * @param batchSize         The number of buffers requested at once
+     * @param maxBufferedBytes  The number of bytes waiting to be validated above
+     *                          which no buffer is requested
+     * @param maxSymbolsPerStep The number of symbols read by a single step of
+     *                          the validation
+     * @param executor          The executor running the validation
+     */
+    public ValidationProcessor(final ValidationByAutomaton<L> validator, final int batchSize,
+            final long maxBufferedBytes, final int maxSymbolsPerStep, final Executor executor) {
+        if (batchSize <= 0 || maxBufferedBytes <= 0 || maxSymbolsPerStep <= 0) {
+            throw new IllegalArgumentException(
+                    "The batch size, the budget, and the number of symbols per step must be positive");
+        }
+        this.stream = validator.newStream();
+        this.executor = Objects.requireNonNull(executor);
+        this.batchSize = batchSize;
+        this.maxBufferedBytes = maxBufferedBytes;
+        this.maxSymbolsPerStep = maxSymbolsPerStep;
+    }
+
+    /**
+     * The number of bytes received but not yet validated.
+     * 
+     * @return The number of bytes
+     */
+    public long getNumberOfBufferedBytes() {
+        return bufferedBytes.get();
+    }
+
+    @Override
+    public void subscribe(final Flow.Subscriber<? super ValidationResult> subscriber) {
+        Objects.requireNonNull(subscriber);
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("A ValidationProcessor supports a single subscriber"));
+            return;
+        }
+        subscriber.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+                if (n <= 0) {
+                    downstreamError = new IllegalArgumentException("The demand must be positive");
+                } else {
+                    downstreamDemand.getAndAccumulate(n, (current, added) -> {
+                        final long sum = current + added;
+                        return sum < 0 ? Long.MAX_VALUE : sum;
+                    });
+                }
+                drain();
+            }
+
+            @Override
+            public void cancel() {
+                cancelled = true;
+                drain();
+            }
+        });
+        downstream = subscriber;
+        drain();
+    }
+
+    @Override
+    public void onSubscribe(final Flow.Subscription subscription) {
+        Objects.requireNonNull(subscription);
+        if (upstream != null) {
+            subscription.cancel();
+            return;
+        }
+        upstream = subscription;
+        drain();
+    }
+
+    @Override
+    public void onNext(final ByteBuffer item) {
+        Objects.requireNonNull(item);
+        outstandingRequests.decrementAndGet();
+        bufferedBytes.addAndGet(item.remaining());
+        queue.add(item);
+        drain();
+    }
+
+    @Override
+    public void onError(final Throwable throwable) {
+        upstreamError = Objects.requireNonNull(throwable);
+        upstreamDone = true;
+        drain();
+    }
+
+    @Override
+    public void onComplete() {
+        upstreamDone = true;
+        drain();
+    }
+
+    private void drain() {
+        if (workInProgress.getAndIncrement() == 0) {
+            executor.execute(this::drainLoop);
+        }
+    }
+
+    private void drainLoop() {
+        final Thread current = Thread.currentThread();
+        if (drainingThread.get() == current) {
+            // The executor runs the task inside the task submitting it: that task
+            // continues instead, as the stack would otherwise grow with each step
+            inlineResubmission = current;
+            return;
+        }
+        drainingThread.set(current);
+        try {
+            do {
+                if (!drainSteps() || workInProgress.getAndIncrement() != 0) {
+                    return;
+                }
+                // A new task is submitted, such that the other tasks of the executor can
+                // run before the next step
+                inlineResubmission = null;
+                executor.execute(this::drainLoop);
+            } while (inlineResubmission == current);
+        } finally {
+            drainingThread.compareAndSet(current, null);
+        }
+    }
+
+    /**
+     * Performs the work that was signalled, until no more work is signalled.
+     * 
+     * @return True if some bytes are still waiting to be validated
+     */
+    private boolean drainSteps() {
+        boolean moreWork = false;
+        do {
+            moreWork = false;
+            if (terminated) {
+                // The upstream subscription may arrive after the termination
+                releaseUpstream();
+                continue;
+            }
+            if (cancelled) {
+                terminate();
+                continue;
+            }
+
+            if (result == null && upstreamError == null && downstreamError == null) {
+                moreWork = validateStep();
+            }
+            if (result != null) {
+                // The remaining bytes can not change the verdict
+                releaseUpstream();
+            }
+
+            final Flow.Subscriber<? super ValidationResult> subscriber = downstream;
+            if (subscriber == null) {
+                continue;
+            }
+            if (downstreamError != null) {
+                // The upstream subscription is cancelled, as the result is never sent
+                terminate();
+                subscriber.onError(downstreamError);
+            } else if (result != null && downstreamDemand.get() > 0) {
+                terminate();
+                subscriber.onNext(result);
+                subscriber.onComplete();
+            } else if (result == null && upstreamError != null) {
+                terminate();
+                subscriber.onError(upstreamError);
+            }
+        } while (workInProgress.decrementAndGet() != 0);
+        return moreWork;
+    }
+
+    /**
+     * Validates the bytes of the first buffer in the queue, and decides whether
+     * more bytes must be requested.
+     * 
+     * @return True if some bytes are still waiting to be validated
+     */
+    private boolean validateStep() {
+        // Read before the queue, as every buffer is in the queue once the upstream
+        // publisher is done
+        final boolean done = upstreamDone;
+        final ByteBuffer buffer = queue.peek();
+        if (buffer != null) {
+            final long consumed = stream.feed(buffer, maxSymbolsPerStep);
+            bufferedBytes.addAndGet(-consumed);
+            if (stream.isRejected()) {
+                result = new ValidationResult(false, true, stream.getNumberOfConsumedBytes());
+                return false;
+            }
+            if (!buffer.hasRemaining()) {
+                queue.poll();
+            }
+            if (!queue.isEmpty()) {
+                return true;
+            }
+        }
+
+        if (done) {
+            if (!queue.isEmpty()) {
+                return true;
+            }
+            if (upstreamError == null) {
+                final boolean accepted = stream.end();
+                result = new ValidationResult(accepted, false, stream.getNumberOfConsumedBytes());
+            }
+            return false;
+        }
+
+        final Flow.Subscription subscription = upstream;
+        if (subscription != null && outstandingRequests.get() == 0 && bufferedBytes.get() < maxBufferedBytes) {
+            outstandingRequests.addAndGet(batchSize);
+            subscription.request(batchSize);
+        }
+        return false;
+    }
+
+    private void terminate() {
+        terminated = true;
+        releaseUpstream();
+    }
+
+    private void releaseUpstream() {
+        queue.clear();
+        bufferedBytes.set(0);
+        final Flow.Subscription subscription = upstream;
+        if (upstreamReleased || subscription == null) {
+            return;
+        }
+        upstreamReleased = true;
+        if (!upstreamDone) {
+            subscription.cancel();
+        }
+    }
+}
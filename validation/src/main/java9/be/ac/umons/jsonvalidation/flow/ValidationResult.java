@@ -0,0 +1,71 @@
+/*
+ * ValidatingJSONDocumentsWithLearnedVPA - Learning a visibly pushdown automaton
+ * from a JSON schema, and using it to validate JSON documents.
+ *
+ * Copyright 2022 University of Mons, University of Antwerp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package be.ac.umons.jsonvalidation.flow;
+
+/**
+ * The result published by a {@link ValidationProcessor}.
+ * 
+ * @author Gaëtan Staquet
+ */
+public final class ValidationResult {
+
+    private final boolean accepted;
+    private final boolean earlyRejection;
+    private final long numberOfConsumedBytes;
+
+    ValidationResult(final boolean accepted, final boolean earlyRejection, final long numberOfConsumedBytes) {
+        this.accepted = accepted;
+        this.earlyRejection = earlyRejection;
+        this.numberOfConsumedBytes = numberOfConsumedBytes;
+    }
+
+    /**
+     * Whether the document is accepted.
+     * 
+     * @return True if and only if the document is accepted
+     */
+    public boolean isAccepted() {
+        return accepted;
+    }
+
+    /**
+     * Whether the document was rejected before the end of the input.
+     * 
+     * @return True if and only if the document was rejected early
+     */
+    public boolean isEarlyRejection() {
+        return earlyRejection;
+    }
+
+    /**
+     * The number of bytes read before the verdict was known.
+     * 
+     * @return The number of bytes
+     */
+    public long getNumberOfConsumedBytes() {
+        return numberOfConsumedBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "ValidationResult[accepted=" + accepted + ", earlyRejection=" + earlyRejection
+                + ", numberOfConsumedBytes=" + numberOfConsumedBytes + "]";
+    }
+}
@@ -80,6 +80,123 @@ public class Automata {
         return automaton;
     }
 
+    /**
+     * Constructs the same automaton than {@link #constructStraightforwardAutomaton()},
+     * but with the keys as produced by {@link WordConversion}, i.e., accepting the
+     * document <code>{"k1": "\\I", "k2": true}</code>.
+     */
+    public static DefaultOneSEVPA<JSONSymbol> constructAutomatonForDocuments() {
+        JSONSymbol k1Symbol = JSONSymbol.toSymbol("\"k1\":"), k2Symbol = JSONSymbol.toSymbol("\"k2\":");
+        VPDAlphabet<JSONSymbol> alphabet = constructAlphabet(k1Symbol, k2Symbol);
+        DefaultOneSEVPA<JSONSymbol> automaton = new DefaultOneSEVPA<>(alphabet);
+
+        Location q0 = automaton.addInitialLocation(false);
+        Location q1 = automaton.addLocation(false);
+        Location q2 = automaton.addLocation(false);
+        Location q3 = automaton.addLocation(false);
+        Location q4 = automaton.addLocation(false);
+        Location q5 = automaton.addLocation(false);
+        Location q6 = automaton.addLocation(true);
+
+        automaton.setInternalSuccessor(q0, k1Symbol, q1);
+
+        automaton.setInternalSuccessor(q1, JSONSymbol.integerSymbol, q2);
+
+        automaton.setInternalSuccessor(q2, JSONSymbol.commaSymbol, q3);
+
+        automaton.setInternalSuccessor(q3, k2Symbol, q4);
+
+        automaton.setInternalSuccessor(q4, JSONSymbol.trueSymbol, q5);
+
+        automaton.setReturnSuccessor(q5, JSONSymbol.closingCurlyBraceSymbol,
+                automaton.encodeStackSym(q0, JSONSymbol.openingCurlyBraceSymbol), q6);
+
+        return automaton;
+    }
+
+    /**
+     * Constructs an automaton accepting the documents <code>{k1: \\I, k2: true}</code>
+     * and <code>{k1: \\I, k3: true}</code>, in which the keys k2 and k3 have the
+     * same transitions.
+     */
+    public static DefaultOneSEVPA<JSONSymbol> constructAutomatonWithKeysInSameClass() {
+        // @formatter:off
+        VPDAlphabet<JSONSymbol> alphabet = constructAlphabet(
+            JSONSymbol.toSymbol("k1"),
+            JSONSymbol.toSymbol("k2"),
+            JSONSymbol.toSymbol("k3")
+        );
+        // @formatter:on
+        DefaultOneSEVPA<JSONSymbol> automaton = new DefaultOneSEVPA<>(alphabet);
+
+        Location q0 = automaton.addInitialLocation(false);
+        Location q1 = automaton.addLocation(false);
+        Location q2 = automaton.addLocation(false);
+        Location q3 = automaton.addLocation(false);
+        Location q4 = automaton.addLocation(false);
+        Location q5 = automaton.addLocation(false);
+        Location q6 = automaton.addLocation(true);
+
+        automaton.setInternalSuccessor(q0, JSONSymbol.toSymbol("k1"), q1);
+
+        automaton.setInternalSuccessor(q1, JSONSymbol.integerSymbol, q2);
+
+        automaton.setInternalSuccessor(q2, JSONSymbol.commaSymbol, q3);
+
+        automaton.setInternalSuccessor(q3, JSONSymbol.toSymbol("k2"), q4);
+        automaton.setInternalSuccessor(q3, JSONSymbol.toSymbol("k3"), q4);
+
+        automaton.setInternalSuccessor(q4, JSONSymbol.trueSymbol, q5);
+
+        automaton.setReturnSuccessor(q5, JSONSymbol.closingCurlyBraceSymbol,
+                automaton.encodeStackSym(q0, JSONSymbol.openingCurlyBraceSymbol), q6);
+
+        return automaton;
+    }
+
+    /**
+     * Constructs an automaton accepting the document <code>{k1: \\I}</code>,
+     * whose key graph has a node from which the closing curly brace can not be
+     * read, and a node that can not be reached from the initial location.
+     */
+    public static DefaultOneSEVPA<JSONSymbol> constructAutomatonWithUselessNodes() {
+        // @formatter:off
+        VPDAlphabet<JSONSymbol> alphabet = constructAlphabet(
+            JSONSymbol.toSymbol("k1"),
+            JSONSymbol.toSymbol("k2")
+        );
+        // @formatter:on
+        DefaultOneSEVPA<JSONSymbol> automaton = new DefaultOneSEVPA<>(alphabet);
+
+        Location q0 = automaton.addInitialLocation(false);
+        Location q1 = automaton.addLocation(false);
+        Location q2 = automaton.addLocation(false);
+        Location q3 = automaton.addLocation(true);
+        // The first location that is not on an accepting path is the bin location
+        automaton.addLocation(false);
+        Location q4 = automaton.addLocation(false);
+        Location q5 = automaton.addLocation(false);
+        Location q6 = automaton.addLocation(false);
+        Location q7 = automaton.addLocation(false);
+
+        automaton.setInternalSuccessor(q0, JSONSymbol.toSymbol("k1"), q1);
+        automaton.setInternalSuccessor(q0, JSONSymbol.toSymbol("k2"), q4);
+
+        automaton.setInternalSuccessor(q1, JSONSymbol.integerSymbol, q2);
+
+        automaton.setReturnSuccessor(q2, JSONSymbol.closingCurlyBraceSymbol,
+                automaton.encodeStackSym(q0, JSONSymbol.openingCurlyBraceSymbol), q3);
+
+        // Nothing can be read after the value of k2
+        automaton.setInternalSuccessor(q4, JSONSymbol.integerSymbol, q5);
+
+        // q6 is never reached
+        automaton.setInternalSuccessor(q6, JSONSymbol.toSymbol("k1"), q7);
+        automaton.setInternalSuccessor(q7, JSONSymbol.integerSymbol, q2);
+
+        return automaton;
+    }
+
     public static DefaultOneSEVPA<JSONSymbol> constructSmallTwoBranchesAutomaton() {
         // @formatter:off
         VPDAlphabet<JSONSymbol> alphabet = constructAlphabet(
@@ -369,14 +486,13 @@ public class Automata {
     }
 
     public static DefaultOneSEVPA<JSONSymbol> constructAutomatonWithArrays() {
-        // @formatter:off
-        VPDAlphabet<JSONSymbol> alphabet = constructAlphabet(
-            JSONSymbol.toSymbol("k1"),
-            JSONSymbol.toSymbol("k2")
-        );
-        // @formatter:on
+        return constructAutomatonWithArrays(JSONSymbol.toSymbol("k1"), JSONSymbol.toSymbol("k2"));
+    }
+
+    public static DefaultOneSEVPA<JSONSymbol> constructAutomatonWithArrays(JSONSymbol k1Symbol,
+            JSONSymbol k2Symbol) {
+        VPDAlphabet<JSONSymbol> alphabet = constructAlphabet(k1Symbol, k2Symbol);
         DefaultOneSEVPA<JSONSymbol> automaton = new DefaultOneSEVPA<>(alphabet);
-        JSONSymbol k1Symbol = JSONSymbol.toSymbol("k1"), k2Symbol = JSONSymbol.toSymbol("k2");
         JSONSymbol intSymbol = JSONSymbol.integerSymbol, boolSymbol = JSONSymbol.trueSymbol,
                 strSymbol = JSONSymbol.stringSymbol;
 
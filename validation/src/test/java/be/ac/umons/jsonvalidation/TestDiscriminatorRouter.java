@@ -0,0 +1,135 @@
+/*
+ * ValidatingJSONDocumentsWithLearnedVPA - Learning a visibly pushdown automaton
+ * from a JSON schema, and using it to validate JSON documents.
+ *
+ * Copyright 2022 University of Mons, University of Antwerp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package be.ac.umons.jsonvalidation;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import be.ac.umons.jsonvalidation.DiscriminatorRouter.RoutedStream;
+import net.automatalib.automata.vpda.Location;
+
+/**
+ * @author Gaëtan Staquet
+ */
+public class TestDiscriminatorRouter {
+    private static MultiSchemaValidation<Location> constructRegistry() {
+        ValidationByAutomaton<Location> forDocuments = new ValidationByAutomaton<>(
+                Automata.constructAutomatonForDocuments());
+        ValidationByAutomaton<Location> withArrays = new ValidationByAutomaton<>(Automata
+                .constructAutomatonWithArrays(JSONSymbol.toSymbol("\"k1\":"), JSONSymbol.toSymbol("\"k2\":")));
+        return new MultiSchemaValidation<>(Arrays.asList(forDocuments, withArrays));
+    }
+
+    private static RoutedStream<Location> validate(DiscriminatorRouter<Location> router, String document,
+            int chunkSize) {
+        byte[] bytes = document.getBytes(StandardCharsets.UTF_8);
+        RoutedStream<Location> stream = router.newStream();
+        for (int i = 0; i < bytes.length && !stream.isRejected(); i += chunkSize) {
+            stream.feed(ByteBuffer.wrap(bytes, i, Math.min(chunkSize, bytes.length - i)));
+        }
+        return stream;
+    }
+
+    @Test
+    public void testRouting() {
+        DiscriminatorRouter<Location> router = new DiscriminatorRouter<>(constructRegistry(), "k1",
+                Collections.singletonMap("\\I", 0), 1, 100);
+
+        for (int chunkSize : new int[] { 1, 3, 1000 }) {
+            RoutedStream<Location> stream = validate(router, "{\"k1\": \"\\\\I\", \"k2\": true}", chunkSize);
+            Assert.assertTrue(stream.end());
+            Assert.assertEquals(stream.getSchema(), 0);
+
+            // The discriminator is not the first key: the first key is replayed
+            stream = validate(router, "{\"k2\": true, \"k1\": \"\\\\I\"}", chunkSize);
+            Assert.assertTrue(stream.isRouted());
+            Assert.assertTrue(stream.end());
+            Assert.assertEquals(stream.getSchema(), 0);
+
+            // The discriminator value is an array: the default schema is used
+            stream = validate(router, "{\"k1\": [\"\\\\I\", {\"k2\": \"\\\\S\"}, [true], true], \"k2\": \"\\\\S\"}",
+                    chunkSize);
+            Assert.assertTrue(stream.end());
+            Assert.assertEquals(stream.getSchema(), 1);
+
+            stream = validate(router, "{\"k1\": \"\\\\S\"}", chunkSize);
+            Assert.assertFalse(stream.end());
+            Assert.assertEquals(stream.getSchema(), 1);
+
+            stream = validate(router, "{\"k1\": \"\\\\I\", \"k3\": true}", chunkSize);
+            Assert.assertTrue(stream.isRejected());
+            Assert.assertFalse(stream.end());
+        }
+    }
+
+    @Test
+    public void testConcreteDiscriminatorValue() {
+        Map<Object, Integer> routes = new HashMap<>();
+        routes.put("Order", 0);
+        routes.put(7, 0);
+        DiscriminatorRouter<Location> router = new DiscriminatorRouter<>(constructRegistry(), "k1", routes, 1, 100,
+                JSONSymbol.integerSymbol);
+
+        for (int chunkSize : new int[] { 1, 3, 1000 }) {
+            // The route is chosen by the concrete value, and the schema reads its abstraction
+            RoutedStream<Location> stream = validate(router, "{\"k1\": \"Order\", \"k2\": true}", chunkSize);
+            Assert.assertTrue(stream.end());
+            Assert.assertEquals(stream.getSchema(), 0);
+
+            stream = validate(router, "{\"k2\": true, \"k1\": 7}", chunkSize);
+            Assert.assertTrue(stream.end());
+            Assert.assertEquals(stream.getSchema(), 0);
+
+            stream = validate(router, "{\"k1\": \"Item\", \"k2\": true}", chunkSize);
+            Assert.assertFalse(stream.end());
+            Assert.assertEquals(stream.getSchema(), 1);
+        }
+
+        Assert.assertThrows(IllegalArgumentException.class, () -> new DiscriminatorRouter<>(constructRegistry(), "k1",
+                routes, 1, 100, JSONSymbol.toSymbol("\"Order\"")));
+    }
+
+    @Test
+    public void testNoDefaultSchema() {
+        DiscriminatorRouter<Location> router = new DiscriminatorRouter<>(constructRegistry(), "k1",
+                Collections.singletonMap("\\I", 0), -1, 3);
+
+        RoutedStream<Location> stream = validate(router, "{\"k2\": true, \"k1\": \"\\\\I\"}", 1);
+        // Too many symbols before the discriminator
+        Assert.assertTrue(stream.isRejected());
+        Assert.assertFalse(stream.isMalformed());
+        Assert.assertFalse(stream.end());
+        Assert.assertEquals(stream.getSchema(), -1);
+
+        stream = validate(router, "[true]", 1);
+        Assert.assertTrue(stream.isRejected());
+        Assert.assertFalse(stream.end());
+
+        Assert.assertThrows(IllegalArgumentException.class,
+                () -> new DiscriminatorRouter<>(constructRegistry(), "k3", Collections.emptyMap(), -1, 3));
+    }
+}
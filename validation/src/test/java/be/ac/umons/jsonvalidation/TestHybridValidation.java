@@ -0,0 +1,71 @@
+/*
+ * ValidatingJSONDocumentsWithLearnedVPA - Learning a visibly pushdown automaton
+ * from a JSON schema, and using it to validate JSON documents.
+ *
+ * Copyright 2022 University of Mons, University of Antwerp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package be.ac.umons.jsonvalidation;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONObject;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import net.automatalib.automata.vpda.Location;
+
+/**
+ * @author Gaëtan Staquet
+ */
+public class TestHybridValidation {
+    @Test
+    public void testFallback() {
+        ValidationByAutomaton<Location> validator = new ValidationByAutomaton<>(
+                Automata.constructAutomatonForDocuments());
+        List<JSONObject> givenToFallback = new ArrayList<>();
+        FallbackValidator fallback = document -> {
+            givenToFallback.add(document);
+            return document.has("k1");
+        };
+
+        JSONObject valid = new JSONObject("{\"k1\": \"\\\\I\", \"k2\": true}");
+        JSONObject invalid = new JSONObject("{\"k1\": \"\\\\I\", \"k2\": \"\\\\I\"}");
+        JSONObject wrongKey = new JSONObject("{\"k3\": true}");
+
+        HybridValidation<Location> cheap = new HybridValidation<>(validator, fallback, Long.MAX_VALUE);
+        Assert.assertTrue(cheap.accepts(valid));
+        Assert.assertFalse(cheap.accepts(invalid));
+        Assert.assertTrue(cheap.accepts(valid.toString().getBytes(StandardCharsets.UTF_8)));
+        Assert.assertEquals(cheap.getNumberOfDocuments(), 3);
+        Assert.assertEquals(cheap.getNumberOfFallbacks(), 0);
+        Assert.assertTrue(givenToFallback.isEmpty());
+
+        // Every object with keys needs at least one expansion in the key graph
+        HybridValidation<Location> expensive = new HybridValidation<>(validator, fallback, 0);
+        Assert.assertTrue(expensive.accepts(valid));
+        Assert.assertTrue(expensive.accepts(invalid));
+        Assert.assertTrue(expensive.accepts(invalid.toString().getBytes(StandardCharsets.UTF_8)));
+        Assert.assertEquals(expensive.getNumberOfFallbacks(), 3);
+        Assert.assertEquals(givenToFallback.size(), 3);
+        Assert.assertTrue(givenToFallback.get(2).similar(invalid));
+
+        // The automaton rejects the unknown key before the key graph is used
+        Assert.assertFalse(expensive.accepts(wrongKey));
+        Assert.assertEquals(expensive.getNumberOfFallbacks(), 3);
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * ValidatingJSONDocumentsWithLearnedVPA - Learning a visibly pushdown automaton
+ * from a JSON schema, and using it to validate JSON documents.
+ *
+ * Copyright 2022 University of Mons, University of Antwerp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package be.ac.umons.jsonvalidation;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import be.ac.umons.jsonvalidation.tokenizer.KeyDictionary.UnknownKeyPolicy;
+import net.automatalib.automata.vpda.Location;
+
+/**
+ * @author Gaëtan Staquet
+ */
+public class TestMultiSchemaValidation {
+    @Test
+    public void testSameVerdictsAsSeparateValidation() {
+        ValidationByAutomaton<Location> forDocuments = new ValidationByAutomaton<>(
+                Automata.constructAutomatonForDocuments());
+        ValidationByAutomaton<Location> withArrays = new ValidationByAutomaton<>(Automata
+                .constructAutomatonWithArrays(JSONSymbol.toSymbol("\"k1\":"), JSONSymbol.toSymbol("\"k2\":")));
+        ValidationByAutomaton<Location> withAdditionalProperties = new ValidationByAutomaton<>(Automata
+                .constructAutomatonWithArrays(JSONSymbol.toSymbol("\"k1\":"), JSONSymbol.toSymbol("\"\\S\":")));
+        withAdditionalProperties.setUnknownKeyPolicy(UnknownKeyPolicy.ADDITIONAL_PROPERTY);
+        // The automaton reads "\S": but the unknown keys are rejected
+        ValidationByAutomaton<Location> rejectingUnknownKeys = new ValidationByAutomaton<>(Automata
+                .constructAutomatonWithArrays(JSONSymbol.toSymbol("\"k1\":"), JSONSymbol.toSymbol("\"\\S\":")));
+        rejectingUnknownKeys.setUnknownKeyPolicy(UnknownKeyPolicy.REJECT);
+        List<ValidationByAutomaton<Location>> validators = Arrays.asList(forDocuments, withArrays,
+                withAdditionalProperties, rejectingUnknownKeys);
+        MultiSchemaValidation<Location> multiSchemaValidation = new MultiSchemaValidation<>(validators);
+        Assert.assertEquals(multiSchemaValidation.getNumberOfSchemas(), 4);
+
+        // @formatter:off
+        List<String> documents = Arrays.asList(
+            "{\"k1\": \"\\\\I\", \"k2\": true}",
+            "{\"k2\": true, \"k1\": \"\\\\I\"}",
+            "{\"k1\": [\"\\\\I\", {\"k2\": \"\\\\S\"}, [true], true], \"k2\": \"\\\\S\"}",
+            "{\"k1\": [\"\\\\I\", {\"k3\": \"\\\\S\"}, [true], true], \"k3\": \"\\\\S\"}",
+            "{\"k1\": \"\\\\I\", \"k3\": true}",
+            "{\"k1\": 5}",
+            "{\"k1\": "
+        );
+        // @formatter:on
+        for (String document : documents) {
+            byte[] bytes = document.getBytes(StandardCharsets.UTF_8);
+            boolean[] verdicts = multiSchemaValidation.accepts(bytes);
+            Assert.assertEquals(verdicts.length, validators.size());
+            for (int i = 0; i < validators.size(); i++) {
+                boolean expected;
+                try {
+                    expected = validators.get(i).accepts(bytes);
+                } catch (IllegalArgumentException e) {
+                    // The symbol is not in the alphabet
+                    expected = false;
+                }
+                Assert.assertEquals(verdicts[i], expected, document + " for schema " + i);
+            }
+        }
+
+        Assert.assertEquals(multiSchemaValidation.accepts(documents.get(0).getBytes(StandardCharsets.UTF_8)),
+                new boolean[] { true, false, false, false });
+        Assert.assertEquals(multiSchemaValidation.accepts(documents.get(2).getBytes(StandardCharsets.UTF_8)),
+                new boolean[] { false, true, true, false });
+        Assert.assertEquals(multiSchemaValidation.accepts(documents.get(3).getBytes(StandardCharsets.UTF_8)),
+                new boolean[] { false, false, true, false });
+        Assert.assertTrue(multiSchemaValidation.getNumberOfDroppedSessions() > 0);
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * ValidatingJSONDocumentsWithLearnedVPA - Learning a visibly pushdown automaton
+ * from a JSON schema, and using it to validate JSON documents.
+ *
+ * Copyright 2022 University of Mons, University of Antwerp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package be.ac.umons.jsonvalidation;
+
+import java.util.Arrays;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import net.automatalib.automata.vpda.DefaultOneSEVPA;
+import net.automatalib.automata.vpda.Location;
+
+/**
+ * @author Gaëtan Staquet
+ */
+public class TestValidatedDocument {
+
+    private static ValidationByAutomaton<Location> constructValidator() {
+        DefaultOneSEVPA<JSONSymbol> automaton = Automata.constructAutomatonWithArrays(
+                WordConversion.keyToSymbol("k1"), WordConversion.keyToSymbol("k2"));
+        return new ValidationByAutomaton<>(automaton);
+    }
+
+    private static JSONObject constructDocument() {
+        JSONObject document = new JSONObject();
+        JSONArray array = new JSONArray();
+        array.put("\\I");
+        array.put(new JSONObject().put("k2", "\\S"));
+        array.put(new JSONArray().put(true));
+        array.put(true);
+        document.put("k1", array);
+        document.put("k2", "\\S");
+        return document;
+    }
+
+    @Test
+    public void testPatches() {
+        ValidationByAutomaton<Location> validator = constructValidator();
+        JSONObject original = constructDocument();
+        Assert.assertTrue(validator.accepts(WordConversion.fromJSONDocumentToJSONSymbolWord(original)));
+
+        ValidatedDocument<Location> document = new ValidatedDocument<>(validator, original);
+        Assert.assertTrue(document.isValid());
+        // The root, the array, the object, and the nested array
+        Assert.assertEquals(document.getNumberOfComputedSummaries(), 4);
+        Assert.assertTrue(document.isValid());
+        Assert.assertEquals(document.getNumberOfComputedSummaries(), 4);
+
+        // Only the root, the array and the object are read again
+        document.applyPatch(new JSONArray("[{\"op\": \"replace\", \"path\": \"/k1/1/k2\", \"value\": true}]"));
+        Assert.assertFalse(document.isValid());
+        Assert.assertEquals(document.getNumberOfComputedSummaries(), 7);
+
+        document.applyPatch(new JSONArray("[{\"op\": \"replace\", \"path\": \"/k1/1/k2\", \"value\": \"\\\\S\"}]"));
+        Assert.assertTrue(document.isValid());
+        Assert.assertTrue(document.toJSONObject().similar(original));
+
+        document.applyPatch(new JSONArray("[{\"op\": \"remove\", \"path\": \"/k2\"}]"));
+        Assert.assertFalse(document.isValid());
+        document.applyPatch(new JSONArray("[{\"op\": \"add\", \"path\": \"/k2\", \"value\": \"\\\\S\"}]"));
+        Assert.assertTrue(document.isValid());
+
+        // Moving the nested array before the object
+        document.applyPatch(new JSONArray("[{\"op\": \"move\", \"from\": \"/k1/2\", \"path\": \"/k1/1\"}]"));
+        Assert.assertFalse(document.isValid());
+        document.applyPatch(new JSONArray("[{\"op\": \"move\", \"from\": \"/k1/1\", \"path\": \"/k1/2\"}]"));
+        Assert.assertTrue(document.isValid());
+
+        document.applyPatch(new JSONArray("[{\"op\": \"copy\", \"from\": \"/k1/3\", \"path\": \"/k1/-\"},"
+                + "{\"op\": \"test\", \"path\": \"/k1/4\", \"value\": true}]"));
+        Assert.assertFalse(document.isValid());
+        document.applyPatch(new JSONArray("[{\"op\": \"remove\", \"path\": \"/k1/4\"}]"));
+        Assert.assertTrue(document.isValid());
+
+        Assert.assertEquals(validator.accepts(WordConversion.fromJSONDocumentToJSONSymbolWord(document.toJSONObject())),
+                document.isValid());
+    }
+
+    @Test
+    public void testFailingPatchIsReverted() {
+        ValidationByAutomaton<Location> validator = constructValidator();
+        JSONObject original = constructDocument();
+        ValidatedDocument<Location> document = new ValidatedDocument<>(validator, original);
+        Assert.assertTrue(document.isValid());
+
+        JSONArray patch = new JSONArray("[{\"op\": \"remove\", \"path\": \"/k2\"},"
+                + "{\"op\": \"add\", \"path\": \"/k1/0\", \"value\": false},"
+                + "{\"op\": \"test\", \"path\": \"/k1/0\", \"value\": true}]");
+        Assert.assertThrows(JSONException.class, () -> document.applyPatch(patch));
+        Assert.assertTrue(document.toJSONObject().similar(original));
+        Assert.assertTrue(document.isValid());
+
+        Assert.assertThrows(JSONException.class,
+                () -> document.applyPatch(new JSONArray("[{\"op\": \"remove\", \"path\": \"/k3\"}]")));
+        Assert.assertThrows(JSONException.class,
+                () -> document.applyPatch(new JSONArray("[{\"op\": \"remove\", \"path\": \"/k1/01\"}]")));
+        // An Arabic-Indic digit is not an index
+        Assert.assertThrows(JSONException.class,
+                () -> document.applyPatch(new JSONArray("[{\"op\": \"remove\", \"path\": \"/k1/\u0661\"}]")));
+        Assert.assertThrows(JSONException.class, () -> document
+                .applyPatch(new JSONArray("[{\"op\": \"move\", \"from\": \"/k1\", \"path\": \"/k1/0\"}]")));
+        Assert.assertTrue(document.toJSONObject().similar(original));
+    }
+
+    @Test
+    public void testPointers() {
+        Assert.assertTrue(ValidatedDocument.parsePointer("").isEmpty());
+        Assert.assertEquals(ValidatedDocument.parsePointer("/a~1b/m~0n/"), Arrays.asList("a/b", "m~n", ""));
+        Assert.assertThrows(JSONException.class, () -> ValidatedDocument.parsePointer("a"));
+    }
+}
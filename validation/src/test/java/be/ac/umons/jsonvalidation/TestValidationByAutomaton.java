@@ -19,9 +19,23 @@
 
 package be.ac.umons.jsonvalidation;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
+import be.ac.umons.jsonvalidation.tokenizer.KeyDictionary.UnknownKeyPolicy;
 import net.automatalib.automata.vpda.DefaultOneSEVPA;
 import net.automatalib.automata.vpda.Location;
 import net.automatalib.words.Word;
@@ -819,4 +833,561 @@ public class TestValidationByAutomaton {
         builder.add(JSONSymbol.closingCurlyBraceSymbol);
         Assert.assertFalse(validationByAutomaton.accepts(builder.toWord()));
     }
+
+    @Test
+    public void testSourcesAreOnlyTrackedInsideObjects() {
+        DefaultOneSEVPA<JSONSymbol> automaton = Automata.constructAutomatonWithArrays();
+        ValidationByAutomaton<Location> validationByAutomaton = new ValidationByAutomaton<>(automaton);
+
+        ValidationState<Location> state = validationByAutomaton.getInitialState();
+        Assert.assertFalse(state.isTrackingSources());
+
+        WordBuilder<JSONSymbol> builder = new WordBuilder<>();
+        builder.add(JSONSymbol.openingCurlyBraceSymbol);
+        builder.add(JSONSymbol.toSymbol("k1"));
+        state = validationByAutomaton.getState(builder.toWord());
+        Assert.assertNotNull(state);
+        Assert.assertTrue(state.isTrackingSources());
+
+        builder.add(JSONSymbol.openingBracketSymbol);
+        state = validationByAutomaton.getState(builder.toWord());
+        Assert.assertNotNull(state);
+        Assert.assertFalse(state.isTrackingSources());
+
+        builder.add(JSONSymbol.integerSymbol);
+        builder.add(JSONSymbol.commaSymbol);
+        builder.add(JSONSymbol.openingCurlyBraceSymbol);
+        builder.add(JSONSymbol.toSymbol("k2"));
+        state = validationByAutomaton.getState(builder.toWord());
+        Assert.assertNotNull(state);
+        Assert.assertTrue(state.isTrackingSources());
+
+        builder.add(JSONSymbol.stringSymbol);
+        builder.add(JSONSymbol.closingCurlyBraceSymbol);
+        state = validationByAutomaton.getState(builder.toWord());
+        Assert.assertNotNull(state);
+        Assert.assertFalse(state.isTrackingSources());
+
+        builder.add(JSONSymbol.commaSymbol);
+        builder.add(JSONSymbol.openingBracketSymbol);
+        builder.add(JSONSymbol.trueSymbol);
+        builder.add(JSONSymbol.closingBracketSymbol);
+        builder.add(JSONSymbol.commaSymbol);
+        builder.add(JSONSymbol.trueSymbol);
+        builder.add(JSONSymbol.closingBracketSymbol);
+        state = validationByAutomaton.getState(builder.toWord());
+        Assert.assertNotNull(state);
+        Assert.assertTrue(state.isTrackingSources());
+
+        builder.add(JSONSymbol.commaSymbol);
+        builder.add(JSONSymbol.toSymbol("k2"));
+        builder.add(JSONSymbol.stringSymbol);
+        builder.add(JSONSymbol.closingCurlyBraceSymbol);
+        state = validationByAutomaton.getState(builder.toWord());
+        Assert.assertNotNull(state);
+        Assert.assertFalse(state.isTrackingSources());
+        Assert.assertTrue(validationByAutomaton.isAccepting(state));
+    }
+
+    @Test
+    public void testInOrderFastPath() {
+        DefaultOneSEVPA<JSONSymbol> automaton = Automata.constructAutomatonWithArrays();
+        ValidationByAutomaton<Location> validationByAutomaton = new ValidationByAutomaton<>(automaton);
+        validationByAutomaton.setInOrderFastPath(true);
+
+        // Keys in the order of the automaton: the key graph is never used
+        WordBuilder<JSONSymbol> builder = new WordBuilder<>();
+        builder.add(JSONSymbol.openingCurlyBraceSymbol);
+        builder.add(JSONSymbol.toSymbol("k1"));
+        builder.add(JSONSymbol.openingBracketSymbol);
+        builder.add(JSONSymbol.integerSymbol);
+        builder.add(JSONSymbol.commaSymbol);
+        builder.add(JSONSymbol.openingCurlyBraceSymbol);
+        builder.add(JSONSymbol.toSymbol("k2"));
+        builder.add(JSONSymbol.stringSymbol);
+        builder.add(JSONSymbol.closingCurlyBraceSymbol);
+        builder.add(JSONSymbol.commaSymbol);
+        builder.add(JSONSymbol.openingBracketSymbol);
+        builder.add(JSONSymbol.trueSymbol);
+        builder.add(JSONSymbol.closingBracketSymbol);
+        builder.add(JSONSymbol.commaSymbol);
+        builder.add(JSONSymbol.trueSymbol);
+        builder.add(JSONSymbol.closingBracketSymbol);
+        builder.add(JSONSymbol.commaSymbol);
+        builder.add(JSONSymbol.toSymbol("k2"));
+        builder.add(JSONSymbol.stringSymbol);
+        builder.add(JSONSymbol.closingCurlyBraceSymbol);
+        Assert.assertTrue(validationByAutomaton.accepts(builder.toWord()));
+        Assert.assertEquals(validationByAutomaton.getNumberOfInOrderObjects(), 2);
+        Assert.assertEquals(validationByAutomaton.getNumberOfReplays(), 0);
+        Assert.assertEquals(validationByAutomaton.getNumberOfTimesPathsKeyGraphComputed(), 0);
+
+        // Only the innermost object read in order that is still open is recorded
+        ValidationState<Location> prefixState = validationByAutomaton.getState(builder.toWord(0, 8));
+        ValidationStackContents<Location> stack = prefixState.getStack();
+        Assert.assertTrue(stack.isInOrder());
+        Assert.assertEquals(stack.getRecordedSymbolsSinceCall(), Arrays.asList(JSONSymbol.openingCurlyBraceSymbol,
+                JSONSymbol.toSymbol("k2"), JSONSymbol.stringSymbol));
+        Assert.assertNull(stack.findClosestInOrder().pop().findClosestInOrder().getRecordedSymbolsSinceCall());
+        prefixState = validationByAutomaton.getState(builder.toWord(0, 9));
+        Assert.assertFalse(prefixState.getStack().isInOrder());
+        Assert.assertNull(prefixState.getStack().findClosestInOrder().getRecordedSymbolsSinceCall());
+
+        // The counters are shared by the threads using the validator
+        final ValidationByAutomaton<Location> sharedValidator = validationByAutomaton;
+        final Word<JSONSymbol> inOrderDocument = builder.toWord();
+        validationByAutomaton.resetTimeAndNumber();
+        IntStream.range(0, 1000).parallel()
+                .forEach(i -> Assert.assertTrue(sharedValidator.accepts(inOrderDocument)));
+        Assert.assertEquals(validationByAutomaton.getNumberOfInOrderObjects(), 2000);
+        Assert.assertEquals(validationByAutomaton.getNumberOfReplays(), 0);
+
+        // The outer object is not in order: it is replayed with the key graph
+        validationByAutomaton.resetTimeAndNumber();
+        builder.clear();
+        builder.add(JSONSymbol.openingCurlyBraceSymbol);
+        builder.add(JSONSymbol.toSymbol("k2"));
+        builder.add(JSONSymbol.stringSymbol);
+        builder.add(JSONSymbol.commaSymbol);
+        builder.add(JSONSymbol.toSymbol("k1"));
+        builder.add(JSONSymbol.openingBracketSymbol);
+        builder.add(JSONSymbol.integerSymbol);
+        builder.add(JSONSymbol.commaSymbol);
+        builder.add(JSONSymbol.openingCurlyBraceSymbol);
+        builder.add(JSONSymbol.toSymbol("k2"));
+        builder.add(JSONSymbol.stringSymbol);
+        builder.add(JSONSymbol.closingCurlyBraceSymbol);
+        builder.add(JSONSymbol.commaSymbol);
+        builder.add(JSONSymbol.openingBracketSymbol);
+        builder.add(JSONSymbol.trueSymbol);
+        builder.add(JSONSymbol.closingBracketSymbol);
+        builder.add(JSONSymbol.commaSymbol);
+        builder.add(JSONSymbol.trueSymbol);
+        builder.add(JSONSymbol.closingBracketSymbol);
+        builder.add(JSONSymbol.closingCurlyBraceSymbol);
+        Assert.assertTrue(validationByAutomaton.accepts(builder.toWord()));
+        Assert.assertEquals(validationByAutomaton.getNumberOfReplays(), 1);
+        Assert.assertEquals(validationByAutomaton.getNumberOfInOrderObjects(), 1);
+
+        // Invalid documents are still rejected
+        builder.clear();
+        builder.add(JSONSymbol.openingCurlyBraceSymbol);
+        builder.add(JSONSymbol.toSymbol("k2"));
+        builder.add(JSONSymbol.stringSymbol);
+        builder.add(JSONSymbol.commaSymbol);
+        builder.add(JSONSymbol.toSymbol("k1"));
+        builder.add(JSONSymbol.openingBracketSymbol);
+        builder.add(JSONSymbol.integerSymbol);
+        builder.add(JSONSymbol.closingBracketSymbol);
+        builder.add(JSONSymbol.closingCurlyBraceSymbol);
+        Assert.assertFalse(validationByAutomaton.accepts(builder.toWord()));
+
+        automaton = Automata.constructAutomatonWithCycleReadingAKey();
+        validationByAutomaton = new ValidationByAutomaton<>(automaton);
+        validationByAutomaton.setInOrderFastPath(true);
+
+        builder.clear();
+        builder.add(JSONSymbol.openingCurlyBraceSymbol);
+        builder.add(JSONSymbol.toSymbol("k1"));
+        builder.add(JSONSymbol.stringSymbol);
+        builder.add(JSONSymbol.closingCurlyBraceSymbol);
+        Assert.assertTrue(validationByAutomaton.accepts(builder.toWord()));
+
+        builder.clear();
+        builder.add(JSONSymbol.openingCurlyBraceSymbol);
+        builder.add(JSONSymbol.toSymbol("k1"));
+        builder.add(JSONSymbol.stringSymbol);
+        builder.add(JSONSymbol.commaSymbol);
+        builder.add(JSONSymbol.toSymbol("k1"));
+        builder.add(JSONSymbol.stringSymbol);
+        builder.add(JSONSymbol.closingCurlyBraceSymbol);
+        Assert.assertFalse(validationByAutomaton.accepts(builder.toWord()));
+    }
+
+    @Test
+    public void testMacroTransitions() {
+        DefaultOneSEVPA<JSONSymbol> automaton = Automata.constructAutomatonWithArrays();
+        ValidationByAutomaton<Location> withoutMacros = new ValidationByAutomaton<>(automaton);
+        ValidationByAutomaton<Location> withMacros = new ValidationByAutomaton<>(automaton);
+        withMacros.setMacroTransitions(true);
+        Assert.assertTrue(withMacros.isUsingMacroTransitions());
+
+        // @formatter:off
+        List<Word<JSONSymbol>> words = Arrays.asList(
+            JSONSymbol.toWord("{", "k1", "[", "\"\\I\"", ",", "{", "k2", "\"\\S\"", "}", ",", "[", "true", "]", ",",
+                "true", "]", ",", "k2", "\"\\S\"", "}"),
+            JSONSymbol.toWord("{", "k2", "\"\\S\"", ",", "k1", "[", "\"\\I\"", ",", "{", "k2", "\"\\S\"", "}", ",",
+                "[", "true", "]", ",", "true", "]", "}"),
+            JSONSymbol.toWord("{", "k2", "true", ",", "k1", "[", "\"\\I\"", ",", "{", "k2", "\"\\S\"", "}", ",",
+                "[", "true", "]", ",", "true", "]", "}")
+        );
+        // @formatter:on
+        Assert.assertTrue(withoutMacros.accepts(words.get(0)));
+        Assert.assertTrue(withoutMacros.accepts(words.get(1)));
+        Assert.assertFalse(withoutMacros.accepts(words.get(2)));
+
+        for (boolean inOrderFastPath : new boolean[] { false, true }) {
+            withoutMacros.setInOrderFastPath(inOrderFastPath);
+            withMacros.setInOrderFastPath(inOrderFastPath);
+            for (Word<JSONSymbol> word : words) {
+                // The prefixes end in the middle of a pair, or right after a pair
+                for (int length = 1; length <= word.length(); length++) {
+                    Word<JSONSymbol> prefix = word.prefix(length);
+                    if (prefix.lastSymbol().equals(JSONSymbol.openingCurlyBraceSymbol)) {
+                        // The symbol after { is needed to read it
+                        continue;
+                    }
+                    Assert.assertEquals(withMacros.accepts(prefix), withoutMacros.accepts(prefix),
+                            prefix + " " + inOrderFastPath);
+                }
+            }
+        }
+
+        withMacros.setInOrderFastPath(true);
+        long before = withMacros.getNumberOfMacroTransitions();
+        Assert.assertTrue(withMacros.accepts(words.get(0)));
+        // Both k2 "\\S"; k1 is followed by an array
+        Assert.assertEquals(withMacros.getNumberOfMacroTransitions() - before, 2);
+
+        withMacros.setMacroTransitions(false);
+        Assert.assertFalse(withMacros.isUsingMacroTransitions());
+        before = withMacros.getNumberOfMacroTransitions();
+        Assert.assertTrue(withMacros.accepts(words.get(0)));
+        Assert.assertEquals(withMacros.getNumberOfMacroTransitions(), before);
+    }
+
+    @Test
+    public void testMaximalFrontierSize() {
+        DefaultOneSEVPA<JSONSymbol> automaton = Automata.constructAutomatonWithArrays();
+        ValidationByAutomaton<Location> unbounded = new ValidationByAutomaton<>(automaton);
+        unbounded.setMaximalFrontierSize(Integer.MAX_VALUE);
+        ValidationByAutomaton<Location> bounded = new ValidationByAutomaton<>(automaton);
+        Assert.assertEquals(bounded.getMaximalFrontierSize(), ValidationByAutomaton.DEFAULT_MAXIMAL_FRONTIER_SIZE);
+        Assert.assertThrows(IllegalArgumentException.class, () -> bounded.setMaximalFrontierSize(-1));
+
+        // @formatter:off
+        List<Word<JSONSymbol>> words = Arrays.asList(
+            JSONSymbol.toWord("{", "k1", "[", "\"\\I\"", ",", "{", "k2", "\"\\S\"", "}", ",", "[", "true", "]", ",",
+                "true", "]", ",", "k2", "\"\\S\"", "}"),
+            JSONSymbol.toWord("{", "k2", "\"\\S\"", ",", "k1", "[", "\"\\I\"", ",", "{", "k2", "\"\\S\"", "}", ",",
+                "[", "true", "]", ",", "true", "]", "}"),
+            JSONSymbol.toWord("{", "k2", "true", ",", "k1", "[", "\"\\I\"", ",", "{", "k2", "\"\\S\"", "}", ",",
+                "[", "true", "]", ",", "true", "]", "}")
+        );
+        // @formatter:on
+        // With zero, the locations are always computed when the object is closed
+        for (int maximalSize : new int[] { 0, 1, 2 }) {
+            bounded.setMaximalFrontierSize(maximalSize);
+            for (Word<JSONSymbol> word : words) {
+                Assert.assertEquals(bounded.accepts(word), unbounded.accepts(word), word + " " + maximalSize);
+            }
+        }
+        Assert.assertTrue(bounded.accepts(words.get(1)));
+        Assert.assertFalse(bounded.accepts(words.get(2)));
+    }
+
+    @Test
+    public void testSubtreeSummaryCache() {
+        DefaultOneSEVPA<JSONSymbol> automaton = Automata.constructAutomatonWithNestedObjectAndMultipleBranches();
+        ValidationByAutomaton<Location> validationByAutomaton = new ValidationByAutomaton<>(automaton);
+        SubtreeSummaryCache<Location> cache = new SubtreeSummaryCache<>(10);
+        validationByAutomaton.setSubtreeSummaryCache(cache);
+
+        WordBuilder<JSONSymbol> builder = new WordBuilder<>();
+        builder.add(JSONSymbol.openingCurlyBraceSymbol);
+        builder.add(JSONSymbol.toSymbol("k1"));
+        builder.add(JSONSymbol.integerSymbol);
+        builder.add(JSONSymbol.commaSymbol);
+        builder.add(JSONSymbol.toSymbol("k2"));
+        builder.add(JSONSymbol.openingCurlyBraceSymbol);
+        builder.add(JSONSymbol.toSymbol("k2"));
+        builder.add(JSONSymbol.stringSymbol);
+        builder.add(JSONSymbol.closingCurlyBraceSymbol);
+        builder.add(JSONSymbol.closingCurlyBraceSymbol);
+        Word<JSONSymbol> document = builder.toWord();
+
+        Assert.assertTrue(validationByAutomaton.accepts(document));
+        Assert.assertEquals(cache.getHitCount(), 0);
+        long misses = cache.getMissCount();
+        Assert.assertEquals(misses, 3);
+
+        // Same structure: every computation is taken from the cache
+        Assert.assertTrue(validationByAutomaton.accepts(document));
+        Assert.assertEquals(cache.getHitCount(), misses);
+        Assert.assertEquals(cache.getMissCount(), misses);
+
+        // A different type for the value of k1
+        builder.clear();
+        builder.add(JSONSymbol.openingCurlyBraceSymbol);
+        builder.add(JSONSymbol.toSymbol("k1"));
+        builder.add(JSONSymbol.trueSymbol);
+        builder.add(JSONSymbol.commaSymbol);
+        builder.add(JSONSymbol.toSymbol("k2"));
+        builder.add(JSONSymbol.openingCurlyBraceSymbol);
+        builder.add(JSONSymbol.toSymbol("k2"));
+        builder.add(JSONSymbol.stringSymbol);
+        builder.add(JSONSymbol.closingCurlyBraceSymbol);
+        builder.add(JSONSymbol.closingCurlyBraceSymbol);
+        document = builder.toWord();
+        ValidationByAutomaton<Location> withoutCache = new ValidationByAutomaton<>(automaton);
+        Assert.assertEquals(validationByAutomaton.accepts(document), withoutCache.accepts(document));
+        Assert.assertTrue(cache.getMissCount() > misses);
+
+        // The cache is bounded
+        SubtreeSummaryCache<Location> smallCache = new SubtreeSummaryCache<>(1);
+        validationByAutomaton.setSubtreeSummaryCache(smallCache);
+        Assert.assertEquals(validationByAutomaton.accepts(document), withoutCache.accepts(document));
+        Assert.assertTrue(smallCache.size() <= 2);
+    }
+
+    @Test
+    public void testDocumentVerdictCache() {
+        DefaultOneSEVPA<JSONSymbol> automaton = Automata.constructAutomatonForDocuments();
+        ValidationByAutomaton<Location> validationByAutomaton = new ValidationByAutomaton<>(automaton);
+        DocumentVerdictCache cache = new DocumentVerdictCache(10, 1, TimeUnit.HOURS);
+        validationByAutomaton.setDocumentVerdictCache(cache);
+
+        byte[] valid = "{\"k2\": true, \"k1\": \"\\\\I\"}".getBytes(StandardCharsets.UTF_8);
+        byte[] invalid = "{\"k1\": \"\\\\I\"}".getBytes(StandardCharsets.UTF_8);
+        byte[] notJSON = "{\"k1\": ".getBytes(StandardCharsets.UTF_8);
+
+        Assert.assertTrue(validationByAutomaton.accepts(valid));
+        Assert.assertFalse(validationByAutomaton.accepts(invalid));
+        Assert.assertFalse(validationByAutomaton.accepts(notJSON));
+        Assert.assertEquals(cache.stats().hitCount(), 0);
+        Assert.assertEquals(cache.size(), 3);
+
+        Assert.assertTrue(validationByAutomaton.accepts(valid.clone()));
+        Assert.assertFalse(validationByAutomaton.accepts(invalid));
+        Assert.assertFalse(validationByAutomaton.accepts(notJSON));
+        Assert.assertEquals(cache.stats().hitCount(), 3);
+        Assert.assertEquals(cache.hitRate(), 0.5);
+
+        // Changing the policy for unknown keys may change the verdicts
+        validationByAutomaton.setUnknownKeyPolicy(UnknownKeyPolicy.REJECT);
+        Assert.assertEquals(cache.size(), 3);
+        validationByAutomaton.setUnknownKeyPolicy(UnknownKeyPolicy.ADDITIONAL_PROPERTY);
+        Assert.assertEquals(cache.size(), 0);
+        Assert.assertTrue(validationByAutomaton.accepts(valid));
+        validationByAutomaton.setUnknownKeyPolicy(UnknownKeyPolicy.REJECT);
+
+        // Without the cache, the verdicts are the same
+        validationByAutomaton.setDocumentVerdictCache(null);
+        Assert.assertTrue(validationByAutomaton.accepts(valid));
+        Assert.assertFalse(validationByAutomaton.accepts(invalid));
+        Assert.assertFalse(validationByAutomaton.accepts(notJSON));
+    }
+
+    @Test
+    public void testInterleavedStreams() {
+        DefaultOneSEVPA<JSONSymbol> automaton = Automata.constructAutomatonForDocuments();
+        ValidationByAutomaton<Location> validationByAutomaton = new ValidationByAutomaton<>(automaton);
+
+        // @formatter:off
+        List<byte[]> documents = Arrays.asList(
+            "{\"k2\": true, \"k1\": \"\\\\I\"}".getBytes(StandardCharsets.UTF_8),
+            "{\"k1\": \"\\\\I\", \"k2\": true}".getBytes(StandardCharsets.UTF_8),
+            "{\"k1\": \"\\\\I\"}".getBytes(StandardCharsets.UTF_8),
+            "{\"k1\": \"\\\\I\", \"k3\": true}".getBytes(StandardCharsets.UTF_8),
+            "{\"k1\": ".getBytes(StandardCharsets.UTF_8)
+        );
+        // @formatter:on
+        List<ValidationStream<Location>> streams = new ArrayList<>();
+        List<ByteBuffer> buffers = new ArrayList<>();
+        for (byte[] document : documents) {
+            streams.add(validationByAutomaton.newStream());
+            buffers.add(ByteBuffer.wrap(document));
+        }
+
+        // Each stream receives one byte at a time, in turn
+        boolean remaining = true;
+        while (remaining) {
+            remaining = false;
+            for (int i = 0; i < documents.size(); i++) {
+                ByteBuffer buffer = buffers.get(i);
+                if (buffer.hasRemaining()) {
+                    ByteBuffer chunk = ByteBuffer.wrap(buffer.array(), buffer.position(), 1);
+                    int consumed = streams.get(i).feed(chunk);
+                    buffer.position(buffer.position() + 1);
+                    Assert.assertTrue(consumed == 1 || streams.get(i).isRejected());
+                    remaining = true;
+                }
+            }
+        }
+
+        for (int i = 0; i < documents.size(); i++) {
+            Assert.assertEquals(streams.get(i).end(), validationByAutomaton.accepts(documents.get(i)));
+        }
+        // The unknown key rejects the document as soon as it is read
+        Assert.assertTrue(streams.get(3).isRejected());
+        Assert.assertTrue(streams.get(3).getNumberOfConsumedBytes() < documents.get(3).length);
+        Assert.assertTrue(streams.get(3).isMalformed());
+        Assert.assertTrue(streams.get(4).isMalformed());
+    }
+
+    @Test
+    public void testSession() {
+        DefaultOneSEVPA<JSONSymbol> automaton = Automata.constructStraightforwardAutomaton();
+        ValidationByAutomaton<Location> validationByAutomaton = new ValidationByAutomaton<>(automaton);
+
+        // @formatter:off
+        Word<JSONSymbol> word = Word.fromSymbols(
+            JSONSymbol.openingCurlyBraceSymbol,
+            JSONSymbol.toSymbol("k2"), JSONSymbol.trueSymbol, JSONSymbol.commaSymbol,
+            JSONSymbol.toSymbol("k1"), JSONSymbol.integerSymbol,
+            JSONSymbol.closingCurlyBraceSymbol
+        );
+        // @formatter:on
+        ValidationSession<Location> session = validationByAutomaton.newSession();
+        for (JSONSymbol symbol : word) {
+            Assert.assertTrue(session.feed(symbol));
+        }
+        Assert.assertTrue(session.end());
+        Assert.assertTrue(session.end());
+        Assert.assertThrows(IllegalStateException.class, () -> session.feed(JSONSymbol.commaSymbol));
+
+        ValidationSession<Location> rejected = validationByAutomaton.newSession();
+        Assert.assertTrue(rejected.feed(JSONSymbol.openingCurlyBraceSymbol));
+        // The unknown key is seen when reading the {
+        Assert.assertFalse(rejected.feed(JSONSymbol.toSymbol("k3")));
+        Assert.assertFalse(rejected.feed(JSONSymbol.integerSymbol));
+        Assert.assertFalse(rejected.feed(JSONSymbol.closingCurlyBraceSymbol));
+        Assert.assertTrue(rejected.isRejected());
+        Assert.assertFalse(rejected.end());
+
+        Assert.assertFalse(validationByAutomaton.newSession().end());
+
+        // As with accepts, the document must be an object
+        ValidationSession<Location> array = validationByAutomaton.newSession();
+        Assert.assertFalse(array.feed(JSONSymbol.openingBracketSymbol));
+        Assert.assertFalse(array.feed(JSONSymbol.closingBracketSymbol));
+        Assert.assertFalse(array.end());
+        Assert.assertFalse(validationByAutomaton.accepts(Word.fromSymbols(JSONSymbol.openingBracketSymbol,
+                JSONSymbol.closingBracketSymbol)));
+    }
+
+    @Test
+    public void testBudget() {
+        DefaultOneSEVPA<JSONSymbol> automaton = Automata.constructStraightforwardAutomaton();
+        ValidationByAutomaton<Location> validationByAutomaton = new ValidationByAutomaton<>(automaton);
+
+        // @formatter:off
+        Word<JSONSymbol> word = Word.fromSymbols(
+            JSONSymbol.openingCurlyBraceSymbol,
+            JSONSymbol.toSymbol("k2"), JSONSymbol.trueSymbol, JSONSymbol.commaSymbol,
+            JSONSymbol.toSymbol("k1"), JSONSymbol.integerSymbol,
+            JSONSymbol.closingCurlyBraceSymbol
+        );
+        // @formatter:on
+        Assert.assertEquals(validationByAutomaton.validate(word, ValidationBudget.UNLIMITED),
+                ValidationVerdict.ACCEPTED);
+        Assert.assertEquals(validationByAutomaton.validate(word, ValidationBudget.UNLIMITED.withMaxSymbols(7)),
+                ValidationVerdict.ACCEPTED);
+        Assert.assertEquals(validationByAutomaton.validate(word, ValidationBudget.UNLIMITED.withMaxSymbols(6)),
+                ValidationVerdict.BUDGET_EXCEEDED);
+        // The keys are not in order: the key graph is needed
+        Assert.assertEquals(validationByAutomaton.validate(word, ValidationBudget.UNLIMITED.withMaxExpandedNodes(0)),
+                ValidationVerdict.BUDGET_EXCEEDED);
+        Assert.assertEquals(
+                validationByAutomaton.validate(word.prefix(3), ValidationBudget.UNLIMITED.withMaxExpandedNodes(0)),
+                ValidationVerdict.REJECTED);
+
+        ValidationSession<Location> session = validationByAutomaton
+                .newSession(ValidationBudget.UNLIMITED.withMaxExpandedNodes(0));
+        for (JSONSymbol symbol : word) {
+            session.feed(symbol);
+        }
+        // The last symbol is only read when the session ends
+        Assert.assertEquals(session.endWithVerdict(), ValidationVerdict.BUDGET_EXCEEDED);
+        Assert.assertTrue(session.isRejected());
+        Assert.assertTrue(session.isBudgetExceeded());
+
+        session = validationByAutomaton.newSession(ValidationBudget.UNLIMITED);
+        for (JSONSymbol symbol : word) {
+            session.feed(symbol);
+        }
+        Assert.assertEquals(session.endWithVerdict(), ValidationVerdict.ACCEPTED);
+
+        Assert.assertEquals(validationByAutomaton.validate(word,
+                ValidationBudget.UNLIMITED.withTimeLimit(0, TimeUnit.NANOSECONDS)), ValidationVerdict.BUDGET_EXCEEDED);
+    }
+
+    @Test
+    public void testCheckpoint() throws IOException {
+        JSONSymbol k1 = JSONSymbol.toSymbol("\"k1\":");
+        JSONSymbol k2 = JSONSymbol.toSymbol("\"k2\":");
+        ValidationByAutomaton<Location> validationByAutomaton = new ValidationByAutomaton<>(
+                Automata.constructAutomatonWithArrays(k1, k2));
+        // Another process constructs its own validator for the same automaton
+        ValidationByAutomaton<Location> otherValidator = new ValidationByAutomaton<>(
+                Automata.constructAutomatonWithArrays(k1, k2));
+
+        // @formatter:off
+        List<String> documents = Arrays.asList(
+            "{\"k2\": \"\\\\S\", \"k1\": [\"\\\\I\", {\"k2\": \"\\\\S\"}, [true], true]}",
+            "{\"k1\": [\"\\\\I\", {\"k2\": \"\\\\S\"}, [true], true], \"k2\": \"\\\\S\"}",
+            "{\"k2\": \"\\\\S\", \"k1\": [\"\\\\I\", {\"k2\": true}, [true], true]}"
+        );
+        // @formatter:on
+        for (String json : documents) {
+            byte[] document = json.getBytes(StandardCharsets.UTF_8);
+            boolean expected = validationByAutomaton.accepts(document);
+            for (int offset = 0; offset <= document.length; offset++) {
+                ValidationStream<Location> stream = validationByAutomaton.newStream();
+                stream.feed(ByteBuffer.wrap(document, 0, offset));
+                ByteArrayOutputStream checkpoint = new ByteArrayOutputStream();
+                stream.checkpoint(new DataOutputStream(checkpoint));
+
+                ValidationStream<Location> resumed = otherValidator
+                        .resumeStream(new DataInputStream(new ByteArrayInputStream(checkpoint.toByteArray())));
+                Assert.assertEquals(resumed.getNumberOfConsumedBytes(), stream.getNumberOfConsumedBytes());
+                Assert.assertEquals(resumed.isRejected(), stream.isRejected());
+                int position = (int) resumed.getNumberOfConsumedBytes();
+                resumed.feed(ByteBuffer.wrap(document, position, document.length - position));
+                Assert.assertEquals(resumed.end(), expected, json + " resumed at " + offset);
+            }
+        }
+        Assert.assertTrue(validationByAutomaton.accepts(documents.get(0).getBytes(StandardCharsets.UTF_8)));
+        Assert.assertFalse(validationByAutomaton.accepts(documents.get(2).getBytes(StandardCharsets.UTF_8)));
+
+        // A session can be checkpointed after it ended
+        ValidationSession<Location> session = validationByAutomaton.newSession();
+        session.feed(JSONSymbol.openingCurlyBraceSymbol);
+        session.feed(JSONSymbol.closingCurlyBraceSymbol);
+        boolean verdict = session.end();
+        ByteArrayOutputStream checkpoint = new ByteArrayOutputStream();
+        session.checkpoint(new DataOutputStream(checkpoint));
+        ValidationSession<Location> resumedSession = otherValidator
+                .resumeSession(new DataInputStream(new ByteArrayInputStream(checkpoint.toByteArray())));
+        Assert.assertTrue(resumedSession.hasEnded());
+        Assert.assertEquals(resumedSession.end(), verdict);
+
+        // The checkpoint can not be resumed with another automaton
+        ValidationByAutomaton<Location> differentValidator = new ValidationByAutomaton<>(
+                Automata.constructAutomatonForDocuments());
+        Assert.assertThrows(IOException.class, () -> differentValidator
+                .resumeSession(new DataInputStream(new ByteArrayInputStream(checkpoint.toByteArray()))));
+        // Even if the automaton has the same numbers of locations and symbols
+        DefaultOneSEVPA<JSONSymbol> modified = Automata.constructAutomatonWithArrays(k1, k2);
+        modified.setInternalSuccessor(modified.getInitialLocation(), JSONSymbol.commaSymbol,
+                modified.getInitialLocation());
+        ValidationByAutomaton<Location> modifiedValidator = new ValidationByAutomaton<>(modified);
+        Assert.assertThrows(IOException.class, () -> modifiedValidator
+                .resumeSession(new DataInputStream(new ByteArrayInputStream(checkpoint.toByteArray()))));
+    }
+
+    @Test
+    public void testCorruptedCheckpoint() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(Integer.MAX_VALUE);
+        out.writeInt(-2);
+        out.writeInt(Integer.MAX_VALUE);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+
+        // The sizes are checked before allocating anything
+        Assert.assertThrows(IOException.class, () -> Checkpoints.readBitSet(in, 10));
+        Assert.assertThrows(IOException.class,
+                () -> Checkpoints.readSymbol(Automata.constructAutomatonForDocuments().getInputAlphabet(), in));
+    }
 }
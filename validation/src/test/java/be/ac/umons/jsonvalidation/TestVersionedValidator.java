@@ -0,0 +1,69 @@
+/*
+ * ValidatingJSONDocumentsWithLearnedVPA - Learning a visibly pushdown automaton
+ * from a JSON schema, and using it to validate JSON documents.
+ *
+ * Copyright 2022 University of Mons, University of Antwerp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package be.ac.umons.jsonvalidation;
+
+import java.nio.charset.StandardCharsets;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import be.ac.umons.jsonvalidation.VersionedValidator.Lease;
+import be.ac.umons.jsonvalidation.VersionedValidator.Version;
+import net.automatalib.automata.vpda.DefaultOneSEVPA;
+import net.automatalib.automata.vpda.Location;
+
+/**
+ * @author Gaëtan Staquet
+ */
+public class TestVersionedValidator {
+    @Test
+    public void testSwapWithInFlightLease() throws Exception {
+        DefaultOneSEVPA<JSONSymbol> first = Automata.constructStraightforwardAutomaton();
+        DefaultOneSEVPA<JSONSymbol> second = Automata.constructAutomatonForDocuments();
+        byte[] document = "{\"k1\": \"\\\\I\", \"k2\": true}".getBytes(StandardCharsets.UTF_8);
+
+        ValidationByAutomaton<Location> firstValidator = new ValidationByAutomaton<>(first);
+        firstValidator.setInOrderFastPath(true);
+        VersionedValidator<Location> handle = new VersionedValidator<>(firstValidator);
+        Assert.assertFalse(handle.accepts(document));
+
+        Version<Location> firstVersion = handle.getCurrentVersion();
+        Lease<Location> inFlight = handle.acquire();
+        Assert.assertEquals(firstVersion.getNumberOfLeases(), 1);
+
+        Version<Location> secondVersion = handle.update(second, Runnable::run).get();
+        Assert.assertEquals(secondVersion.getNumber(), firstVersion.getNumber() + 1);
+        Assert.assertSame(handle.getCurrentVersion(), secondVersion);
+        Assert.assertTrue(handle.accepts(document));
+        Assert.assertFalse(secondVersion.whenReleased().isDone());
+        try (Lease<Location> lease = handle.acquire()) {
+            Assert.assertTrue(lease.getValidator().isUsingInOrderFastPath());
+        }
+
+        // The lease taken before the swap still uses the first automaton
+        Assert.assertFalse(firstVersion.isReleased());
+        Assert.assertSame(inFlight.getVersion(), firstVersion);
+        Assert.assertFalse(inFlight.getValidator().accepts(document));
+        inFlight.close();
+        Assert.assertTrue(firstVersion.isReleased());
+        Assert.assertThrows(IllegalStateException.class, inFlight::getValidator);
+        Assert.assertEquals(secondVersion.getNumberOfLeases(), 0);
+    }
+}
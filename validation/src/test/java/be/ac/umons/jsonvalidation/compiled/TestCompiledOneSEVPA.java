@@ -0,0 +1,224 @@
+/*
+ * ValidatingJSONDocumentsWithLearnedVPA - Learning a visibly pushdown automaton
+ * from a JSON schema, and using it to validate JSON documents.
+ *
+ * Copyright 2022 University of Mons, University of Antwerp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package be.ac.umons.jsonvalidation.compiled;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.SkipException;
+import org.testng.annotations.Test;
+
+import com.google.common.util.concurrent.MoreExecutors;
+
+import be.ac.umons.jsonvalidation.Automata;
+import be.ac.umons.jsonvalidation.JSONSymbol;
+import be.ac.umons.jsonvalidation.ValidationByAutomaton;
+import be.ac.umons.jsonvalidation.graph.KeyGraph;
+import net.automatalib.automata.vpda.DefaultOneSEVPA;
+import net.automatalib.automata.vpda.Location;
+import net.automatalib.words.VPDAlphabet;
+import net.automatalib.words.Word;
+
+/**
+ * @author Gaëtan Staquet
+ */
+public class TestCompiledOneSEVPA {
+
+    private static CompiledOneSEVPA compile(DefaultOneSEVPA<JSONSymbol> automaton) {
+        if (!RuntimeCompiler.isAvailable()) {
+            throw new SkipException("No Java compiler available");
+        }
+        CompiledOneSEVPA compiled = RuntimeCompiler.compile(automaton);
+        Assert.assertNotNull(compiled);
+        return compiled;
+    }
+
+    private static void checkSameTransitions(DefaultOneSEVPA<JSONSymbol> automaton, CompiledOneSEVPA compiled) {
+        VPDAlphabet<JSONSymbol> alphabet = automaton.getInputAlphabet();
+        Assert.assertEquals(compiled.size(), automaton.size());
+        Assert.assertEquals(compiled.getInitialLocation(), automaton.getInitialLocation());
+        for (Location location : automaton.getLocations()) {
+            Assert.assertEquals(compiled.isAcceptingLocation(location), automaton.isAcceptingLocation(location));
+            for (JSONSymbol symbol : alphabet.getInternalAlphabet()) {
+                Assert.assertEquals(compiled.getInternalSuccessor(location, symbol),
+                        automaton.getInternalSuccessor(location, symbol));
+            }
+            for (JSONSymbol symbol : alphabet.getReturnAlphabet()) {
+                for (Location beforeCall : automaton.getLocations()) {
+                    for (JSONSymbol callSymbol : alphabet.getCallAlphabet()) {
+                        int stackSymbol = automaton.encodeStackSym(beforeCall, callSymbol);
+                        Assert.assertEquals(compiled.encodeStackSym(beforeCall, callSymbol), stackSymbol);
+                        Assert.assertEquals(compiled.getReturnSuccessor(location, symbol, stackSymbol),
+                                automaton.getReturnSuccessor(location, symbol, stackSymbol));
+                    }
+                }
+            }
+            Assert.assertNull(compiled.getInternalSuccessor(location, JSONSymbol.toSymbol("unknown")));
+        }
+    }
+
+    @Test
+    public void testSameTransitions() {
+        // @formatter:off
+        List<DefaultOneSEVPA<JSONSymbol>> automata = Arrays.asList(
+            Automata.constructStraightforwardAutomaton(),
+            Automata.constructAutomatonWithOptionalKeys(),
+            Automata.constructAutomatonWithNestedObjectAndMultipleBranches(),
+            Automata.constructAutomatonWithArrays(),
+            // Keys that must be escaped in the generated source
+            Automata.constructAutomatonWithArrays(JSONSymbol.toSymbol("\"k\\\"1\":"), JSONSymbol.toSymbol("\"k\né\":"))
+        );
+        // @formatter:on
+
+        for (DefaultOneSEVPA<JSONSymbol> automaton : automata) {
+            checkSameTransitions(automaton, compile(automaton));
+        }
+    }
+
+    /**
+     * Constructs an automaton with enough keys, locations and stack symbols to
+     * split every method of the generated class.
+     */
+    private static DefaultOneSEVPA<JSONSymbol> constructLargeAutomaton(int numberOfKeys) {
+        JSONSymbol[] keys = new JSONSymbol[numberOfKeys];
+        for (int i = 0; i < numberOfKeys; i++) {
+            keys[i] = JSONSymbol.toSymbol("\"k" + i + "\":");
+        }
+        DefaultOneSEVPA<JSONSymbol> automaton = new DefaultOneSEVPA<>(Automata.constructAlphabet(keys));
+
+        Location q0 = automaton.addInitialLocation(false);
+        Location value = automaton.addLocation(false);
+        Location end = automaton.addLocation(true);
+        automaton.setInternalSuccessor(value, JSONSymbol.commaSymbol, q0);
+        automaton.setReturnSuccessor(value, JSONSymbol.closingCurlyBraceSymbol,
+                automaton.encodeStackSym(q0, JSONSymbol.openingCurlyBraceSymbol), end);
+
+        List<Location> afterKeys = new ArrayList<>();
+        for (int i = 0; i < numberOfKeys; i++) {
+            Location afterKey = automaton.addLocation(i % 2 == 0);
+            automaton.setInternalSuccessor(q0, keys[i], afterKey);
+            automaton.setInternalSuccessor(afterKey, JSONSymbol.integerSymbol, value);
+            automaton.setReturnSuccessor(afterKey, JSONSymbol.closingCurlyBraceSymbol,
+                    automaton.encodeStackSym(q0, JSONSymbol.openingCurlyBraceSymbol), end);
+            afterKeys.add(afterKey);
+        }
+        for (Location afterKey : afterKeys) {
+            automaton.setReturnSuccessor(afterKeys.get(0), JSONSymbol.closingBracketSymbol,
+                    automaton.encodeStackSym(afterKey, JSONSymbol.openingBracketSymbol), value);
+        }
+        return automaton;
+    }
+
+    @Test
+    public void testSplitMethods() {
+        DefaultOneSEVPA<JSONSymbol> automaton = constructLargeAutomaton(1100);
+        String source = CompiledAutomatonGenerator.generateSource(automaton, "my.pkg", "Generated");
+        Assert.assertTrue(source.contains("internalSymbolIndexPart0"));
+        Assert.assertTrue(source.contains("internalSymbolsPart1"));
+        Assert.assertTrue(source.contains("internalSuccessorPart1"));
+        Assert.assertTrue(source.contains("internalSuccessorFrom0Part1"));
+        Assert.assertTrue(source.contains("returnSuccessorPart1"));
+        Assert.assertTrue(source.contains("isAcceptingLocationIdPart1"));
+
+        checkSameTransitions(automaton, compile(automaton));
+    }
+
+    @Test
+    public void testGeneratedSource() {
+        DefaultOneSEVPA<JSONSymbol> automaton = Automata.constructStraightforwardAutomaton();
+        String source = CompiledAutomatonGenerator.generateSource(automaton, "my.pkg", "Generated");
+
+        Assert.assertTrue(source.startsWith("package my.pkg;"));
+        Assert.assertTrue(source.contains("public final class Generated extends CompiledOneSEVPA"));
+        Assert.assertTrue(source.contains("return location == 6;"));
+        // No transition leaves q6
+        Assert.assertFalse(source.contains("internalSuccessorFrom6"));
+        Assert.assertTrue(source.contains("returnSuccessorFrom5"));
+    }
+
+    @Test
+    public void testTieredValidation() {
+        DefaultOneSEVPA<JSONSymbol> automaton = Automata.constructAutomatonWithArrays();
+        TieredValidation validation = new TieredValidation(automaton, 2);
+        ValidationByAutomaton<Location> interpreted = new ValidationByAutomaton<>(automaton);
+        validation.getValidator().setInOrderFastPath(true);
+        validation.getValidator().setMacroTransitions(true);
+        String str = JSONSymbol.stringSymbol.toString();
+
+        // @formatter:off
+        List<Word<JSONSymbol>> documents = new ArrayList<>();
+        documents.add(JSONSymbol.toWord(
+            "{",
+                "k1", "[", "{", "k2", str, "}", ",", "[", "true", "]", ",", "true", "]", ",",
+                "k2", str,
+            "}"
+        ));
+        documents.add(JSONSymbol.toWord(
+            "{",
+                "k2", str, ",",
+                "k1", "[", "{", "k2", str, "}", ",", "[", "true", "]", ",", "true", "]",
+            "}"
+        ));
+        documents.add(JSONSymbol.toWord(
+            "{",
+                "k2", str, ",",
+                "k1", "[", "{", "k2", str, "}", ",", "[", "true", "]", "]",
+            "}"
+        ));
+        documents.add(JSONSymbol.toWord("{", "}"));
+        // @formatter:on
+
+        for (int i = 0; i < 3; i++) {
+            for (Word<JSONSymbol> document : documents) {
+                Assert.assertEquals(validation.accepts(document), interpreted.accepts(document));
+            }
+        }
+        Assert.assertEquals(validation.getNumberOfDocuments(), 12);
+
+        // The compilation runs in the background
+        if (RuntimeCompiler.isAvailable()) {
+            Assert.assertTrue(validation.awaitCompilation());
+            Assert.assertTrue(validation.getValidator().isUsingInOrderFastPath());
+            Assert.assertTrue(validation.getValidator().isUsingMacroTransitions());
+        } else {
+            Assert.assertFalse(validation.awaitCompilation());
+        }
+        for (Word<JSONSymbol> document : documents) {
+            Assert.assertEquals(validation.accepts(document), interpreted.accepts(document));
+        }
+    }
+
+    @Test
+    public void testTieredValidationWithDirectExecutor() {
+        DefaultOneSEVPA<JSONSymbol> automaton = Automata.constructAutomatonForDocuments();
+        TieredValidation validation = new TieredValidation(automaton, KeyGraph.graphFor(automaton, false), 1,
+                MoreExecutors.directExecutor());
+        Word<JSONSymbol> document = JSONSymbol.toWord("{", "\"k1\":", JSONSymbol.integerSymbol.toString(), ",",
+                "\"k2\":", "true", "}");
+
+        Assert.assertTrue(validation.accepts(document));
+        Assert.assertFalse(validation.isCompiled());
+        // The compilation ends before the second document is validated
+        Assert.assertTrue(validation.accepts(document));
+        Assert.assertEquals(validation.isCompiled(), RuntimeCompiler.isAvailable());
+    }
+}
@@ -20,7 +20,13 @@
 package be.ac.umons.jsonvalidation.graph;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 
 import org.testng.Assert;
 import org.testng.annotations.Test;
@@ -30,10 +36,12 @@ import com.google.common.graph.ImmutableGraph;
 
 import be.ac.umons.jsonvalidation.Automata;
 import be.ac.umons.jsonvalidation.JSONSymbol;
+import be.ac.umons.jsonvalidation.ValidationByAutomaton;
 import net.automatalib.automata.vpda.DefaultOneSEVPA;
 import net.automatalib.automata.vpda.Location;
 import net.automatalib.serialization.InputModelDeserializer;
 import net.automatalib.serialization.dot.DOTParsers;
+import net.automatalib.words.Word;
 
 /**
  * @author Gaëtan Staquet
@@ -132,6 +140,14 @@ public class TestKeyGraph {
                 Assert.assertFalse(graph.isAcceptingForLocation(q8, k2Sym, q5, location));
             }
         }
+
+        // Every node is on a path to a node accepting for q0, and only for q0
+        for (NodeInGraph<Location> node : nodes) {
+            for (Location location : automaton.getLocations()) {
+                Assert.assertEquals(node.isOnPathToAcceptingForLocation(location.getIndex()),
+                        location.getIndex() == 0);
+            }
+        }
     }
 
     private void checkNodesInAutomatonWithOptionalKeysGraph(DefaultOneSEVPA<JSONSymbol> automaton,
@@ -237,6 +253,214 @@ public class TestKeyGraph {
         Assert.assertNotNull(graph.getWitnessInvalid());
     }
 
+    @Test
+    public void testFrontier() {
+        DefaultOneSEVPA<JSONSymbol> automaton = Automata.constructSmallTwoBranchesAutomaton();
+        KeyGraph<Location> graph = KeyGraph.graphFor(automaton, true);
+        Assert.assertTrue(graph.isValid());
+
+        JSONSymbol k1Sym = JSONSymbol.toSymbol("k1");
+        JSONSymbol k2Sym = JSONSymbol.toSymbol("k2");
+
+        Location q0 = automaton.getLocation(0);
+        Location q2 = automaton.getLocation(2);
+        Location q5 = automaton.getLocation(5);
+        Location q7 = automaton.getLocation(7);
+        Location q8 = automaton.getLocation(8);
+
+        NodeInGraph<Location> q0Toq7 = new NodeInGraph<>(q0, q7, k1Sym, automaton, null);
+        NodeInGraph<Location> q8Toq5 = new NodeInGraph<>(q8, q5, k2Sym, automaton, null);
+
+        Set<Location> locationsBeforeCall = Collections.singleton(q0);
+        Set<JSONSymbol> seenKeys = new LinkedHashSet<>(Arrays.asList(k1Sym, k2Sym));
+        Set<NodeInGraph<Location>> rejectedNodes = new LinkedHashSet<>();
+
+        // Keys in the order of the graph
+        KeyGraphFrontier<Location> frontier = graph.createFrontier(locationsBeforeCall);
+        frontier = frontier.addKey(k1Sym, rejectedNodes);
+        Assert.assertEquals(frontier.size(), 2);
+        Assert.assertTrue(frontier.getLocationsReadingClosing().isEmpty());
+        rejectedNodes.add(q8Toq5);
+        frontier = frontier.addKey(k2Sym, rejectedNodes);
+        Assert.assertEquals(frontier.size(), 3);
+        Assert.assertEquals(frontier.getLocationsReadingClosing(), Collections.singleton(q5));
+        Assert.assertEquals(frontier.getLocationsReadingClosing(), graph
+                .getLocationsWithReturnTransitionOnUnmarkedPathsWithAllKeysSeen(seenKeys, locationsBeforeCall,
+                        rejectedNodes));
+
+        // Keys in the reversed order
+        rejectedNodes.clear();
+        frontier = graph.createFrontier(locationsBeforeCall);
+        frontier = frontier.addKey(k2Sym, rejectedNodes);
+        Assert.assertEquals(frontier.size(), 0);
+        rejectedNodes.add(q0Toq7);
+        frontier = frontier.addKey(k1Sym, rejectedNodes);
+        Assert.assertEquals(frontier.getLocationsReadingClosing(), Collections.singleton(q5));
+        Assert.assertEquals(frontier.getLocationsReadingClosing(), graph
+                .getLocationsWithReturnTransitionOnUnmarkedPathsWithAllKeysSeen(seenKeys, locationsBeforeCall,
+                        rejectedNodes));
+
+        // A frontier is never modified
+        KeyGraphFrontier<Location> onlyK1 = graph.createFrontier(locationsBeforeCall).addKey(k1Sym,
+                Collections.emptySet());
+        KeyGraphFrontier<Location> withK2 = onlyK1.addKey(k2Sym, Collections.emptySet());
+        Assert.assertTrue(onlyK1.getLocationsReadingClosing().isEmpty());
+        Assert.assertEquals(withK2.getLocationsReadingClosing(), Collections.singleton(q5));
+
+        // The same key twice
+        Assert.assertTrue(withK2.addKey(k1Sym, Collections.emptySet()).getLocationsReadingClosing().isEmpty());
+
+        // Not on a path to a location reading the closing curly brace
+        frontier = graph.createFrontier(Collections.singleton(q2)).addKey(k1Sym, Collections.emptySet());
+        Assert.assertEquals(frontier.size(), 0);
+
+        // The paths are dropped once there are too many of them, but the keys are kept
+        frontier = graph.createFrontier(locationsBeforeCall, 2).addKey(k1Sym, Collections.emptySet());
+        Assert.assertFalse(frontier.hasOverflowed());
+        Assert.assertEquals(frontier.size(), 2);
+        frontier = frontier.addKey(k2Sym, Collections.emptySet());
+        Assert.assertTrue(frontier.hasOverflowed());
+        Assert.assertEquals(frontier.size(), 0);
+        Assert.assertTrue(frontier.containsKey(k1Sym));
+        Assert.assertTrue(frontier.containsKey(k2Sym));
+        final KeyGraphFrontier<Location> overflowed = frontier;
+        Assert.assertThrows(IllegalStateException.class, () -> overflowed.getLocationsReadingClosing());
+    }
+
+    @Test
+    public void testKeyClasses() {
+        DefaultOneSEVPA<JSONSymbol> automaton = Automata.constructAutomatonWithKeysInSameClass();
+        KeyGraph<Location> graph = KeyGraph.graphFor(automaton, true, false);
+        KeyGraph<Location> compressed = KeyGraph.graphFor(automaton, true, true);
+        Assert.assertTrue(compressed.isValid());
+        // The keys are only compressed in a checked graph
+        Assert.assertThrows(IllegalArgumentException.class, () -> KeyGraph.graphFor(automaton, false, true));
+
+        JSONSymbol k1Sym = JSONSymbol.toSymbol("k1");
+        JSONSymbol k2Sym = JSONSymbol.toSymbol("k2");
+        JSONSymbol k3Sym = JSONSymbol.toSymbol("k3");
+
+        Assert.assertEquals(graph.size(), 3);
+        Assert.assertEquals(graph.getNumberOfKeyClasses(), 3);
+        Assert.assertEquals(graph.getRepresentative(k3Sym), k3Sym);
+        Assert.assertEquals(compressed.size(), 2);
+        Assert.assertEquals(compressed.getNumberOfKeyClasses(), 2);
+        Assert.assertEquals(compressed.getRepresentative(k1Sym), k1Sym);
+        Assert.assertEquals(compressed.getRepresentative(k2Sym), k2Sym);
+        Assert.assertEquals(compressed.getRepresentative(k3Sym), k2Sym);
+        Assert.assertEquals(compressed.getNodesForKey(k3Sym), compressed.getNodesForKey(k2Sym));
+        Assert.assertEquals(compressed.getLocationsReadingKey(k3Sym), graph.getLocationsReadingKey(k3Sym));
+
+        // Two keys of the same class can not be on the same path
+        Location q0 = automaton.getInitialLocation();
+        Set<JSONSymbol> seenKeys = new LinkedHashSet<>(Arrays.asList(k1Sym, k2Sym, k3Sym));
+        Assert.assertTrue(compressed.getLocationsWithReturnTransitionOnUnmarkedPathsWithAllKeysSeen(seenKeys,
+                Collections.singleton(q0), Collections.emptySet()).isEmpty());
+
+        ValidationByAutomaton<Location> validator = new ValidationByAutomaton<>(automaton, graph);
+        ValidationByAutomaton<Location> compressedValidator = new ValidationByAutomaton<>(automaton, compressed);
+        // @formatter:off
+        List<Word<JSONSymbol>> words = Arrays.asList(
+            JSONSymbol.toWord("{", "k1", "\"\\I\"", ",", "k2", "true", "}"),
+            JSONSymbol.toWord("{", "k1", "\"\\I\"", ",", "k3", "true", "}"),
+            JSONSymbol.toWord("{", "k3", "true", ",", "k1", "\"\\I\"", "}"),
+            JSONSymbol.toWord("{", "k3", "true", ",", "k2", "true", ",", "k1", "\"\\I\"", "}"),
+            JSONSymbol.toWord("{", "k1", "\"\\I\"", ",", "k2", "true", ",", "k3", "true", "}"),
+            JSONSymbol.toWord("{", "k3", "\"\\I\"", ",", "k1", "\"\\I\"", "}"),
+            JSONSymbol.toWord("{", "k3", "true", "}")
+        );
+        // @formatter:on
+        for (Word<JSONSymbol> word : words) {
+            Assert.assertEquals(compressedValidator.accepts(word), validator.accepts(word), word.toString());
+        }
+        Assert.assertTrue(compressedValidator.accepts(words.get(2)));
+        Assert.assertFalse(compressedValidator.accepts(words.get(3)));
+    }
+
+    @Test
+    public void testReduce() {
+        DefaultOneSEVPA<JSONSymbol> automaton = Automata.constructAutomatonWithUselessNodes();
+        KeyGraph<Location> graph = KeyGraph.graphFor(automaton, true);
+        KeyGraph<Location> reduced = graph.reduce();
+        Assert.assertTrue(reduced.isValid());
+
+        JSONSymbol k1Sym = JSONSymbol.toSymbol("k1");
+        JSONSymbol k2Sym = JSONSymbol.toSymbol("k2");
+        Location q0 = automaton.getInitialLocation();
+        Location q2 = automaton.getLocation(2);
+
+        Assert.assertEquals(graph.size(), 3);
+        Assert.assertEquals(reduced.size(), 1);
+        Assert.assertEquals(reduced.getNodesForKey(k1Sym).size(), 1);
+        Assert.assertEquals(reduced.getNodesForKey(k1Sym).get(0).getStartLocation(), q0);
+        Assert.assertTrue(reduced.getNodesForKey(k2Sym).isEmpty());
+        Assert.assertEquals(reduced.getLocationsReadingKey(k1Sym), graph.getLocationsReadingKey(k1Sym));
+        Assert.assertEquals(reduced.getLocationsReadingKey(k2Sym), graph.getLocationsReadingKey(k2Sym));
+
+        Set<Location> locationsBeforeCall = Collections.singleton(q0);
+        Set<JSONSymbol> seenKeys = Collections.singleton(k1Sym);
+        Assert.assertEquals(reduced.getLocationsWithReturnTransitionOnUnmarkedPathsWithAllKeysSeen(seenKeys,
+                locationsBeforeCall, Collections.emptySet()), Collections.singleton(q2));
+        Assert.assertEquals(reduced.getLocationsWithReturnTransitionOnUnmarkedPathsWithAllKeysSeen(seenKeys,
+                locationsBeforeCall, Collections.emptySet()),
+                graph.getLocationsWithReturnTransitionOnUnmarkedPathsWithAllKeysSeen(seenKeys, locationsBeforeCall,
+                        Collections.emptySet()));
+
+        ValidationByAutomaton<Location> validator = new ValidationByAutomaton<>(automaton, graph);
+        ValidationByAutomaton<Location> reducedValidator = new ValidationByAutomaton<>(automaton, reduced);
+        // @formatter:off
+        List<Word<JSONSymbol>> words = Arrays.asList(
+            JSONSymbol.toWord("{", "k1", "\"\\I\"", "}"),
+            JSONSymbol.toWord("{", "k2", "\"\\I\"", "}"),
+            JSONSymbol.toWord("{", "k1", "\"\\I\"", ",", "k2", "\"\\I\"", "}"),
+            JSONSymbol.toWord("{", "k2", "\"\\I\"", ",", "k1", "\"\\I\"", "}"),
+            JSONSymbol.toWord("{", "}")
+        );
+        // @formatter:on
+        for (Word<JSONSymbol> word : words) {
+            Assert.assertEquals(reducedValidator.accepts(word), validator.accepts(word), word.toString());
+        }
+        Assert.assertTrue(reducedValidator.accepts(words.get(0)));
+    }
+
+    @Test
+    public void testParallelConstruction() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            // @formatter:off
+            List<DefaultOneSEVPA<JSONSymbol>> automata = Arrays.asList(
+                Automata.constructSmallTwoBranchesAutomaton(),
+                Automata.constructAutomatonWithOptionalKeys(),
+                Automata.constructAutomatonWithNestedObjectAndMultipleBranches(),
+                Automata.constructAutomatonWithArrays(),
+                Automata.constructAutomatonWithDuplicateKeys()
+            );
+            // @formatter:on
+            for (DefaultOneSEVPA<JSONSymbol> automaton : automata) {
+                KeyGraph<Location> graph = KeyGraph.graphFor(automaton, true, false);
+                KeyGraph<Location> parallelGraph = KeyGraph.graphFor(automaton, true, false, pool);
+
+                // The nodes are in the same order
+                Assert.assertEquals(new ArrayList<>(parallelGraph.nodes()), new ArrayList<>(graph.nodes()));
+                Assert.assertEquals(parallelGraph.edges(), graph.edges());
+                Assert.assertEquals(parallelGraph.getStartingNodes(), graph.getStartingNodes());
+                Assert.assertEquals(parallelGraph.isValid(), graph.isValid());
+                for (NodeInGraph<Location> node : graph.nodes()) {
+                    Assert.assertEquals(new ArrayList<>(parallelGraph.getGraph().successors(node)),
+                            new ArrayList<>(graph.getGraph().successors(node)));
+                    NodeInGraph<Location> parallelNode = parallelGraph.getNodesForKey(node.getSymbol()).stream()
+                            .filter(n -> n.equals(node)).findAny().get();
+                    for (Location location : automaton.getLocations()) {
+                        Assert.assertEquals(parallelNode.isOnPathToAcceptingForLocation(location.getIndex()),
+                                node.isOnPathToAcceptingForLocation(location.getIndex()));
+                    }
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
     @Test
     public void testWitnessCycleInGraph() throws IOException {
         final InputModelDeserializer<JSONSymbol, DefaultOneSEVPA<JSONSymbol>> parser = DOTParsers
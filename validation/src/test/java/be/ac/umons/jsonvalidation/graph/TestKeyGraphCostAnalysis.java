@@ -0,0 +1,97 @@
+/*
+ * ValidatingJSONDocumentsWithLearnedVPA - Learning a visibly pushdown automaton
+ * from a JSON schema, and using it to validate JSON documents.
+ *
+ * Copyright 2022 University of Mons, University of Antwerp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package be.ac.umons.jsonvalidation.graph;
+
+import java.math.BigInteger;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import be.ac.umons.jsonvalidation.Automata;
+import be.ac.umons.jsonvalidation.JSONSymbol;
+import net.automatalib.automata.vpda.DefaultOneSEVPA;
+import net.automatalib.automata.vpda.Location;
+
+/**
+ * @author Gaëtan Staquet
+ */
+public class TestKeyGraphCostAnalysis {
+    @Test
+    public void testStraightforwardAutomaton() {
+        DefaultOneSEVPA<JSONSymbol> automaton = Automata.constructStraightforwardAutomaton();
+        KeyGraph<Location> graph = KeyGraph.graphFor(automaton, true);
+        KeyGraphCostAnalysis<Location> analysis = KeyGraphCostAnalysis.analyze(graph, 100);
+
+        Assert.assertTrue(analysis.isValid());
+        Assert.assertEquals(analysis.getNumberOfNodes(), 2);
+        Assert.assertEquals(analysis.getNumberOfEdges(), 1);
+        Assert.assertEquals(analysis.getMaximalOutDegree(), 1);
+        // k1 and k1 k2
+        Assert.assertEquals(analysis.getNumberOfPaths(), BigInteger.valueOf(2));
+        Assert.assertEquals(analysis.getWorstCaseExpansions(), 2);
+        Assert.assertFalse(analysis.isWorstCaseExpansionsCapped());
+        Assert.assertEquals(analysis.getNondeterminismWidths().get(JSONSymbol.toSymbol("k1")), Integer.valueOf(1));
+        Assert.assertEquals(analysis.getNondeterminismWidths().get(JSONSymbol.toSymbol("k2")), Integer.valueOf(1));
+        Assert.assertEquals(analysis.getMaximalNondeterminismWidth(), 1);
+
+        Assert.assertEquals(analysis.recommend(2, 10), KeyGraphCostAnalysis.Engine.AUTOMATON);
+        Assert.assertEquals(analysis.recommend(1, 10), KeyGraphCostAnalysis.Engine.HYBRID);
+        Assert.assertEquals(analysis.recommend(0, 1), KeyGraphCostAnalysis.Engine.CLASSICAL);
+        Assert.assertThrows(IllegalArgumentException.class, () -> analysis.recommend(10, 1));
+
+        KeyGraphCostAnalysis<Location> capped = KeyGraphCostAnalysis.analyze(graph, 1);
+        Assert.assertTrue(capped.isWorstCaseExpansionsCapped());
+        Assert.assertEquals(capped.getWorstCaseExpansions(), 1);
+        Assert.assertEquals(capped.recommend(10, 100), KeyGraphCostAnalysis.Engine.CLASSICAL);
+    }
+
+    @Test
+    public void testTwoBranchesAutomaton() {
+        DefaultOneSEVPA<JSONSymbol> automaton = Automata.constructSmallTwoBranchesAutomaton();
+        KeyGraph<Location> graph = KeyGraph.graphFor(automaton, true);
+        KeyGraphCostAnalysis<Location> analysis = KeyGraphCostAnalysis.analyze(graph, 100);
+
+        Assert.assertTrue(analysis.isValid());
+        Assert.assertEquals(analysis.getNumberOfNodes(), graph.size());
+        Assert.assertNotNull(analysis.getNumberOfPaths());
+        // A pair (node, keys) summarizes at least one path
+        Assert.assertTrue(
+                analysis.getNumberOfPaths().compareTo(BigInteger.valueOf(analysis.getWorstCaseExpansions())) >= 0);
+        int maxWidth = 0;
+        for (JSONSymbol key : graph.getKeyAlphabet()) {
+            maxWidth = Math.max(maxWidth, graph.getNodesForKey(key).size());
+        }
+        Assert.assertEquals(analysis.getMaximalNondeterminismWidth(), maxWidth);
+    }
+
+    @Test
+    public void testInvalidGraphs() {
+        KeyGraph<Location> duplicates = KeyGraph.graphFor(Automata.constructAutomatonWithDuplicateKeys(), true);
+        Assert.assertEquals(KeyGraphCostAnalysis.analyze(duplicates, 100).recommend(100, 100),
+                KeyGraphCostAnalysis.Engine.CLASSICAL);
+
+        // The graph is not checked, but the cycle is still detected
+        KeyGraph<Location> cycle = KeyGraph.graphFor(Automata.constructAutomatonWithCycleReadingAKey(), false);
+        KeyGraphCostAnalysis<Location> analysis = KeyGraphCostAnalysis.analyze(cycle, 100);
+        Assert.assertTrue(analysis.isValid());
+        Assert.assertNull(analysis.getNumberOfPaths());
+        Assert.assertEquals(analysis.recommend(100, 100), KeyGraphCostAnalysis.Engine.CLASSICAL);
+    }
+}
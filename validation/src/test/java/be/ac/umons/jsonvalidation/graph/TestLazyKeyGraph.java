@@ -0,0 +1,193 @@
+/*
+ * ValidatingJSONDocumentsWithLearnedVPA - Learning a visibly pushdown automaton
+ * from a JSON schema, and using it to validate JSON documents.
+ *
+ * Copyright 2022 University of Mons, University of Antwerp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package be.ac.umons.jsonvalidation.graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import be.ac.umons.jsonvalidation.Automata;
+import be.ac.umons.jsonvalidation.JSONSymbol;
+import be.ac.umons.jsonvalidation.ValidationByAutomaton;
+import net.automatalib.automata.vpda.DefaultOneSEVPA;
+import net.automatalib.automata.vpda.Location;
+import net.automatalib.words.Alphabet;
+import net.automatalib.words.Word;
+import net.automatalib.words.WordBuilder;
+
+/**
+ * @author Gaëtan Staquet
+ */
+public class TestLazyKeyGraph {
+    @Test
+    public void testNodesCreatedOnDemand() {
+        DefaultOneSEVPA<JSONSymbol> automaton = Automata.constructAutomatonWithOptionalKeys();
+        KeyGraph<Location> graph = KeyGraph.graphFor(automaton, true);
+        LazyKeyGraph<Location> lazyGraph = LazyKeyGraph.graphFor(automaton, false, false, 0);
+
+        Assert.assertTrue(lazyGraph.isValid());
+        Assert.assertEquals(lazyGraph.size(), 0);
+        Assert.assertEquals(lazyGraph.getNumberOfCreatedKeys(), 0);
+
+        JSONSymbol k1Sym = JSONSymbol.toSymbol("k1");
+        Assert.assertEquals(new HashSet<>(lazyGraph.getNodesForKey(k1Sym)), new HashSet<>(graph.getNodesForKey(k1Sym)));
+        Assert.assertEquals(lazyGraph.getLocationsReadingKey(k1Sym), graph.getLocationsReadingKey(k1Sym));
+        Assert.assertEquals(lazyGraph.getNumberOfCreatedKeys(), 1);
+        Assert.assertEquals(lazyGraph.size(), graph.getNodesForKey(k1Sym).size());
+
+        for (JSONSymbol key : graph.getKeyAlphabet()) {
+            Assert.assertEquals(new HashSet<>(lazyGraph.getNodesForKey(key)), new HashSet<>(graph.getNodesForKey(key)));
+        }
+        Assert.assertEquals(lazyGraph.getNumberOfCreatedKeys(), graph.getKeyAlphabet().size());
+        Assert.assertEquals(lazyGraph.size(), graph.size());
+
+        // Only one key is kept
+        LazyKeyGraph<Location> evictingGraph = LazyKeyGraph.graphFor(automaton, false, false, 1);
+        for (JSONSymbol key : graph.getKeyAlphabet()) {
+            Assert.assertEquals(new HashSet<>(evictingGraph.getNodesForKey(key)),
+                    new HashSet<>(graph.getNodesForKey(key)));
+        }
+        Assert.assertEquals(evictingGraph.getNumberOfCreatedKeys(), 1);
+
+        // The whole graph is never known
+        Assert.assertThrows(IllegalStateException.class, () -> lazyGraph.nodes());
+        Assert.assertThrows(IllegalStateException.class, () -> lazyGraph.edges());
+        Assert.assertThrows(IllegalStateException.class, () -> KeyGraphCostAnalysis.analyze(lazyGraph, 10));
+        Assert.assertThrows(IllegalStateException.class, () -> KeyGraphToDot.write(lazyGraph, new StringBuilder()));
+    }
+
+    @Test
+    public void testCheckedGraph() {
+        // @formatter:off
+        List<DefaultOneSEVPA<JSONSymbol>> automata = Arrays.asList(
+            Automata.constructSmallTwoBranchesAutomaton(),
+            Automata.constructAutomatonWithOptionalKeys(),
+            Automata.constructAutomatonWithNestedObjectAndMultipleBranches(),
+            Automata.constructAutomatonWithKeysInSameClass(),
+            Automata.constructAutomatonWithDuplicateKeys(),
+            Automata.constructAutomatonWithCycleReadingAKey()
+        );
+        // @formatter:on
+        for (DefaultOneSEVPA<JSONSymbol> automaton : automata) {
+            LazyKeyGraph<Location> lazyGraph = LazyKeyGraph.graphFor(automaton, true, false, 0);
+            Assert.assertEquals(lazyGraph.isValid(), KeyGraph.graphFor(automaton, true).isValid());
+            Assert.assertNull(lazyGraph.getWitnessInvalid());
+            // No node is kept by the check
+            Assert.assertEquals(lazyGraph.size(), 0);
+            Assert.assertTrue(LazyKeyGraph.graphFor(automaton, false, false, 0).isValid());
+        }
+
+        DefaultOneSEVPA<JSONSymbol> automaton = Automata.constructAutomatonWithDuplicateKeys();
+        Assert.assertFalse(LazyKeyGraph.graphFor(automaton, true, false, 0).isValid());
+        Assert.assertThrows(RuntimeException.class,
+                () -> new ValidationByAutomaton<>(automaton, LazyKeyGraph.graphFor(automaton, true, false, 0)));
+        // As for the eager graph, the keys can only be compressed in a checked graph
+        Assert.assertThrows(IllegalArgumentException.class, () -> LazyKeyGraph.graphFor(automaton, false, true, 0));
+    }
+
+    @Test
+    public void testSameVerdicts() throws Exception {
+        // @formatter:off
+        List<DefaultOneSEVPA<JSONSymbol>> automata = Arrays.asList(
+            Automata.constructSmallTwoBranchesAutomaton(),
+            Automata.constructAutomatonWithOptionalKeys(),
+            Automata.constructAutomatonWithNestedObjectAndMultipleBranches(),
+            Automata.constructAutomatonWithKeysInSameClass()
+        );
+        List<Word<JSONSymbol>> acceptedWords = Arrays.asList(
+            JSONSymbol.toWord("{", "k1", "\"\\I\"", ",", "k2", "true", "}"),
+            JSONSymbol.toWord("{", "k1", "\"\\S\"", "}"),
+            JSONSymbol.toWord("{", "k2", "{", "k2", "\"\\S\"", "}", ",", "k1", "\"\\I\"", "}"),
+            JSONSymbol.toWord("{", "k3", "true", ",", "k1", "\"\\I\"", "}")
+        );
+        // @formatter:on
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (int a = 0; a < automata.size(); a++) {
+                DefaultOneSEVPA<JSONSymbol> automaton = automata.get(a);
+                ValidationByAutomaton<Location> validator = new ValidationByAutomaton<>(automaton);
+                ValidationByAutomaton<Location> lazyValidator = new ValidationByAutomaton<>(automaton,
+                        LazyKeyGraph.graphFor(automaton, true, true, 0));
+                ValidationByAutomaton<Location> evictingValidator = new ValidationByAutomaton<>(automaton,
+                        LazyKeyGraph.graphFor(automaton, false, false, 1));
+
+                Random random = new Random(42);
+                List<Word<JSONSymbol>> words = new ArrayList<>();
+                words.add(acceptedWords.get(a));
+                for (int i = 0; i < 300; i++) {
+                    words.add(randomObject(automaton.getInputAlphabet().getInternalAlphabet(), random, 2));
+                }
+
+                // The lazy graph is shared by the threads
+                List<Future<Boolean>> lazyVerdicts = new ArrayList<>();
+                for (Word<JSONSymbol> word : words) {
+                    lazyVerdicts.add(executor.submit(() -> lazyValidator.accepts(word)));
+                }
+                for (int i = 0; i < words.size(); i++) {
+                    Word<JSONSymbol> word = words.get(i);
+                    boolean expected = validator.accepts(word);
+                    Assert.assertEquals(lazyVerdicts.get(i).get().booleanValue(), expected, word.toString());
+                    Assert.assertEquals(evictingValidator.accepts(word), expected, word.toString());
+                }
+                Assert.assertTrue(lazyVerdicts.get(0).get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static Word<JSONSymbol> randomObject(Alphabet<JSONSymbol> internalAlphabet, Random random,
+            int maxDepth) {
+        List<JSONSymbol> keys = new ArrayList<>();
+        List<JSONSymbol> values = new ArrayList<>();
+        for (JSONSymbol symbol : internalAlphabet) {
+            if (JSONSymbol.primitiveValuesAlphabet.contains(symbol)) {
+                values.add(symbol);
+            } else if (!symbol.equals(JSONSymbol.commaSymbol)) {
+                keys.add(symbol);
+            }
+        }
+
+        WordBuilder<JSONSymbol> builder = new WordBuilder<>();
+        builder.add(JSONSymbol.openingCurlyBraceSymbol);
+        int numberOfKeys = random.nextInt(4);
+        for (int i = 0; i < numberOfKeys; i++) {
+            if (i != 0) {
+                builder.add(JSONSymbol.commaSymbol);
+            }
+            builder.add(keys.get(random.nextInt(keys.size())));
+            if (maxDepth > 0 && random.nextInt(3) == 0) {
+                builder.append(randomObject(internalAlphabet, random, maxDepth - 1));
+            } else {
+                builder.add(values.get(random.nextInt(values.size())));
+            }
+        }
+        builder.add(JSONSymbol.closingCurlyBraceSymbol);
+        return builder.toWord();
+    }
+}
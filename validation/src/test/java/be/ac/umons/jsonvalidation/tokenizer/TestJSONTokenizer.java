@@ -0,0 +1,113 @@
+/*
+ * ValidatingJSONDocumentsWithLearnedVPA - Learning a visibly pushdown automaton
+ * from a JSON schema, and using it to validate JSON documents.
+ *
+ * Copyright 2022 University of Mons, University of Antwerp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package be.ac.umons.jsonvalidation.tokenizer;
+
+import java.nio.charset.StandardCharsets;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import be.ac.umons.jsonvalidation.JSONSymbol;
+import be.ac.umons.jsonvalidation.WordConversion;
+import net.automatalib.words.Word;
+
+/**
+ * @author Gaëtan Staquet
+ */
+public class TestJSONTokenizer {
+
+    private static Word<JSONSymbol> tokenize(String document) {
+        return new JSONTokenizer().tokenize(document.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void checkSameAsWordConversion(String document) {
+        Word<JSONSymbol> expected = WordConversion.fromJSONDocumentToJSONSymbolWord(new JSONObject(document));
+        Assert.assertEquals(tokenize(document), expected, document);
+    }
+
+    @Test
+    public void testSameAsWordConversion() {
+        // Each object has at most one key, as the order of the keys is not kept by
+        // JSONObject
+        checkSameAsWordConversion("{}");
+        checkSameAsWordConversion("{\"k\": true}");
+        checkSameAsWordConversion("  {\n\t\"key\" :\r\n null } ");
+        checkSameAsWordConversion("{\"k\": [1, -2.5, 3e10, 0, false, \"\\\\S\", [], {}, [{\"a\": {}}]]}");
+        checkSameAsWordConversion("{\"a long key, spanning words\": \"a [long] {value}, with: structurals\"}");
+        checkSameAsWordConversion("{\"k\\\"ey\\\\\": \"v\\\\\\\"\\u00e9\\n\"}");
+        checkSameAsWordConversion("{\"\\\\\\\\\\\\\\\\\": \"\\\\\\\\\\\\\\\\\\\\\"}");
+        checkSameAsWordConversion("{\"kéy\": \"välue\"}");
+    }
+
+    @Test
+    public void testKeysInDocumentOrder() {
+        // @formatter:off
+        Word<JSONSymbol> expected = JSONSymbol.toWord(
+            "{",
+                "\"k2\":", "true", ",",
+                "\"k1\":", "\"\\I\"",
+            "}"
+        );
+        // @formatter:on
+        Assert.assertEquals(tokenize("{\"k2\": true, \"k1\": \"\\\\I\"}"), expected);
+    }
+
+    @Test
+    public void testPart() {
+        byte[] bytes = "xx{\"k\": 1}yy".getBytes(StandardCharsets.UTF_8);
+        Assert.assertEquals(new JSONTokenizer().tokenize(bytes, 2, bytes.length - 4),
+                JSONSymbol.toWord("{", "\"k\":", "\"1\"", "}"));
+    }
+
+    @Test
+    public void testInvalidDocuments() {
+        // @formatter:off
+        String[] documents = {
+            "",
+            "{",
+            "{\"k\": }",
+            "{\"k\" 1}",
+            "{\"k\": 1,}",
+            "{\"k\": 1 2}",
+            "{k: 1}",
+            "{\"k\": tru}",
+            "{\"k\": 01}",
+            "{\"k\": [1,]}",
+            "{\"k\": [}",
+            "{\"k\": \"unterminated}",
+            "{\"k\": \"\\x\"}",
+            "{\"k\": \"\\u12g4\"}",
+            "{\"k\": \"new\nline\"}",
+            "{} {}",
+            "{} 1",
+            "[1]]",
+        };
+        // @formatter:on
+        for (String document : documents) {
+            try {
+                tokenize(document);
+                Assert.fail("The document " + document + " should be refused");
+            } catch (JSONException e) {
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * ValidatingJSONDocumentsWithLearnedVPA - Learning a visibly pushdown automaton
+ * from a JSON schema, and using it to validate JSON documents.
+ *
+ * Copyright 2022 University of Mons, University of Antwerp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package be.ac.umons.jsonvalidation.tokenizer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.json.JSONException;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import be.ac.umons.jsonvalidation.JSONSymbol;
+import be.ac.umons.jsonvalidation.WordConversion;
+import be.ac.umons.jsonvalidation.tokenizer.KeyDictionary.UnknownKeyPolicy;
+import net.automatalib.words.Word;
+
+/**
+ * @author Gaëtan Staquet
+ */
+public class TestKeyDictionary {
+
+    private static JSONSymbol keySymbol(KeyDictionary dictionary, String key) {
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        return dictionary.getKeySymbol(bytes, 0, bytes.length);
+    }
+
+    @Test
+    public void testPerfectHash() {
+        List<JSONSymbol> symbols = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            symbols.add(WordConversion.keyToSymbol("key" + i));
+        }
+        symbols.add(WordConversion.keyToSymbol("kéy"));
+        symbols.add(WordConversion.keyToSymbol(""));
+        // Not of the form "key":, ignored
+        symbols.add(JSONSymbol.toSymbol("k1"));
+
+        KeyDictionary dictionary = new KeyDictionary(symbols, UnknownKeyPolicy.REJECT);
+        Assert.assertEquals(dictionary.size(), 1002);
+
+        Set<Integer> ids = new HashSet<>();
+        for (int i = 0; i < 1000; i++) {
+            int id = dictionary.getId("key" + i);
+            Assert.assertTrue(0 <= id && id < 1002);
+            Assert.assertTrue(ids.add(id));
+            Assert.assertEquals(dictionary.getSymbol(id), WordConversion.keyToSymbol("key" + i));
+        }
+        Assert.assertTrue(ids.add(dictionary.getId("kéy")));
+        Assert.assertTrue(ids.add(dictionary.getId("")));
+
+        Assert.assertEquals(dictionary.getId("k1"), -1);
+        Assert.assertEquals(dictionary.getId("key1000"), -1);
+        Assert.assertEquals(dictionary.getId("ke"), -1);
+
+        byte[] bytes = "xxkey42yy".getBytes(StandardCharsets.UTF_8);
+        Assert.assertEquals(dictionary.getId(bytes, 2, 7), dictionary.getId("key42"));
+    }
+
+    @Test
+    public void testEscapedKeys() {
+        List<JSONSymbol> symbols = new ArrayList<>();
+        symbols.add(WordConversion.keyToSymbol("k1"));
+        symbols.add(WordConversion.keyToSymbol("a\"b"));
+        KeyDictionary dictionary = new KeyDictionary(symbols, UnknownKeyPolicy.REJECT);
+
+        Assert.assertEquals(keySymbol(dictionary, "k\\u0031"), WordConversion.keyToSymbol("k1"));
+        Assert.assertEquals(keySymbol(dictionary, "a\\\"b"), WordConversion.keyToSymbol("a\"b"));
+    }
+
+    @Test
+    public void testUnknownKeyPolicy() {
+        List<JSONSymbol> symbols = new ArrayList<>();
+        symbols.add(WordConversion.keyToSymbol("k1"));
+
+        KeyDictionary rejecting = new KeyDictionary(symbols, UnknownKeyPolicy.REJECT);
+        Assert.assertThrows(JSONException.class, () -> keySymbol(rejecting, "k2"));
+        // Without the additional property symbol in the automaton, the key is rejected
+        KeyDictionary withoutAdditional = new KeyDictionary(symbols, UnknownKeyPolicy.ADDITIONAL_PROPERTY);
+        Assert.assertThrows(JSONException.class, () -> keySymbol(withoutAdditional, "k2"));
+
+        symbols.add(KeyDictionary.ADDITIONAL_PROPERTY_SYMBOL);
+        KeyDictionary additional = new KeyDictionary(symbols, UnknownKeyPolicy.ADDITIONAL_PROPERTY);
+        Assert.assertEquals(keySymbol(additional, "k2"), KeyDictionary.ADDITIONAL_PROPERTY_SYMBOL);
+        Assert.assertEquals(keySymbol(additional, "k1"), WordConversion.keyToSymbol("k1"));
+        // The key must still be a valid string
+        Assert.assertThrows(JSONException.class, () -> keySymbol(additional, "k\\x"));
+
+        JSONTokenizer tokenizer = new JSONTokenizer(additional);
+        Word<JSONSymbol> word = tokenizer.tokenize("{\"k1\": 1, \"k2\": 2}".getBytes(StandardCharsets.UTF_8));
+        // @formatter:off
+        Assert.assertEquals(word, JSONSymbol.toWord(
+            "{",
+                "\"k1\":", "\"1\"", ",",
+                "\"\\S\":", "\"2\"",
+            "}"
+        ));
+        // @formatter:on
+    }
+}
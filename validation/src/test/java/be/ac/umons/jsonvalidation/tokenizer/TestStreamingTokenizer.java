@@ -0,0 +1,139 @@
+/*
+ * ValidatingJSONDocumentsWithLearnedVPA - Learning a visibly pushdown automaton
+ * from a JSON schema, and using it to validate JSON documents.
+ *
+ * Copyright 2022 University of Mons, University of Antwerp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package be.ac.umons.jsonvalidation.tokenizer;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.json.JSONException;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import be.ac.umons.jsonvalidation.JSONSymbol;
+import net.automatalib.words.Word;
+import net.automatalib.words.WordBuilder;
+
+/**
+ * @author Gaëtan Staquet
+ */
+public class TestStreamingTokenizer {
+
+    private static Word<JSONSymbol> tokenizeByChunks(byte[] document, int chunkSize) {
+        StreamingTokenizer tokenizer = new StreamingTokenizer();
+        WordBuilder<JSONSymbol> builder = new WordBuilder<>();
+        for (int start = 0; start < document.length; start += chunkSize) {
+            ByteBuffer chunk = ByteBuffer.wrap(document, start, Math.min(chunkSize, document.length - start));
+            int expectedConsumed = chunk.remaining();
+            Assert.assertEquals(tokenizer.feed(chunk, Integer.MAX_VALUE, builder::add), expectedConsumed);
+            Assert.assertFalse(chunk.hasRemaining());
+        }
+        tokenizer.end(builder::add);
+        Assert.assertEquals(tokenizer.getPosition(), document.length);
+        return builder.toWord();
+    }
+
+    @Test
+    public void testSameAsJSONTokenizer() {
+        // @formatter:off
+        String[] documents = {
+            "{}",
+            "{\"k2\": true, \"k1\": \"\\\\I\"}",
+            " {\"k\": [1, -2.5e3, null, false, \"a \\\"quoted\\\" {string}\", [], {}]} ",
+            "{\"kéy\":{\"a\":{\"b\":[[12345678901234567890]]}},\"\\u0041\":\"\\\\\\\\\"}",
+            "42",
+        };
+        // @formatter:on
+        JSONTokenizer tokenizer = new JSONTokenizer();
+        for (String document : documents) {
+            byte[] bytes = document.getBytes(StandardCharsets.UTF_8);
+            Word<JSONSymbol> expected = tokenizer.tokenize(bytes);
+            for (int chunkSize = 1; chunkSize <= bytes.length; chunkSize++) {
+                Assert.assertEquals(tokenizeByChunks(bytes, chunkSize), expected, document + " " + chunkSize);
+            }
+        }
+    }
+
+    @Test
+    public void testInvalidDocuments() {
+        // @formatter:off
+        String[] documents = {
+            "",
+            "{",
+            "{\"k\": 1,}",
+            "{\"k\": tru}",
+            "{\"k\": 1\"a\"}",
+            "{\"k\": \"unterminated}",
+            "{\"k\": 1",
+            "{} {}",
+        };
+        // @formatter:on
+        for (String document : documents) {
+            try {
+                tokenizeByChunks(document.getBytes(StandardCharsets.UTF_8), 1);
+                Assert.fail("The document " + document + " should be refused");
+            } catch (JSONException e) {
+            }
+        }
+    }
+
+    @Test
+    public void testMaximumTokenLength() {
+        byte[] document = "{\"key\": \"abcdef\", \"k\": 123456}".getBytes(StandardCharsets.UTF_8);
+        StreamingTokenizer tokenizer = new StreamingTokenizer();
+        tokenizer.setMaximumTokenLength(6);
+        WordBuilder<JSONSymbol> builder = new WordBuilder<>();
+        tokenizer.feed(ByteBuffer.wrap(document), Integer.MAX_VALUE, builder::add);
+        tokenizer.end(builder::add);
+        Assert.assertEquals(builder.toWord(), new JSONTokenizer().tokenize(document));
+
+        for (String tooLong : new String[] { "{\"key\": \"abcdefg\"}", "{\"k\": 1234567}", "{\"abcdefg\": 1}" }) {
+            StreamingTokenizer limited = new StreamingTokenizer();
+            limited.setMaximumTokenLength(6);
+            ByteBuffer chunk = ByteBuffer.wrap(tooLong.getBytes(StandardCharsets.UTF_8));
+            Assert.assertThrows(JSONException.class, () -> limited.feed(chunk, Integer.MAX_VALUE, builder::add));
+        }
+    }
+
+    @Test
+    public void testBackpressure() {
+        byte[] document = "{\"k1\": 12, \"k2\": [true]}".getBytes(StandardCharsets.UTF_8);
+        StreamingTokenizer tokenizer = new StreamingTokenizer();
+        WordBuilder<JSONSymbol> builder = new WordBuilder<>();
+        ByteBuffer chunk = ByteBuffer.wrap(document);
+
+        // {
+        Assert.assertEquals(tokenizer.feed(chunk, 1, builder::add), 1);
+        // "k1":
+        Assert.assertEquals(tokenizer.feed(chunk, 1, builder::add), 4);
+        Assert.assertEquals(tokenizer.getDepth(), 1);
+
+        // The sink stops the tokenizer after the literal, before the comma
+        Assert.assertEquals(tokenizer.feed(chunk, Integer.MAX_VALUE, symbol -> {
+            builder.add(symbol);
+            return false;
+        }), 4);
+        Assert.assertEquals(chunk.position(), 9);
+        Assert.assertEquals(builder.toWord(), JSONSymbol.toWord("{", "\"k1\":", "\"12\""));
+
+        Assert.assertEquals(tokenizer.feed(chunk, Integer.MAX_VALUE, builder::add), document.length - 9);
+        tokenizer.end(builder::add);
+        Assert.assertEquals(builder.toWord(), new JSONTokenizer().tokenize(document));
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * ValidatingJSONDocumentsWithLearnedVPA - Learning a visibly pushdown automaton
+ * from a JSON schema, and using it to validate JSON documents.
+ *
+ * Copyright 2022 University of Mons, University of Antwerp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package be.ac.umons.jsonvalidation.flow;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import be.ac.umons.jsonvalidation.Automata;
+import be.ac.umons.jsonvalidation.ValidationByAutomaton;
+import net.automatalib.automata.vpda.Location;
+
+/**
+ * @author Gaëtan Staquet
+ */
+public class TestValidationProcessor {
+
+    private static class ResultSubscriber implements Flow.Subscriber<ValidationResult> {
+        private final CompletableFuture<ValidationResult> future = new CompletableFuture<>();
+        private final List<ValidationResult> results = new ArrayList<>();
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            subscription.request(1);
+        }
+
+        @Override
+        public void onNext(ValidationResult item) {
+            results.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            future.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            Assert.assertEquals(results.size(), 1);
+            future.complete(results.get(0));
+        }
+    }
+
+    /**
+     * A publisher that emits the buffers on the thread requesting them.
+     */
+    private static final class SynchronousPublisher implements Flow.Publisher<ByteBuffer> {
+        private final List<ByteBuffer> buffers = new ArrayList<>();
+        private int numberOfEmittedBuffers = 0;
+        private boolean cancelled = false;
+
+        private SynchronousPublisher(String document, int chunkSize) {
+            byte[] bytes = document.getBytes(StandardCharsets.UTF_8);
+            for (int start = 0; start < bytes.length; start += chunkSize) {
+                buffers.add(ByteBuffer.wrap(bytes, start, Math.min(chunkSize, bytes.length - start)));
+            }
+        }
+
+        @Override
+        public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                    for (long i = 0; i < n && !cancelled && numberOfEmittedBuffers < buffers.size(); i++) {
+                        subscriber.onNext(buffers.get(numberOfEmittedBuffers++));
+                    }
+                    if (!cancelled && numberOfEmittedBuffers == buffers.size()) {
+                        cancelled = true;
+                        subscriber.onComplete();
+                    }
+                }
+
+                @Override
+                public void cancel() {
+                    cancelled = true;
+                }
+            });
+        }
+    }
+
+    private static ValidationResult validate(ValidationByAutomaton<Location> validator, String document,
+            int chunkSize, ExecutorService executor) throws Exception {
+        ValidationProcessor<Location> processor = new ValidationProcessor<>(validator, 2, 4, 1, executor);
+        ResultSubscriber subscriber = new ResultSubscriber();
+        processor.subscribe(subscriber);
+
+        try (SubmissionPublisher<ByteBuffer> publisher = new SubmissionPublisher<>(executor, 2)) {
+            publisher.subscribe(processor);
+            byte[] bytes = document.getBytes(StandardCharsets.UTF_8);
+            for (int start = 0; start < bytes.length; start += chunkSize) {
+                if (publisher.isClosed() || publisher.getNumberOfSubscribers() == 0) {
+                    break;
+                }
+                publisher.submit(ByteBuffer.wrap(bytes, start, Math.min(chunkSize, bytes.length - start)));
+                Assert.assertTrue(processor.getNumberOfBufferedBytes() <= 4 + 2 * chunkSize);
+            }
+        }
+        return subscriber.future.get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testVerdicts() throws Exception {
+        ValidationByAutomaton<Location> validator = new ValidationByAutomaton<>(
+                Automata.constructAutomatonForDocuments());
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            for (int chunkSize = 1; chunkSize <= 8; chunkSize++) {
+                ValidationResult accepted = validate(validator, "{\"k2\": true, \"k1\": \"\\\\I\"}", chunkSize,
+                        executor);
+                Assert.assertTrue(accepted.isAccepted());
+                Assert.assertFalse(accepted.isEarlyRejection());
+
+                ValidationResult rejected = validate(validator, "{\"k1\": \"\\\\I\"}", chunkSize, executor);
+                Assert.assertFalse(rejected.isAccepted());
+                Assert.assertFalse(rejected.isEarlyRejection());
+
+                ValidationResult early = validate(validator, "{\"k3\": true, \"k1\": \"\\\\I\", \"k2\": true}",
+                        chunkSize, executor);
+                Assert.assertFalse(early.isAccepted());
+                Assert.assertTrue(early.isEarlyRejection());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testInlineExecutor() throws Exception {
+        ValidationByAutomaton<Location> validator = new ValidationByAutomaton<>(
+                Automata.constructAutomatonForDocuments());
+        // Counts the tasks that are running inside another task
+        AtomicInteger depth = new AtomicInteger(0);
+        AtomicInteger maximalDepth = new AtomicInteger(0);
+        Executor inlineExecutor = task -> {
+            maximalDepth.accumulateAndGet(depth.incrementAndGet(), Math::max);
+            try {
+                task.run();
+            } finally {
+                depth.decrementAndGet();
+            }
+        };
+
+        ValidationProcessor<Location> processor = new ValidationProcessor<>(validator, 1, 1024, 1, inlineExecutor);
+        ResultSubscriber subscriber = new ResultSubscriber();
+        processor.subscribe(subscriber);
+        new SynchronousPublisher("{\"k2\": true, \"k1\": \"\\\\I\"}", 64).subscribe(processor);
+
+        Assert.assertTrue(subscriber.future.get(10, TimeUnit.SECONDS).isAccepted());
+        // Each symbol is read by its own step, but a step submitted inside another one
+        // returns immediately and the first step continues instead
+        Assert.assertTrue(maximalDepth.get() <= 2);
+    }
+
+    @Test
+    public void testEarlyRejectionWithoutDemand() throws Exception {
+        ValidationByAutomaton<Location> validator = new ValidationByAutomaton<>(
+                Automata.constructAutomatonForDocuments());
+        ValidationProcessor<Location> processor = new ValidationProcessor<>(validator, 2, 4);
+        CompletableFuture<Flow.Subscription> downstream = new CompletableFuture<>();
+        ResultSubscriber subscriber = new ResultSubscriber() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                downstream.complete(subscription);
+            }
+        };
+        processor.subscribe(subscriber);
+        SynchronousPublisher publisher = new SynchronousPublisher(
+                "{\"k3\": true, \"k1\": \"\\\\I\", \"k2\": true}", 1);
+        publisher.subscribe(processor);
+
+        // The upstream subscription is cancelled before the rejection is requested
+        Assert.assertTrue(publisher.cancelled);
+        Assert.assertTrue(publisher.numberOfEmittedBuffers < publisher.buffers.size());
+        Assert.assertFalse(subscriber.future.isDone());
+        Assert.assertEquals(processor.getNumberOfBufferedBytes(), 0);
+
+        downstream.get().request(1);
+        ValidationResult result = subscriber.future.get(10, TimeUnit.SECONDS);
+        Assert.assertFalse(result.isAccepted());
+        Assert.assertTrue(result.isEarlyRejection());
+    }
+
+    @Test
+    public void testNonPositiveDemand() throws Exception {
+        ValidationByAutomaton<Location> validator = new ValidationByAutomaton<>(
+                Automata.constructAutomatonForDocuments());
+        ValidationProcessor<Location> processor = new ValidationProcessor<>(validator, 1, 1024);
+        ResultSubscriber subscriber = new ResultSubscriber() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(0);
+            }
+        };
+        processor.subscribe(subscriber);
+        SynchronousPublisher publisher = new SynchronousPublisher("{\"k2\": true, \"k1\": \"\\\\I\"}", 1);
+        publisher.subscribe(processor);
+
+        // The upstream subscription is cancelled, even if it arrives after the error
+        ExecutionException exception = Assert.expectThrows(ExecutionException.class,
+                () -> subscriber.future.get(10, TimeUnit.SECONDS));
+        Assert.assertTrue(exception.getCause() instanceof IllegalArgumentException);
+        Assert.assertTrue(publisher.cancelled);
+        Assert.assertEquals(publisher.numberOfEmittedBuffers, 0);
+    }
+}